@@ -0,0 +1,360 @@
+package com.example.spotnear;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.net.ConnectivityManager;
+import android.net.NetworkCapabilities;
+import android.os.BatteryManager;
+import android.os.IBinder;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+import okio.BufferedSource;
+
+/**
+ * Job the system runs once the device is on an unmetered network and charging, which downloads
+ * the frequent areas SpotNearService learned into offline packs.
+ * <p>
+ * The job binds to the running service for its area learner, its Overpass client and its packs,
+ * and plans, parses, encodes and writes the packs on its own worker thread, streaming each
+ * response straight into its pack. It keeps running, under the wakelock the system holds for
+ * it, until it calls jobFinished; stopping it cancels the query in flight and asks for it to be
+ * rescheduled. An area too large for one response is skipped until its next refresh rather
+ * than retried, since the same query would fail again.
+ */
+public class BulkPrefetchJobService extends JobService {
+
+    private static final String TAG = "BulkPrefetchJobService";
+    private static final int JOB_ID = 2000;
+    // How often the job may run while its constraints hold
+    private static final long PERIOD = 6 * 60 * 60 * 1000L;
+    // Elements of one area, about 3.5 MB of JSON, within the client's response cap
+    private static final int MAX_AREA_ELEMENTS = 10000;
+
+    private final BulkPrefetchPlanner planner = new BulkPrefetchPlanner();
+    // Whole areas for the packs, parsed as a stream whatever the search format
+    private final OverpassQueryBuilder queryBuilder = new OverpassQueryBuilder(PoiCategory.DEFAULTS)
+            .setOutputFormat(OverpassQueryBuilder.OutputFormat.JSON)
+            .setLimit(MAX_AREA_ELEMENTS);
+    private ExecutorService worker;
+    private Run run;
+
+    /**
+     * Schedule the job, unless it is already scheduled
+     *
+     * @param context The context
+     */
+    public static void schedule(Context context) {
+        JobScheduler scheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        if (scheduler.getPendingJob(JOB_ID) != null) {
+            return;
+        }
+        JobInfo job = new JobInfo.Builder(JOB_ID, new ComponentName(context, BulkPrefetchJobService.class))
+                .setRequiredNetworkType(JobInfo.NETWORK_TYPE_UNMETERED)
+                .setRequiresCharging(true)
+                .setPeriodic(PERIOD)
+                .build();
+        int result = scheduler.schedule(job);
+        Log.d(TAG, "Scheduled bulk prefetch job: " + (result == JobScheduler.RESULT_SUCCESS ? "ok" : "failed"));
+    }
+
+    /**
+     * Cancel the job, e.g. when the service is stopped
+     *
+     * @param context The context
+     */
+    public static void cancel(Context context) {
+        JobScheduler scheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        scheduler.cancel(JOB_ID);
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        worker = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, "SpotNearBulkPrefetch");
+            }
+        });
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        worker.shutdownNow();
+    }
+
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        if (!new PreferencesManager(this).getServiceRunningState()) {
+            Log.d(TAG, "Service not running, skipping bulk prefetch");
+            return false;
+        }
+        Log.i(TAG, "Unmetered and charging, starting bulk prefetch");
+        run = new Run(params);
+        // Without BIND_AUTO_CREATE, so the job never starts the service itself
+        if (!bindService(new Intent(this, SpotNearService.class), run, 0)) {
+            Log.d(TAG, "Can't bind to the service, skipping bulk prefetch");
+            // Released even though the binding failed
+            unbindService(run);
+            run = null;
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        Log.d(TAG, "Bulk prefetch stopped by the system");
+        if (run != null) {
+            run.stop();
+            run = null;
+        }
+        // Try again when the constraints hold again
+        return true;
+    }
+
+    /**
+     * One run of the job, from binding to the service until jobFinished or onStopJob
+     */
+    private final class Run implements ServiceConnection {
+        private final JobParameters params;
+        private final PreferencesManager preferencesManager = new PreferencesManager(BulkPrefetchJobService.this);
+        private volatile SpotNearService service;
+        private volatile boolean stopped;
+        private OverpassClient.Search search;
+        private boolean finished;
+
+        Run(JobParameters params) {
+            this.params = params;
+        }
+
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder binder) {
+            service = ((SpotNearService.LocalBinder) binder).getService();
+            execute(new Runnable() {
+                @Override
+                public void run() {
+                    start();
+                }
+            });
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            Log.d(TAG, "Service gone, ending bulk prefetch");
+            cancelSearch();
+            finish(true);
+        }
+
+        /**
+         * Delete the packs of areas no longer frequent and download the areas that are due
+         */
+        private void start() {
+            long now = System.currentTimeMillis();
+            FrequentAreaLearner learner = service.getAreaLearner();
+            List<FrequentAreaLearner.Area> areas = learner.getFrequentAreas(now);
+            Log.d(TAG, "Frequent areas: " + learner.describeStats(now));
+            service.deleteStaleAreaPacks(areas);
+            List<FrequentAreaLearner.Area> due = planner.plan(areas, isUnmetered(), isCharging(), now);
+            if (due.isEmpty()) {
+                Log.d(TAG, "No frequent area due for a bulk prefetch");
+                finish(false);
+                return;
+            }
+            fetchArea(due, 0);
+        }
+
+        /**
+         * Download one area, then go on with the next while the constraints hold
+         *
+         * @param areas The areas due
+         * @param index The area to download
+         */
+        private void fetchArea(final List<FrequentAreaLearner.Area> areas, final int index) {
+            if (stopped) {
+                return;
+            }
+            if (index >= areas.size() || !planner.canRun(isUnmetered(), isCharging())) {
+                Log.d(TAG, "Bulk prefetch done, " + index + " of " + areas.size() + " areas");
+                finish(false);
+                return;
+            }
+            final FrequentAreaLearner.Area area = areas.get(index);
+            // Searches anywhere in the area with the configured radius stay inside the pack
+            final double[] bounds = area.getBounds(preferencesManager.getPoiSearchRadius());
+            OverpassClient.Search areaSearch = service.getOverpassClient().search(queryBuilder.buildBoxes(bounds),
+                    new OverpassClient.StreamCallback() {
+                        @Override
+                        public void onSuccess(final BufferedSource body) {
+                            // The worker streams the body into the pack and closes it
+                            boolean queued = execute(new Runnable() {
+                                @Override
+                                public void run() {
+                                    if (packArea(area, bounds, body)) {
+                                        fetchArea(areas, index + 1);
+                                    }
+                                }
+                            });
+                            if (!queued) {
+                                closeQuietly(body);
+                            }
+                        }
+
+                        @Override
+                        public void onFailure(IOException e, long retryDelayMillis) {
+                            if (e instanceof OverpassResponseTooLargeException) {
+                                skipArea(area, e);
+                                execute(new Runnable() {
+                                    @Override
+                                    public void run() {
+                                        fetchArea(areas, index + 1);
+                                    }
+                                });
+                                return;
+                            }
+                            // Retried with the job's backoff
+                            Log.d(TAG, "Bulk prefetch of area " + area.getName() + " failed: " + e.getMessage());
+                            finish(true);
+                        }
+                    });
+            synchronized (this) {
+                search = areaSearch;
+            }
+            if (stopped) {
+                cancelSearch();
+            }
+        }
+
+        /**
+         * Parse an area's response straight from the network into its pack and hand the pack to
+         * the service
+         *
+         * @param body The response, closed once parsed
+         * @return true to go on with the next area
+         */
+        private boolean packArea(FrequentAreaLearner.Area area, double[] bounds, BufferedSource body) {
+            try (BufferedSource response = body) {
+                if (stopped) {
+                    return false;
+                }
+                RegionPackBuilder builder = new RegionPackBuilder(PoiCategory.DEFAULTS)
+                        .setBounds(bounds[0], bounds[1], bounds[2], bounds[3]);
+                int count = new OverpassStreamParser().parse(response, builder);
+                if (count >= MAX_AREA_ELEMENTS) {
+                    // A pack of a truncated response would answer for POIs it doesn't hold
+                    skipArea(area, new OverpassResponseTooLargeException("Area holds more than "
+                            + MAX_AREA_ELEMENTS + " elements"));
+                    return true;
+                }
+                File file = service.writeAreaPack(area, builder);
+                service.getAreaLearner().onFetched(area, System.currentTimeMillis());
+                Log.d(TAG, "Packed " + builder.size() + " POIs of area " + area.getName()
+                        + " into " + file.length() + " bytes");
+                return true;
+            } catch (OverpassResponseTooLargeException e) {
+                skipArea(area, e);
+                return true;
+            } catch (IOException e) {
+                // Retried with the job's backoff
+                Log.e(TAG, "Error packing area " + area.getName(), e);
+                finish(true);
+                return false;
+            }
+        }
+
+        /**
+         * Give up on an area until its next refresh, as the same query would fail again
+         */
+        private void skipArea(FrequentAreaLearner.Area area, IOException e) {
+            Log.w(TAG, "Area " + area.getName() + " is too large for a pack, skipping it: " + e.getMessage());
+            service.getAreaLearner().onFetched(area, System.currentTimeMillis());
+        }
+
+        /**
+         * @return false if the worker is stopped, finishing the job
+         */
+        private boolean execute(Runnable task) {
+            try {
+                worker.execute(task);
+                return true;
+            } catch (RejectedExecutionException e) {
+                finish(false);
+                return false;
+            }
+        }
+
+        private void closeQuietly(BufferedSource body) {
+            try {
+                body.close();
+            } catch (IOException e) {
+                Log.d(TAG, "Error closing an unread area response: " + e.getMessage());
+            }
+        }
+
+        /**
+         * Stop on behalf of onStopJob, which needs no jobFinished
+         */
+        void stop() {
+            stopped = true;
+            cancelSearch();
+            synchronized (this) {
+                if (finished) {
+                    return;
+                }
+                finished = true;
+            }
+            unbindService(this);
+        }
+
+        private void cancelSearch() {
+            OverpassClient.Search current;
+            synchronized (this) {
+                current = search;
+                search = null;
+            }
+            if (current != null) {
+                current.cancel();
+            }
+        }
+
+        private void finish(boolean needsReschedule) {
+            synchronized (this) {
+                if (finished) {
+                    return;
+                }
+                finished = true;
+            }
+            unbindService(this);
+            jobFinished(params, needsReschedule);
+        }
+
+        /**
+         * @return true if the active network doesn't charge for data
+         */
+        private boolean isUnmetered() {
+            ConnectivityManager connectivityManager = (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
+            NetworkCapabilities capabilities = connectivityManager.getNetworkCapabilities(connectivityManager.getActiveNetwork());
+            return capabilities != null && capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_NOT_METERED);
+        }
+
+        private boolean isCharging() {
+            BatteryManager batteryManager = (BatteryManager) getSystemService(Context.BATTERY_SERVICE);
+            return batteryManager.isCharging();
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package com.example.spotnear;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * SQLite store of every POI the service has shown, replacing the single JSON place in SharedPreferences.
+ * <p>
+ * Discoveries are indexed by time, and their positions are kept in an R*Tree virtual table for
+ * bounding-box lookups. Some Android builds of SQLite lack the R*Tree module; there the same
+ * table is created as an ordinary table with an index on its bounds, so queries are unchanged.
+ * <p>
+ * {@link #add} only queues the discovery; a single background thread writes everything queued
+ * in one transaction. The latest discovery is also kept in memory, so showing it at startup
+ * reads at most one row, which {@link #loadLatest} does on that thread rather than the caller's.
+ */
+public class DiscoveryHistory extends SQLiteOpenHelper {
+    private static final String TAG = "DiscoveryHistory";
+    private static final String DATABASE_NAME = "discoveries.db";
+    private static final int DATABASE_VERSION = 1;
+
+    private static final String TABLE = "discoveries";
+    private static final String BOUNDS_TABLE = "discoveries_bounds";
+    private static final String COLUMNS = "d.discovered_at, d.osm_type, d.osm_id, d.latitude, d.longitude, "
+            + "d.name, d.leisure, d.amenity, d.tourism";
+
+    private static DiscoveryHistory instance;
+
+    private final ExecutorService writer = Executors.newSingleThreadExecutor();
+    private final List<Discovery> pending = new ArrayList<>();
+    private Discovery latest;
+    private boolean latestLoaded;
+
+    /**
+     * Receives the latest discovery loaded in the background
+     */
+    public interface LatestCallback {
+        /**
+         * Called on the history's background thread
+         *
+         * @param latest The most recent discovery, or null if there is none
+         */
+        void onLatest(Discovery latest);
+    }
+
+    /**
+     * Get the shared history of the application
+     *
+     * @param context Any context of the application
+     */
+    public static synchronized DiscoveryHistory getInstance(Context context) {
+        if (instance == null) {
+            instance = new DiscoveryHistory(context.getApplicationContext());
+            instance.importLegacyPlace(new PreferencesManager(context));
+        }
+        return instance;
+    }
+
+    private DiscoveryHistory(Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE + " ("
+                + "_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + "discovered_at INTEGER NOT NULL, "
+                + "osm_type TEXT NOT NULL, "
+                + "osm_id INTEGER NOT NULL, "
+                + "latitude REAL NOT NULL, "
+                + "longitude REAL NOT NULL, "
+                + "name TEXT, leisure TEXT, amenity TEXT, tourism TEXT)");
+        db.execSQL("CREATE INDEX discoveries_time ON " + TABLE + " (discovered_at)");
+        db.execSQL("CREATE INDEX discoveries_osm ON " + TABLE + " (osm_id, osm_type)");
+        try {
+            db.execSQL("CREATE VIRTUAL TABLE " + BOUNDS_TABLE
+                    + " USING rtree(id, min_lat, max_lat, min_lon, max_lon)");
+        } catch (SQLiteException e) {
+            Log.w(TAG, "SQLite has no R*Tree module, using a plain bounds table", e);
+            db.execSQL("CREATE TABLE " + BOUNDS_TABLE + " (id INTEGER PRIMARY KEY, "
+                    + "min_lat REAL, max_lat REAL, min_lon REAL, max_lon REAL)");
+            db.execSQL("CREATE INDEX discoveries_bounds_lat ON " + BOUNDS_TABLE + " (min_lat, max_lat)");
+        }
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // Only one version so far
+    }
+
+    /**
+     * Record a discovery. It is written in the background, batched with other pending writes.
+     *
+     * @param poi          The POI shown to the user
+     * @param discoveredAt When it was shown, in milliseconds since epoch
+     */
+    public void add(Poi poi, long discoveredAt) {
+        Discovery discovery = new Discovery(poi, discoveredAt);
+        boolean scheduleFlush;
+        synchronized (this) {
+            latest = discovery;
+            latestLoaded = true;
+            scheduleFlush = pending.isEmpty();
+            pending.add(discovery);
+        }
+        if (scheduleFlush) {
+            writer.execute(new Runnable() {
+                @Override
+                public void run() {
+                    flush();
+                }
+            });
+        }
+    }
+
+    /**
+     * Write all pending discoveries in one transaction
+     */
+    public void flush() {
+        List<Discovery> batch;
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = new ArrayList<>(pending);
+            pending.clear();
+        }
+        SQLiteDatabase db = getWritableDatabase();
+        SQLiteStatement insert = db.compileStatement("INSERT INTO " + TABLE
+                + " (discovered_at, osm_type, osm_id, latitude, longitude, name, leisure, amenity, tourism)"
+                + " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)");
+        SQLiteStatement insertBounds = db.compileStatement("INSERT INTO " + BOUNDS_TABLE
+                + " (id, min_lat, max_lat, min_lon, max_lon) VALUES (?, ?, ?, ?, ?)");
+        db.beginTransaction();
+        try {
+            for (Discovery discovery : batch) {
+                Poi poi = discovery.getPoi();
+                insert.clearBindings();
+                insert.bindLong(1, discovery.getDiscoveredAt());
+                insert.bindString(2, poi.getType());
+                insert.bindLong(3, poi.getId());
+                insert.bindDouble(4, poi.getLatitude());
+                insert.bindDouble(5, poi.getLongitude());
+                bindNullable(insert, 6, poi.getName());
+                bindNullable(insert, 7, poi.getLeisure());
+                bindNullable(insert, 8, poi.getAmenity());
+                bindNullable(insert, 9, poi.getTourism());
+                long id = insert.executeInsert();
+
+                insertBounds.bindLong(1, id);
+                insertBounds.bindDouble(2, poi.getLatitude());
+                insertBounds.bindDouble(3, poi.getLatitude());
+                insertBounds.bindDouble(4, poi.getLongitude());
+                insertBounds.bindDouble(5, poi.getLongitude());
+                insertBounds.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            insert.close();
+            insertBounds.close();
+        }
+        Log.d(TAG, "Wrote " + batch.size() + " discoveries in one transaction");
+    }
+
+    /**
+     * Get the most recent discovery. The first call reads the database, so call this off the
+     * main thread, or use {@link #loadLatest}.
+     *
+     * @return The most recent discovery, or null if there is none
+     */
+    public Discovery getLatest() {
+        synchronized (this) {
+            if (latestLoaded) {
+                return latest;
+            }
+        }
+        // Queried without the lock, so add() never waits for the database
+        List<Discovery> rows = query("SELECT " + COLUMNS + " FROM " + TABLE + " d"
+                + " ORDER BY d.discovered_at DESC LIMIT 1", new String[0]);
+        synchronized (this) {
+            // A discovery added meanwhile is newer than the row read
+            if (!latestLoaded) {
+                latest = rows.isEmpty() ? null : rows.get(0);
+                latestLoaded = true;
+            }
+            return latest;
+        }
+    }
+
+    /**
+     * Get the most recent discovery on the background thread, after the pending writes
+     *
+     * @param callback Receives the discovery
+     */
+    public void loadLatest(final LatestCallback callback) {
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                callback.onLatest(getLatest());
+            }
+        });
+    }
+
+    /**
+     * Move the place saved by older versions in SharedPreferences into the history
+     *
+     * @param preferencesManager The preferences holding the legacy place
+     */
+    private void importLegacyPlace(PreferencesManager preferencesManager) {
+        Poi poi = preferencesManager.takeLegacyPlaceDetails();
+        if (poi != null) {
+            // The old format has no time, count it as the first discovery
+            add(poi, 0);
+        }
+    }
+
+    private List<Discovery> query(String sql, String[] args) {
+        List<Discovery> result = new ArrayList<>();
+        try (Cursor cursor = getReadableDatabase().rawQuery(sql, args)) {
+            while (cursor.moveToNext()) {
+                Poi poi = new Poi(cursor.getLong(2), cursor.getString(1), cursor.getDouble(3), cursor.getDouble(4),
+                        stringOrNull(cursor, 5), stringOrNull(cursor, 6), stringOrNull(cursor, 7), stringOrNull(cursor, 8));
+                result.add(new Discovery(poi, cursor.getLong(0)));
+            }
+        }
+        return result;
+    }
+
+    private static String stringOrNull(Cursor cursor, int column) {
+        return cursor.isNull(column) ? null : cursor.getString(column);
+    }
+
+    private static void bindNullable(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.example.spotnear;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.location.Location;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.core.app.ActivityCompat;
+
+import com.google.android.gms.location.FusedLocationProviderClient;
+import com.google.android.gms.location.LocationCallback;
+import com.google.android.gms.location.LocationRequest;
+import com.google.android.gms.location.LocationResult;
+import com.google.android.gms.location.Priority;
+import com.google.android.gms.tasks.OnFailureListener;
+import com.google.android.gms.tasks.OnSuccessListener;
+
+import java.util.List;
+
+/**
+ * {@link LocationSource} backed by the fused location provider of Play Services
+ */
+public class FusedLocationSource implements LocationSource {
+    private static final String TAG = "FusedLocationSource";
+
+    private final Context context;
+    private final FusedLocationProviderClient client;
+    private LocationCallback subscription;
+
+    public FusedLocationSource(Context context, FusedLocationProviderClient client) {
+        this.context = context;
+        this.client = client;
+    }
+
+    @SuppressLint("MissingPermission")
+    @Override
+    public void getLastFix(final Callback callback) {
+        if (!hasPermission()) {
+            callback.onError(new SecurityException("Location permission not granted"));
+            return;
+        }
+        client.getLastLocation()
+                .addOnSuccessListener(new OnSuccessListener<Location>() {
+                    @Override
+                    public void onSuccess(Location location) {
+                        callback.onFix(toFix(location));
+                    }
+                })
+                .addOnFailureListener(new OnFailureListener() {
+                    @Override
+                    public void onFailure(Exception e) {
+                        callback.onError(e);
+                    }
+                });
+    }
+
+    @SuppressLint("MissingPermission")
+    @Override
+    public void requestActiveFix(final Callback callback) {
+        if (!hasPermission()) {
+            callback.onError(new SecurityException("Location permission not granted"));
+            return;
+        }
+        client.getCurrentLocation(Priority.PRIORITY_BALANCED_POWER_ACCURACY, null)
+                .addOnSuccessListener(new OnSuccessListener<Location>() {
+                    @Override
+                    public void onSuccess(Location location) {
+                        callback.onFix(toFix(location));
+                    }
+                })
+                .addOnFailureListener(new OnFailureListener() {
+                    @Override
+                    public void onFailure(Exception e) {
+                        callback.onError(e);
+                    }
+                });
+    }
+
+    @Override
+    public void requestPassiveUpdates(UpdateListener listener) {
+        subscribe(LocationRequest.create()
+                .setPriority(Priority.PRIORITY_PASSIVE), listener);
+    }
+
+    @Override
+    public void requestBatchedUpdates(long intervalMillis, long maxDelayMillis, UpdateListener listener) {
+        // Play Services 18 calls the batching delay the maximum wait time
+        subscribe(LocationRequest.create()
+                .setPriority(Priority.PRIORITY_BALANCED_POWER_ACCURACY)
+                .setInterval(intervalMillis)
+                .setFastestInterval(intervalMillis / 2)
+                .setMaxWaitTime(maxDelayMillis), listener);
+    }
+
+    @Override
+    public synchronized void removeUpdates(UpdateListener listener) {
+        if (subscription != null) {
+            client.removeLocationUpdates(subscription);
+            subscription = null;
+        }
+    }
+
+    @SuppressLint("MissingPermission")
+    private synchronized void subscribe(LocationRequest request, final UpdateListener listener) {
+        if (!hasPermission()) {
+            Log.w(TAG, "Location permission not granted, not subscribing to updates");
+            return;
+        }
+        if (subscription != null) {
+            client.removeLocationUpdates(subscription);
+        }
+        subscription = new LocationCallback() {
+            @Override
+            public void onLocationResult(LocationResult result) {
+                List<Location> locations = result.getLocations();
+                LocationFix[] fixes = new LocationFix[locations.size()];
+                for (int i = 0; i < fixes.length; i++) {
+                    fixes[i] = toFix(locations.get(i));
+                }
+                listener.onFixes(fixes);
+            }
+        };
+        client.requestLocationUpdates(request, subscription, Looper.getMainLooper());
+    }
+
+    private boolean hasPermission() {
+        return ActivityCompat.checkSelfPermission(context, android.Manifest.permission.ACCESS_FINE_LOCATION) == PackageManager.PERMISSION_GRANTED
+                || ActivityCompat.checkSelfPermission(context, android.Manifest.permission.ACCESS_COARSE_LOCATION) == PackageManager.PERMISSION_GRANTED;
+    }
+
+    private static LocationFix toFix(Location location) {
+        if (location == null) {
+            return null;
+        }
+        return new LocationFix(location.getLatitude(), location.getLongitude(),
+                location.hasAccuracy() ? location.getAccuracy() : 0,
+                location.hasSpeed() ? location.getSpeed() : Float.NaN,
+                location.getElapsedRealtimeNanos() / 1_000_000L);
+    }
+}
@@ -19,11 +19,9 @@ import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 
 import com.example.locationlibrary.MyLocation;
+import com.google.android.material.appbar.MaterialToolbar;
 import com.google.android.material.textfield.TextInputEditText;
 
-import org.json.JSONException;
-import org.json.JSONObject;
-
 public class MainActivity extends AppCompatActivity {
 
     private static final String TAG = "MainActivity";
@@ -38,6 +36,7 @@ public class MainActivity extends AppCompatActivity {
     private boolean isServiceRunning = false;
 
     private PreferencesManager preferencesManager;
+    private DiscoveryHistory discoveryHistory;
     private MapFragment mapFragment;
 
     @Override
@@ -68,12 +67,21 @@ public class MainActivity extends AppCompatActivity {
         myLocation.initializeApp(getApplication(), true);
 
         preferencesManager = new PreferencesManager(this);
+        discoveryHistory = DiscoveryHistory.getInstance(this);
         searchRadiusInput.setText(String.valueOf(preferencesManager.getPoiSearchRadius()));
     }
 
     private void setupListeners() {
         startServiceButton.setOnClickListener(v -> checkRadiusAndStartService());
         stopServiceButton.setOnClickListener(v -> stopSpotNearService());
+        MaterialToolbar toolbar = findViewById(R.id.toolbar);
+        toolbar.setOnMenuItemClickListener(item -> {
+            if (item.getItemId() == R.id.action_debug_metrics) {
+                startActivity(new Intent(this, MetricsActivity.class));
+                return true;
+            }
+            return false;
+        });
     }
 
     private void checkAlarmPermission() {
@@ -122,10 +130,11 @@ public class MainActivity extends AppCompatActivity {
     }
 
     private void checkExistingPlaceDetails() {
-        JSONObject existingPlaceDetails = preferencesManager.getPlaceDetails();
-        if (existingPlaceDetails != null) {
-            displayPlaceDetails();
-        }
+        discoveryHistory.loadLatest(latest -> runOnUiThread(() -> {
+            if (latest != null && !isDestroyed()) {
+                showPlaceDetails(latest);
+            }
+        }));
     }
 
     @Override
@@ -155,45 +164,34 @@ public class MainActivity extends AppCompatActivity {
     }
 
     private void displayPlaceDetails() {
-        JSONObject placeDetails = preferencesManager.getPlaceDetails();
-        if (placeDetails != null) {
-            try {
-                Log.d(TAG, "Displaying place details: " + placeDetails.toString(2));
-                JSONObject tags = placeDetails.getJSONObject("tags");
-                String name = tags.optString("name", "Unnamed Place");
-                String type = getPoiType(placeDetails);
-                String latitude = placeDetails.getString("lat");
-                String longitude = placeDetails.getString("lon");
-                String details = "Name: " + name + "\nType: " + type + "\nLatitude: " + latitude + "\nLongitude: " + longitude;
-
-                if (mapFragment != null && mapFragment.isMapReady()) {
-                    mapFragment.zoom(Double.parseDouble(latitude), Double.parseDouble(longitude));
-                } else {
-                    mapFragment.setInitialLocation(Double.parseDouble(latitude), Double.parseDouble(longitude));
-                }
+        // The history may read the database, which stays off the main thread
+        discoveryHistory.loadLatest(latest -> runOnUiThread(() -> {
+            if (!isDestroyed()) {
+                showPlaceDetails(latest);
+            }
+        }));
+    }
 
-                placeDetailsText.setText(details);
-            } catch (JSONException e) {
-                Log.e(TAG, "Error displaying place details", e);
-                placeDetailsText.setText("Error displaying place details");
+    private void showPlaceDetails(Discovery latest) {
+        if (latest != null) {
+            Poi poi = latest.getPoi();
+            Log.d(TAG, "Displaying place details: " + poi);
+            String name = poi.getName() != null ? poi.getName() : "Unnamed Place";
+            String type = PoiCategory.typeLabelOf(poi);
+            String details = "Name: " + name + "\nType: " + type + "\nLatitude: " + poi.getLatitude() + "\nLongitude: " + poi.getLongitude();
+
+            if (mapFragment != null && mapFragment.isMapReady()) {
+                mapFragment.zoom(poi.getLatitude(), poi.getLongitude());
+            } else {
+                mapFragment.setInitialLocation(poi.getLatitude(), poi.getLongitude());
             }
+
+            placeDetailsText.setText(details);
         } else {
             placeDetailsText.setText("No place details available");
         }
     }
 
-    private String getPoiType(JSONObject poi) throws JSONException {
-        JSONObject tags = poi.getJSONObject("tags");
-        if (tags.has("leisure") && "park".equals(tags.getString("leisure"))) {
-            return "Park";
-        } else if (tags.has("amenity")) {
-            return tags.getString("amenity");
-        } else if (tags.has("tourism")) {
-            return tags.getString("tourism");
-        }
-        return "Interesting place";
-    }
-
     @Override
     protected void onResume() {
         super.onResume();
@@ -316,8 +314,7 @@ public class MainActivity extends AppCompatActivity {
             locationText.setText(locationStr);
             Log.d(TAG, "Location updated: " + locationStr);
 
-            preferencesManager.setLastKnownLocation(locationStr);
-            preferencesManager.setLastLocationUpdateTime(System.currentTimeMillis());
+            preferencesManager.setLastLocation(locationStr, System.currentTimeMillis());
 
             if (startService && !isServiceRunning) {
                 startSpotNearService(false);
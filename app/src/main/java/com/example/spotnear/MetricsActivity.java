@@ -0,0 +1,61 @@
+package com.example.spotnear;
+
+import android.os.Bundle;
+import android.util.Log;
+import android.widget.TextView;
+
+import androidx.appcompat.app.AppCompatActivity;
+
+import java.io.File;
+import java.io.IOException;
+
+import okio.BufferedSource;
+import okio.Okio;
+
+/**
+ * Debug screen showing the percentiles of the cycle metrics exported by the service, the hit
+ * ratio of the trajectory prefetches and the frequent areas learned for bulk prefetching
+ */
+public class MetricsActivity extends AppCompatActivity {
+
+    private static final String TAG = "MetricsActivity";
+
+    private TextView metricsText;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_metrics);
+        metricsText = findViewById(R.id.metricsText);
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        File file = new File(getFilesDir(), SpotNearService.METRICS_FILE);
+        new Thread(() -> {
+            String text = loadMetrics(file);
+            runOnUiThread(() -> metricsText.setText(text));
+        }).start();
+    }
+
+    private String loadMetrics(File file) {
+        if (!file.exists()) {
+            return "No metrics recorded yet";
+        }
+        CycleMetrics metrics = new CycleMetrics();
+        try (BufferedSource source = Okio.buffer(Okio.source(file))) {
+            metrics.read(source);
+        } catch (IOException e) {
+            Log.e(TAG, "Error loading metrics", e);
+            return "Error loading metrics: " + e.getMessage();
+        }
+        PreferencesManager preferencesManager = new PreferencesManager(this);
+        TrajectoryPrefetcher prefetcher = new TrajectoryPrefetcher(preferencesManager);
+        FrequentAreaLearner areaLearner = new FrequentAreaLearner(preferencesManager);
+        long now = System.currentTimeMillis();
+        return metrics.describe() + "\nPrefetch: " + prefetcher.describeStats(now)
+                + "\nFrequent areas: " + areaLearner.describeStats(now)
+                + "\nExported to " + file.getAbsolutePath();
+    }
+}
@@ -1,22 +1,46 @@
 package com.example.spotnear;
 
+import android.annotation.SuppressLint;
 import android.content.Context;
 import android.content.SharedPreferences;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
 /**
- * Manages shared preferences for the SpotNear application
+ * Manages shared preferences for the SpotNear application.
+ * <p>
+ * All instances in the process share one decoded {@link SettingsSnapshot}, so getters never
+ * touch SharedPreferences. Setters update the snapshot, and changes made within
+ * {@link #FLUSH_DELAY_MILLIS} of each other are committed together on a background thread.
  */
-public class PreferencesManager {
+public class PreferencesManager implements OverpassGovernor.QuotaStore, WakeBudget.Store, TrajectoryPrefetcher.Store,
+        FrequentAreaLearner.Store {
     private static final String PREFS_NAME = "SpotNearPrefs";
     private static final String PREF_PLACE_DETAILS = "placeDetails";
     private static final String PREF_SERVICE_RUNNING = "isServiceRunning";
     private static final String PREF_POI_SEARCH_RADIUS = "poiSearchRadius";
+    private static final String PREF_MOVEMENT_THRESHOLD = "movementThreshold";
+    private static final String PREF_OVERPASS_QUOTA = "overpassQuota";
+    private static final String PREF_WAKE_STATE = "wakeState";
+    private static final String PREF_WAKE_BUDGET = "wakeBudgetMinutes";
+    private static final String PREF_PREFETCH_STATE = "prefetchState";
+    private static final String PREF_AREA_STATE = "areaState";
+    private static final String PREF_LAST_KNOWN_LOCATION = "last_known_location";
+    private static final String PREF_LAST_LOCATION_UPDATE_TIME = "last_location_update_time";
     private static final int DEFAULT_SEARCH_RADIUS = 1000; // 1 km default
+    private static final int DEFAULT_WAKE_BUDGET_MINUTES = 30;
+    public static final long FLUSH_DELAY_MILLIS = 200;
 
-    private final SharedPreferences prefs;
+    private static SharedPreferences prefs;
+    private static SettingsSnapshot snapshot;
+    private static ScheduledExecutorService flusher;
+    private static boolean flushScheduled;
 
     /**
      * Constructor
@@ -24,33 +48,44 @@ public class PreferencesManager {
      * @param context The context used to access SharedPreferences
      */
     public PreferencesManager(Context context) {
-        prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
-    }
-
-    /**
-     * Save place details to SharedPreferences
-     *
-     * @param placeDetails JSONObject containing place details
-     */
-    public void savePlaceDetails(JSONObject placeDetails) {
-        prefs.edit().putString(PREF_PLACE_DETAILS, placeDetails.toString()).apply();
+        synchronized (PreferencesManager.class) {
+            if (snapshot == null) {
+                prefs = context.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+                snapshot = new SettingsSnapshot(prefs.getAll());
+                flusher = Executors.newSingleThreadScheduledExecutor();
+            }
+        }
     }
 
     /**
-     * Retrieve place details from SharedPreferences
+     * Remove the place saved as JSON by older versions, which kept only the last place here
      *
-     * @return JSONObject containing place details, or null if not found
+     * @return The saved place, or null if there is none
      */
-    public JSONObject getPlaceDetails() {
-        String placeDetailsStr = prefs.getString(PREF_PLACE_DETAILS, null);
-        if (placeDetailsStr != null) {
-            try {
-                return new JSONObject(placeDetailsStr);
-            } catch (JSONException e) {
-                e.printStackTrace();
+    public Poi takeLegacyPlaceDetails() {
+        String placeDetailsStr = snapshot.getString(PREF_PLACE_DETAILS, null);
+        if (placeDetailsStr == null) {
+            return null;
+        }
+        put(PREF_PLACE_DETAILS, null);
+        try {
+            JSONObject placeDetails = new JSONObject(placeDetailsStr);
+            JSONObject tags = placeDetails.optJSONObject("tags");
+            if (tags == null) {
+                tags = new JSONObject();
             }
+            return new Poi(placeDetails.getLong("id"), placeDetails.optString("type", "node"),
+                    placeDetails.getDouble("lat"), placeDetails.getDouble("lon"),
+                    optString(tags, "name"), optString(tags, "leisure"),
+                    optString(tags, "amenity"), optString(tags, "tourism"));
+        } catch (JSONException e) {
+            e.printStackTrace();
+            return null;
         }
-        return null;
+    }
+
+    private static String optString(JSONObject object, String key) {
+        return object.has(key) ? object.optString(key) : null;
     }
 
     /**
@@ -59,7 +94,7 @@ public class PreferencesManager {
      * @param isRunning true if the service is running, false otherwise
      */
     public void setServiceRunningState(boolean isRunning) {
-        prefs.edit().putBoolean(PREF_SERVICE_RUNNING, isRunning).apply();
+        put(PREF_SERVICE_RUNNING, isRunning);
     }
 
     /**
@@ -68,14 +103,7 @@ public class PreferencesManager {
      * @return true if the service is running, false otherwise
      */
     public boolean getServiceRunningState() {
-        return prefs.getBoolean(PREF_SERVICE_RUNNING, false);
-    }
-
-    /**
-     * Clear saved place details from SharedPreferences
-     */
-    public void clearPlaceDetails() {
-        prefs.edit().remove(PREF_PLACE_DETAILS).apply();
+        return snapshot.getBoolean(PREF_SERVICE_RUNNING, false);
     }
 
     /**
@@ -84,7 +112,7 @@ public class PreferencesManager {
      * @param radius The search radius in meters
      */
     public void setPoiSearchRadius(int radius) {
-        prefs.edit().putInt(PREF_POI_SEARCH_RADIUS, radius).apply();
+        put(PREF_POI_SEARCH_RADIUS, radius);
     }
 
     /**
@@ -93,7 +121,123 @@ public class PreferencesManager {
      * @return The search radius in meters, or the default value if not set
      */
     public int getPoiSearchRadius() {
-        return prefs.getInt(PREF_POI_SEARCH_RADIUS, DEFAULT_SEARCH_RADIUS);
+        return snapshot.getInt(PREF_POI_SEARCH_RADIUS, DEFAULT_SEARCH_RADIUS);
+    }
+
+    /**
+     * Set how far the device must move before the service searches the network again
+     *
+     * @param fraction The distance as a fraction of the search radius
+     */
+    public void setMovementThresholdFraction(float fraction) {
+        put(PREF_MOVEMENT_THRESHOLD, fraction);
+    }
+
+    /**
+     * Get how far the device must move before the service searches the network again
+     *
+     * @return The distance as a fraction of the search radius
+     */
+    public float getMovementThresholdFraction() {
+        return snapshot.getFloat(PREF_MOVEMENT_THRESHOLD, MovementGate.DEFAULT_THRESHOLD_FRACTION);
+    }
+
+    /**
+     * Load the persisted Overpass request quota
+     *
+     * @return The state saved by {@link #saveQuotaState(long[])}, or null if none was saved
+     */
+    @Override
+    public long[] loadQuotaState() {
+        return getLongs(PREF_OVERPASS_QUOTA);
+    }
+
+    /**
+     * Persist the Overpass request quota so it survives process restarts
+     *
+     * @param state The governor state
+     */
+    @Override
+    public void saveQuotaState(long[] state) {
+        putLongs(PREF_OVERPASS_QUOTA, state);
+    }
+
+    /**
+     * Set how long the service may keep the device awake per day
+     *
+     * @param minutes The daily wake budget in minutes
+     */
+    public void setWakeBudgetMinutes(int minutes) {
+        put(PREF_WAKE_BUDGET, minutes);
+    }
+
+    /**
+     * Get how long the service may keep the device awake per day
+     *
+     * @return The daily wake budget in minutes
+     */
+    public int getWakeBudgetMinutes() {
+        return snapshot.getInt(PREF_WAKE_BUDGET, DEFAULT_WAKE_BUDGET_MINUTES);
+    }
+
+    /**
+     * Load the persisted wake time accounting
+     *
+     * @return The state saved by {@link #saveWakeState(long[])}, or null if none was saved
+     */
+    @Override
+    public long[] loadWakeState() {
+        return getLongs(PREF_WAKE_STATE);
+    }
+
+    /**
+     * Persist the wake time accounting so the daily budget survives process restarts
+     *
+     * @param state The budget state
+     */
+    @Override
+    public void saveWakeState(long[] state) {
+        putLongs(PREF_WAKE_STATE, state);
+    }
+
+    /**
+     * Load the persisted prefetch budget and hit counts
+     *
+     * @return The state saved by {@link #savePrefetchState(long[])}, or null if none was saved
+     */
+    @Override
+    public long[] loadPrefetchState() {
+        return getLongs(PREF_PREFETCH_STATE);
+    }
+
+    /**
+     * Persist the prefetch budget and hit counts so they survive process restarts
+     *
+     * @param state The prefetcher state
+     */
+    @Override
+    public void savePrefetchState(long[] state) {
+        putLongs(PREF_PREFETCH_STATE, state);
+    }
+
+    /**
+     * Load the persisted frequent area cells
+     *
+     * @return The state saved by {@link #saveAreaState(long[])}, or null if none was saved
+     */
+    @Override
+    public long[] loadAreaState() {
+        return getLongs(PREF_AREA_STATE);
+    }
+
+    /**
+     * Persist the frequent area cells so learning survives process restarts
+     *
+     * @param state The learner state
+     */
+    @Override
+    public void saveAreaState(long[] state) {
+        putLongs(PREF_AREA_STATE, state);
     }
 
     /**
@@ -102,7 +246,7 @@ public class PreferencesManager {
      * @param location A string representation of the location, typically in the format "Lat: X, Lon: Y"
      */
     public void setLastKnownLocation(String location) {
-        prefs.edit().putString("last_known_location", location).apply();
+        put(PREF_LAST_KNOWN_LOCATION, location);
     }
 
     /**
@@ -111,7 +255,7 @@ public class PreferencesManager {
      * @return The last known location as a string, or null if no location has been stored
      */
     public String getLastKnownLocation() {
-        return prefs.getString("last_known_location", null);
+        return snapshot.getString(PREF_LAST_KNOWN_LOCATION, null);
     }
 
     /**
@@ -120,7 +264,7 @@ public class PreferencesManager {
      * @param time The timestamp of the last location update in milliseconds since epoch
      */
     public void setLastLocationUpdateTime(long time) {
-        prefs.edit().putLong("last_location_update_time", time).apply();
+        put(PREF_LAST_LOCATION_UPDATE_TIME, time);
     }
 
     /**
@@ -130,6 +274,114 @@ public class PreferencesManager {
      * or 0 if no update time has been stored
      */
     public long getLastLocationUpdateTime() {
-        return prefs.getLong("last_location_update_time", 0);
+        return snapshot.getLong(PREF_LAST_LOCATION_UPDATE_TIME, 0);
+    }
+
+    /**
+     * Store the last known location and the time of the update together
+     *
+     * @param location A string representation of the location, typically in the format "Lat: X, Lon: Y"
+     * @param time     The timestamp of the update in milliseconds since epoch
+     */
+    public void setLastLocation(String location, long time) {
+        put(PREF_LAST_KNOWN_LOCATION, location);
+        put(PREF_LAST_LOCATION_UPDATE_TIME, time);
+    }
+
+    /**
+     * Write pending changes now instead of after the batching delay, e.g. when the service stops
+     */
+    public void flushSoon() {
+        flusher.execute(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        });
+    }
+
+    /**
+     * Describe the settings writes since the previous call, for logging once per search cycle
+     */
+    public String describeWriteCycle() {
+        return snapshot.endCycle();
+    }
+
+    private long[] getLongs(String key) {
+        String value = snapshot.getString(key, null);
+        if (value == null) {
+            return null;
+        }
+        String[] parts = value.split(",");
+        long[] values = new long[parts.length];
+        try {
+            for (int i = 0; i < parts.length; i++) {
+                values[i] = Long.parseLong(parts[i]);
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return values;
+    }
+
+    private void putLongs(String key, long[] values) {
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                value.append(',');
+            }
+            value.append(values[i]);
+        }
+        put(key, value.toString());
+    }
+
+    private void put(String key, Object value) {
+        if (!snapshot.put(key, value)) {
+            return;
+        }
+        synchronized (PreferencesManager.class) {
+            if (!flushScheduled) {
+                flushScheduled = true;
+                flusher.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        flush();
+                    }
+                }, FLUSH_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Commit every pending change in one transaction. Runs on the flusher thread.
+     */
+    @SuppressLint("ApplySharedPref")
+    private static void flush() {
+        synchronized (PreferencesManager.class) {
+            flushScheduled = false;
+        }
+        Map<String, Object> changes = snapshot.takeChanges();
+        if (changes.isEmpty()) {
+            return;
+        }
+        SharedPreferences.Editor editor = prefs.edit();
+        for (Map.Entry<String, Object> change : changes.entrySet()) {
+            Object value = change.getValue();
+            if (value == null) {
+                editor.remove(change.getKey());
+            } else if (value instanceof Boolean) {
+                editor.putBoolean(change.getKey(), (Boolean) value);
+            } else if (value instanceof Integer) {
+                editor.putInt(change.getKey(), (Integer) value);
+            } else if (value instanceof Long) {
+                editor.putLong(change.getKey(), (Long) value);
+            } else if (value instanceof Float) {
+                editor.putFloat(change.getKey(), (Float) value);
+            } else {
+                editor.putString(change.getKey(), value.toString());
+            }
+        }
+        editor.commit();
+        snapshot.onChangesWritten();
     }
-}
\ No newline at end of file
+}
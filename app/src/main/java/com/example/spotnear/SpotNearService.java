@@ -10,10 +10,12 @@ import android.app.Service;
 import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageManager;
+import android.os.Binder;
 import android.os.Build;
 import android.os.Handler;
 import android.os.IBinder;
 import android.os.PowerManager;
+import android.os.SystemClock;
 import android.util.Log;
 
 import androidx.core.app.ActivityCompat;
@@ -21,21 +23,29 @@ import androidx.core.app.NotificationCompat;
 
 import com.google.android.gms.location.FusedLocationProviderClient;
 import com.google.android.gms.location.LocationServices;
-import com.google.android.gms.tasks.OnSuccessListener;
-
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
 
+import java.io.File;
 import java.io.IOException;
-import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 
-import okhttp3.Call;
-import okhttp3.Callback;
+import okhttp3.HttpUrl;
 import okhttp3.OkHttpClient;
-import okhttp3.Request;
-import okhttp3.Response;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.ForwardingSource;
+import okio.Okio;
+import okio.Source;
 
 /**
  * Service for discovering nearby points of interest
@@ -50,27 +60,89 @@ public class SpotNearService extends Service {
     public static final String ACTION_STOP_SERVICE = "com.example.spotnear.STOP_SERVICE";
     public static final String ACTION_UPDATE_LOCATION = "com.example.spotnear.UPDATE_LOCATION";
 
+    private static final List<HttpUrl> OVERPASS_URLS = Arrays.asList(
+            HttpUrl.get("https://overpass-api.de/api/interpreter"),
+            HttpUrl.get("https://overpass.kumi.systems/api/interpreter"));
+
     private static final int FOREGROUND_SERVICE_ID = 1000;
     private static final int SEARCH_NOTIFICATION_ID = 1001;
     private static final int PLACE_NOTIFICATION_ID = 1002;
 
     private NotificationManager notificationManager;
     private OkHttpClient client;
+    private OverpassClient overpassClient;
     private AlarmManager alarmManager;
     private PendingIntent alarmPendingIntent;
     private FusedLocationProviderClient fusedLocationClient;
+    private LocationAcquirer locationAcquirer;
+    private TrajectoryPrefetcher prefetcher;
+    private FrequentAreaLearner areaLearner;
     private PowerManager.WakeLock wakeLock;
+    private WakeBudget wakeBudget;
+    // Scope keeping the device awake during the search in flight
+    private volatile WakeBudget.Scope searchWake;
 
-    private boolean isSearching = true;
-    private boolean hasFoundPlace = false;
+    // Written by the search pipeline thread
+    private volatile boolean isSearching = true;
+    private volatile boolean hasFoundPlace = false;
 
     // Test mode flag and interval
     private static final boolean TEST_MODE = true;
     private static final long TEST_INTERVAL = 10 * 1000; // 10 seconds
     private static final long NORMAL_INTERVAL = AlarmManager.INTERVAL_HOUR; // 1 hour
+    private static final long RETRY_INTERVAL = 5 * 60 * 1000; // 5 minutes until a place is found
+    // While moving, a fix a minute delivered in batches, so the last known fix stays fresh between searches
+    private static final long LOCATION_BATCH_INTERVAL = 60 * 1000;
+    private static final long LOCATION_MAX_UPDATE_DELAY = TEST_MODE ? TEST_INTERVAL / 2 : NORMAL_INTERVAL / 4;
+
+    private static final String REGION_PACK_DIRECTORY = "packs";
+    // Packs downloaded for the learned frequent areas, as opposed to those copied in by hand
+    private static final String AREA_PACK_PREFIX = "area_";
+    private static final String PACK_SUFFIX = ".pack";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+    private static final String SEEN_POIS_FILE = "seen_pois.bin";
+    private static final String DENSITY_FILE = "density.bin";
+    // Read by the debug metrics screen
+    static final String METRICS_FILE = "metrics.csv";
+    // Largest response body parsed; searches and prefetches stream theirs
+    private static final long MAX_RESPONSE_BYTES = 4 * 1024 * 1024;
+    // Searches running at a time; a superseded one may still be finishing a stage
+    private static final int PIPELINE_CAPACITY = 2;
+    // Overpass response format; CSV carries only the columns we read
+    private static final OverpassQueryBuilder.OutputFormat RESPONSE_FORMAT = OverpassQueryBuilder.OutputFormat.JSON;
 
     private PreferencesManager preferencesManager;
+    private DiscoveryHistory discoveryHistory;
+    private SeenPoiSet seenPois;
+    private PoiCache poiCache;
+    private PoiSpatialIndex poiIndex;
+    private final TileCoverage tileCoverage = new TileCoverage();
+    private AdaptiveRadiusPlanner radiusPlanner;
+    // Read by searches while the bulk prefetch job adds and replaces area packs
+    private final List<RegionPack> regionPacks = new CopyOnWriteArrayList<>();
+    private final Map<String, RegionPack> areaPacks = new ConcurrentHashMap<>();
+    private OverpassQueryBuilder queryBuilder;
+    private MovementGate movementGate;
+    private SearchSchedule searchSchedule;
+    private final Random random = new Random();
+    private final PoiBuffer responseRows = new PoiBuffer();
+    private SearchCycle searchCycle;
     private Handler handler = new Handler();
+    private final SearchCoordinator searchCoordinator = new SearchCoordinator();
+    private final CycleMetrics metrics = new CycleMetrics();
+    private SearchPipeline<SearchJob> pipeline;
+    // The pipeline's worker, which also parses prefetched responses
+    private ExecutorService searchExecutor;
+    private SearchPipeline<SearchJob>.Job currentJob;
+    private final IBinder binder = new LocalBinder();
+    private final Runnable automaticSearch = new Runnable() {
+        @Override
+        public void run() {
+            isSearching = true;
+            updateSearchNotification();
+            requestLocationUpdate("timer", false);
+        }
+    };
 
     @Override
     public void onCreate() {
@@ -89,12 +161,151 @@ public class SpotNearService extends Service {
         fusedLocationClient = LocationServices.getFusedLocationProviderClient(this);
         PowerManager powerManager = (PowerManager) getSystemService(Context.POWER_SERVICE);
         wakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "SpotNear:WakeLock");
+        // Scopes are counted by the budget, which acquires and releases once per cycle
+        wakeLock.setReferenceCounted(false);
         client = new OkHttpClient.Builder()
                 .connectTimeout(30, TimeUnit.SECONDS)
                 .readTimeout(30, TimeUnit.SECONDS)
                 .writeTimeout(30, TimeUnit.SECONDS)
+                // Ends a body that keeps dripping in under the read timeout
+                .callTimeout(60, TimeUnit.SECONDS)
+                .eventListenerFactory(HttpMetricsListener.factory(metrics))
                 .build();
         preferencesManager = new PreferencesManager(this);
+        discoveryHistory = DiscoveryHistory.getInstance(this);
+        overpassClient = new OverpassClient(client, OVERPASS_URLS, new OverpassGovernor(preferencesManager, random))
+                .setProbeStatus(true)
+                .setMaxResponseBytes(MAX_RESPONSE_BYTES);
+        poiCache = new PoiCache();
+        poiIndex = new PoiSpatialIndex();
+        loadRegionPacks();
+        loadSeenPois();
+        loadDensities();
+        loadMetrics();
+        queryBuilder = new OverpassQueryBuilder(PoiCategory.DEFAULTS)
+                .setOutputFormat(RESPONSE_FORMAT)
+                .setLimit(SearchCycle.MAX_POI_RESULTS);
+        movementGate = new MovementGate(preferencesManager.getMovementThresholdFraction(), MovementGate.DEFAULT_MAX_STRETCH);
+        searchSchedule = new SearchSchedule(TEST_MODE ? TEST_INTERVAL : NORMAL_INTERVAL,
+                TEST_MODE ? TEST_INTERVAL : RETRY_INTERVAL, movementGate);
+        wakeBudget = new WakeBudget(new WakeBudget.Lock() {
+            @Override
+            public void acquire(long timeoutMillis) {
+                wakeLock.acquire(timeoutMillis);
+            }
+
+            @Override
+            public void release() {
+                wakeLock.release();
+            }
+
+            @Override
+            public boolean isHeld() {
+                return wakeLock.isHeld();
+            }
+        }, preferencesManager, TimeUnit.MINUTES.toMillis(preferencesManager.getWakeBudgetMinutes()),
+                WakeBudget.DEFAULT_MAX_HOLD_MILLIS);
+        locationAcquirer = new LocationAcquirer(new FusedLocationSource(this, fusedLocationClient),
+                preferencesManager.getMovementThresholdFraction(), LOCATION_BATCH_INTERVAL, LOCATION_MAX_UPDATE_DELAY);
+        prefetcher = new TrajectoryPrefetcher(preferencesManager);
+        locationAcquirer.setTrackListener(prefetcher);
+        areaLearner = new FrequentAreaLearner(preferencesManager);
+        searchCycle = new SearchCycle(queryBuilder, poiCache, poiIndex, tileCoverage, radiusPlanner, movementGate,
+                seenPois, random)
+                .setRegionPacks(regionPacks)
+                .setPrefetcher(prefetcher);
+        pipeline = createPipeline();
+    }
+
+    /**
+     * Memory-map the offline region packs found in files/packs, and delete packs left half
+     * written
+     */
+    private void loadRegionPacks() {
+        File[] files = new File(getFilesDir(), REGION_PACK_DIRECTORY).listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.getName().endsWith(TEMPORARY_SUFFIX)) {
+                file.delete();
+            } else if (file.getName().endsWith(PACK_SUFFIX)) {
+                try {
+                    RegionPack pack = RegionPack.open(file);
+                    regionPacks.add(pack);
+                    if (file.getName().startsWith(AREA_PACK_PREFIX)) {
+                        areaPacks.put(file.getName(), pack);
+                    }
+                    Log.d(TAG, "Loaded region pack " + file.getName() + " with " + pack.size() + " POIs");
+                } catch (IOException e) {
+                    Log.e(TAG, "Error loading region pack " + file.getName(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Read the POIs the user was already notified about
+     */
+    private void loadSeenPois() {
+        File file = new File(getFilesDir(), SEEN_POIS_FILE);
+        try {
+            seenPois = SeenPoiSet.open(file);
+            Log.d(TAG, "Loaded " + seenPois.size() + " seen POIs");
+        } catch (IOException e) {
+            Log.e(TAG, "Error loading seen POIs, starting over", e);
+            file.delete();
+            seenPois = new SeenPoiSet();
+        }
+    }
+
+    /**
+     * Read the POI densities learned by earlier searches
+     */
+    private void loadDensities() {
+        radiusPlanner = new AdaptiveRadiusPlanner(SearchCycle.TARGET_CANDIDATES, SearchCycle.MIN_SEARCH_RADIUS);
+        File file = new File(getFilesDir(), DENSITY_FILE);
+        if (!file.exists()) {
+            return;
+        }
+        try (BufferedSource source = Okio.buffer(Okio.source(file))) {
+            radiusPlanner.read(source);
+            Log.d(TAG, "Loaded POI densities of " + radiusPlanner.size() + " areas");
+        } catch (IOException e) {
+            Log.e(TAG, "Error loading POI densities", e);
+        }
+    }
+
+    private void loadMetrics() {
+        File file = new File(getFilesDir(), METRICS_FILE);
+        if (!file.exists()) {
+            return;
+        }
+        try (BufferedSource source = Okio.buffer(Okio.source(file))) {
+            metrics.read(source);
+        } catch (IOException e) {
+            Log.e(TAG, "Error loading metrics", e);
+        }
+    }
+
+    /**
+     * End the metrics row of a search and export the latest cycles
+     */
+    private void saveMetrics() {
+        metrics.endCycle();
+        try (BufferedSink sink = Okio.buffer(Okio.sink(new File(getFilesDir(), METRICS_FILE)))) {
+            metrics.writeTo(sink);
+        } catch (IOException e) {
+            Log.e(TAG, "Error saving metrics", e);
+        }
+    }
+
+    private void saveDensities() {
+        try (BufferedSink sink = Okio.buffer(Okio.sink(new File(getFilesDir(), DENSITY_FILE)))) {
+            radiusPlanner.writeTo(sink);
+        } catch (IOException e) {
+            Log.e(TAG, "Error saving POI densities", e);
+        }
     }
 
     @Override
@@ -105,8 +316,9 @@ public class SpotNearService extends Service {
         } else {
             // Service was restarted by the system
             startForeground(FOREGROUND_SERVICE_ID, createSearchNotification());
+            BulkPrefetchJobService.schedule(this);
             isSearching = true;
-            requestLocationUpdate();
+            requestLocationUpdate("restart", false);
         }
         return START_STICKY;
     }
@@ -124,15 +336,17 @@ public class SpotNearService extends Service {
             handlePlaceNotificationClick();
         } else if (ACTION_START_SERVICE.equals(action)) {
             startForeground(FOREGROUND_SERVICE_ID, createSearchNotification());
+            BulkPrefetchJobService.schedule(this);
             isSearching = true;
-            requestLocationUpdate();
+            requestLocationUpdate("start", false);
         } else if (ACTION_STOP_SERVICE.equals(action)) {
             Log.d(TAG, "Received stop service command");
+            BulkPrefetchJobService.cancel(this);
             stopForeground(true);
             stopSelf();
         } else if (ACTION_UPDATE_LOCATION.equals(action)) {
             if (isSearching) {
-                requestLocationUpdate();
+                requestLocationUpdate("alarm", false);
             } else {
                 scheduleAlarm();
             }
@@ -191,8 +405,10 @@ public class SpotNearService extends Service {
         Log.d(TAG, "Search notification clicked");
         isSearching = true;
         hasFoundPlace = false;  // Reset this flag to allow finding a new place
+        movementGate.reset();  // A manual search isn't held back by the movement threshold
         updateSearchNotification();
-        requestLocationUpdate();
+        // The user asked for a new place, so a search already running starts over
+        requestLocationUpdate("notification", true);
     }
 
     private void handlePlaceNotificationClick() {
@@ -207,25 +423,27 @@ public class SpotNearService extends Service {
         scheduleNextAutomaticSearch();
     }
 
-    private void scheduleNextAutomaticSearch() {
-        long delay = TEST_MODE ? TEST_INTERVAL : NORMAL_INTERVAL;
-        handler.postDelayed(new Runnable() {
-            @Override
-            public void run() {
-                isSearching = true;
-                updateSearchNotification();
-                requestLocationUpdate();
-            }
-        }, delay);
+    /**
+     * @return The delay until the search in milliseconds
+     */
+    private long scheduleNextAutomaticSearch() {
+        long delay = searchSchedule.afterPlaceFound();
+        handler.removeCallbacks(automaticSearch);
+        handler.postDelayed(automaticSearch, delay);
+        return delay;
     }
 
+    /**
+     * @return The delay until the alarm in milliseconds
+     */
     @SuppressLint("ScheduleExactAlarm")
-    private void scheduleAlarm() {
+    private long scheduleAlarm() {
         Intent intent = new Intent(this, SpotNearServiceRestarter.class);
         intent.setAction(ACTION_UPDATE_LOCATION);
         alarmPendingIntent = PendingIntent.getBroadcast(this, 0, intent, PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
 
-        long interval = TEST_MODE ? TEST_INTERVAL : (hasFoundPlace ? NORMAL_INTERVAL : (5 * 60 * 1000)); // 5 minutes if no place found, 1 hour otherwise
+        long interval = searchSchedule.afterNothingFound(hasFoundPlace,
+                overpassClient.getGovernor().getRetryDelayMillis(System.currentTimeMillis()));
 
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
             alarmManager.setExactAndAllowWhileIdle(AlarmManager.RTC_WAKEUP, System.currentTimeMillis() + interval, alarmPendingIntent);
@@ -233,10 +451,249 @@ public class SpotNearService extends Service {
             alarmManager.setExact(AlarmManager.RTC_WAKEUP, System.currentTimeMillis() + interval, alarmPendingIntent);
         }
         Log.d(TAG, "Scheduled next update in " + (interval / 1000) + " seconds");
+        return interval;
+    }
+
+    /**
+     * Locate the device and search for a POI, unless a search is already running
+     *
+     * @param trigger   What triggered the search, for logging
+     * @param supersede true to cancel a search already running and start over
+     */
+    private void requestLocationUpdate(String trigger, boolean supersede) {
+        int generation = searchCoordinator.begin(trigger, supersede, SystemClock.elapsedRealtime());
+        if (generation < 0) {
+            Log.d(TAG, "Search triggered by " + trigger + " joined the one running ("
+                    + searchCoordinator.describeStats() + ")");
+            return;
+        }
+        if (currentJob != null) {
+            // Superseded, or lost without ending; begin() cancelled its call, so a parse still
+            // reading the response fails and closes it
+            currentJob.cancel();
+        }
+        // This search replaces the automatic search and the alarm still pending
+        handler.removeCallbacks(automaticSearch);
+        if (alarmPendingIntent != null) {
+            alarmManager.cancel(alarmPendingIntent);
+        }
+        long now = System.currentTimeMillis();
+        if (searchWake != null) {
+            // The superseded search no longer keeps the device awake
+            searchWake.close(now);
+        }
+        searchWake = wakeBudget.open("search:" + trigger, now);
+        if (searchWake == null) {
+            Log.w(TAG, "Daily wake budget spent, searching without a wakelock: " + wakeBudget.describeStats(now));
+        }
+        metrics.beginCycle();
+        currentJob = pipeline.submit(new SearchJob(generation));
+        if (currentJob == null) {
+            Log.w(TAG, "Search pipeline is full, dropping the search triggered by " + trigger);
+            endSearch(generation);
+        }
+    }
+
+    /**
+     * End a search and release its wakelock
+     *
+     * @param generation The number of the search
+     * @return true if it was the search in flight, false if it was superseded or already ended
+     */
+    private boolean endSearch(int generation) {
+        if (!searchCoordinator.finish(generation)) {
+            return false;
+        }
+        WakeBudget.Scope scope = searchWake;
+        long now = System.currentTimeMillis();
+        if (scope != null) {
+            scope.close(now);
+        }
+        Log.d(TAG, "Search finished: " + searchCoordinator.describeStats());
+        Log.d(TAG, "Wake time: " + wakeBudget.describeStats(now));
+        return true;
+    }
+
+    /**
+     * Counts the bytes read from a response, for the prefetcher's daily budget
+     */
+    private static final class ByteCountingSource extends ForwardingSource {
+        private long byteCount;
+
+        ByteCountingSource(Source source) {
+            super(source);
+        }
+
+        @Override
+        public long read(Buffer sink, long byteCount) throws IOException {
+            long read = super.read(sink, byteCount);
+            if (read > 0) {
+                this.byteCount += read;
+            }
+            return read;
+        }
+
+        long getByteCount() {
+            return byteCount;
+        }
+    }
+
+    /**
+     * State of one search as it moves through the pipeline
+     */
+    private static final class SearchJob {
+        final int generation;
+        // When the search was triggered, for the end-to-end time
+        final long startNanos = System.nanoTime();
+        // The response handed to the parse stage, which closes it; null once taken
+        BufferedSource body;
+        boolean ended;
+        double latitude;
+        double longitude;
+        // null until the query stage has begun the search at the fix
+        SearchCycle.State cycle;
+        Poi poi;
+
+        SearchJob(int generation) {
+            this.generation = generation;
+        }
+
+        /**
+         * Hand a response to the parse stage
+         *
+         * @return false if the job ended, the caller still owning the response
+         */
+        synchronized boolean handOff(BufferedSource source) {
+            if (ended) {
+                return false;
+            }
+            body = source;
+            return true;
+        }
+
+        /**
+         * Take the response over, to read and close it
+         *
+         * @return The response, or null if there is none
+         */
+        synchronized BufferedSource takeBody() {
+            BufferedSource taken = body;
+            body = null;
+            return taken;
+        }
+
+        /**
+         * Close the response if the parse stage never took it, as the job failed or was cancelled.
+         * A response being parsed fails once its call is cancelled, and the stage closes it.
+         */
+        void end() {
+            BufferedSource untaken;
+            synchronized (this) {
+                ended = true;
+                untaken = takeBody();
+            }
+            closeQuietly(untaken);
+        }
     }
 
-    private void requestLocationUpdate() {
-        wakeLock.acquire(10 * 60 * 1000L /*10 minutes*/);
+    /**
+     * Build the search pipeline: locate, query, parse, select, persist and notify
+     */
+    private SearchPipeline<SearchJob> createPipeline() {
+        // One more queue slot for a prefetched response
+        searchExecutor = SearchPipeline.newExecutor("SpotNearSearch", PIPELINE_CAPACITY + 1);
+        SearchPipeline<SearchJob> searchPipeline = new SearchPipeline<>(searchExecutor, PIPELINE_CAPACITY,
+                new SearchPipeline.Listener<SearchJob>() {
+                    @Override
+                    public void onFinished(SearchJob job) {
+                        Log.d(TAG, "Search pipeline: " + pipeline.describeTimings());
+                    }
+
+                    @Override
+                    public void onFailed(SearchJob job, SearchPipeline.StageName stage, Exception e) {
+                        job.end();
+                        Log.e(TAG, "Search failed in the " + stage + " stage", e);
+                        if (endSearch(job.generation)) {
+                            saveMetrics();
+                            scheduleAlarm();
+                        }
+                    }
+
+                    @Override
+                    public void onCancelled(SearchJob job) {
+                        job.end();
+                        Log.d(TAG, "Search " + job.generation + " cancelled");
+                    }
+                });
+        searchPipeline.setStage(SearchPipeline.StageName.LOCATE, new SearchPipeline.Stage<SearchJob>() {
+            @Override
+            public void run(SearchJob job, SearchPipeline.Step step) {
+                locate(job, step);
+            }
+        });
+        searchPipeline.setStage(SearchPipeline.StageName.QUERY, new SearchPipeline.Stage<SearchJob>() {
+            @Override
+            public void run(SearchJob job, SearchPipeline.Step step) {
+                findNearbyPOI(job, step);
+            }
+        });
+        searchPipeline.setStage(SearchPipeline.StageName.PARSE, new SearchPipeline.Stage<SearchJob>() {
+            @Override
+            public void run(SearchJob job, SearchPipeline.Step step) throws IOException {
+                long start = System.nanoTime();
+                parseResponse(job);
+                metrics.recordSince(CycleMetrics.PARSE, start);
+                metrics.record(CycleMetrics.ELEMENTS, job.cycle.getCount());
+                if (expandSearch(job)) {
+                    step.jumpTo(SearchPipeline.StageName.QUERY);
+                } else {
+                    step.next();
+                }
+            }
+        });
+        searchPipeline.setStage(SearchPipeline.StageName.SELECT, new SearchPipeline.Stage<SearchJob>() {
+            @Override
+            public void run(SearchJob job, SearchPipeline.Step step) {
+                long start = System.nanoTime();
+                job.poi = pickBestPoi(job);
+                metrics.recordSince(CycleMetrics.SELECTION, start);
+                step.next();
+            }
+        });
+        searchPipeline.setStage(SearchPipeline.StageName.PERSIST, new SearchPipeline.Stage<SearchJob>() {
+            @Override
+            public void run(SearchJob job, SearchPipeline.Step step) {
+                if (job.poi != null) {
+                    savePoi(job.poi);
+                }
+                step.next();
+            }
+        });
+        searchPipeline.setStage(SearchPipeline.StageName.NOTIFY, new SearchPipeline.Stage<SearchJob>() {
+            @Override
+            public void run(SearchJob job, SearchPipeline.Step step) {
+                if (endSearch(job.generation)) {
+                    long nextDelay = notifyPoi(job.poi);
+                    if (job.cycle != null && job.cycle.isFetched()) {
+                        prefetch(nextDelay);
+                    }
+                    metrics.recordSince(CycleMetrics.END_TO_END, job.startNanos);
+                    saveMetrics();
+                    Log.d(TAG, "Cycle metrics:\n" + metrics.describe());
+                }
+                step.finish();
+            }
+        });
+        return searchPipeline;
+    }
+
+    /**
+     * Get a location fix fresh enough for the search radius
+     *
+     * @param job  The search
+     * @param step Continues with the query, or with the notification if there is no location
+     */
+    private void locate(final SearchJob job, final SearchPipeline.Step step) {
         if (ActivityCompat.checkSelfPermission(this, android.Manifest.permission.ACCESS_FINE_LOCATION) != PackageManager.PERMISSION_GRANTED && ActivityCompat.checkSelfPermission(this, android.Manifest.permission.ACCESS_COARSE_LOCATION) != PackageManager.PERMISSION_GRANTED) {
             // TODO: Consider calling
             //    ActivityCompat#requestPermissions
@@ -245,104 +702,386 @@ public class SpotNearService extends Service {
             //                                          int[] grantResults)
             // to handle the case where the user grants the permission. See the documentation
             // for ActivityCompat#requestPermissions for more details.
+            step.fail(new SecurityException("Location permission not granted"));
             return;
         }
-        fusedLocationClient.getCurrentLocation(com.google.android.gms.location.Priority.PRIORITY_BALANCED_POWER_ACCURACY, null)
-                .addOnSuccessListener(new OnSuccessListener<android.location.Location>() {
-                    @Override
-                    public void onSuccess(android.location.Location location) {
-                        if (location != null) {
-                            Log.d(TAG, "Location update: " + location.getLatitude() + ", " + location.getLongitude());
-                            findNearbyPOI(location.getLatitude(), location.getLongitude());
-                        } else {
-                            Log.d(TAG, "Location is null");
-                            scheduleAlarm();
-                        }
-                        wakeLock.release();
-                    }
-                });
+        locationAcquirer.start();
+        final long now = SystemClock.elapsedRealtime();
+        final long start = System.nanoTime();
+        locationAcquirer.acquire(preferencesManager.getPoiSearchRadius(), now, new LocationSource.Callback() {
+            @Override
+            public void onFix(LocationFix fix) {
+                if (!searchCoordinator.isCurrent(job.generation)) {
+                    return;
+                }
+                metrics.recordSince(CycleMetrics.LOCATION_FIX, start);
+                Log.d(TAG, "Location: " + locationAcquirer.describeStats(now));
+                if (fix != null) {
+                    Log.d(TAG, "Location update: " + fix.getLatitude() + ", " + fix.getLongitude());
+                    job.latitude = fix.getLatitude();
+                    job.longitude = fix.getLongitude();
+                    step.next();
+                } else {
+                    Log.d(TAG, "Location is null");
+                    step.jumpTo(SearchPipeline.StageName.NOTIFY);
+                }
+            }
+
+            @Override
+            public void onError(Exception e) {
+                if (searchCoordinator.isCurrent(job.generation)) {
+                    step.fail(e);
+                }
+            }
+        });
     }
 
     /**
-     * Find nearby Points of Interest
+     * Find nearby Points of Interest, locally if possible, otherwise on the network
      *
-     * @param latitude  The current latitude
-     * @param longitude The current longitude
+     * @param job  The search, with its location
+     * @param step Continues with the parsing of a network response, or with the POI found locally
      */
-    private void findNearbyPOI(double latitude, double longitude) {
-        int searchRadius = preferencesManager.getPoiSearchRadius();
-        Log.d(TAG, "Finding nearby POI for Lat " + latitude + ", Lon " + longitude);
-        String query = constructOverpassQuery(latitude, longitude, searchRadius);
-        String url = "https://overpass-api.de/api/interpreter?data=" + URLEncoder.encode(query);
-
-        Request request = new Request.Builder()
-                .url(url)
-                .build();
+    private void findNearbyPOI(final SearchJob job, final SearchPipeline.Step step) {
+        if (job.cycle == null) {
+            Log.d(TAG, "Finding nearby POI for Lat " + job.latitude + ", Lon " + job.longitude);
+            Log.d(TAG, "Previous cycle: " + preferencesManager.describeWriteCycle());
+            areaLearner.record(job.latitude, job.longitude, System.currentTimeMillis());
+            job.cycle = searchCycle.begin(job.latitude, job.longitude, preferencesManager.getPoiSearchRadius(),
+                    SystemClock.elapsedRealtime());
+            if (job.cycle.isPrefetchChecked()) {
+                Log.d(TAG, "Prefetch " + (job.cycle.isPrefetchHit() ? "hit" : "missed") + ": "
+                        + prefetcher.describeStats(System.currentTimeMillis()));
+            }
+        }
+        SearchCycle.State cycle = job.cycle;
+        int radius = cycle.getRadius();
+        long now = System.currentTimeMillis();
+        SearchCycle.Outcome outcome = searchCycle.answerLocally(cycle, now);
+        if (cycle.getRadius() > radius) {
+            Log.d(TAG, "Every local candidate was already shown, widened the search to " + cycle.getRadius() + " m");
+        }
+        switch (outcome) {
+            case REGION_PACK:
+                Log.d(TAG, "Answered POI search from an offline region pack");
+                job.poi = cycle.getPoi();
+                step.jumpTo(SearchPipeline.StageName.PERSIST);
+                return;
+            case CACHE:
+                Log.d(TAG, "Answered POI search from cache: " + poiCache.describeStats());
+                job.poi = cycle.getPoi();
+                step.jumpTo(SearchPipeline.StageName.PERSIST);
+                return;
+            case INDEX:
+                Log.d(TAG, "Answered POI search from the local index (" + poiIndex.size() + " POIs known)");
+                job.poi = cycle.getPoi();
+                step.jumpTo(SearchPipeline.StageName.PERSIST);
+                return;
+            case EXHAUSTED:
+                Log.d(TAG, "Every known POI within " + cycle.getRadius() + " m was already shown");
+                step.jumpTo(SearchPipeline.StageName.NOTIFY);
+                return;
+            case STILL:
+                Log.d(TAG, "Device hasn't moved since the last search, skipping network ("
+                        + movementGate.getSkipCount() + " skipped, " + movementGate.getQueryCount() + " passed)");
+                step.jumpTo(SearchPipeline.StageName.NOTIFY);
+                return;
+            default:
+                break;
+        }
 
-        client.newCall(request).enqueue(new Callback() {
+        String query = searchCycle.planQuery(cycle, now);
+        if (cycle.getBoxes() != null) {
+            Log.d(TAG, "Searching the network within " + cycle.getRadius() + " m, "
+                    + tileCoverage.missingTileCount(cycle.getLatitude(), cycle.getLongitude(), cycle.getRadius(), now) + " of "
+                    + tileCoverage.tileCount(cycle.getLatitude(), cycle.getLongitude(), cycle.getRadius()) + " tiles missing in "
+                    + (cycle.getBoxes().length / 4) + " boxes");
+        } else {
+            Log.d(TAG, "Searching the network within " + cycle.getRadius() + " m, querying the whole circle");
+        }
+        OverpassClient.Search search = overpassClient.search(query, new OverpassClient.StreamCallback() {
             @Override
-            public void onFailure(Call call, IOException e) {
-                Log.e(TAG, "Error fetching POI data", e);
-                scheduleAlarm();
+            public void onSuccess(BufferedSource body) {
+                // The parse stage streams the body on the pipeline thread and closes it
+                if (!searchCoordinator.isCurrent(job.generation) || !job.handOff(body)) {
+                    closeQuietly(body);
+                    return;
+                }
+                step.next();
             }
 
             @Override
-            public void onResponse(Call call, Response response) throws IOException {
-                if (response.isSuccessful()) {
-                    String jsonData = response.body().string();
-                    parseAndNotify(jsonData);
+            public void onFailure(IOException e, long retryDelayMillis) {
+                if (!searchCoordinator.isCurrent(job.generation)) {
+                    return;
+                }
+                if (e instanceof OverpassThrottledException) {
+                    Log.d(TAG, "POI search deferred by quota, retrying in " + (retryDelayMillis / 1000) + " seconds");
                 } else {
-                    scheduleAlarm();
+                    Log.e(TAG, "Error fetching POI data, retrying in " + (retryDelayMillis / 1000) + " seconds", e);
                 }
+                step.jumpTo(SearchPipeline.StageName.NOTIFY);
             }
         });
+        searchCoordinator.attach(job.generation, search);
     }
 
     /**
-     * Construct the Overpass API query
+     * Construct the Overpass API query over the bounding boxes of the missing tiles
      */
-    private String constructOverpassQuery(double latitude, double longitude, int radius) {
-        return "[out:json];(" +
-                "node[\"leisure\"=\"park\"](around:" + radius + "," + latitude + "," + longitude + ");" +
-                "node[\"amenity\"=\"cafe\"](around:" + radius + "," + latitude + "," + longitude + ");" +
-                "node[\"amenity\"=\"restaurant\"](around:" + radius + "," + latitude + "," + longitude + ");" +
-                "node[\"tourism\"](around:" + radius + "," + latitude + "," + longitude + ");" +
-                "way[\"leisure\"=\"park\"](around:" + radius + "," + latitude + "," + longitude + ");" +
-                "way[\"amenity\"=\"cafe\"](around:" + radius + "," + latitude + "," + longitude + ");" +
-                "way[\"amenity\"=\"restaurant\"](around:" + radius + "," + latitude + "," + longitude + ");" +
-                "way[\"tourism\"](around:" + radius + "," + latitude + "," + longitude + ");" +
-                ");out center;";
+    private String constructOverpassQuery(double[] boxes) {
+        return queryBuilder.buildBoxes(boxes);
     }
 
     /**
-     * Parse the response from Overpass API and notify if a place is found
+     * Close a response no one will read
      *
-     * @param jsonData The JSON data returned from the Overpass API
+     * @param body The response, or null
      */
-    private void parseAndNotify(String jsonData) {
+    private static void closeQuietly(BufferedSource body) {
+        if (body == null) {
+            return;
+        }
         try {
-            JSONObject json = new JSONObject(jsonData);
-            JSONArray elements = json.getJSONArray("elements");
-            if (elements.length() > 0) {
-                int randomIndex = (int) (Math.random() * elements.length());
-                JSONObject poi = elements.getJSONObject(randomIndex);
+            body.close();
+        } catch (IOException e) {
+            Log.d(TAG, "Error closing an unread response: " + e.getMessage());
+        }
+    }
 
-                Log.d(TAG, "POI data: " + poi.toString());
+    /**
+     * Parse the Overpass response straight from the network into the index, then merge it with
+     * the held tiles into the response rows and the cache
+     *
+     * @param job The search, with the response body handed off by the query stage
+     * @throws IOException If the response is malformed or its connection fails
+     */
+    private void parseResponse(SearchJob job) throws IOException {
+        responseRows.clear();
+        BufferedSource body = job.takeBody();
+        if (body == null) {
+            throw new IOException("Response closed before it was parsed");
+        }
+        int count;
+        try {
+            if (RESPONSE_FORMAT == OverpassQueryBuilder.OutputFormat.CSV) {
+                count = new OverpassCsvParser().parse(body, responseRows);
+                Log.d(TAG, "Parsed " + count + " POI rows");
+            } else {
+                count = new OverpassStreamParser().parse(body, poiIndex);
+                Log.d(TAG, "Parsed " + count + " POI elements");
+            }
+        } finally {
+            body.close();
+        }
+        if (RESPONSE_FORMAT == OverpassQueryBuilder.OutputFormat.CSV) {
+            poiIndex.addAll(responseRows);
+        }
+        searchCycle.onResponse(job.cycle, count, responseRows, System.currentTimeMillis());
+        Log.d(TAG, "Cached POI search: " + poiCache.describeStats() + ", " + tileCoverage.describeStats());
+        saveDensities();
+    }
 
-                preferencesManager.savePlaceDetails(poi);
-                showPlaceFoundNotification();
-                hasFoundPlace = true;
+    /**
+     * Widen the search to the next ring if the response returned too few POIs
+     *
+     * @param job The search, after its response was parsed
+     * @return true if the radius grew and the query has to run again
+     */
+    private boolean expandSearch(SearchJob job) {
+        int radius = job.cycle.getRadius();
+        if (!searchCycle.expand(job.cycle)) {
+            return false;
+        }
+        Log.d(TAG, "Found " + job.cycle.getCount() + " POIs within " + radius + " m, expanding the search to "
+                + job.cycle.getRadius() + " m");
+        return true;
+    }
 
-                isSearching = false;
-                updateSearchNotification();
-                scheduleNextAutomaticSearch();
-            } else {
-                Log.d(TAG, "No POIs found in the area");
-                scheduleAlarm();
+    /**
+     * Pick the best ranked POI of the response the user hasn't been notified about
+     *
+     * @param job The search, with the POIs of its response in the response rows
+     * @return The POI, or null if every POI was seen
+     */
+    private Poi pickBestPoi(SearchJob job) {
+        Discovery latest = discoveryHistory.getLatest();
+        Poi poi = searchCycle.select(job.cycle, responseRows, latest != null ? PoiRanker.categoryOf(latest.getPoi()) : -1);
+        Log.d(TAG, "Ranked " + responseRows.size() + " POIs, picked " + (poi != null ? poi.getName() : "none")
+                + " of the top " + SearchCycle.TOP_K);
+        return poi;
+    }
+
+    /**
+     * Record the chosen POI in the history and the seen set
+     *
+     * @param poi The POI about to be shown
+     */
+    private void savePoi(Poi poi) {
+        discoveryHistory.add(poi, System.currentTimeMillis());
+        try {
+            seenPois.add(poi);
+        } catch (IOException e) {
+            Log.e(TAG, "Error saving seen POI", e);
+        }
+    }
+
+    /**
+     * Notify the user of the chosen POI, or retry later if nothing was found
+     *
+     * @param poi The chosen POI, or null if the search found nothing
+     * @return The delay until the next search in milliseconds
+     */
+    private long notifyPoi(Poi poi) {
+        if (poi != null) {
+            Log.d(TAG, "POI data: " + poi.toString());
+            showPlaceFoundNotification();
+            hasFoundPlace = true;
+
+            isSearching = false;
+            updateSearchNotification();
+            return scheduleNextAutomaticSearch();
+        } else {
+            Log.d(TAG, "No POIs found in the area");
+            return scheduleAlarm();
+        }
+    }
+
+    /**
+     * Fetch the tiles around where the device will be at the next search, while the radio is
+     * still awake from this one
+     *
+     * @param aheadMillis The delay until the next search
+     */
+    private void prefetch(long aheadMillis) {
+        long now = System.currentTimeMillis();
+        double[] prediction = prefetcher.predict(aheadMillis, SystemClock.elapsedRealtime(), now);
+        if (prediction == null) {
+            return;
+        }
+        final double latitude = prediction[0];
+        final double longitude = prediction[1];
+        final double radius = searchCycle.prefetchRadius(prediction, preferencesManager.getPoiSearchRadius(),
+                preferencesManager.getMovementThresholdFraction());
+        final double[] boxes = searchCycle.prefetchBoxes(latitude, longitude, radius, now);
+        Log.d(TAG, String.format(Locale.US, "Prefetching %.0f m around %.5f, %.5f at %.1f m/s towards %.0f degrees",
+                radius, latitude, longitude, prefetcher.getSpeedMetersPerSecond(), prefetcher.getBearingDegrees()));
+        if (boxes.length == 0) {
+            prefetcher.onPrefetched(latitude, longitude, radius, 0, now);
+            return;
+        }
+        final WakeBudget.Scope wake = wakeBudget.open("prefetch", now);
+        if (wake == null) {
+            return;
+        }
+        overpassClient.search(constructOverpassQuery(boxes), new OverpassClient.StreamCallback() {
+            @Override
+            public void onSuccess(final BufferedSource body) {
+                // Streamed on the pipeline thread like a search response, which closes it
+                try {
+                    searchExecutor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            parsePrefetch(body, boxes, latitude, longitude, radius);
+                            wake.close(System.currentTimeMillis());
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    Log.d(TAG, "Search pipeline busy or stopped, dropping the prefetched POI data");
+                    closeQuietly(body);
+                    wake.close(System.currentTimeMillis());
+                }
+            }
+
+            @Override
+            public void onFailure(IOException e, long retryDelayMillis) {
+                Log.d(TAG, "Prefetch failed: " + e.getMessage());
+                wake.close(System.currentTimeMillis());
+            }
+        });
+    }
+
+    /**
+     * Parse a prefetched response straight from the network into the index and mark its tiles held
+     *
+     * @param body  The response, closed once parsed
+     * @param boxes The missing tiles it was requested for
+     */
+    private void parsePrefetch(BufferedSource body, double[] boxes, double latitude, double longitude, double radius) {
+        ByteCountingSource counted = new ByteCountingSource(body);
+        try (BufferedSource response = Okio.buffer(counted)) {
+            int count = new OverpassStreamParser().parse(response, poiIndex);
+            searchCycle.onPrefetchResponse(boxes, count, System.currentTimeMillis());
+            prefetcher.onPrefetched(latitude, longitude, radius, counted.getByteCount(), System.currentTimeMillis());
+            Log.d(TAG, "Prefetched " + count + " POIs: " + prefetcher.describeStats(System.currentTimeMillis()));
+        } catch (IOException e) {
+            Log.e(TAG, "Error parsing prefetched POI data", e);
+        }
+    }
+
+    /**
+     * @return The learner of the areas the user stays in, fed by the searches
+     */
+    FrequentAreaLearner getAreaLearner() {
+        return areaLearner;
+    }
+
+    /**
+     * @return The client searches use, so bulk downloads count against the same quota
+     */
+    OverpassClient getOverpassClient() {
+        return overpassClient;
+    }
+
+    /**
+     * Write an area pack next to the others, replacing its previous pack, and start answering
+     * searches from it. Called on the bulk prefetch job's worker thread.
+     *
+     * @return The pack file
+     * @throws IOException If the pack can't be written or read back
+     */
+    File writeAreaPack(FrequentAreaLearner.Area area, RegionPackBuilder builder) throws IOException {
+        File directory = new File(getFilesDir(), REGION_PACK_DIRECTORY);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can't create " + directory);
+        }
+        String name = AREA_PACK_PREFIX + area.getName() + PACK_SUFFIX;
+        File file = new File(directory, name);
+        // Written aside and renamed, so a pack is never read half written
+        File temporary = new File(directory, name + TEMPORARY_SUFFIX);
+        try (BufferedSink sink = Okio.buffer(Okio.sink(temporary))) {
+            builder.write(sink);
+        }
+        if (!temporary.renameTo(file)) {
+            temporary.delete();
+            throw new IOException("Can't replace " + file);
+        }
+        RegionPack pack = RegionPack.open(file);
+        regionPacks.add(pack);
+        RegionPack previous = areaPacks.put(name, pack);
+        if (previous != null) {
+            regionPacks.remove(previous);
+        }
+        return file;
+    }
+
+    /**
+     * Delete the packs of areas that are no longer frequent
+     *
+     * @param areas The frequent areas
+     */
+    void deleteStaleAreaPacks(List<FrequentAreaLearner.Area> areas) {
+        List<String> names = new ArrayList<>();
+        for (FrequentAreaLearner.Area area : areas) {
+            names.add(AREA_PACK_PREFIX + area.getName() + PACK_SUFFIX);
+        }
+        for (String name : areaPacks.keySet()) {
+            if (!names.contains(name)) {
+                regionPacks.remove(areaPacks.remove(name));
+                if (new File(new File(getFilesDir(), REGION_PACK_DIRECTORY), name).delete()) {
+                    Log.d(TAG, "Deleted the pack of " + name + ", no longer a frequent area");
+                }
             }
-        } catch (JSONException e) {
-            Log.e(TAG, "Error parsing POI data", e);
-            scheduleAlarm();
         }
     }
 
@@ -372,15 +1111,45 @@ public class SpotNearService extends Service {
         if (alarmManager != null && alarmPendingIntent != null) {
             alarmManager.cancel(alarmPendingIntent);
         }
+        searchCoordinator.cancel();
+        if (locationAcquirer != null) {
+            locationAcquirer.stop();
+            Log.d(TAG, "Location: " + locationAcquirer.describeStats(SystemClock.elapsedRealtime()));
+        }
+        if (pipeline != null) {
+            pipeline.shutdown();
+            Log.d(TAG, "Search pipeline: " + pipeline.describeTimings());
+        }
+        Log.d(TAG, "Searches: " + searchCoordinator.describeStats());
+        if (wakeBudget != null) {
+            long now = System.currentTimeMillis();
+            int open = wakeBudget.closeAll(now);
+            Log.d(TAG, "Wake time: " + wakeBudget.describeStats(now) + ", " + open + " scopes still open");
+        }
         if (wakeLock != null && wakeLock.isHeld()) {
             wakeLock.release();
         }
         // Remove any pending automatic search
         handler.removeCallbacksAndMessages(null);
+        if (overpassClient != null) {
+            overpassClient.shutdown();
+        }
+        if (preferencesManager != null) {
+            preferencesManager.flushSoon();
+        }
     }
 
     @Override
     public IBinder onBind(Intent intent) {
-        return null;
+        return binder;
+    }
+
+    /**
+     * Hands the running service to the bulk prefetch job, in the same process
+     */
+    class LocalBinder extends Binder {
+        SpotNearService getService() {
+            return SpotNearService.this;
+        }
     }
 }
\ No newline at end of file
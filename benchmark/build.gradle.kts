@@ -0,0 +1,21 @@
+plugins {
+    java
+    id("me.champeau.jmh")
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_1_8
+    targetCompatibility = JavaVersion.VERSION_1_8
+}
+
+dependencies {
+    jmh(project(":core"))
+    jmh(testFixtures(project(":core")))
+}
+
+jmh {
+    jmhVersion.set("1.37")
+    // Report the allocation per operation next to the throughput
+    profilers.set(listOf("gc"))
+    resultFormat.set("JSON")
+}
@@ -0,0 +1,152 @@
+package com.example.spotnear;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import okio.Buffer;
+
+/**
+ * Throughput of the steps of a discovery cycle that run without a device: building the Overpass
+ * query, parsing a JSON response the way the service does, classifying the POIs for display
+ * and ranking them.
+ * <p>
+ * Responses of 10 KB, 1 MB and 10 MB are generated from fixed seeds, so every run measures the
+ * same bytes. Run {@link #main} from the IDE, or every benchmark with
+ * {@code ./gradlew :benchmark:jmh}; both add the GC profiler, whose {@code gc.alloc.rate.norm}
+ * is the allocation per operation.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DiscoveryCoreBenchmark {
+    private static final long SEED = 42;
+
+    /**
+     * A recorded-size response, parsed once for the classification and selection benchmarks
+     */
+    @State(Scope.Benchmark)
+    public static class Response {
+        @Param({"10KB", "1MB", "10MB"})
+        public String size;
+
+        byte[] json;
+        PoiBuffer rows;
+        List<Poi> pois;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            json = OverpassFixtures.jsonOfSize(parseSize(size), SEED).getBytes(StandardCharsets.UTF_8);
+            ParseResult result = parse(json);
+            rows = result.rows;
+            pois = result.collector.getPois();
+        }
+    }
+
+    /**
+     * The query builder of the service
+     */
+    @State(Scope.Benchmark)
+    public static class Query {
+        final OverpassQueryBuilder builder = new OverpassQueryBuilder(PoiCategory.DEFAULTS)
+                .setOutputFormat(OverpassQueryBuilder.OutputFormat.JSON)
+                .setLimit(200);
+        int radius = 1000;
+    }
+
+    /**
+     * The ranker of the service, with its output array
+     */
+    @State(Scope.Benchmark)
+    public static class Selection {
+        final PoiRanker ranker = new PoiRanker(8);
+        final int[] out = new int[8];
+    }
+
+    @Benchmark
+    public String queryConstruction(Query query) {
+        // Vary the radius like the ring expansion does, so the result isn't constant
+        query.radius = query.radius >= 8000 ? 1000 : query.radius * 2;
+        return query.builder.build(PoiFixtures.LATITUDE, PoiFixtures.LONGITUDE, query.radius);
+    }
+
+    @Benchmark
+    public int jsonParse(Response response) throws IOException {
+        return parse(response.json).count;
+    }
+
+    @Benchmark
+    public void classify(Response response, Blackhole blackhole) {
+        for (int i = 0; i < response.pois.size(); i++) {
+            blackhole.consume(PoiCategory.typeLabelOf(response.pois.get(i)));
+        }
+    }
+
+    @Benchmark
+    public int select(Response response, Selection selection) {
+        return selection.ranker.rank(response.rows, 32.05, 34.75, 10_000, null, selection.out);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(DiscoveryCoreBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+
+    /**
+     * The result of parsing a response into the structures the service fills
+     */
+    static final class ParseResult {
+        final PoiBuffer rows = new PoiBuffer();
+        final BoundedPoiCollector collector = new BoundedPoiCollector(Long.MAX_VALUE);
+        final PoiSpatialIndex index = new PoiSpatialIndex();
+        int count;
+    }
+
+    /**
+     * Parse a JSON response like {@code SpotNearService.parseResponse}
+     */
+    static ParseResult parse(byte[] json) throws IOException {
+        final ParseResult result = new ParseResult();
+        result.count = new OverpassStreamParser().parse(new Buffer().write(json), new OverpassStreamParser.ElementHandler() {
+            @Override
+            public void onElement(OverpassElement element) {
+                result.collector.onElement(element);
+                result.index.onElement(element);
+                if (element.hasPosition()) {
+                    result.rows.add(element);
+                }
+            }
+        });
+        return result;
+    }
+
+    static long parseSize(String size) {
+        if (size.endsWith("MB")) {
+            return Long.parseLong(size.substring(0, size.length() - 2)) * 1024 * 1024;
+        }
+        return Long.parseLong(size.substring(0, size.length() - 2)) * 1024;
+    }
+}
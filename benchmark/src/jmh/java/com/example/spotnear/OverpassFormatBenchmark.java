@@ -0,0 +1,93 @@
+package com.example.spotnear;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import okio.Buffer;
+
+/**
+ * Compares the JSON and CSV Overpass response formats: bytes on the wire and parse time.
+ * <p>
+ * Run {@link #main} from the IDE, or every benchmark with {@code ./gradlew :benchmark:jmh}.
+ * The main method first prints the raw and gzip-compressed response sizes, then runs the JMH
+ * parse benchmarks with the GC profiler so allocation per parse is reported too.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OverpassFormatBenchmark {
+    private static final long SEED = 42;
+
+    @Param({"100", "1000", "10000"})
+    public int elements;
+
+    private byte[] json;
+    private byte[] csv;
+    private final OverpassStreamParser jsonParser = new OverpassStreamParser();
+    private final OverpassCsvParser csvParser = new OverpassCsvParser();
+    private final PoiBuffer rows = new PoiBuffer();
+
+    @Setup
+    public void setUp() {
+        json = OverpassFixtures.json(elements, SEED).getBytes(StandardCharsets.UTF_8);
+        csv = OverpassFixtures.csv(elements, SEED).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public Poi json() throws IOException {
+        PoiReservoirSampler sampler = new PoiReservoirSampler(new Random(SEED));
+        jsonParser.parse(new Buffer().write(json), sampler);
+        return sampler.getSample();
+    }
+
+    @Benchmark
+    public int csv() throws IOException {
+        rows.clear();
+        return csvParser.parse(new Buffer().write(csv), rows);
+    }
+
+    public static void main(String[] args) throws RunnerException, IOException {
+        System.out.println("elements  json bytes  json gzip  csv bytes  csv gzip");
+        for (int elements : new int[]{100, 1000, 10000}) {
+            byte[] json = OverpassFixtures.json(elements, SEED).getBytes(StandardCharsets.UTF_8);
+            byte[] csv = OverpassFixtures.csv(elements, SEED).getBytes(StandardCharsets.UTF_8);
+            System.out.printf("%8d %11d %10d %10d %9d%n",
+                    elements, json.length, gzipSize(json), csv.length, gzipSize(csv));
+        }
+        new Runner(new OptionsBuilder()
+                .include(OverpassFormatBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+
+    private static int gzipSize(byte[] data) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+        gzip.write(data);
+        gzip.close();
+        return bytes.size();
+    }
+}
@@ -0,0 +1,73 @@
+package com.example.spotnear;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of ranking a response with {@link PoiRanker}, compared with the uniform random pick it replaced.
+ * <p>
+ * Candidates are spread over a 2 km radius with a mix of categories like an Overpass response,
+ * and one in ten is already in the {@link SeenPoiSet}. Run {@link #main} to get the GC profiler's
+ * allocation rate next to the timings.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PoiRankerBenchmark {
+    @Param({"1000", "10000", "100000"})
+    public int candidates;
+
+    private PoiBuffer pois;
+    private SeenPoiSet seen;
+    private final PoiRanker ranker = new PoiRanker(16);
+    private final int[] out = new int[16];
+    private final Random random = new Random(7);
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Random random = new Random(42);
+        pois = PoiFixtures.build(candidates, random);
+        seen = new SeenPoiSet();
+        for (int row = 0; row < candidates; row += 10) {
+            seen.add(pois.getId(row), pois.getType(row));
+        }
+    }
+
+    @Benchmark
+    public int rank() {
+        return ranker.rank(pois, PoiFixtures.LATITUDE, PoiFixtures.LONGITUDE, PoiFixtures.RADIUS, seen, out);
+    }
+
+    @Benchmark
+    public int randomPick() {
+        return random.nextInt(pois.size());
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(PoiRankerBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
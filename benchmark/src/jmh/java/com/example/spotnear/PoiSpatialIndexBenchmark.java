@@ -0,0 +1,113 @@
+package com.example.spotnear;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Radius query latency and memory of {@link PoiSpatialIndex} with synthetic POIs.
+ * <p>
+ * The POIs are spread uniformly over a one-degree square (about 110 x 95 km around Tel Aviv),
+ * so 1M points is roughly 100 POIs per square kilometre, far denser than real OSM data.
+ * Run {@link #main} from the IDE, or every benchmark with {@code ./gradlew :benchmark:jmh}.
+ * The main method first prints the heap retained per point, then runs the JMH query benchmarks
+ * with the GC profiler.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PoiSpatialIndexBenchmark {
+    private static final long SEED = 42;
+    private static final double SOUTH = 31.6;
+    private static final double WEST = 34.3;
+    private static final int QUERIES = 1024;
+
+    @Param({"100000", "1000000"})
+    public int points;
+
+    @Param({"500", "2000"})
+    public int radius;
+
+    private PoiSpatialIndex index;
+    private final double[] queryLatitudes = new double[QUERIES];
+    private final double[] queryLongitudes = new double[QUERIES];
+    private final int[] rows = new int[65536];
+    private final Random random = new Random(SEED);
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        index = build(points);
+        Random queries = new Random(SEED + 1);
+        for (int i = 0; i < QUERIES; i++) {
+            queryLatitudes[i] = SOUTH + 0.1 + queries.nextDouble() * 0.8;
+            queryLongitudes[i] = WEST + 0.1 + queries.nextDouble() * 0.8;
+        }
+    }
+
+    static PoiSpatialIndex build(int points) {
+        Random random = new Random(SEED);
+        PoiSpatialIndex index = new PoiSpatialIndex();
+        for (int i = 0; i < points; i++) {
+            index.add(new Poi(i + 1, "node", SOUTH + random.nextDouble(), WEST + random.nextDouble(),
+                    "Place " + i, "park", null, null));
+        }
+        // Pack the grid outside the measurement
+        index.query(SOUTH, WEST, 1, new int[0]);
+        return index;
+    }
+
+    @Benchmark
+    public int query() {
+        int i = next++ & (QUERIES - 1);
+        return index.query(queryLatitudes[i], queryLongitudes[i], radius, rows);
+    }
+
+    @Benchmark
+    public int sample() {
+        int i = next++ & (QUERIES - 1);
+        return index.sample(queryLatitudes[i], queryLongitudes[i], radius, random);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        System.out.println("  points  heap bytes/point  array bytes/point");
+        for (int points : new int[]{100_000, 1_000_000}) {
+            long before = usedHeap();
+            PoiSpatialIndex index = build(points);
+            long after = usedHeap();
+            System.out.printf("%8d %17.1f %18.1f%n", points,
+                    (after - before) / (double) points, index.capacityBytes() / (double) points);
+        }
+        new Runner(new OptionsBuilder()
+                .include(PoiSpatialIndexBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -9,4 +9,5 @@ plugins {
     id("com.android.library") version "7.3.1" apply false
 //    id("com.google.gms.google-services") version "4.4.1" apply false
     id("com.google.android.libraries.mapsplatform.secrets-gradle-plugin") version "2.0.1" apply false
+    id("me.champeau.jmh") version "0.7.2" apply false
 }
\ No newline at end of file
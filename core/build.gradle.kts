@@ -0,0 +1,17 @@
+plugins {
+    `java-library`
+    `java-test-fixtures`
+}
+
+// The discovery logic without Android dependencies, so it can be tested and benchmarked on the JVM
+java {
+    sourceCompatibility = JavaVersion.VERSION_1_8
+    targetCompatibility = JavaVersion.VERSION_1_8
+}
+
+dependencies {
+    api("com.squareup.okhttp3:okhttp:4.9.1")
+
+    testImplementation(libs.junit)
+    testImplementation("com.squareup.okhttp3:mockwebserver:4.9.1")
+}
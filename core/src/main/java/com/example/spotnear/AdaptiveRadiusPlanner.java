@@ -0,0 +1,164 @@
+package com.example.spotnear;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import okio.BufferedSink;
+import okio.BufferedSource;
+
+/**
+ * Chooses search radii so a search returns about a target number of POIs, whatever the area.
+ * <p>
+ * A fixed radius returns thousands of elements in a city centre and nothing in the countryside.
+ * Instead a search starts at the radius the known POI density predicts for the target count, and
+ * if the response falls short the next ring is searched at {@link #GROWTH_FACTOR} times the
+ * radius, up to a maximum. Densities are learned from every response and kept per cell
+ * of a coarse grid of {@link #CELL_DEGREES} degrees, the least recently used cells being dropped
+ * past {@link #MAX_CELLS}.
+ */
+public class AdaptiveRadiusPlanner {
+    public static final double CELL_DEGREES = 0.1;
+    public static final int GROWTH_FACTOR = 2;
+    public static final int MAX_CELLS = 4096;
+
+    // Weight of a new density measurement against the stored estimate
+    private static final double DENSITY_ALPHA = 0.5;
+    private static final int RADIUS_STEP = 50;
+
+    private final int targetCount;
+    private final int minRadius;
+    private final LinkedHashMap<Long, Double> densities = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Constructor
+     *
+     * @param targetCount The number of POIs a search should return
+     * @param minRadius   The smallest radius to search, in meters
+     */
+    public AdaptiveRadiusPlanner(int targetCount, int minRadius) {
+        this.targetCount = targetCount;
+        this.minRadius = minRadius;
+    }
+
+    public int getTargetCount() {
+        return targetCount;
+    }
+
+    /**
+     * Get the radius to start searching with
+     *
+     * @param maxRadius The largest radius to search, in meters
+     * @return The radius expected to hold the target count, or the minimum radius in an unknown area
+     */
+    public synchronized int initialRadius(double latitude, double longitude, int maxRadius) {
+        Double density = densities.get(cellKey(latitude, longitude));
+        if (density == null) {
+            return Math.min(minRadius, maxRadius);
+        }
+        if (density <= 0) {
+            return maxRadius;
+        }
+        double radius = Math.sqrt(targetCount / (Math.PI * density));
+        // Round so small density changes don't change the radius and its cache tiles
+        int rounded = (int) Math.round(radius / RADIUS_STEP) * RADIUS_STEP;
+        return Math.max(Math.min(minRadius, maxRadius), Math.min(maxRadius, rounded));
+    }
+
+    /**
+     * Get the radius of the next ring after a search came back
+     *
+     * @param radius    The radius just searched
+     * @param count     The number of POIs it returned
+     * @param truncated true if the server cut the response at its limit
+     * @param maxRadius The largest radius to search
+     * @return The next radius, or -1 if the search returned enough POIs or reached the maximum
+     */
+    public int nextRadius(int radius, int count, boolean truncated, int maxRadius) {
+        if (truncated || count >= targetCount || radius >= maxRadius) {
+            return -1;
+        }
+        return Math.min(maxRadius, radius * GROWTH_FACTOR);
+    }
+
+    /**
+     * Learn the density of an area from a search
+     *
+     * @param latitude  The latitude of the search center
+     * @param longitude The longitude of the search center
+     * @param radius    The search radius in meters
+     * @param count     The number of POIs returned
+     * @param truncated true if the server cut the response at its limit, making the count a lower bound
+     */
+    public synchronized void record(double latitude, double longitude, int radius, int count, boolean truncated) {
+        double measured = count / (Math.PI * radius * radius);
+        long key = cellKey(latitude, longitude);
+        Double stored = densities.get(key);
+        double density;
+        if (stored == null) {
+            density = measured;
+        } else if (truncated) {
+            density = Math.max(stored, measured);
+        } else {
+            density = stored + DENSITY_ALPHA * (measured - stored);
+        }
+        put(key, density);
+    }
+
+    /**
+     * @return The estimated density around a location in POIs per square kilometre, or NaN if unknown
+     */
+    public synchronized double getDensityPerSquareKm(double latitude, double longitude) {
+        Double density = densities.get(cellKey(latitude, longitude));
+        return density == null ? Double.NaN : density * 1e6;
+    }
+
+    public synchronized int size() {
+        return densities.size();
+    }
+
+    /**
+     * Write the learned densities, least recently used first
+     *
+     * @param sink Receives the densities
+     * @throws IOException If the sink fails
+     */
+    public synchronized void writeTo(BufferedSink sink) throws IOException {
+        sink.writeInt(densities.size());
+        for (Map.Entry<Long, Double> entry : densities.entrySet()) {
+            sink.writeLong(entry.getKey());
+            sink.writeLong(Double.doubleToLongBits(entry.getValue()));
+        }
+        sink.flush();
+    }
+
+    /**
+     * Read densities written by {@link #writeTo}
+     *
+     * @param source The densities
+     * @throws IOException If the source fails or is truncated
+     */
+    public synchronized void read(BufferedSource source) throws IOException {
+        int count = source.readInt();
+        for (int i = 0; i < count; i++) {
+            long key = source.readLong();
+            put(key, Double.longBitsToDouble(source.readLong()));
+        }
+    }
+
+    private void put(long key, double density) {
+        densities.put(key, density);
+        if (densities.size() > MAX_CELLS) {
+            Iterator<Long> eldest = densities.keySet().iterator();
+            eldest.next();
+            eldest.remove();
+        }
+    }
+
+    private static long cellKey(double latitude, double longitude) {
+        long row = (long) Math.floor((latitude + 90) / CELL_DEGREES);
+        long column = (long) Math.floor((longitude + 180) / CELL_DEGREES);
+        return row << 32 | column;
+    }
+}
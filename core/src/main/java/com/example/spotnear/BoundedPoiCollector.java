@@ -0,0 +1,69 @@
+package com.example.spotnear;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects streamed Overpass elements as POIs until a byte budget is reached.
+ * <p>
+ * Used to fill the {@link PoiCache} from a streamed response without letting a huge response
+ * grow memory use past what the cache could hold anyway.
+ */
+public class BoundedPoiCollector implements OverpassStreamParser.ElementHandler {
+    private final long maxBytes;
+    private List<Poi> pois = new ArrayList<>();
+    private long bytes;
+    private boolean overflowed;
+
+    /**
+     * Constructor
+     *
+     * @param maxBytes The largest estimated size the collected POIs may reach
+     */
+    public BoundedPoiCollector(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    @Override
+    public void onElement(OverpassElement element) {
+        if (!overflowed && element.hasPosition()) {
+            add(element.toPoi());
+        }
+    }
+
+    /**
+     * Collect the rows of a buffer filled by {@link OverpassCsvParser}
+     *
+     * @param buffer The parsed rows
+     */
+    public void addAll(PoiBuffer buffer) {
+        for (int row = 0; row < buffer.size() && !overflowed; row++) {
+            add(buffer.toPoi(row));
+        }
+    }
+
+    private void add(Poi poi) {
+        bytes += poi.estimatedBytes();
+        if (bytes > maxBytes) {
+            // Drop everything collected so far, a partial result must not be cached
+            overflowed = true;
+            pois = null;
+            return;
+        }
+        pois.add(poi);
+    }
+
+    /**
+     * @return true if the budget was exceeded and the POIs were discarded
+     */
+    public boolean isOverflowed() {
+        return overflowed;
+    }
+
+    /**
+     * @return The collected POIs, or null if the budget was exceeded
+     */
+    public List<Poi> getPois() {
+        return pois;
+    }
+}
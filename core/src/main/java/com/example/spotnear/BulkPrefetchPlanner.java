@@ -0,0 +1,80 @@
+package com.example.spotnear;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decides when the opportunistic bulk prefetch runs and which frequent areas it downloads.
+ * <p>
+ * The prefetch only runs on an unmetered network while the device is charging, so it costs
+ * neither data nor battery; the constraints are checked again before each area, since either
+ * may end during a run. An area is due if it was never fetched or its pack is older than the
+ * refresh interval. Each run downloads at most a few areas, the most frequented first.
+ */
+public class BulkPrefetchPlanner {
+    public static final long DEFAULT_REFRESH_MILLIS = 7 * WakeBudget.DAY_MILLIS;
+    public static final int DEFAULT_MAX_AREAS_PER_RUN = 4;
+
+    private final long refreshMillis;
+    private final int maxAreasPerRun;
+
+    /**
+     * Create a planner with the default refresh interval and areas per run
+     */
+    public BulkPrefetchPlanner() {
+        this(DEFAULT_REFRESH_MILLIS, DEFAULT_MAX_AREAS_PER_RUN);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param refreshMillis  How old a pack may get before its area is fetched again
+     * @param maxAreasPerRun The most areas downloaded by one run
+     */
+    public BulkPrefetchPlanner(long refreshMillis, int maxAreasPerRun) {
+        this.refreshMillis = refreshMillis;
+        this.maxAreasPerRun = maxAreasPerRun;
+    }
+
+    /**
+     * @param unmetered Whether the active network is unmetered
+     * @param charging  Whether the device is charging
+     * @return true if the prefetch may use the network now
+     */
+    public boolean canRun(boolean unmetered, boolean charging) {
+        return unmetered && charging;
+    }
+
+    /**
+     * Choose the areas to download
+     *
+     * @param areas     The frequent areas, most frequented first
+     * @param unmetered Whether the active network is unmetered
+     * @param charging  Whether the device is charging
+     * @param nowMillis The current wall clock time
+     * @return The areas due, most frequented first; empty if the constraints aren't met
+     */
+    public List<FrequentAreaLearner.Area> plan(List<FrequentAreaLearner.Area> areas, boolean unmetered,
+                                               boolean charging, long nowMillis) {
+        List<FrequentAreaLearner.Area> due = new ArrayList<>();
+        if (!canRun(unmetered, charging)) {
+            return due;
+        }
+        for (FrequentAreaLearner.Area area : areas) {
+            if (due.size() >= maxAreasPerRun) {
+                break;
+            }
+            if (isDue(area, nowMillis)) {
+                due.add(area);
+            }
+        }
+        return due;
+    }
+
+    /**
+     * @return true if the area was never fetched or its pack is older than the refresh interval
+     */
+    public boolean isDue(FrequentAreaLearner.Area area, long nowMillis) {
+        return area.getFetchedMillis() <= 0 || nowMillis - area.getFetchedMillis() >= refreshMillis;
+    }
+}
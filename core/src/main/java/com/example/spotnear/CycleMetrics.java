@@ -0,0 +1,246 @@
+package com.example.spotnear;
+
+import java.io.IOException;
+import java.util.Locale;
+
+import okio.BufferedSink;
+import okio.BufferedSource;
+
+/**
+ * Measurements of the latest discovery cycles, cheap enough to record on the hot path.
+ * <p>
+ * Each cycle is a row of {@link #METRIC_COUNT} values in one preallocated long array used as a
+ * ring buffer of the latest cycles, and every value is also counted in a
+ * {@link LogLinearHistogram} of its metric for percentiles over the whole run. Recording a value
+ * only writes to these arrays, so it never allocates. Durations are kept in microseconds, sizes
+ * in bytes. The rows are exported as CSV for the debug screen and for comparing builds.
+ */
+public class CycleMetrics {
+    public static final int LOCATION_FIX = 0;
+    public static final int DNS = 1;
+    public static final int CONNECT = 2;
+    public static final int TIME_TO_FIRST_BYTE = 3;
+    public static final int HTTP_TOTAL = 4;
+    public static final int RESPONSE_BYTES = 5;
+    public static final int PARSE = 6;
+    public static final int ELEMENTS = 7;
+    public static final int SELECTION = 8;
+    public static final int END_TO_END = 9;
+    public static final int METRIC_COUNT = 10;
+
+    public static final int DEFAULT_CAPACITY = 256;
+
+    private static final String[] NAMES = {
+            "location_fix_us", "dns_us", "connect_us", "ttfb_us", "http_total_us",
+            "response_bytes", "parse_us", "elements", "selection_us", "end_to_end_us"};
+    private static final long MISSING = -1;
+
+    private final int capacity;
+    private final long[] rows;
+    private final LogLinearHistogram[] histograms = new LogLinearHistogram[METRIC_COUNT];
+    private long cycleCount;
+    private boolean cycleOpen;
+
+    public CycleMetrics() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param capacity The number of cycles kept in the ring buffer
+     */
+    public CycleMetrics(int capacity) {
+        this.capacity = capacity;
+        this.rows = new long[capacity * METRIC_COUNT];
+        for (int i = 0; i < METRIC_COUNT; i++) {
+            histograms[i] = new LogLinearHistogram();
+        }
+    }
+
+    /**
+     * @return The column name of a metric, with its unit
+     */
+    public static String nameOf(int metric) {
+        return NAMES[metric];
+    }
+
+    /**
+     * Start a new row, ending the previous cycle if it is still open
+     */
+    public synchronized void beginCycle() {
+        cycleOpen = true;
+        int offset = (int) (cycleCount % capacity) * METRIC_COUNT;
+        for (int i = 0; i < METRIC_COUNT; i++) {
+            rows[offset + i] = MISSING;
+        }
+    }
+
+    /**
+     * Record a value in the row of the open cycle and in the histogram of its metric
+     *
+     * @param metric The metric
+     * @param value  The value in microseconds, bytes or elements
+     */
+    public synchronized void record(int metric, long value) {
+        histograms[metric].record(value);
+        if (cycleOpen) {
+            rows[(int) (cycleCount % capacity) * METRIC_COUNT + metric] = value;
+        }
+    }
+
+    /**
+     * Record a duration measured with {@link System#nanoTime()}
+     *
+     * @param metric    The metric
+     * @param startNanos When the measured work started
+     */
+    public void recordSince(int metric, long startNanos) {
+        record(metric, (System.nanoTime() - startNanos) / 1000);
+    }
+
+    /**
+     * Keep the row of the open cycle
+     */
+    public synchronized void endCycle() {
+        if (cycleOpen) {
+            cycleOpen = false;
+            cycleCount++;
+        }
+    }
+
+    /**
+     * @return The number of cycles ended so far
+     */
+    public synchronized long getCycleCount() {
+        return cycleCount;
+    }
+
+    /**
+     * @return The number of cycles kept in the ring buffer
+     */
+    public synchronized int size() {
+        return (int) Math.min(cycleCount, capacity);
+    }
+
+    /**
+     * Get a value of a kept cycle
+     *
+     * @param cycle  The cycle, 0 being the oldest kept
+     * @param metric The metric
+     * @return The value, or -1 if it wasn't recorded in that cycle
+     */
+    public synchronized long get(int cycle, int metric) {
+        long first = cycleCount - size();
+        return rows[(int) ((first + cycle) % capacity) * METRIC_COUNT + metric];
+    }
+
+    /**
+     * Get a percentile of a metric over every value recorded
+     *
+     * @param metric     The metric
+     * @param percentile The percentage, from 0 to 100
+     */
+    public synchronized long getPercentile(int metric, double percentile) {
+        return histograms[metric].getValueAtPercentile(percentile);
+    }
+
+    public synchronized long getCount(int metric) {
+        return histograms[metric].getTotalCount();
+    }
+
+    /**
+     * Describe the p50, p95, p99 and maximum of every metric recorded
+     */
+    public synchronized String describe() {
+        StringBuilder description = new StringBuilder();
+        description.append(cycleCount).append(" cycles\n");
+        for (int metric = 0; metric < METRIC_COUNT; metric++) {
+            LogLinearHistogram histogram = histograms[metric];
+            if (histogram.getTotalCount() == 0) {
+                continue;
+            }
+            description.append(String.format(Locale.US, "%-16s n=%-5d p50 %-9s p95 %-9s p99 %-9s max %s%n",
+                    NAMES[metric].replaceAll("_(us|bytes)$", ""), histogram.getTotalCount(),
+                    format(metric, histogram.getValueAtPercentile(50)),
+                    format(metric, histogram.getValueAtPercentile(95)),
+                    format(metric, histogram.getValueAtPercentile(99)),
+                    format(metric, histogram.getMax())));
+        }
+        return description.toString();
+    }
+
+    /**
+     * Write the kept cycles as CSV, oldest first
+     *
+     * @param sink Receives the rows
+     * @throws IOException If the sink fails
+     */
+    public synchronized void writeTo(BufferedSink sink) throws IOException {
+        for (int metric = 0; metric < METRIC_COUNT; metric++) {
+            if (metric > 0) {
+                sink.writeByte(',');
+            }
+            sink.writeUtf8(NAMES[metric]);
+        }
+        sink.writeByte('\n');
+        int size = size();
+        for (int cycle = 0; cycle < size; cycle++) {
+            for (int metric = 0; metric < METRIC_COUNT; metric++) {
+                if (metric > 0) {
+                    sink.writeByte(',');
+                }
+                long value = get(cycle, metric);
+                if (value != MISSING) {
+                    sink.writeDecimalLong(value);
+                }
+            }
+            sink.writeByte('\n');
+        }
+        sink.flush();
+    }
+
+    /**
+     * Record the cycles written by {@link #writeTo}
+     *
+     * @param source The CSV rows
+     * @throws IOException If the source fails or a row is malformed
+     */
+    public synchronized void read(BufferedSource source) throws IOException {
+        String header = source.readUtf8Line();
+        if (header == null) {
+            return;
+        }
+        String line;
+        while ((line = source.readUtf8Line()) != null) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            String[] values = line.split(",", -1);
+            if (values.length != METRIC_COUNT) {
+                throw new IOException("Expected " + METRIC_COUNT + " columns: " + line);
+            }
+            beginCycle();
+            try {
+                for (int metric = 0; metric < METRIC_COUNT; metric++) {
+                    if (!values[metric].isEmpty()) {
+                        record(metric, Long.parseLong(values[metric]));
+                    }
+                }
+            } catch (NumberFormatException e) {
+                throw new IOException("Malformed row: " + line, e);
+            }
+            endCycle();
+        }
+    }
+
+    private static String format(int metric, long value) {
+        if (metric == ELEMENTS) {
+            return Long.toString(value);
+        }
+        if (metric == RESPONSE_BYTES) {
+            return String.format(Locale.US, "%.1fKB", value / 1024.0);
+        }
+        return String.format(Locale.US, "%.1fms", value / 1000.0);
+    }
+}
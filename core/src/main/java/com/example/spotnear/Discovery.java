@@ -0,0 +1,33 @@
+package com.example.spotnear;
+
+/**
+ * A POI the service showed to the user, and when
+ */
+public final class Discovery {
+    private final Poi poi;
+    private final long discoveredAt;
+
+    /**
+     * Constructor
+     *
+     * @param poi          The POI
+     * @param discoveredAt When it was shown, in milliseconds since epoch
+     */
+    public Discovery(Poi poi, long discoveredAt) {
+        this.poi = poi;
+        this.discoveredAt = discoveredAt;
+    }
+
+    public Poi getPoi() {
+        return poi;
+    }
+
+    public long getDiscoveredAt() {
+        return discoveredAt;
+    }
+
+    @Override
+    public String toString() {
+        return poi + " at " + discoveredAt;
+    }
+}
@@ -0,0 +1,317 @@
+package com.example.spotnear;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Learns the areas the user stays in often, such as home, work and the ends of a commute, from
+ * the locations of the searches the service runs.
+ * <p>
+ * The world is cut into cells of {@link #CELL_DEGREES}. Two consecutive samples in the same cell
+ * credit the time between them, up to {@link #MAX_GAP_MILLIS}, to the cell's dwell time, so
+ * passing through a cell counts for nothing while staying in it does. Dwell time halves every
+ * {@link #HALF_LIFE_DAYS} days, and each cell remembers on which of the last
+ * {@link #DAY_WINDOW} days it was stayed in. A cell is a frequent area once it was stayed in on
+ * {@link #MIN_DAYS} of those days for {@link #MIN_DWELL_MILLIS} in all. At most
+ * {@link #MAX_CELLS} cells are tracked; the one with the least dwell time makes room for a new
+ * one. Cells, the last sample and the time each area was last fetched are saved to a
+ * {@link Store} so they survive process restarts.
+ * <p>
+ * Times are wall clock times.
+ */
+public class FrequentAreaLearner {
+    /**
+     * Persists the learned cells between process restarts
+     */
+    public interface Store {
+        /**
+         * @return The saved state, or null if nothing was saved yet
+         */
+        long[] loadAreaState();
+
+        /**
+         * Save the state returned by a later {@link #loadAreaState()}
+         */
+        void saveAreaState(long[] state);
+    }
+
+    /**
+     * A frequently visited cell
+     */
+    public static final class Area {
+        private final long key;
+        private final int row;
+        private final int column;
+        private final long dwellMillis;
+        private final int dayCount;
+        private final long fetchedMillis;
+
+        Area(long key, long dwellMillis, int dayCount, long fetchedMillis) {
+            this.key = key;
+            this.row = (int) (key >> 32);
+            this.column = (int) key;
+            this.dwellMillis = dwellMillis;
+            this.dayCount = dayCount;
+            this.fetchedMillis = fetchedMillis;
+        }
+
+        /**
+         * @return A name for the area, unique and stable across runs, such as for a file name
+         */
+        public String getName() {
+            return row + "_" + column;
+        }
+
+        /**
+         * @return The dwell time, decayed to today
+         */
+        public long getDwellMillis() {
+            return dwellMillis;
+        }
+
+        /**
+         * @return The number of days within the window the area was stayed in
+         */
+        public int getDayCount() {
+            return dayCount;
+        }
+
+        /**
+         * @return The time the area was last fetched, or 0 if never
+         */
+        public long getFetchedMillis() {
+            return fetchedMillis;
+        }
+
+        public double getCenterLatitude() {
+            return (row + 0.5) * CELL_DEGREES;
+        }
+
+        public double getCenterLongitude() {
+            return (column + 0.5) * CELL_DEGREES;
+        }
+
+        /**
+         * The bounding box of the cell grown by a margin, so searches anywhere in the cell with a
+         * radius up to the margin lie inside it
+         *
+         * @param marginMeters The margin around the cell in meters
+         * @return South, west, north and east
+         */
+        public double[] getBounds(double marginMeters) {
+            double latitudeMargin = marginMeters / GeoUtils.METERS_PER_DEGREE;
+            double south = row * CELL_DEGREES - latitudeMargin;
+            double north = (row + 1) * CELL_DEGREES + latitudeMargin;
+            // The side of the cell nearer the pole is narrower, so the widest margin is there
+            double maxLatitude = Math.max(Math.abs(south), Math.abs(north));
+            double longitudeMargin = latitudeMargin / Math.max(Math.cos(Math.toRadians(Math.min(maxLatitude, 89.9))), 1e-6);
+            return new double[]{south, column * CELL_DEGREES - longitudeMargin,
+                    north, (column + 1) * CELL_DEGREES + longitudeMargin};
+        }
+    }
+
+    // About 1.1 km north to south
+    public static final double CELL_DEGREES = 0.01;
+    // Longest gap between two samples in the same cell credited as a stay; a longer one may hide a
+    // trip away and back
+    public static final long MAX_GAP_MILLIS = 3 * 60 * 60 * 1000L;
+    public static final int HALF_LIFE_DAYS = 14;
+    public static final int DAY_WINDOW = 28;
+    public static final int MIN_DAYS = 3;
+    public static final long MIN_DWELL_MILLIS = 2 * 60 * 60 * 1000L;
+    public static final int MAX_CELLS = 64;
+
+    private static final int STATE_LAST_KEY = 0;
+    private static final int STATE_LAST_MILLIS = 1;
+    private static final int STATE_HEADER_SIZE = 2;
+    private static final int CELL_KEY = 0;
+    private static final int CELL_DWELL = 1;
+    private static final int CELL_DAY = 2;
+    private static final int CELL_DAY_MASK = 3;
+    private static final int CELL_FETCHED = 4;
+    private static final int CELL_SIZE = 5;
+    private static final long DAY_WINDOW_MASK = (1L << DAY_WINDOW) - 1;
+
+    private final Store store;
+    // Per cell: key, dwell time as of its day, its day, the days stayed in with bit 0 for its day,
+    // and the time it was last fetched
+    private final Map<Long, long[]> cells = new HashMap<>();
+    private long lastKey;
+    // 0 until the first sample
+    private long lastMillis;
+
+    /**
+     * Constructor
+     *
+     * @param store Persists the learned cells
+     */
+    public FrequentAreaLearner(Store store) {
+        this.store = store;
+        long[] state = store.loadAreaState();
+        if (state != null && state.length >= STATE_HEADER_SIZE
+                && (state.length - STATE_HEADER_SIZE) % CELL_SIZE == 0) {
+            lastKey = state[STATE_LAST_KEY];
+            lastMillis = state[STATE_LAST_MILLIS];
+            for (int i = STATE_HEADER_SIZE; i < state.length; i += CELL_SIZE) {
+                long[] cell = new long[CELL_SIZE];
+                System.arraycopy(state, i, cell, 0, CELL_SIZE);
+                cells.put(cell[CELL_KEY], cell);
+            }
+        }
+    }
+
+    /**
+     * Record where the device is
+     *
+     * @param latitude  The latitude of the device
+     * @param longitude The longitude of the device
+     * @param nowMillis The current time
+     */
+    public synchronized void record(double latitude, double longitude, long nowMillis) {
+        long key = key(latitude, longitude);
+        long gap = nowMillis - lastMillis;
+        if (lastMillis > 0 && key == lastKey && gap > 0) {
+            long today = day(nowMillis);
+            long[] cell = cells.get(key);
+            if (cell == null) {
+                if (cells.size() >= MAX_CELLS) {
+                    evict(today);
+                }
+                cell = new long[CELL_SIZE];
+                cell[CELL_KEY] = key;
+                cell[CELL_DAY] = today;
+                cells.put(key, cell);
+            }
+            roll(cell, today);
+            cell[CELL_DWELL] += Math.min(gap, MAX_GAP_MILLIS);
+            cell[CELL_DAY_MASK] |= 1;
+        }
+        lastKey = key;
+        lastMillis = nowMillis;
+        save();
+    }
+
+    /**
+     * @param nowMillis The current time
+     * @return The frequent areas, longest dwell time first
+     */
+    public synchronized List<Area> getFrequentAreas(long nowMillis) {
+        long today = day(nowMillis);
+        List<Area> areas = new ArrayList<>();
+        for (long[] cell : cells.values()) {
+            long dwell = decayedDwell(cell, today);
+            int days = Long.bitCount(shiftedMask(cell, today));
+            if (days >= MIN_DAYS && dwell >= MIN_DWELL_MILLIS) {
+                areas.add(new Area(cell[CELL_KEY], dwell, days, cell[CELL_FETCHED]));
+            }
+        }
+        Collections.sort(areas, new Comparator<Area>() {
+            @Override
+            public int compare(Area a, Area b) {
+                int byDwell = Long.compare(b.dwellMillis, a.dwellMillis);
+                return byDwell != 0 ? byDwell : Long.compare(a.key, b.key);
+            }
+        });
+        return areas;
+    }
+
+    /**
+     * Remember that an area was fetched
+     *
+     * @param area      The area
+     * @param nowMillis The current time
+     */
+    public synchronized void onFetched(Area area, long nowMillis) {
+        long[] cell = cells.get(area.key);
+        if (cell != null) {
+            cell[CELL_FETCHED] = nowMillis;
+            save();
+        }
+    }
+
+    /**
+     * @return The number of cells tracked
+     */
+    public synchronized int size() {
+        return cells.size();
+    }
+
+    public synchronized String describeStats(long nowMillis) {
+        List<Area> areas = getFrequentAreas(nowMillis);
+        StringBuilder builder = new StringBuilder()
+                .append(cells.size()).append(" cells, ")
+                .append(areas.size()).append(" frequent areas");
+        for (Area area : areas) {
+            builder.append(String.format(Locale.US, "; %s: %.1f h on %d days%s", area.getName(),
+                    area.getDwellMillis() / 3_600_000.0, area.getDayCount(),
+                    area.getFetchedMillis() > 0 ? ", fetched" : ""));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Bring a cell's dwell time and days forward to a later day
+     */
+    private static void roll(long[] cell, long today) {
+        if (today > cell[CELL_DAY]) {
+            cell[CELL_DWELL] = decayedDwell(cell, today);
+            cell[CELL_DAY_MASK] = shiftedMask(cell, today);
+            cell[CELL_DAY] = today;
+        }
+    }
+
+    private static long decayedDwell(long[] cell, long today) {
+        long days = today - cell[CELL_DAY];
+        return days <= 0 ? cell[CELL_DWELL] : (long) (cell[CELL_DWELL] * Math.pow(0.5, days / (double) HALF_LIFE_DAYS));
+    }
+
+    private static long shiftedMask(long[] cell, long today) {
+        long days = today - cell[CELL_DAY];
+        return days <= 0 ? cell[CELL_DAY_MASK] : days >= DAY_WINDOW ? 0 : cell[CELL_DAY_MASK] << days & DAY_WINDOW_MASK;
+    }
+
+    /**
+     * Forget the cell with the least dwell time
+     */
+    private void evict(long today) {
+        long[] least = null;
+        long leastDwell = Long.MAX_VALUE;
+        for (long[] cell : cells.values()) {
+            long dwell = decayedDwell(cell, today);
+            if (dwell < leastDwell) {
+                least = cell;
+                leastDwell = dwell;
+            }
+        }
+        if (least != null) {
+            cells.remove(least[CELL_KEY]);
+        }
+    }
+
+    private void save() {
+        long[] state = new long[STATE_HEADER_SIZE + cells.size() * CELL_SIZE];
+        state[STATE_LAST_KEY] = lastKey;
+        state[STATE_LAST_MILLIS] = lastMillis;
+        int i = STATE_HEADER_SIZE;
+        for (long[] cell : cells.values()) {
+            System.arraycopy(cell, 0, state, i, CELL_SIZE);
+            i += CELL_SIZE;
+        }
+        store.saveAreaState(state);
+    }
+
+    private static long day(long nowMillis) {
+        return Math.floorDiv(nowMillis, WakeBudget.DAY_MILLIS);
+    }
+
+    private static long key(double latitude, double longitude) {
+        int row = (int) Math.floor(latitude / CELL_DEGREES);
+        int column = (int) Math.floor(longitude / CELL_DEGREES);
+        return (long) row << 32 | (column & 0xffffffffL);
+    }
+}
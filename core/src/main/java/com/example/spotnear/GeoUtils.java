@@ -0,0 +1,34 @@
+package com.example.spotnear;
+
+/**
+ * Geographic helper functions shared by the POI search components
+ */
+public final class GeoUtils {
+    /**
+     * Mean earth radius in meters
+     */
+    public static final double EARTH_RADIUS_METERS = 6371008.8;
+
+    /**
+     * Length of one degree of latitude in meters
+     */
+    public static final double METERS_PER_DEGREE = Math.PI * EARTH_RADIUS_METERS / 180.0;
+
+    private GeoUtils() {
+    }
+
+    /**
+     * Great-circle distance between two coordinates using the haversine formula
+     *
+     * @return The distance in meters
+     */
+    public static double distanceMeters(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double sinLat = Math.sin(dLat / 2);
+        double sinLon = Math.sin(dLon / 2);
+        double a = sinLat * sinLat
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) * sinLon * sinLon;
+        return 2 * EARTH_RADIUS_METERS * Math.asin(Math.min(1.0, Math.sqrt(a)));
+    }
+}
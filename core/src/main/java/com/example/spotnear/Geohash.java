@@ -0,0 +1,168 @@
+package com.example.spotnear;
+
+/**
+ * Minimal geohash encoder and decoder used to key cached POI tiles
+ */
+public final class Geohash {
+    public static final int MIN_PRECISION = 1;
+    public static final int MAX_PRECISION = 9;
+
+    private static final char[] BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz".toCharArray();
+
+    private Geohash() {
+    }
+
+    /**
+     * Encode a coordinate as a geohash string
+     *
+     * @param latitude  The latitude in degrees
+     * @param longitude The longitude in degrees
+     * @param precision Number of characters, between {@link #MIN_PRECISION} and {@link #MAX_PRECISION}
+     * @return The geohash of the tile containing the coordinate
+     */
+    public static String encode(double latitude, double longitude, int precision) {
+        if (precision < MIN_PRECISION || precision > MAX_PRECISION) {
+            throw new IllegalArgumentException("Unsupported geohash precision: " + precision);
+        }
+        double minLat = -90, maxLat = 90;
+        double minLon = -180, maxLon = 180;
+        char[] hash = new char[precision];
+        boolean evenBit = true;
+        int bit = 0;
+        int ch = 0;
+        int length = 0;
+        while (length < precision) {
+            if (evenBit) {
+                double mid = (minLon + maxLon) / 2;
+                if (longitude >= mid) {
+                    ch = (ch << 1) | 1;
+                    minLon = mid;
+                } else {
+                    ch = ch << 1;
+                    maxLon = mid;
+                }
+            } else {
+                double mid = (minLat + maxLat) / 2;
+                if (latitude >= mid) {
+                    ch = (ch << 1) | 1;
+                    minLat = mid;
+                } else {
+                    ch = ch << 1;
+                    maxLat = mid;
+                }
+            }
+            evenBit = !evenBit;
+            if (++bit == 5) {
+                hash[length++] = BASE32[ch];
+                bit = 0;
+                ch = 0;
+            }
+        }
+        return new String(hash);
+    }
+
+    /**
+     * Decode a geohash into the bounds of its tile
+     *
+     * @param hash The geohash
+     * @return South, west, north and east of the tile
+     */
+    public static double[] decodeBounds(String hash) {
+        if (hash.length() < MIN_PRECISION || hash.length() > MAX_PRECISION) {
+            throw new IllegalArgumentException("Unsupported geohash precision: " + hash.length());
+        }
+        double minLat = -90, maxLat = 90;
+        double minLon = -180, maxLon = 180;
+        boolean evenBit = true;
+        for (int i = 0; i < hash.length(); i++) {
+            int ch = indexOf(hash.charAt(i));
+            for (int bit = 4; bit >= 0; bit--) {
+                boolean set = (ch >> bit & 1) == 1;
+                if (evenBit) {
+                    double mid = (minLon + maxLon) / 2;
+                    if (set) {
+                        minLon = mid;
+                    } else {
+                        maxLon = mid;
+                    }
+                } else {
+                    double mid = (minLat + maxLat) / 2;
+                    if (set) {
+                        minLat = mid;
+                    } else {
+                        maxLat = mid;
+                    }
+                }
+                evenBit = !evenBit;
+            }
+        }
+        return new double[]{minLat, minLon, maxLat, maxLon};
+    }
+
+    /**
+     * Find the tile next to another, wrapping around the antimeridian
+     *
+     * @param hash           The geohash of the tile
+     * @param latitudeSteps  Tiles to the north, negative to the south
+     * @param longitudeSteps Tiles to the east, negative to the west
+     * @return The geohash of the neighbour at the same precision, or null beyond a pole
+     */
+    public static String neighbor(String hash, int latitudeSteps, int longitudeSteps) {
+        double[] bounds = decodeBounds(hash);
+        double height = bounds[2] - bounds[0];
+        double width = bounds[3] - bounds[1];
+        double latitude = (bounds[0] + bounds[2]) / 2 + latitudeSteps * height;
+        if (latitude <= -90 || latitude >= 90) {
+            return null;
+        }
+        double longitude = (bounds[1] + bounds[3]) / 2 + longitudeSteps * width;
+        longitude = ((longitude + 180) % 360 + 360) % 360 - 180;
+        return encode(latitude, longitude, hash.length());
+    }
+
+    private static int indexOf(char c) {
+        for (int i = 0; i < BASE32.length; i++) {
+            if (BASE32[i] == c) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Invalid geohash character: " + c);
+    }
+
+    /**
+     * Width (east-west extent at the equator) of a tile at the given precision
+     *
+     * @param precision The geohash precision
+     * @return The tile width in meters
+     */
+    public static double tileWidthMeters(int precision) {
+        int lonBits = (5 * precision + 1) / 2;
+        return 360.0 / (1L << lonBits) * GeoUtils.METERS_PER_DEGREE;
+    }
+
+    /**
+     * Height (north-south extent) of a tile at the given precision
+     *
+     * @param precision The geohash precision
+     * @return The tile height in meters
+     */
+    public static double tileHeightMeters(int precision) {
+        int latBits = (5 * precision) / 2;
+        return 180.0 / (1L << latBits) * GeoUtils.METERS_PER_DEGREE;
+    }
+
+    /**
+     * Choose the coarsest precision whose tiles are no larger than the given size
+     *
+     * @param maxTileMeters The largest acceptable tile edge in meters
+     * @return A geohash precision
+     */
+    public static int precisionForTileSize(double maxTileMeters) {
+        for (int precision = MIN_PRECISION; precision < MAX_PRECISION; precision++) {
+            if (Math.max(tileWidthMeters(precision), tileHeightMeters(precision)) <= maxTileMeters) {
+                return precision;
+            }
+        }
+        return MAX_PRECISION;
+    }
+}
@@ -0,0 +1,106 @@
+package com.example.spotnear;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.List;
+
+import okhttp3.Call;
+import okhttp3.EventListener;
+import okhttp3.Protocol;
+
+/**
+ * Times the phases of an HTTP call into {@link CycleMetrics}.
+ * <p>
+ * One listener is created per call, so concurrent hedged calls don't mix their timings. Values
+ * are only recorded when a call completes, so a call cancelled by the hedge it lost doesn't count.
+ * DNS and connect times are only recorded when the call didn't reuse a pooled connection.
+ */
+public class HttpMetricsListener extends EventListener {
+    private final CycleMetrics metrics;
+    private long callStart;
+    private long dnsStart;
+    private long dnsNanos = -1;
+    private long connectStart;
+    private long connectNanos = -1;
+    private long firstByteNanos = -1;
+    private long bodyBytes = -1;
+
+    public HttpMetricsListener(CycleMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Create a listener for every call of a client
+     *
+     * @param metrics Receives the timings
+     */
+    public static EventListener.Factory factory(final CycleMetrics metrics) {
+        return new EventListener.Factory() {
+            @Override
+            public EventListener create(Call call) {
+                return new HttpMetricsListener(metrics);
+            }
+        };
+    }
+
+    @Override
+    public void callStart(Call call) {
+        callStart = System.nanoTime();
+    }
+
+    @Override
+    public void dnsStart(Call call, String domainName) {
+        dnsStart = System.nanoTime();
+    }
+
+    @Override
+    public void dnsEnd(Call call, String domainName, List<InetAddress> inetAddressList) {
+        dnsNanos = System.nanoTime() - dnsStart;
+    }
+
+    @Override
+    public void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy) {
+        connectStart = System.nanoTime();
+    }
+
+    @Override
+    public void connectEnd(Call call, InetSocketAddress inetSocketAddress, Proxy proxy, Protocol protocol) {
+        connectNanos = System.nanoTime() - connectStart;
+    }
+
+    @Override
+    public void responseHeadersStart(Call call) {
+        if (firstByteNanos < 0) {
+            firstByteNanos = System.nanoTime() - callStart;
+        }
+    }
+
+    @Override
+    public void responseBodyEnd(Call call, long byteCount) {
+        bodyBytes = byteCount;
+    }
+
+    @Override
+    public void callEnd(Call call) {
+        if (dnsNanos >= 0) {
+            metrics.record(CycleMetrics.DNS, dnsNanos / 1000);
+        }
+        if (connectNanos >= 0) {
+            metrics.record(CycleMetrics.CONNECT, connectNanos / 1000);
+        }
+        if (firstByteNanos >= 0) {
+            metrics.record(CycleMetrics.TIME_TO_FIRST_BYTE, firstByteNanos / 1000);
+        }
+        if (bodyBytes >= 0) {
+            metrics.record(CycleMetrics.RESPONSE_BYTES, bodyBytes);
+        }
+        metrics.recordSince(CycleMetrics.HTTP_TOTAL, callStart);
+    }
+
+    @Override
+    public void callFailed(Call call, IOException ioe) {
+        // Failed and cancelled calls have no meaningful timings
+    }
+}
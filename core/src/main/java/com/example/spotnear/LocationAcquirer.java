@@ -0,0 +1,339 @@
+package com.example.spotnear;
+
+/**
+ * Gets a location fix for a search at the lowest power cost that is accurate enough.
+ * <p>
+ * Turning on the sensors for every search costs a GPS or network fix even when the device has
+ * not moved, or when another app has just located it. Instead a fix is taken from the cheapest
+ * source that is fresh enough for the search radius, in order: the latest fix received, the last
+ * fix the provider computed, and only then an active fix. A fix is fresh enough while its accuracy
+ * plus the distance the device may have covered since it was taken stays within a fraction of the
+ * radius, so a wide search tolerates an older fix than a narrow one.
+ * <p>
+ * Between searches the acquirer listens to passive updates, which cost nothing of our own. When
+ * the fixes show the device moving it switches to batched updates, which the provider may hold
+ * back and deliver together, keeping the last known fix fresh without waking the app each time.
+ */
+public class LocationAcquirer implements LocationSource.UpdateListener {
+    /**
+     * Receives every fix the acquirer keeps, in time order
+     */
+    public interface TrackListener {
+        void onFix(LocationFix fix);
+    }
+
+    public static final int MODE_STOPPED = 0;
+    public static final int MODE_PASSIVE = 1;
+    public static final int MODE_BATCHED = 2;
+
+    // Speed assumed for a fix without one while the device moves or stays, in meters per second
+    public static final float WALKING_SPEED = 1.4f;
+    public static final float STILL_SPEED = 0.1f;
+    // Speed from which the device counts as moving, in meters per second
+    public static final float MOVING_SPEED = 0.5f;
+
+    private static final long HOUR_MILLIS = 60 * 60 * 1000L;
+    // Times of the latest active fixes, enough to count them over the last hour
+    private static final int ACTIVE_FIX_HISTORY = 64;
+
+    private final LocationSource source;
+    private final long batchIntervalMillis;
+    private final long maxUpdateDelayMillis;
+    private double thresholdFraction;
+
+    private LocationFix latest;
+    private TrackListener trackListener;
+    private boolean moving;
+    private int mode = MODE_STOPPED;
+
+    private final long[] activeFixTimes = new long[ACTIVE_FIX_HISTORY];
+    private long requestCount;
+    private long reusedCount;
+    private long lastKnownCount;
+    private long activeCount;
+    private long updateCount;
+    private long modeSwitchCount;
+
+    /**
+     * Constructor
+     *
+     * @param source               Provides the fixes
+     * @param thresholdFraction    Fraction of the search radius a fix may be off by
+     * @param batchIntervalMillis  The interval between fixes while the device moves
+     * @param maxUpdateDelayMillis How long the provider may hold back fixes while the device moves
+     */
+    public LocationAcquirer(LocationSource source, double thresholdFraction, long batchIntervalMillis,
+                            long maxUpdateDelayMillis) {
+        this.source = source;
+        this.thresholdFraction = thresholdFraction;
+        this.batchIntervalMillis = batchIntervalMillis;
+        this.maxUpdateDelayMillis = maxUpdateDelayMillis;
+    }
+
+    /**
+     * Change the fraction of the search radius a fix may be off by
+     */
+    public synchronized void setThresholdFraction(double thresholdFraction) {
+        this.thresholdFraction = thresholdFraction;
+    }
+
+    /**
+     * Follow the fixes the acquirer keeps, such as to estimate the trajectory
+     *
+     * @param listener The listener, or null to stop
+     */
+    public synchronized void setTrackListener(TrackListener listener) {
+        this.trackListener = listener;
+    }
+
+    /**
+     * Start listening to passive updates
+     */
+    public void start() {
+        synchronized (this) {
+            if (mode != MODE_STOPPED) {
+                return;
+            }
+            mode = MODE_PASSIVE;
+        }
+        source.requestPassiveUpdates(this);
+    }
+
+    /**
+     * Stop listening to updates
+     */
+    public void stop() {
+        synchronized (this) {
+            if (mode == MODE_STOPPED) {
+                return;
+            }
+            mode = MODE_STOPPED;
+        }
+        source.removeUpdates(this);
+    }
+
+    /**
+     * Get a fix fresh enough for a search
+     *
+     * @param radius    The search radius in meters
+     * @param nowMillis The current time on the elapsed realtime clock
+     * @param callback  Receives the fix, or null if none could be taken
+     */
+    public void acquire(final int radius, final long nowMillis, final LocationSource.Callback callback) {
+        LocationFix fix;
+        synchronized (this) {
+            requestCount++;
+            fix = isFresh(latest, radius, nowMillis) ? latest : null;
+            if (fix != null) {
+                reusedCount++;
+            }
+        }
+        if (fix != null) {
+            callback.onFix(fix);
+            return;
+        }
+        source.getLastFix(new LocationSource.Callback() {
+            @Override
+            public void onFix(LocationFix fix) {
+                if (fix != null) {
+                    offer(fix);
+                }
+                synchronized (LocationAcquirer.this) {
+                    if (!isFresh(fix, radius, nowMillis)) {
+                        fix = null;
+                    } else {
+                        lastKnownCount++;
+                    }
+                }
+                if (fix != null) {
+                    callback.onFix(fix);
+                } else {
+                    requestActiveFix(nowMillis, callback);
+                }
+            }
+
+            @Override
+            public void onError(Exception e) {
+                requestActiveFix(nowMillis, callback);
+            }
+        });
+    }
+
+    @Override
+    public void onFixes(LocationFix[] fixes) {
+        synchronized (this) {
+            updateCount += fixes.length;
+        }
+        for (LocationFix fix : fixes) {
+            offer(fix);
+        }
+    }
+
+    /**
+     * Check whether a fix is accurate enough for a search radius
+     *
+     * @param fix       The fix, or null
+     * @param radius    The search radius in meters
+     * @param nowMillis The current time on the elapsed realtime clock
+     * @return true if the fix and the distance covered since stay within the threshold
+     */
+    public synchronized boolean isFresh(LocationFix fix, int radius, long nowMillis) {
+        if (fix == null) {
+            return false;
+        }
+        float speed;
+        if (fix.hasSpeed()) {
+            speed = Math.max(fix.getSpeedMetersPerSecond(), STILL_SPEED);
+        } else {
+            speed = moving ? WALKING_SPEED : STILL_SPEED;
+        }
+        long ageMillis = Math.max(0, nowMillis - fix.getElapsedMillis());
+        double uncertainty = fix.getAccuracyMeters() + speed * ageMillis / 1000.0;
+        return uncertainty <= thresholdFraction * radius;
+    }
+
+    public synchronized int getMode() {
+        return mode;
+    }
+
+    public synchronized boolean isMoving() {
+        return moving;
+    }
+
+    public synchronized LocationFix getLatest() {
+        return latest;
+    }
+
+    public synchronized long getRequestCount() {
+        return requestCount;
+    }
+
+    /**
+     * @return The number of requests answered with the latest fix received
+     */
+    public synchronized long getReusedCount() {
+        return reusedCount;
+    }
+
+    /**
+     * @return The number of requests answered with the last fix the provider computed
+     */
+    public synchronized long getLastKnownCount() {
+        return lastKnownCount;
+    }
+
+    /**
+     * @return The number of requests that turned on the sensors
+     */
+    public synchronized long getActiveCount() {
+        return activeCount;
+    }
+
+    /**
+     * @return The number of fixes received from subscriptions
+     */
+    public synchronized long getUpdateCount() {
+        return updateCount;
+    }
+
+    public synchronized long getModeSwitchCount() {
+        return modeSwitchCount;
+    }
+
+    /**
+     * Count the active fixes taken during the last hour
+     *
+     * @param nowMillis The current time on the elapsed realtime clock
+     * @return The count, at most the number of fix times kept
+     */
+    public synchronized int getActiveFixesPerHour(long nowMillis) {
+        int count = 0;
+        int kept = (int) Math.min(activeCount, ACTIVE_FIX_HISTORY);
+        for (int i = 0; i < kept; i++) {
+            if (nowMillis - activeFixTimes[i] < HOUR_MILLIS) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public synchronized String describeStats(long nowMillis) {
+        return requestCount + " fixes requested: " + reusedCount + " reused, " + lastKnownCount + " last known, "
+                + activeCount + " active (" + getActiveFixesPerHour(nowMillis) + " in the last hour); "
+                + updateCount + " updates received, " + (mode == MODE_BATCHED ? "batched" : mode == MODE_PASSIVE
+                ? "passive" : "stopped") + " updates";
+    }
+
+    private void requestActiveFix(long nowMillis, final LocationSource.Callback callback) {
+        synchronized (this) {
+            activeFixTimes[(int) (activeCount % ACTIVE_FIX_HISTORY)] = nowMillis;
+            activeCount++;
+        }
+        source.requestActiveFix(new LocationSource.Callback() {
+            @Override
+            public void onFix(LocationFix fix) {
+                if (fix != null) {
+                    offer(fix);
+                }
+                callback.onFix(fix);
+            }
+
+            @Override
+            public void onError(Exception e) {
+                callback.onError(e);
+            }
+        });
+    }
+
+    /**
+     * Keep the newest fix and switch the subscription if the device started or stopped moving
+     */
+    private void offer(LocationFix fix) {
+        int newMode;
+        TrackListener listener;
+        boolean switchMode;
+        synchronized (this) {
+            if (latest != null && fix.getElapsedMillis() <= latest.getElapsedMillis()) {
+                return;
+            }
+            moving = isMoving(latest, fix);
+            latest = fix;
+            listener = trackListener;
+            newMode = moving ? MODE_BATCHED : MODE_PASSIVE;
+            switchMode = mode != MODE_STOPPED && mode != newMode;
+            if (switchMode) {
+                mode = newMode;
+                modeSwitchCount++;
+            }
+        }
+        if (listener != null) {
+            listener.onFix(fix);
+        }
+        if (!switchMode) {
+            return;
+        }
+        source.removeUpdates(this);
+        if (newMode == MODE_BATCHED) {
+            source.requestBatchedUpdates(batchIntervalMillis, maxUpdateDelayMillis, this);
+        } else {
+            source.requestPassiveUpdates(this);
+        }
+    }
+
+    private boolean isMoving(LocationFix previous, LocationFix fix) {
+        if (fix.hasSpeed()) {
+            return fix.getSpeedMetersPerSecond() >= MOVING_SPEED;
+        }
+        if (previous == null) {
+            return moving;
+        }
+        double distance = GeoUtils.distanceMeters(previous.getLatitude(), previous.getLongitude(),
+                fix.getLatitude(), fix.getLongitude());
+        // Jitter within the accuracy of the fixes isn't movement
+        if (distance <= Math.max(previous.getAccuracyMeters(), fix.getAccuracyMeters())) {
+            return false;
+        }
+        long elapsed = fix.getElapsedMillis() - previous.getElapsedMillis();
+        return distance * 1000.0 / elapsed >= MOVING_SPEED;
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.spotnear;
+
+/**
+ * A location fix, free of Android types so the location logic can run on the JVM
+ */
+public final class LocationFix {
+    private final double latitude;
+    private final double longitude;
+    private final float accuracyMeters;
+    private final float speedMetersPerSecond;
+    private final long elapsedMillis;
+
+    /**
+     * Constructor
+     *
+     * @param latitude             The latitude
+     * @param longitude            The longitude
+     * @param accuracyMeters       The horizontal accuracy, or 0 if unknown
+     * @param speedMetersPerSecond The measured speed, or NaN if unknown
+     * @param elapsedMillis        When the fix was taken, on the elapsed realtime clock
+     */
+    public LocationFix(double latitude, double longitude, float accuracyMeters, float speedMetersPerSecond,
+                       long elapsedMillis) {
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.accuracyMeters = accuracyMeters;
+        this.speedMetersPerSecond = speedMetersPerSecond;
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    public double getLatitude() {
+        return latitude;
+    }
+
+    public double getLongitude() {
+        return longitude;
+    }
+
+    public float getAccuracyMeters() {
+        return accuracyMeters;
+    }
+
+    /**
+     * @return The measured speed in meters per second, or NaN if unknown
+     */
+    public float getSpeedMetersPerSecond() {
+        return speedMetersPerSecond;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    public boolean hasSpeed() {
+        return !Float.isNaN(speedMetersPerSecond);
+    }
+
+    @Override
+    public String toString() {
+        return "LocationFix{" + latitude + ", " + longitude + " ±" + accuracyMeters + " m at " + elapsedMillis + "}";
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.spotnear;
+
+/**
+ * Where {@link LocationAcquirer} gets its fixes from: the fused location provider in the app,
+ * a fake in tests
+ */
+public interface LocationSource {
+    /**
+     * Receives the fix of a one-off request
+     */
+    interface Callback {
+        /**
+         * @param fix The fix, or null if none is available
+         */
+        void onFix(LocationFix fix);
+
+        void onError(Exception e);
+    }
+
+    /**
+     * Receives the fixes of a subscription, possibly several at once
+     */
+    interface UpdateListener {
+        void onFixes(LocationFix[] fixes);
+    }
+
+    /**
+     * Get the last fix the provider computed, without turning on any sensor
+     */
+    void getLastFix(Callback callback);
+
+    /**
+     * Turn on the sensors for a new fix
+     */
+    void requestActiveFix(Callback callback);
+
+    /**
+     * Only receive the fixes other requests cause, at no power cost of our own
+     */
+    void requestPassiveUpdates(UpdateListener listener);
+
+    /**
+     * Receive fixes at an interval, delivered in batches
+     *
+     * @param intervalMillis The interval between fixes
+     * @param maxDelayMillis How long fixes may be held back to be delivered together
+     */
+    void requestBatchedUpdates(long intervalMillis, long maxDelayMillis, UpdateListener listener);
+
+    /**
+     * Stop the current subscription
+     */
+    void removeUpdates(UpdateListener listener);
+}
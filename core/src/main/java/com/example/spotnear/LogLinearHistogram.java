@@ -0,0 +1,113 @@
+package com.example.spotnear;
+
+import java.util.Arrays;
+
+/**
+ * Counts non-negative values in buckets of bounded relative width, like HdrHistogram.
+ * <p>
+ * Values below {@link #SUB_BUCKETS} get a bucket each. Above that every power of two is split
+ * into {@link #SUB_BUCKETS} / 2 linear buckets, so a bucket is never wider than about 6% of the
+ * values it holds, whatever their magnitude. The counts live in one preallocated array covering
+ * the whole range of long, so recording a value never allocates.
+ */
+public class LogLinearHistogram {
+    public static final int SUB_BUCKETS = 32;
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int HALF = SUB_BUCKETS / 2;
+    private static final int BUCKETS = SUB_BUCKETS + (64 - SUB_BUCKET_BITS) * HALF;
+
+    private final long[] counts = new long[BUCKETS];
+    private long totalCount;
+    private long min = Long.MAX_VALUE;
+    private long max;
+    private double sum;
+
+    /**
+     * Count a value
+     *
+     * @param value The value; negative values count as 0
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts[bucketOf(value)]++;
+        totalCount++;
+        sum += value;
+        if (value < min) {
+            min = value;
+        }
+        if (value > max) {
+            max = value;
+        }
+    }
+
+    /**
+     * Get the value a percentage of the recorded values are at or below
+     *
+     * @param percentile The percentage, from 0 to 100
+     * @return The highest value of the bucket reaching the percentage, or 0 if nothing was recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (totalCount == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(percentile / 100.0 * totalCount));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= target) {
+                return Math.max(min, Math.min(max, highestValueOf(i)));
+            }
+        }
+        return max;
+    }
+
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    /**
+     * @return The smallest recorded value, or 0 if nothing was recorded
+     */
+    public long getMin() {
+        return totalCount == 0 ? 0 : min;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public double getMean() {
+        return totalCount == 0 ? 0 : sum / totalCount;
+    }
+
+    public void reset() {
+        Arrays.fill(counts, 0);
+        totalCount = 0;
+        min = Long.MAX_VALUE;
+        max = 0;
+        sum = 0;
+    }
+
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        // Keep the SUB_BUCKET_BITS most significant bits
+        int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return SUB_BUCKETS + (shift - 1) * HALF + (int) (value >>> shift) - HALF;
+    }
+
+    static long highestValueOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int offset = bucket - SUB_BUCKETS;
+        int shift = offset / HALF + 1;
+        long mantissa = offset % HALF + HALF;
+        long highest = ((mantissa + 1) << shift) - 1;
+        // The last bucket ends at the largest long
+        return highest < 0 ? Long.MAX_VALUE : highest;
+    }
+}
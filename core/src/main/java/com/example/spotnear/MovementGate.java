@@ -0,0 +1,121 @@
+package com.example.spotnear;
+
+/**
+ * Decides whether a new location fix is worth a network search.
+ * <p>
+ * The gate remembers where the last successful Overpass query was made. A fix closer to that
+ * point than a fraction of the search radius would mostly return the same places, so the network
+ * stage is skipped. Each consecutive skipped fix also stretches the next search interval
+ * geometrically, up to a cap, and the first fix that moves far enough resets it.
+ */
+public class MovementGate {
+    public static final float DEFAULT_THRESHOLD_FRACTION = 0.25f;
+    public static final int DEFAULT_MAX_STRETCH = 8;
+
+    private final int maxStretch;
+    private double thresholdFraction;
+    private boolean hasAnchor;
+    private double anchorLatitude;
+    private double anchorLongitude;
+    private int stillCount;
+    private long queryCount;
+    private long skipCount;
+
+    public MovementGate() {
+        this(DEFAULT_THRESHOLD_FRACTION, DEFAULT_MAX_STRETCH);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param thresholdFraction Fraction of the search radius the device must move before searching again
+     * @param maxStretch        Largest factor the search interval is stretched by while the device stays still
+     */
+    public MovementGate(double thresholdFraction, int maxStretch) {
+        this.thresholdFraction = thresholdFraction;
+        this.maxStretch = Math.max(1, maxStretch);
+    }
+
+    /**
+     * Change the movement threshold
+     *
+     * @param thresholdFraction Fraction of the search radius the device must move before searching again
+     */
+    public synchronized void setThresholdFraction(double thresholdFraction) {
+        this.thresholdFraction = thresholdFraction;
+    }
+
+    /**
+     * Evaluate a new location fix
+     *
+     * @param latitude  The latitude of the fix
+     * @param longitude The longitude of the fix
+     * @param radius    The search radius in meters
+     * @return true if the fix moved far enough from the last query to search the network again
+     */
+    public synchronized boolean shouldQuery(double latitude, double longitude, int radius) {
+        if (hasAnchor) {
+            double moved = GeoUtils.distanceMeters(anchorLatitude, anchorLongitude, latitude, longitude);
+            if (moved < thresholdFraction * radius) {
+                stillCount++;
+                skipCount++;
+                return false;
+            }
+        }
+        stillCount = 0;
+        queryCount++;
+        return true;
+    }
+
+    /**
+     * Record the location of a network search that completed successfully
+     *
+     * @param latitude  The latitude the search was made for
+     * @param longitude The longitude the search was made for
+     */
+    public synchronized void onQuerySucceeded(double latitude, double longitude) {
+        hasAnchor = true;
+        anchorLatitude = latitude;
+        anchorLongitude = longitude;
+    }
+
+    /**
+     * Forget the last query location, so the next fix always searches
+     */
+    public synchronized void reset() {
+        hasAnchor = false;
+        stillCount = 0;
+    }
+
+    /**
+     * Stretch a search interval by how long the device has been still
+     *
+     * @param baseIntervalMillis The regular interval
+     * @return The base interval doubled for every consecutive still fix, capped at the maximum stretch
+     */
+    public synchronized long stretchInterval(long baseIntervalMillis) {
+        long factor = 1;
+        for (int i = 0; i < stillCount && factor < maxStretch; i++) {
+            factor *= 2;
+        }
+        return baseIntervalMillis * Math.min(factor, maxStretch);
+    }
+
+    public synchronized int getStillCount() {
+        return stillCount;
+    }
+
+    /**
+     * @return The number of fixes that passed the gate
+     */
+    public synchronized long getQueryCount() {
+        return queryCount;
+    }
+
+    /**
+     * @return The number of fixes that were held back by the gate
+     */
+    public synchronized long getSkipCount() {
+        return skipCount;
+    }
+}
@@ -0,0 +1,414 @@
+package com.example.spotnear;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+
+import okio.BufferedSource;
+import okio.ByteString;
+
+/**
+ * Streaming parser for OSM XML extracts, used to build offline {@link RegionPack} files.
+ * <p>
+ * Nodes and ways carrying a {@code leisure}, {@code amenity} or {@code tourism} tag are handed
+ * to an {@link OverpassStreamParser.ElementHandler} in the same {@link OverpassElement} form as
+ * Overpass results, so the same filters work on both. Ways are placed at the center of their
+ * bounding box, like Overpass {@code out center}. Relations are skipped.
+ * <p>
+ * Coordinates of every node are kept in primitive arrays to resolve way members, which
+ * requires nodes to appear before ways and in ascending id order, as in extracts produced by
+ * the OSM API, Geofabrik or {@code osmium cat}. PBF extracts can be converted with
+ * {@code osmium cat extract.osm.pbf -o extract.osm}.
+ */
+public class OsmXmlParser {
+    private static final ByteString COMMENT_END = ByteString.encodeUtf8("-->");
+    private static final double E7 = 1e7;
+
+    private static final int NONE = 0;
+    private static final int NODE = 1;
+    private static final int WAY = 2;
+    private static final int RELATION = 3;
+
+    private final OverpassElement element = new OverpassElement();
+    private final StringBuilder name = new StringBuilder(16);
+    private final StringBuilder attribute = new StringBuilder(16);
+    private BufferedSource source;
+
+    // The entity being read and its way member bounds
+    private int entity;
+    private double wayMinLatitude;
+    private double wayMinLongitude;
+    private double wayMaxLatitude;
+    private double wayMaxLongitude;
+
+    // Attributes of the start tag being read
+    private String tagKey;
+    private String tagValue;
+    private long ref;
+
+    // Coordinates of all nodes so far, ascending by id
+    private long[] nodeIds = new long[4096];
+    private int[] nodeLatitudes = new int[4096];
+    private int[] nodeLongitudes = new int[4096];
+    private int nodeCount;
+
+    private boolean hasBounds;
+    private double minLatitude;
+    private double minLongitude;
+    private double maxLatitude;
+    private double maxLongitude;
+
+    /**
+     * Parse an extract
+     *
+     * @param source  The extract
+     * @param handler Receives each tagged node and way
+     * @return The number of elements handed to the handler
+     * @throws IOException If the source fails, is truncated or is not a valid extract
+     */
+    public int parse(BufferedSource source, OverpassStreamParser.ElementHandler handler) throws IOException {
+        this.source = source;
+        this.entity = NONE;
+        try {
+            int count = 0;
+            long start;
+            while ((start = source.indexOf((byte) '<')) != -1) {
+                source.skip(start + 1);
+                source.require(1);
+                byte first = source.getBuffer().getByte(0);
+                if (first == '?') {
+                    skipPast((byte) '>');
+                } else if (first == '!') {
+                    skipDeclaration();
+                } else if (first == '/') {
+                    source.skip(1);
+                    readName();
+                    skipPast((byte) '>');
+                    if (entity != NONE && contentEquals(name, entityName())) {
+                        count += finishEntity(handler);
+                    }
+                } else {
+                    readName();
+                    boolean selfClosing = readStartTag();
+                    if (selfClosing && entity != NONE && contentEquals(name, entityName())) {
+                        count += finishEntity(handler);
+                    }
+                }
+            }
+            if (entity != NONE) {
+                throw new EOFException("OSM extract ends inside " + entityName() + " " + element.id);
+            }
+            return count;
+        } finally {
+            this.source = null;
+        }
+    }
+
+    /**
+     * @return true if the extract declared its bounds
+     */
+    public boolean hasBounds() {
+        return hasBounds;
+    }
+
+    public double getMinLatitude() {
+        return minLatitude;
+    }
+
+    public double getMinLongitude() {
+        return minLongitude;
+    }
+
+    public double getMaxLatitude() {
+        return maxLatitude;
+    }
+
+    public double getMaxLongitude() {
+        return maxLongitude;
+    }
+
+    /**
+     * Read the attributes of a start tag and apply them
+     *
+     * @return true if the tag is self-closing
+     */
+    private boolean readStartTag() throws IOException {
+        boolean isBounds = contentEquals(name, "bounds");
+        boolean isNode = contentEquals(name, "node");
+        boolean isWay = contentEquals(name, "way");
+        boolean isRelation = contentEquals(name, "relation");
+        boolean isTag = contentEquals(name, "tag");
+        boolean isMember = contentEquals(name, "nd");
+        if (isNode || isWay || isRelation) {
+            element.reset();
+            element.type.append(isNode ? "node" : isWay ? "way" : "relation");
+            entity = isNode ? NODE : isWay ? WAY : RELATION;
+            wayMinLatitude = Double.POSITIVE_INFINITY;
+            wayMinLongitude = Double.POSITIVE_INFINITY;
+            wayMaxLatitude = Double.NEGATIVE_INFINITY;
+            wayMaxLongitude = Double.NEGATIVE_INFINITY;
+        }
+        tagKey = null;
+        tagValue = null;
+        ref = -1;
+
+        boolean selfClosing = false;
+        while (true) {
+            int b = nextNonWhitespace();
+            if (b == '>') {
+                break;
+            }
+            if (b == '/') {
+                skipPast((byte) '>');
+                selfClosing = true;
+                break;
+            }
+            attribute.setLength(0);
+            while (b != '=' && !isWhitespace(b)) {
+                attribute.append((char) b);
+                b = source.readByte();
+            }
+            if (b != '=') {
+                b = nextNonWhitespace();
+            }
+            if (b != '=') {
+                throw new IOException("Malformed OSM extract: expected '=' after " + attribute);
+            }
+            int quote = nextNonWhitespace();
+            if (quote != '"' && quote != '\'') {
+                throw new IOException("Malformed OSM extract: unquoted value of " + attribute);
+            }
+            long end = source.indexOf((byte) quote);
+            if (end == -1) {
+                throw new EOFException("OSM extract ends inside an attribute value");
+            }
+            String value = source.readUtf8(end);
+            source.skip(1);
+            if (value.indexOf('&') >= 0) {
+                value = decodeEntities(value);
+            }
+            applyAttribute(isBounds, isNode, isWay || isRelation, isTag, isMember, value);
+        }
+
+        if (isNode) {
+            addNodeCoordinates();
+        } else if (isTag && tagKey != null && tagValue != null && (entity == NODE || entity == WAY)) {
+            applyTag();
+        } else if (isMember && entity == WAY && ref >= 0) {
+            addWayMember();
+        }
+        return selfClosing;
+    }
+
+    private void applyAttribute(boolean isBounds, boolean isNode, boolean isEntity, boolean isTag,
+                                boolean isMember, String value) throws IOException {
+        try {
+            if (isBounds) {
+                hasBounds = true;
+                if (contentEquals(attribute, "minlat")) {
+                    minLatitude = Double.parseDouble(value);
+                } else if (contentEquals(attribute, "minlon")) {
+                    minLongitude = Double.parseDouble(value);
+                } else if (contentEquals(attribute, "maxlat")) {
+                    maxLatitude = Double.parseDouble(value);
+                } else if (contentEquals(attribute, "maxlon")) {
+                    maxLongitude = Double.parseDouble(value);
+                }
+            } else if ((isNode || isEntity) && contentEquals(attribute, "id")) {
+                element.id = Long.parseLong(value);
+            } else if (isNode && contentEquals(attribute, "lat")) {
+                element.latitude = Double.parseDouble(value);
+                element.hasLatitude = true;
+            } else if (isNode && contentEquals(attribute, "lon")) {
+                element.longitude = Double.parseDouble(value);
+                element.hasLongitude = true;
+            } else if (isTag && contentEquals(attribute, "k")) {
+                tagKey = value;
+            } else if (isTag && contentEquals(attribute, "v")) {
+                tagValue = value;
+            } else if (isMember && contentEquals(attribute, "ref")) {
+                ref = Long.parseLong(value);
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed OSM extract: invalid " + attribute + " \"" + value + "\"", e);
+        }
+    }
+
+    private void applyTag() {
+        StringBuilder target;
+        switch (tagKey) {
+            case "name":
+                target = element.name;
+                break;
+            case "leisure":
+                target = element.leisure;
+                break;
+            case "amenity":
+                target = element.amenity;
+                break;
+            case "tourism":
+                target = element.tourism;
+                break;
+            default:
+                return;
+        }
+        target.setLength(0);
+        target.append(tagValue);
+    }
+
+    private int finishEntity(OverpassStreamParser.ElementHandler handler) {
+        int current = entity;
+        entity = NONE;
+        if (current == WAY && wayMinLatitude <= wayMaxLatitude) {
+            element.latitude = (wayMinLatitude + wayMaxLatitude) / 2;
+            element.longitude = (wayMinLongitude + wayMaxLongitude) / 2;
+            element.hasLatitude = true;
+            element.hasLongitude = true;
+        }
+        if (current == RELATION || !element.hasPosition()) {
+            return 0;
+        }
+        if (element.leisure.length() == 0 && element.amenity.length() == 0 && element.tourism.length() == 0) {
+            return 0;
+        }
+        handler.onElement(element);
+        return 1;
+    }
+
+    private void addNodeCoordinates() throws IOException {
+        if (!element.hasPosition()) {
+            return;
+        }
+        if (nodeCount > 0 && element.id <= nodeIds[nodeCount - 1]) {
+            throw new IOException("OSM extract nodes must be sorted by id, " + element.id
+                    + " follows " + nodeIds[nodeCount - 1]);
+        }
+        if (nodeCount == nodeIds.length) {
+            int capacity = nodeCount * 2;
+            nodeIds = Arrays.copyOf(nodeIds, capacity);
+            nodeLatitudes = Arrays.copyOf(nodeLatitudes, capacity);
+            nodeLongitudes = Arrays.copyOf(nodeLongitudes, capacity);
+        }
+        nodeIds[nodeCount] = element.id;
+        nodeLatitudes[nodeCount] = (int) Math.round(element.latitude * E7);
+        nodeLongitudes[nodeCount] = (int) Math.round(element.longitude * E7);
+        nodeCount++;
+    }
+
+    private void addWayMember() {
+        int index = Arrays.binarySearch(nodeIds, 0, nodeCount, ref);
+        if (index < 0) {
+            // The extract was clipped and the node lies outside it
+            return;
+        }
+        double latitude = nodeLatitudes[index] / E7;
+        double longitude = nodeLongitudes[index] / E7;
+        wayMinLatitude = Math.min(wayMinLatitude, latitude);
+        wayMinLongitude = Math.min(wayMinLongitude, longitude);
+        wayMaxLatitude = Math.max(wayMaxLatitude, latitude);
+        wayMaxLongitude = Math.max(wayMaxLongitude, longitude);
+    }
+
+    private String entityName() {
+        return entity == NODE ? "node" : entity == WAY ? "way" : "relation";
+    }
+
+    private void readName() throws IOException {
+        name.setLength(0);
+        while (true) {
+            source.require(1);
+            byte b = source.getBuffer().getByte(0);
+            if (b == '>' || b == '/' || isWhitespace(b)) {
+                return;
+            }
+            name.append((char) b);
+            source.skip(1);
+        }
+    }
+
+    private void skipDeclaration() throws IOException {
+        if (source.rangeEquals(0, ByteString.encodeUtf8("!--"))) {
+            long end = source.indexOf(COMMENT_END);
+            if (end == -1) {
+                throw new EOFException("OSM extract ends inside a comment");
+            }
+            source.skip(end + COMMENT_END.size());
+        } else {
+            skipPast((byte) '>');
+        }
+    }
+
+    private void skipPast(byte b) throws IOException {
+        long index = source.indexOf(b);
+        if (index == -1) {
+            throw new EOFException("OSM extract ends inside a tag");
+        }
+        source.skip(index + 1);
+    }
+
+    private int nextNonWhitespace() throws IOException {
+        int b;
+        do {
+            b = source.readByte();
+        } while (isWhitespace(b));
+        return b;
+    }
+
+    private static boolean isWhitespace(int b) {
+        return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+    }
+
+    private static String decodeEntities(String value) {
+        StringBuilder out = new StringBuilder(value.length());
+        int i = 0;
+        while (i < value.length()) {
+            char c = value.charAt(i);
+            int semicolon = c == '&' ? value.indexOf(';', i) : -1;
+            if (semicolon == -1) {
+                out.append(c);
+                i++;
+                continue;
+            }
+            String entity = value.substring(i + 1, semicolon);
+            if (entity.equals("amp")) {
+                out.append('&');
+            } else if (entity.equals("lt")) {
+                out.append('<');
+            } else if (entity.equals("gt")) {
+                out.append('>');
+            } else if (entity.equals("quot")) {
+                out.append('"');
+            } else if (entity.equals("apos")) {
+                out.append('\'');
+            } else if (entity.startsWith("#")) {
+                appendCharacterReference(out, entity, value.substring(i, semicolon + 1));
+            } else {
+                out.append(value, i, semicolon + 1);
+            }
+            i = semicolon + 1;
+        }
+        return out.toString();
+    }
+
+    private static void appendCharacterReference(StringBuilder out, String entity, String raw) {
+        try {
+            boolean hex = entity.length() > 1 && (entity.charAt(1) == 'x' || entity.charAt(1) == 'X');
+            out.appendCodePoint(hex ? Integer.parseInt(entity.substring(2), 16) : Integer.parseInt(entity.substring(1)));
+        } catch (IllegalArgumentException e) {
+            // Not a valid character reference, keep it as it is
+            out.append(raw);
+        }
+    }
+
+    private static boolean contentEquals(StringBuilder builder, String value) {
+        if (builder.length() != value.length()) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            if (builder.charAt(i) != value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
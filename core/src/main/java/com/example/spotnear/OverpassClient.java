@@ -0,0 +1,521 @@
+package com.example.spotnear;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.ForwardingSource;
+import okio.Okio;
+
+/**
+ * Sends Overpass queries to a set of interchangeable endpoints through an {@link OverpassGovernor}.
+ * <p>
+ * A query is only sent when the governor grants a token. It goes to the fastest healthy
+ * endpoint, ranked by {@link OverpassEndpoint} latency and error-rate averages. If that endpoint
+ * has not answered by its p95 latency, a hedged copy of the query is sent to the next endpoint;
+ * the first successful response wins and the other call is cancelled. When an endpoint fails
+ * and another one is left, the query fails over to it straight away.
+ * <p>
+ * Rate-limit responses (429, 503, 504) and their {@code Retry-After} headers, other HTTP errors
+ * and I/O failures are reported to the governor once every endpoint tried has failed. When
+ * status probing is enabled, a rate-limit response also triggers a request to
+ * {@code /api/status} so the block ends when the server frees a slot.
+ * <p>
+ * Responses can be capped in size: a larger declared length fails the attempt like an HTTP
+ * error, and a body without a length fails the read once it passes the cap, both with an
+ * {@link OverpassResponseTooLargeException}.
+ * <p>
+ * A {@link StreamCallback} takes the body over, so it can be streamed off the OkHttp thread;
+ * cancelling the search then also fails the reads still running.
+ */
+public class OverpassClient {
+    public static final long DEFAULT_HEDGE_DELAY_MILLIS = 5000;
+    public static final long MIN_HEDGE_DELAY_MILLIS = 500;
+
+    /**
+     * Receives the outcome of a search
+     */
+    public interface SearchCallback {
+        /**
+         * Called on an OkHttp thread with the body of a successful response. The body is closed
+         * when this method returns, unless the callback is a {@link StreamCallback}.
+         *
+         * @param body The response body
+         */
+        void onSuccess(BufferedSource body);
+
+        /**
+         * Called when the query was not sent or did not succeed
+         *
+         * @param e                The cause; an {@link OverpassThrottledException} if the governor refused the query
+         * @param retryDelayMillis The earliest time to try again, in milliseconds from now
+         */
+        void onFailure(IOException e, long retryDelayMillis);
+    }
+
+    /**
+     * Receives the outcome of a search and owns the body of a successful response: it must close
+     * the body, from any thread, once it has read it or gives up on it
+     */
+    public interface StreamCallback extends SearchCallback {
+    }
+
+    private final OkHttpClient client;
+    private final List<OverpassEndpoint> endpoints;
+    private final OverpassGovernor governor;
+    private final ScheduledExecutorService hedgeTimer;
+    private final AtomicLong hedgeCount = new AtomicLong();
+    private final AtomicLong hedgeWinCount = new AtomicLong();
+    private boolean probeStatus;
+    private long defaultHedgeDelayMillis = DEFAULT_HEDGE_DELAY_MILLIS;
+    private long minHedgeDelayMillis = MIN_HEDGE_DELAY_MILLIS;
+    private long maxResponseBytes = Long.MAX_VALUE;
+
+    /**
+     * Create a client for a single endpoint
+     *
+     * @param client   The HTTP client
+     * @param endpoint The Overpass interpreter URL, e.g. https://overpass-api.de/api/interpreter
+     * @param governor The governor deciding when queries may be sent
+     */
+    public OverpassClient(OkHttpClient client, HttpUrl endpoint, OverpassGovernor governor) {
+        this(client, Collections.singletonList(endpoint), governor);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param client    The HTTP client
+     * @param endpoints Interchangeable Overpass interpreter URLs
+     * @param governor  The governor deciding when queries may be sent
+     */
+    public OverpassClient(OkHttpClient client, List<HttpUrl> endpoints, OverpassGovernor governor) {
+        if (endpoints.isEmpty()) {
+            throw new IllegalArgumentException("At least one Overpass endpoint is required");
+        }
+        this.client = client;
+        this.governor = governor;
+        this.endpoints = new ArrayList<>(endpoints.size());
+        for (HttpUrl url : endpoints) {
+            this.endpoints.add(new OverpassEndpoint(url));
+        }
+        this.hedgeTimer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "OverpassHedgeTimer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Enable or disable querying /api/status after a rate-limit response
+     *
+     * @param probeStatus true to probe the status endpoint
+     * @return This client
+     */
+    public OverpassClient setProbeStatus(boolean probeStatus) {
+        this.probeStatus = probeStatus;
+        return this;
+    }
+
+    /**
+     * Set the bounds of the hedging deadline
+     *
+     * @param defaultDelayMillis Deadline used while an endpoint has too few latency samples
+     * @param minDelayMillis     Lower bound for the p95-based deadline
+     * @return This client
+     */
+    public OverpassClient setHedgeDelays(long defaultDelayMillis, long minDelayMillis) {
+        this.defaultHedgeDelayMillis = defaultDelayMillis;
+        this.minHedgeDelayMillis = minDelayMillis;
+        return this;
+    }
+
+    /**
+     * Set the largest response body delivered to the callback
+     *
+     * @param maxResponseBytes The cap in bytes
+     * @return This client
+     */
+    public OverpassClient setMaxResponseBytes(long maxResponseBytes) {
+        this.maxResponseBytes = maxResponseBytes;
+        return this;
+    }
+
+    /**
+     * @return The bytes a query takes in the request, URL-encoded as the {@code data} parameter
+     */
+    public static long requestBytes(String query) {
+        return new HttpUrl.Builder().scheme("https").host("localhost").addQueryParameter("data", query)
+                .build().encodedQuery().length();
+    }
+
+    public OverpassGovernor getGovernor() {
+        return governor;
+    }
+
+    public List<OverpassEndpoint> getEndpoints() {
+        return Collections.unmodifiableList(endpoints);
+    }
+
+    /**
+     * @return The number of hedged requests sent
+     */
+    public long getHedgeCount() {
+        return hedgeCount.get();
+    }
+
+    /**
+     * @return The number of searches answered by the hedged request
+     */
+    public long getHedgeWinCount() {
+        return hedgeWinCount.get();
+    }
+
+    /**
+     * Send a query if the governor allows it
+     *
+     * @param query    The Overpass QL query
+     * @param callback Receives the response or the failure
+     * @return The running search, or null if the governor refused the query
+     */
+    public Search search(String query, SearchCallback callback) {
+        long wait = governor.tryAcquire(System.currentTimeMillis());
+        if (wait > 0) {
+            callback.onFailure(new OverpassThrottledException(wait), wait);
+            return null;
+        }
+        Search search = new Search(query, callback, rankEndpoints());
+        search.start();
+        return search;
+    }
+
+    /**
+     * Stop the hedging timer. Searches that are still running are not cancelled.
+     */
+    public void shutdown() {
+        hedgeTimer.shutdownNow();
+    }
+
+    /**
+     * Healthy endpoints by latency, endpoints without samples first so they get measured,
+     * then unhealthy endpoints by error rate as a last resort
+     */
+    private List<OverpassEndpoint> rankEndpoints() {
+        List<OverpassEndpoint> ranked = new ArrayList<>(endpoints);
+        Collections.sort(ranked, new Comparator<OverpassEndpoint>() {
+            @Override
+            public int compare(OverpassEndpoint a, OverpassEndpoint b) {
+                boolean aHealthy = a.isHealthy();
+                boolean bHealthy = b.isHealthy();
+                if (aHealthy != bHealthy) {
+                    return aHealthy ? -1 : 1;
+                }
+                if (!aHealthy) {
+                    return Double.compare(a.getErrorRate(), b.getErrorRate());
+                }
+                return Double.compare(a.getLatencyEwmaMillis(), b.getLatencyEwmaMillis());
+            }
+        });
+        return ranked;
+    }
+
+    private long hedgeDelayMillis(OverpassEndpoint endpoint) {
+        long p95 = endpoint.getP95LatencyMillis();
+        return p95 < 0 ? defaultHedgeDelayMillis : Math.max(minHedgeDelayMillis, p95);
+    }
+
+    /**
+     * Ask an endpoint when its next slot frees up and feed the answer to the governor
+     */
+    private void probeStatus(OverpassEndpoint endpoint) {
+        HttpUrl statusUrl = endpoint.getUrl().resolve("status");
+        if (statusUrl == null) {
+            return;
+        }
+        client.newCall(new Request.Builder().url(statusUrl).build()).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                // The status is only a hint, the backoff already applies
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) throws IOException {
+                try (ResponseBody body = response.body()) {
+                    if (response.isSuccessful() && body != null) {
+                        governor.onStatus(OverpassStatus.parse(body.string()), System.currentTimeMillis());
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Fail reads past {@link #maxResponseBytes}, for bodies that don't declare their length
+     */
+    private BufferedSource limit(BufferedSource source) {
+        if (maxResponseBytes == Long.MAX_VALUE) {
+            return source;
+        }
+        return Okio.buffer(new ForwardingSource(source) {
+            private long total;
+
+            @Override
+            public long read(Buffer sink, long byteCount) throws IOException {
+                long read = super.read(sink, byteCount);
+                if (read > 0) {
+                    total += read;
+                    if (total > maxResponseBytes) {
+                        throw new OverpassResponseTooLargeException("Overpass response exceeds " + maxResponseBytes + " bytes");
+                    }
+                }
+                return read;
+            }
+        });
+    }
+
+    private static boolean isRateLimit(int code) {
+        return code == 429 || code == 503 || code == 504;
+    }
+
+    /**
+     * One query, possibly sent to more than one endpoint
+     */
+    public final class Search {
+        private final String query;
+        private final SearchCallback callback;
+        private final List<OverpassEndpoint> ranked;
+        private final List<Attempt> attempts = new ArrayList<>(2);
+        private int nextEndpoint;
+        private int outstanding;
+        private boolean finished;
+        private ScheduledFuture<?> hedge;
+        private IOException lastError;
+        private OverpassEndpoint rateLimitedEndpoint;
+        private long retryAfterMillis = -1;
+
+        private Search(String query, SearchCallback callback, List<OverpassEndpoint> ranked) {
+            this.query = query;
+            this.callback = callback;
+            this.ranked = ranked;
+        }
+
+        /**
+         * Cancel every call of this search. The callback is not invoked.
+         */
+        public void cancel() {
+            synchronized (this) {
+                finished = true;
+                cancelOthers(null);
+            }
+        }
+
+        /**
+         * @return true once the search has succeeded, failed or been cancelled
+         */
+        public synchronized boolean isFinished() {
+            return finished;
+        }
+
+        private void start() {
+            OverpassEndpoint primary = ranked.get(0);
+            send(false);
+            if (ranked.size() > 1 && !hedgeTimer.isShutdown()) {
+                final ScheduledFuture<?> timer = hedgeTimer.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        sendHedge();
+                    }
+                }, hedgeDelayMillis(primary), TimeUnit.MILLISECONDS);
+                synchronized (this) {
+                    hedge = timer;
+                    if (finished) {
+                        timer.cancel(false);
+                    }
+                }
+            }
+        }
+
+        private void sendHedge() {
+            synchronized (this) {
+                if (finished || nextEndpoint >= ranked.size()) {
+                    return;
+                }
+            }
+            if (governor.tryAcquire(System.currentTimeMillis()) == 0) {
+                hedgeCount.incrementAndGet();
+                send(true);
+            }
+        }
+
+        private void send(final boolean hedged) {
+            final OverpassEndpoint endpoint;
+            final Call call;
+            final long sentAt = System.nanoTime();
+            synchronized (this) {
+                if (finished || nextEndpoint >= ranked.size()) {
+                    return;
+                }
+                endpoint = ranked.get(nextEndpoint++);
+                HttpUrl url = endpoint.getUrl().newBuilder().addQueryParameter("data", query).build();
+                call = client.newCall(new Request.Builder().url(url).build());
+                attempts.add(new Attempt(endpoint, call, sentAt));
+                outstanding++;
+            }
+            call.enqueue(new Callback() {
+                @Override
+                public void onFailure(Call call, IOException e) {
+                    if (call.isCanceled()) {
+                        attemptCancelled();
+                        return;
+                    }
+                    endpoint.recordError();
+                    attemptFailed(e, null, -1);
+                }
+
+                @Override
+                public void onResponse(Call call, Response response) {
+                    long latencyMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - sentAt);
+                    ResponseBody body = response.body();
+                    boolean handedOff = false;
+                    try {
+                        if (response.isSuccessful() && body != null && body.contentLength() > maxResponseBytes) {
+                            endpoint.recordError();
+                            attemptFailed(new OverpassResponseTooLargeException("Overpass response of "
+                                    + body.contentLength() + " bytes from " + endpoint.getUrl().host()
+                                    + " exceeds " + maxResponseBytes), null, -1);
+                        } else if (response.isSuccessful() && body != null) {
+                            endpoint.recordSuccess(latencyMillis);
+                            if (win(call)) {
+                                if (hedged) {
+                                    hedgeWinCount.incrementAndGet();
+                                }
+                                governor.onSuccess();
+                                callback.onSuccess(limit(body.source()));
+                                handedOff = callback instanceof StreamCallback;
+                            }
+                        } else if (isRateLimit(response.code())) {
+                            endpoint.recordError();
+                            long retryAfter = OverpassGovernor.parseRetryAfterMillis(
+                                    response.header("Retry-After"), System.currentTimeMillis());
+                            attemptFailed(new IOException("Overpass rate limit: HTTP " + response.code()
+                                    + " from " + endpoint.getUrl().host()), endpoint, retryAfter);
+                        } else {
+                            endpoint.recordError();
+                            attemptFailed(new IOException("Overpass error: HTTP " + response.code()
+                                    + " from " + endpoint.getUrl().host()), null, -1);
+                        }
+                    } finally {
+                        if (body != null && !handedOff) {
+                            body.close();
+                        }
+                    }
+                }
+            });
+        }
+
+        /**
+         * Claim the search for a successful call and cancel the rest
+         */
+        private synchronized boolean win(Call winner) {
+            if (finished) {
+                return false;
+            }
+            finished = true;
+            cancelOthers(winner);
+            return true;
+        }
+
+        private synchronized void attemptCancelled() {
+            outstanding--;
+        }
+
+        private void attemptFailed(IOException e, OverpassEndpoint rateLimited, long retryAfter) {
+            boolean failover;
+            synchronized (this) {
+                outstanding--;
+                if (finished) {
+                    return;
+                }
+                lastError = e;
+                if (rateLimited != null) {
+                    rateLimitedEndpoint = rateLimited;
+                    retryAfterMillis = Math.max(retryAfterMillis, retryAfter);
+                }
+                if (outstanding > 0) {
+                    // The other call may still succeed
+                    return;
+                }
+                failover = nextEndpoint < ranked.size();
+            }
+            if (failover && governor.tryAcquire(System.currentTimeMillis()) == 0) {
+                send(false);
+                return;
+            }
+            synchronized (this) {
+                finished = true;
+                cancelOthers(null);
+            }
+            long now = System.currentTimeMillis();
+            long delay;
+            if (rateLimitedEndpoint != null) {
+                delay = governor.onRateLimited(now, retryAfterMillis);
+                if (probeStatus) {
+                    probeStatus(rateLimitedEndpoint);
+                }
+            } else {
+                delay = governor.onFailure(now);
+            }
+            callback.onFailure(lastError, delay);
+        }
+
+        private void cancelOthers(Call keep) {
+            if (hedge != null) {
+                hedge.cancel(false);
+            }
+            long now = System.nanoTime();
+            for (Attempt attempt : attempts) {
+                if (attempt.call != keep && !attempt.call.isCanceled()) {
+                    attempt.call.cancel();
+                    if (keep != null) {
+                        attempt.endpoint.recordAbandoned(TimeUnit.NANOSECONDS.toMillis(now - attempt.sentAt));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * One request of a search to one endpoint
+     */
+    private static final class Attempt {
+        final OverpassEndpoint endpoint;
+        final Call call;
+        final long sentAt;
+
+        Attempt(OverpassEndpoint endpoint, Call call, long sentAt) {
+            this.endpoint = endpoint;
+            this.call = call;
+            this.sentAt = sentAt;
+        }
+    }
+}
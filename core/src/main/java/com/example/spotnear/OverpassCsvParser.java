@@ -0,0 +1,242 @@
+package com.example.spotnear;
+
+import java.io.IOException;
+
+import okio.BufferedSource;
+
+/**
+ * Parser for Overpass responses requested with {@link OverpassQueryBuilder.OutputFormat#CSV}.
+ * <p>
+ * Lines are read byte by byte straight from the response source, numbers are decoded without
+ * intermediate strings, and rows are appended to a {@link PoiBuffer}. With a reused buffer the
+ * parser does not allocate per line. The expected columns are
+ * {@link OverpassQueryBuilder#CSV_COLUMNS}, tab separated. A field starting with a double
+ * quote runs to the next lone quote and may contain tabs and line breaks, with doubled quotes
+ * standing for one. Rows without an id or coordinates, such as a header line, rows with missing
+ * columns and a last line cut off before its line break are dropped.
+ */
+public class OverpassCsvParser {
+    private static final int COLUMN_TYPE = 0;
+    private static final int COLUMN_ID = 1;
+    private static final int COLUMN_LATITUDE = 2;
+    private static final int COLUMN_LONGITUDE = 3;
+    private static final int FIRST_TEXT_COLUMN = 4;
+    private static final int COLUMN_COUNT = FIRST_TEXT_COLUMN + PoiBuffer.FIELD_COUNT;
+
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+            1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18
+    };
+
+    // State of the number currently being read
+    private long mantissa;
+    private int digits;
+    private int scale;
+    private boolean negative;
+    private boolean fraction;
+
+    // State of the row currently being read
+    private boolean hasType;
+    private boolean hasId;
+    private long id;
+    private double latitude;
+    private double longitude;
+    private boolean hasLatitude;
+    private boolean hasLongitude;
+
+    // State of the column currently being read
+    private boolean columnStarted;
+    private boolean quoted;
+
+    /**
+     * Parse a CSV response, appending its rows to a buffer
+     *
+     * @param source The response body source
+     * @param out    The buffer receiving the rows; existing rows are kept
+     * @return The number of rows added
+     * @throws IOException If the source fails
+     */
+    public int parse(BufferedSource source, PoiBuffer out) throws IOException {
+        int added = 0;
+        int row = -1;
+        int column = 0;
+        while (!source.exhausted()) {
+            int b = source.readByte() & 0xff;
+            if (row == -1) {
+                row = out.addRow(0, PoiBuffer.TYPE_NODE, 0, 0);
+                column = 0;
+                startRow();
+            }
+            if (quoted) {
+                if (b != '"') {
+                    readColumnByte(source, out, row, column, b);
+                } else if (source.request(1) && source.getBuffer().getByte(0) == '"') {
+                    source.readByte();
+                    readColumnByte(source, out, row, column, b);
+                } else {
+                    quoted = false;
+                }
+            } else if (b == '"' && !columnStarted) {
+                quoted = true;
+                columnStarted = true;
+            } else if (b == '\n') {
+                if (finishRow(out, row, column)) {
+                    added++;
+                }
+                row = -1;
+            } else if (b == '\t') {
+                finishColumn(column);
+                columnStarted = false;
+                column++;
+                if (column >= FIRST_TEXT_COLUMN && column < COLUMN_COUNT) {
+                    out.beginText(row, column - FIRST_TEXT_COLUMN);
+                }
+            } else if (b != '\r') {
+                columnStarted = true;
+                readColumnByte(source, out, row, column, b);
+            }
+        }
+        if (row != -1) {
+            // The response was cut off mid line, so the last column may be incomplete
+            out.removeLastRow();
+        }
+        return added;
+    }
+
+    private void readColumnByte(BufferedSource source, PoiBuffer out, int row, int column, int b) throws IOException {
+        switch (column) {
+            case COLUMN_TYPE:
+                if (!hasType) {
+                    // Only the first letter is needed to tell node, way and relation apart
+                    out.setType(row, b == 'w' ? PoiBuffer.TYPE_WAY : b == 'r' ? PoiBuffer.TYPE_RELATION : PoiBuffer.TYPE_NODE);
+                    hasType = true;
+                }
+                break;
+            case COLUMN_ID:
+                if (b >= '0' && b <= '9') {
+                    id = id * 10 + (b - '0');
+                    hasId = true;
+                }
+                break;
+            case COLUMN_LATITUDE:
+            case COLUMN_LONGITUDE:
+                readNumberByte(b);
+                break;
+            default:
+                if (column < COLUMN_COUNT) {
+                    int field = column - FIRST_TEXT_COLUMN;
+                    if (b < 0x80) {
+                        out.appendText(row, field, (char) b);
+                    } else {
+                        appendUtf8(source, out, row, field, b);
+                    }
+                }
+                break;
+        }
+    }
+
+    private void readNumberByte(int b) {
+        if (b == '-') {
+            negative = true;
+        } else if (b == '.') {
+            fraction = true;
+        } else if (b >= '0' && b <= '9') {
+            if (digits < 18) {
+                mantissa = mantissa * 10 + (b - '0');
+                digits++;
+                if (fraction) {
+                    scale++;
+                }
+            } else if (!fraction) {
+                scale--;
+            }
+        }
+    }
+
+    private void finishColumn(int column) {
+        if (column == COLUMN_LATITUDE || column == COLUMN_LONGITUDE) {
+            if (digits > 0) {
+                double value = mantissa;
+                if (scale > 0) {
+                    value /= scale < POWERS_OF_TEN.length ? POWERS_OF_TEN[scale] : Math.pow(10, scale);
+                } else if (scale < 0) {
+                    value *= -scale < POWERS_OF_TEN.length ? POWERS_OF_TEN[-scale] : Math.pow(10, -scale);
+                }
+                if (negative) {
+                    value = -value;
+                }
+                if (column == COLUMN_LATITUDE) {
+                    latitude = value;
+                    hasLatitude = true;
+                } else {
+                    longitude = value;
+                    hasLongitude = true;
+                }
+            }
+            startNumber();
+        }
+    }
+
+    private boolean finishRow(PoiBuffer out, int row, int column) {
+        finishColumn(column);
+        if (column != COLUMN_COUNT - 1 || !hasId || !hasLatitude || !hasLongitude) {
+            out.removeLastRow();
+            return false;
+        }
+        out.setPosition(row, id, latitude, longitude);
+        return true;
+    }
+
+    private void startRow() {
+        hasType = false;
+        hasId = false;
+        id = 0;
+        latitude = 0;
+        longitude = 0;
+        hasLatitude = false;
+        hasLongitude = false;
+        columnStarted = false;
+        quoted = false;
+        startNumber();
+    }
+
+    private void startNumber() {
+        mantissa = 0;
+        digits = 0;
+        scale = 0;
+        negative = false;
+        fraction = false;
+    }
+
+    private static void appendUtf8(BufferedSource source, PoiBuffer out, int row, int field, int first) throws IOException {
+        int codePoint;
+        int continuationBytes;
+        if ((first & 0xe0) == 0xc0) {
+            codePoint = first & 0x1f;
+            continuationBytes = 1;
+        } else if ((first & 0xf0) == 0xe0) {
+            codePoint = first & 0x0f;
+            continuationBytes = 2;
+        } else if ((first & 0xf8) == 0xf0) {
+            codePoint = first & 0x07;
+            continuationBytes = 3;
+        } else {
+            out.appendText(row, field, '\uFFFD');
+            return;
+        }
+        if (!source.request(continuationBytes)) {
+            // Cut off mid character; the row is dropped with the rest of the last line
+            source.skip(source.getBuffer().size());
+            return;
+        }
+        for (int i = 0; i < continuationBytes; i++) {
+            codePoint = (codePoint << 6) | (source.readByte() & 0x3f);
+        }
+        if (codePoint >= 0x10000) {
+            out.appendText(row, field, Character.highSurrogate(codePoint));
+            out.appendText(row, field, Character.lowSurrogate(codePoint));
+        } else {
+            out.appendText(row, field, (char) codePoint);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.spotnear;
+
+/**
+ * Reusable holder for the fields of one Overpass element while it is being streamed.
+ * <p>
+ * The parser overwrites the same instance for every element, so handlers must copy what they
+ * want to keep (for example with {@link #toPoi()}) before returning.
+ */
+public final class OverpassElement {
+    final StringBuilder type = new StringBuilder(8);
+    final StringBuilder name = new StringBuilder(64);
+    final StringBuilder leisure = new StringBuilder(16);
+    final StringBuilder amenity = new StringBuilder(16);
+    final StringBuilder tourism = new StringBuilder(16);
+    long id;
+    double latitude;
+    double longitude;
+    boolean hasLatitude;
+    boolean hasLongitude;
+
+    void reset() {
+        type.setLength(0);
+        name.setLength(0);
+        leisure.setLength(0);
+        amenity.setLength(0);
+        tourism.setLength(0);
+        id = 0;
+        latitude = 0;
+        longitude = 0;
+        hasLatitude = false;
+        hasLongitude = false;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public CharSequence getType() {
+        return type;
+    }
+
+    public double getLatitude() {
+        return latitude;
+    }
+
+    public double getLongitude() {
+        return longitude;
+    }
+
+    /**
+     * @return true if the element has coordinates, either its own or a way center
+     */
+    public boolean hasPosition() {
+        return hasLatitude && hasLongitude;
+    }
+
+    public CharSequence getName() {
+        return name;
+    }
+
+    public CharSequence getLeisure() {
+        return leisure;
+    }
+
+    public CharSequence getAmenity() {
+        return amenity;
+    }
+
+    public CharSequence getTourism() {
+        return tourism;
+    }
+
+    /**
+     * Copy the current element into an immutable POI
+     *
+     * @return A new POI holding this element's fields
+     */
+    public Poi toPoi() {
+        return new Poi(id, type.length() == 0 ? "node" : type.toString(), latitude, longitude,
+                valueOrNull(name), valueOrNull(leisure), valueOrNull(amenity), valueOrNull(tourism));
+    }
+
+    private static String valueOrNull(StringBuilder value) {
+        return value.length() == 0 ? null : value.toString();
+    }
+}
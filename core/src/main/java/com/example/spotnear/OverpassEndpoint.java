@@ -0,0 +1,129 @@
+package com.example.spotnear;
+
+import java.util.Arrays;
+
+import okhttp3.HttpUrl;
+
+/**
+ * One interchangeable Overpass interpreter URL and its observed performance.
+ * <p>
+ * Keeps exponentially weighted moving averages of the response latency and of the error rate,
+ * plus a ring of recent latencies from which the p95 used as the hedging deadline is taken.
+ */
+public class OverpassEndpoint {
+    private static final double LATENCY_ALPHA = 0.3;
+    private static final double ERROR_ALPHA = 0.2;
+    private static final double UNHEALTHY_ERROR_RATE = 0.5;
+    private static final int RECENT_SAMPLES = 32;
+    private static final int MIN_SAMPLES_FOR_P95 = 5;
+
+    private final HttpUrl url;
+    private final long[] recentLatencies = new long[RECENT_SAMPLES];
+    private int sampleCount;
+    private int nextSample;
+    private boolean measured;
+    private double latencyEwmaMillis;
+    private double errorRateEwma;
+    private long successCount;
+    private long errorCount;
+
+    /**
+     * Constructor
+     *
+     * @param url The interpreter URL, e.g. https://overpass-api.de/api/interpreter
+     */
+    public OverpassEndpoint(HttpUrl url) {
+        this.url = url;
+    }
+
+    public HttpUrl getUrl() {
+        return url;
+    }
+
+    /**
+     * Record a successful response
+     *
+     * @param latencyMillis Time from sending the request to receiving the response headers
+     */
+    public synchronized void recordSuccess(long latencyMillis) {
+        updateLatency(latencyMillis);
+        errorRateEwma = (1 - ERROR_ALPHA) * errorRateEwma;
+        recentLatencies[nextSample] = latencyMillis;
+        nextSample = (nextSample + 1) % RECENT_SAMPLES;
+        sampleCount = Math.min(sampleCount + 1, RECENT_SAMPLES);
+        successCount++;
+    }
+
+    /**
+     * Record a request that was cancelled because another endpoint answered first. Its latency
+     * is at least the time waited, which keeps a slow endpoint from looking unmeasured.
+     *
+     * @param waitedMillis Time from sending the request to cancelling it
+     */
+    public synchronized void recordAbandoned(long waitedMillis) {
+        if (!measured || waitedMillis > latencyEwmaMillis) {
+            updateLatency(waitedMillis);
+        }
+    }
+
+    private void updateLatency(long latencyMillis) {
+        latencyEwmaMillis = measured
+                ? LATENCY_ALPHA * latencyMillis + (1 - LATENCY_ALPHA) * latencyEwmaMillis
+                : latencyMillis;
+        measured = true;
+    }
+
+    /**
+     * Record a failed request (I/O error or HTTP error status)
+     */
+    public synchronized void recordError() {
+        errorRateEwma = ERROR_ALPHA + (1 - ERROR_ALPHA) * errorRateEwma;
+        errorCount++;
+    }
+
+    /**
+     * @return false if most recent requests to this endpoint failed
+     */
+    public synchronized boolean isHealthy() {
+        return errorRateEwma < UNHEALTHY_ERROR_RATE;
+    }
+
+    /**
+     * @return The latency EWMA in milliseconds, or 0 if no request has been measured yet
+     */
+    public synchronized double getLatencyEwmaMillis() {
+        return latencyEwmaMillis;
+    }
+
+    public synchronized double getErrorRate() {
+        return errorRateEwma;
+    }
+
+    public synchronized long getSuccessCount() {
+        return successCount;
+    }
+
+    public synchronized long getErrorCount() {
+        return errorCount;
+    }
+
+    /**
+     * The 95th percentile of recent latencies
+     *
+     * @return The p95 in milliseconds, or -1 if there are too few samples
+     */
+    public synchronized long getP95LatencyMillis() {
+        if (sampleCount < MIN_SAMPLES_FOR_P95) {
+            return -1;
+        }
+        long[] sorted = Arrays.copyOf(recentLatencies, sampleCount);
+        Arrays.sort(sorted);
+        return sorted[(int) Math.ceil(0.95 * sampleCount) - 1];
+    }
+
+    @Override
+    public synchronized String toString() {
+        return url.host() + " (latency " + Math.round(latencyEwmaMillis) + " ms, errors "
+                + Math.round(errorRateEwma * 100) + "%)";
+    }
+}
@@ -0,0 +1,269 @@
+package com.example.spotnear;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Decides when the service may send the next Overpass request.
+ * <p>
+ * Requests are paid for from a token bucket, so bursts of searches are shed instead of sent.
+ * Failures block further requests for an exponentially growing, jittered backoff, and rate-limit
+ * answers (429, 503, 504) block them for at least the server's {@code Retry-After}. The bucket
+ * and the block survive process restarts through a {@link QuotaStore}.
+ */
+public class OverpassGovernor {
+    public static final int DEFAULT_CAPACITY = 6;
+    public static final long DEFAULT_REFILL_MILLIS = 60 * 1000L; // one request per minute sustained
+    public static final long DEFAULT_BASE_BACKOFF_MILLIS = 15 * 1000L;
+    public static final long DEFAULT_MAX_BACKOFF_MILLIS = 60 * 60 * 1000L;
+
+    /**
+     * Persistent storage for the governor state
+     */
+    public interface QuotaStore {
+        /**
+         * @return The saved state, or null if nothing was saved yet
+         */
+        long[] loadQuotaState();
+
+        /**
+         * Save the state returned by a later {@link #loadQuotaState()}
+         */
+        void saveQuotaState(long[] state);
+    }
+
+    // Tokens are kept in thousandths so the state is integral
+    private static final long MILLI_TOKENS = 1000;
+    private static final int STATE_TOKENS = 0;
+    private static final int STATE_LAST_REFILL = 1;
+    private static final int STATE_BLOCKED_UNTIL = 2;
+    private static final int STATE_FAILURES = 3;
+    private static final int STATE_SIZE = 4;
+
+    private final QuotaStore store;
+    private final Random random;
+    private final int capacity;
+    private final long refillMillis;
+    private final long baseBackoffMillis;
+    private final long maxBackoffMillis;
+
+    private long milliTokens;
+    private long lastRefillMillis;
+    private long blockedUntilMillis;
+    private int consecutiveFailures;
+    private boolean rateLimited;
+    private long shedCount;
+
+    /**
+     * Create a governor with the default quota and backoff
+     */
+    public OverpassGovernor(QuotaStore store, Random random) {
+        this(store, random, DEFAULT_CAPACITY, DEFAULT_REFILL_MILLIS, DEFAULT_BASE_BACKOFF_MILLIS, DEFAULT_MAX_BACKOFF_MILLIS);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param store             Where the quota state is persisted
+     * @param random            Source of backoff jitter
+     * @param capacity          The largest burst of requests allowed
+     * @param refillMillis      Time for one request token to refill
+     * @param baseBackoffMillis Backoff after the first failure
+     * @param maxBackoffMillis  Upper bound of the backoff
+     */
+    public OverpassGovernor(QuotaStore store, Random random, int capacity, long refillMillis,
+                            long baseBackoffMillis, long maxBackoffMillis) {
+        this.store = store;
+        this.random = random;
+        this.capacity = capacity;
+        this.refillMillis = refillMillis;
+        this.baseBackoffMillis = baseBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+
+        long[] state = store.loadQuotaState();
+        if (state != null && state.length == STATE_SIZE) {
+            milliTokens = Math.min(state[STATE_TOKENS], capacity * MILLI_TOKENS);
+            lastRefillMillis = state[STATE_LAST_REFILL];
+            blockedUntilMillis = state[STATE_BLOCKED_UNTIL];
+            consecutiveFailures = (int) state[STATE_FAILURES];
+        } else {
+            milliTokens = capacity * MILLI_TOKENS;
+            lastRefillMillis = -1;
+        }
+    }
+
+    /**
+     * Try to take a request token
+     *
+     * @param nowMillis The current time in milliseconds
+     * @return 0 if the request may be sent now, otherwise how long to wait before trying again
+     */
+    public synchronized long tryAcquire(long nowMillis) {
+        refill(nowMillis);
+        long wait = waitMillis(nowMillis);
+        if (wait > 0) {
+            shedCount++;
+            return wait;
+        }
+        milliTokens -= MILLI_TOKENS;
+        save();
+        return 0;
+    }
+
+    /**
+     * How long until a request would be allowed, without taking a token
+     *
+     * @param nowMillis The current time in milliseconds
+     * @return 0 if a request may be sent now, otherwise the wait in milliseconds
+     */
+    public synchronized long getRetryDelayMillis(long nowMillis) {
+        refill(nowMillis);
+        return waitMillis(nowMillis);
+    }
+
+    /**
+     * Record a successful response
+     */
+    public synchronized void onSuccess() {
+        consecutiveFailures = 0;
+        rateLimited = false;
+        save();
+    }
+
+    /**
+     * Record a failed request (I/O error or an unexpected HTTP status)
+     *
+     * @param nowMillis The current time in milliseconds
+     * @return The backoff before the next request, in milliseconds
+     */
+    public synchronized long onFailure(long nowMillis) {
+        consecutiveFailures++;
+        long backoff = backoffMillis();
+        blockedUntilMillis = Math.max(blockedUntilMillis, nowMillis + backoff);
+        save();
+        return blockedUntilMillis - nowMillis;
+    }
+
+    /**
+     * Record a rate-limit response (HTTP 429, 503 or 504)
+     *
+     * @param nowMillis        The current time in milliseconds
+     * @param retryAfterMillis The server's Retry-After delay, or -1 if it sent none
+     * @return The delay before the next request, in milliseconds
+     */
+    public synchronized long onRateLimited(long nowMillis, long retryAfterMillis) {
+        consecutiveFailures++;
+        rateLimited = true;
+        long delay = Math.max(backoffMillis(), retryAfterMillis);
+        blockedUntilMillis = Math.max(blockedUntilMillis, nowMillis + delay);
+        // The server says we are over quota, so don't burst again once the block ends
+        milliTokens = Math.min(milliTokens, 0);
+        save();
+        return blockedUntilMillis - nowMillis;
+    }
+
+    /**
+     * Apply the slot information from the Overpass /api/status endpoint
+     *
+     * @param status    The parsed status
+     * @param nowMillis The current time in milliseconds
+     */
+    public synchronized void onStatus(OverpassStatus status, long nowMillis) {
+        if (status.getAvailableSlots() > 0) {
+            // A slot is free right now, only the client-side backoff still applies
+            blockedUntilMillis = Math.min(blockedUntilMillis, nowMillis + backoffMillis());
+        } else if (status.getSecondsUntilSlot() >= 0) {
+            blockedUntilMillis = nowMillis + status.getSecondsUntilSlot() * 1000L;
+        }
+        save();
+    }
+
+    /**
+     * @return true if the last answer from the server was a rate-limit response
+     */
+    public synchronized boolean isRateLimited() {
+        return rateLimited;
+    }
+
+    public synchronized int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    /**
+     * @return The number of requests refused by the governor
+     */
+    public synchronized long getShedCount() {
+        return shedCount;
+    }
+
+    /**
+     * Parse an HTTP Retry-After header
+     *
+     * @param value     The header value, either delay-seconds or an HTTP date
+     * @param nowMillis The current time in milliseconds
+     * @return The delay in milliseconds, or -1 if the header is missing or invalid
+     */
+    public static long parseRetryAfterMillis(String value, long nowMillis) {
+        if (value == null) {
+            return -1;
+        }
+        value = value.trim();
+        try {
+            return Math.max(0, Long.parseLong(value) * 1000L);
+        } catch (NumberFormatException e) {
+            // Not delay-seconds, try an HTTP date
+        }
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        try {
+            Date date = format.parse(value);
+            return Math.max(0, date.getTime() - nowMillis);
+        } catch (ParseException e) {
+            return -1;
+        }
+    }
+
+    private long waitMillis(long nowMillis) {
+        long wait = Math.max(0, blockedUntilMillis - nowMillis);
+        if (milliTokens < MILLI_TOKENS) {
+            long missing = MILLI_TOKENS - milliTokens;
+            wait = Math.max(wait, (missing * refillMillis + MILLI_TOKENS - 1) / MILLI_TOKENS);
+        }
+        return wait;
+    }
+
+    private void refill(long nowMillis) {
+        if (lastRefillMillis < 0 || nowMillis < lastRefillMillis) {
+            // First use, or the wall clock went backwards
+            lastRefillMillis = nowMillis;
+            return;
+        }
+        long elapsed = nowMillis - lastRefillMillis;
+        long added = elapsed * MILLI_TOKENS / refillMillis;
+        if (added > 0) {
+            milliTokens = Math.min(capacity * MILLI_TOKENS, milliTokens + added);
+            lastRefillMillis = nowMillis;
+        }
+    }
+
+    /**
+     * Exponential backoff with equal jitter: half the delay is fixed, half is random
+     */
+    private long backoffMillis() {
+        int exponent = Math.min(Math.max(consecutiveFailures - 1, 0), 30);
+        long ceiling = Math.min(maxBackoffMillis, baseBackoffMillis << exponent);
+        long half = ceiling / 2;
+        return half + (half > 0 ? (long) (random.nextDouble() * half) : 0);
+    }
+
+    private void save() {
+        long[] state = new long[STATE_SIZE];
+        state[STATE_TOKENS] = milliTokens;
+        state[STATE_LAST_REFILL] = lastRefillMillis;
+        state[STATE_BLOCKED_UNTIL] = blockedUntilMillis;
+        state[STATE_FAILURES] = consecutiveFailures;
+        store.saveQuotaState(state);
+    }
+}
@@ -0,0 +1,201 @@
+package com.example.spotnear;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Builds compact Overpass QL queries for a set of POI categories around a location.
+ * <p>
+ * Instead of one node and one way statement per category, the query has one {@code nw}
+ * statement per OSM key: several values of the same key are merged into one anchored regex, and
+ * a category without a value matches the bare key. Results are printed with tags and way centers
+ * only (no way node lists), in quadtile order, optionally capped at a maximum count.
+ * <p>
+ * With {@link OutputFormat#CSV} the server returns only the {@link #CSV_COLUMNS}, one
+ * tab-separated line per element, to be read with {@link OverpassCsvParser}.
+ */
+public class OverpassQueryBuilder {
+    public static final int DEFAULT_TIMEOUT_SECONDS = 25;
+    // Typical size of one element with its tags in a JSON response, for estimating response sizes
+    public static final int JSON_ELEMENT_BYTES = 350;
+
+    /**
+     * Columns requested in CSV mode, in the order {@link OverpassCsvParser} reads them
+     */
+    public static final String CSV_COLUMNS = "::type,::id,::lat,::lon,name,leisure,amenity,tourism";
+
+    /**
+     * Response formats the builder can request
+     */
+    public enum OutputFormat {
+        JSON,
+        CSV
+    }
+
+    private final Map<String, List<String>> valuesByKey = new LinkedHashMap<>();
+    private OutputFormat outputFormat = OutputFormat.JSON;
+    private int timeoutSeconds = DEFAULT_TIMEOUT_SECONDS;
+    private int limit;
+
+    /**
+     * Constructor
+     *
+     * @param categories The categories to search for
+     */
+    public OverpassQueryBuilder(Collection<PoiCategory> categories) {
+        if (categories.isEmpty()) {
+            throw new IllegalArgumentException("At least one category is required");
+        }
+        for (PoiCategory category : categories) {
+            List<String> values = valuesByKey.get(category.getKey());
+            if (values == null) {
+                values = new ArrayList<>();
+                valuesByKey.put(category.getKey(), values);
+            }
+            if (category.getValue() == null) {
+                // A single null value means any value of the key matches
+                values.clear();
+                values.add(null);
+            } else if (!values.contains(null) && !values.contains(category.getValue())) {
+                values.add(category.getValue());
+            }
+        }
+    }
+
+    /**
+     * Set the format of the response
+     *
+     * @param outputFormat JSON, or CSV with only the columns SpotNear uses
+     * @return This builder
+     */
+    public OverpassQueryBuilder setOutputFormat(OutputFormat outputFormat) {
+        this.outputFormat = outputFormat;
+        return this;
+    }
+
+    public OutputFormat getOutputFormat() {
+        return outputFormat;
+    }
+
+    /**
+     * Set the server-side timeout of the query
+     *
+     * @param timeoutSeconds The timeout in seconds
+     * @return This builder
+     */
+    public OverpassQueryBuilder setTimeoutSeconds(int timeoutSeconds) {
+        this.timeoutSeconds = timeoutSeconds;
+        return this;
+    }
+
+    /**
+     * Cap the number of elements the server returns
+     *
+     * @param limit The maximum number of elements, or 0 for no limit
+     * @return This builder
+     */
+    public OverpassQueryBuilder setLimit(int limit) {
+        this.limit = limit;
+        return this;
+    }
+
+    /**
+     * Build the query for a circular search area
+     *
+     * @param latitude  The latitude of the search center
+     * @param longitude The longitude of the search center
+     * @param radius    The search radius in meters
+     * @return The Overpass QL query
+     */
+    public String build(double latitude, double longitude, int radius) {
+        return build(new String[]{String.format(Locale.US, "(around:%d,%.6f,%.6f)", radius, latitude, longitude)});
+    }
+
+    /**
+     * Build one query over several bounding boxes, such as the missing tiles of a {@link TileCoverage}
+     *
+     * @param boxes South, west, north and east of each box in turn
+     * @return The Overpass QL query
+     */
+    public String buildBoxes(double[] boxes) {
+        if (boxes.length == 0 || boxes.length % 4 != 0) {
+            throw new IllegalArgumentException("Expected south, west, north and east of at least one box");
+        }
+        String[] areas = new String[boxes.length / 4];
+        for (int i = 0; i < areas.length; i++) {
+            areas[i] = String.format(Locale.US, "(%.6f,%.6f,%.6f,%.6f)",
+                    boxes[4 * i], boxes[4 * i + 1], boxes[4 * i + 2], boxes[4 * i + 3]);
+        }
+        return build(areas);
+    }
+
+    /**
+     * Build the union of the category statements over each area filter
+     */
+    private String build(String[] areas) {
+        StringBuilder query = new StringBuilder(64 + valuesByKey.size() * areas.length * (areas[0].length() + 48));
+        if (outputFormat == OutputFormat.CSV) {
+            query.append("[out:csv(").append(CSV_COLUMNS).append(";false)]");
+        } else {
+            query.append("[out:json]");
+        }
+        query.append("[timeout:").append(timeoutSeconds).append("];");
+        boolean union = valuesByKey.size() * areas.length > 1;
+        if (union) {
+            query.append('(');
+        }
+        for (String area : areas) {
+            for (Map.Entry<String, List<String>> entry : valuesByKey.entrySet()) {
+                query.append("nw");
+                appendTagFilter(query, entry.getKey(), entry.getValue());
+                query.append(area).append(';');
+            }
+        }
+        if (union) {
+            query.append(");");
+        }
+        query.append("out tags center qt");
+        if (limit > 0) {
+            query.append(' ').append(limit);
+        }
+        return query.append(';').toString();
+    }
+
+    private static void appendTagFilter(StringBuilder query, String key, List<String> values) {
+        query.append("[\"").append(escapeString(key)).append('"');
+        if (values.size() == 1 && values.get(0) == null) {
+            query.append(']');
+        } else if (values.size() == 1) {
+            query.append("=\"").append(escapeString(values.get(0))).append("\"]");
+        } else {
+            query.append("~\"^(");
+            for (int i = 0; i < values.size(); i++) {
+                if (i > 0) {
+                    query.append('|');
+                }
+                query.append(escapeString(escapeRegex(values.get(i))));
+            }
+            query.append(")$\"]");
+        }
+    }
+
+    private static String escapeRegex(String value) {
+        StringBuilder escaped = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if ("\\.^$|?*+()[]{}".indexOf(c) >= 0) {
+                escaped.append('\\');
+            }
+            escaped.append(c);
+        }
+        return escaped.toString();
+    }
+
+    private static String escapeString(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+}
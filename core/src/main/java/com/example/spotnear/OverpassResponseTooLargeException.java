@@ -0,0 +1,20 @@
+package com.example.spotnear;
+
+import java.io.IOException;
+
+/**
+ * Thrown when an Overpass response is larger than the client accepts, declared or while read;
+ * the same query would fail again
+ */
+public class OverpassResponseTooLargeException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Constructor
+     *
+     * @param message What was too large
+     */
+    public OverpassResponseTooLargeException(String message) {
+        super(message);
+    }
+}
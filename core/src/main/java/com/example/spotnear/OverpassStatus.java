@@ -0,0 +1,84 @@
+package com.example.spotnear;
+
+/**
+ * Slot information parsed from the plain-text Overpass {@code /api/status} endpoint
+ */
+public final class OverpassStatus {
+    private final int rateLimit;
+    private final int availableSlots;
+    private final int secondsUntilSlot;
+
+    /**
+     * Constructor
+     *
+     * @param rateLimit        The number of slots the server grants this client, 0 if unlimited or unknown
+     * @param availableSlots   The number of slots free right now
+     * @param secondsUntilSlot Seconds until the next slot frees up, or -1 if unknown
+     */
+    public OverpassStatus(int rateLimit, int availableSlots, int secondsUntilSlot) {
+        this.rateLimit = rateLimit;
+        this.availableSlots = availableSlots;
+        this.secondsUntilSlot = secondsUntilSlot;
+    }
+
+    /**
+     * Parse the body of an /api/status response, for example:
+     * <pre>
+     * Rate limit: 2
+     * 1 slots available now.
+     * Slot available after: 2024-08-08T09:00:27Z, in 27 seconds.
+     * </pre>
+     *
+     * @param body The response body
+     * @return The parsed status
+     */
+    public static OverpassStatus parse(String body) {
+        int rateLimit = 0;
+        int availableSlots = 0;
+        int secondsUntilSlot = -1;
+        for (String rawLine : body.split("\n")) {
+            String line = rawLine.trim();
+            if (line.startsWith("Rate limit:")) {
+                rateLimit = parseLeadingInt(line.substring("Rate limit:".length()).trim());
+            } else if (line.endsWith("slots available now.") || line.endsWith("slot available now.")) {
+                availableSlots = parseLeadingInt(line);
+            } else if (line.startsWith("Slot available after:")) {
+                int in = line.lastIndexOf(", in ");
+                if (in >= 0) {
+                    int seconds = parseLeadingInt(line.substring(in + ", in ".length()));
+                    if (seconds >= 0 && (secondsUntilSlot < 0 || seconds < secondsUntilSlot)) {
+                        secondsUntilSlot = seconds;
+                    }
+                }
+            }
+        }
+        return new OverpassStatus(rateLimit, availableSlots, secondsUntilSlot);
+    }
+
+    private static int parseLeadingInt(String text) {
+        int value = 0;
+        int digits = 0;
+        while (digits < text.length() && Character.isDigit(text.charAt(digits))) {
+            value = value * 10 + (text.charAt(digits) - '0');
+            digits++;
+        }
+        return digits == 0 ? -1 : value;
+    }
+
+    public int getRateLimit() {
+        return rateLimit;
+    }
+
+    public int getAvailableSlots() {
+        return availableSlots;
+    }
+
+    public int getSecondsUntilSlot() {
+        return secondsUntilSlot;
+    }
+
+    @Override
+    public String toString() {
+        return "rateLimit=" + rateLimit + ", availableSlots=" + availableSlots + ", secondsUntilSlot=" + secondsUntilSlot;
+    }
+}
@@ -0,0 +1,413 @@
+package com.example.spotnear;
+
+import java.io.EOFException;
+import java.io.IOException;
+
+import okio.BufferedSource;
+
+/**
+ * Streaming parser for Overpass API JSON responses.
+ * <p>
+ * The response is read byte by byte from the body's source, and every entry of the
+ * {@code elements} array is decoded into a single reused {@link OverpassElement} that is handed
+ * to an {@link ElementHandler}. Only the fields SpotNear uses are decoded, everything else is
+ * skipped, so memory use does not grow with the size of the response.
+ * <p>
+ * A truncated response fails with an {@link EOFException}, malformed JSON with an
+ * {@link IOException}.
+ */
+public class OverpassStreamParser {
+
+    /**
+     * Receives each element as it is parsed
+     */
+    public interface ElementHandler {
+        /**
+         * Called once per element. The element is only valid until this method returns.
+         *
+         * @param element The parsed element
+         */
+        void onElement(OverpassElement element);
+    }
+
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+            1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18
+    };
+
+    private final OverpassElement element = new OverpassElement();
+    private final StringBuilder key = new StringBuilder(32);
+    private BufferedSource source;
+    private int peeked = -1;
+
+    /**
+     * Parse an Overpass response
+     *
+     * @param source  The response body source, positioned at the start of the JSON document
+     * @param handler Receives each element of the "elements" array
+     * @return The number of elements parsed
+     * @throws IOException If the source fails, is truncated or does not contain valid JSON
+     */
+    public int parse(BufferedSource source, ElementHandler handler) throws IOException {
+        this.source = source;
+        this.peeked = -1;
+        try {
+            int count = 0;
+            expect('{');
+            if (!consumeIf('}')) {
+                do {
+                    readKey();
+                    if (contentEquals(key, "elements")) {
+                        count += parseElements(handler);
+                    } else {
+                        skipValue();
+                    }
+                } while (consumeIf(','));
+                expect('}');
+            }
+            return count;
+        } finally {
+            this.source = null;
+        }
+    }
+
+    private int parseElements(ElementHandler handler) throws IOException {
+        int count = 0;
+        expect('[');
+        if (consumeIf(']')) {
+            return 0;
+        }
+        do {
+            element.reset();
+            parseElement();
+            handler.onElement(element);
+            count++;
+        } while (consumeIf(','));
+        expect(']');
+        return count;
+    }
+
+    private void parseElement() throws IOException {
+        expect('{');
+        if (consumeIf('}')) {
+            return;
+        }
+        do {
+            readKey();
+            if (contentEquals(key, "type")) {
+                readString(element.type);
+            } else if (contentEquals(key, "id")) {
+                element.id = (long) readNumber();
+            } else if (contentEquals(key, "lat")) {
+                element.latitude = readNumber();
+                element.hasLatitude = true;
+            } else if (contentEquals(key, "lon")) {
+                element.longitude = readNumber();
+                element.hasLongitude = true;
+            } else if (contentEquals(key, "center")) {
+                parseCenter();
+            } else if (contentEquals(key, "tags")) {
+                parseTags();
+            } else {
+                skipValue();
+            }
+        } while (consumeIf(','));
+        expect('}');
+    }
+
+    private void parseCenter() throws IOException {
+        expect('{');
+        if (consumeIf('}')) {
+            return;
+        }
+        do {
+            readKey();
+            if (contentEquals(key, "lat")) {
+                element.latitude = readNumber();
+                element.hasLatitude = true;
+            } else if (contentEquals(key, "lon")) {
+                element.longitude = readNumber();
+                element.hasLongitude = true;
+            } else {
+                skipValue();
+            }
+        } while (consumeIf(','));
+        expect('}');
+    }
+
+    private void parseTags() throws IOException {
+        expect('{');
+        if (consumeIf('}')) {
+            return;
+        }
+        do {
+            readKey();
+            if (contentEquals(key, "name")) {
+                readString(element.name);
+            } else if (contentEquals(key, "leisure")) {
+                readString(element.leisure);
+            } else if (contentEquals(key, "amenity")) {
+                readString(element.amenity);
+            } else if (contentEquals(key, "tourism")) {
+                readString(element.tourism);
+            } else {
+                skipValue();
+            }
+        } while (consumeIf(','));
+        expect('}');
+    }
+
+    private void readKey() throws IOException {
+        readString(key);
+        expect(':');
+    }
+
+    /**
+     * Read a JSON string into the given builder, replacing its content
+     */
+    private void readString(StringBuilder out) throws IOException {
+        out.setLength(0);
+        expect('"');
+        while (true) {
+            int b = source.readByte() & 0xff;
+            if (b == '"') {
+                return;
+            } else if (b == '\\') {
+                readEscape(out);
+            } else if (b < 0x80) {
+                out.append((char) b);
+            } else {
+                appendUtf8(out, b);
+            }
+        }
+    }
+
+    private void readEscape(StringBuilder out) throws IOException {
+        int b = source.readByte();
+        switch (b) {
+            case '"':
+            case '\\':
+            case '/':
+                out.append((char) b);
+                break;
+            case 'b':
+                out.append('\b');
+                break;
+            case 'f':
+                out.append('\f');
+                break;
+            case 'n':
+                out.append('\n');
+                break;
+            case 'r':
+                out.append('\r');
+                break;
+            case 't':
+                out.append('\t');
+                break;
+            case 'u':
+                int value = 0;
+                for (int i = 0; i < 4; i++) {
+                    value = (value << 4) | hexValue(source.readByte());
+                }
+                out.append((char) value);
+                break;
+            default:
+                throw new IOException("Malformed Overpass response: invalid escape \\" + (char) b);
+        }
+    }
+
+    private void appendUtf8(StringBuilder out, int first) throws IOException {
+        int codePoint;
+        int continuationBytes;
+        if ((first & 0xe0) == 0xc0) {
+            codePoint = first & 0x1f;
+            continuationBytes = 1;
+        } else if ((first & 0xf0) == 0xe0) {
+            codePoint = first & 0x0f;
+            continuationBytes = 2;
+        } else if ((first & 0xf8) == 0xf0) {
+            codePoint = first & 0x07;
+            continuationBytes = 3;
+        } else {
+            out.append('\uFFFD');
+            return;
+        }
+        for (int i = 0; i < continuationBytes; i++) {
+            codePoint = (codePoint << 6) | (source.readByte() & 0x3f);
+        }
+        if (codePoint >= 0x10000) {
+            out.append(Character.highSurrogate(codePoint));
+            out.append(Character.lowSurrogate(codePoint));
+        } else {
+            out.append((char) codePoint);
+        }
+    }
+
+    /**
+     * Read a JSON number without allocating
+     */
+    private double readNumber() throws IOException {
+        int b = nextNonWhitespace();
+        boolean negative = false;
+        if (b == '-') {
+            negative = true;
+            b = source.readByte();
+        }
+        if (b < '0' || b > '9') {
+            throw new IOException("Malformed Overpass response: expected a number");
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int scale = 0;
+        while (b >= '0' && b <= '9') {
+            if (digits < 18) {
+                mantissa = mantissa * 10 + (b - '0');
+                digits++;
+            } else {
+                scale--;
+            }
+            b = readByteOrEnd();
+        }
+        if (b == '.') {
+            b = readByteOrEnd();
+            while (b >= '0' && b <= '9') {
+                if (digits < 18) {
+                    mantissa = mantissa * 10 + (b - '0');
+                    digits++;
+                    scale++;
+                }
+                b = readByteOrEnd();
+            }
+        }
+        if (b == 'e' || b == 'E') {
+            b = source.readByte();
+            boolean negativeExponent = b == '-';
+            if (b == '-' || b == '+') {
+                b = source.readByte();
+            }
+            int exponent = 0;
+            while (b >= '0' && b <= '9') {
+                exponent = exponent * 10 + (b - '0');
+                b = readByteOrEnd();
+            }
+            scale += negativeExponent ? exponent : -exponent;
+        }
+        peeked = b;
+
+        double value = mantissa;
+        if (scale > 0) {
+            value = scale < POWERS_OF_TEN.length ? value / POWERS_OF_TEN[scale] : value / Math.pow(10, scale);
+        } else if (scale < 0) {
+            value = -scale < POWERS_OF_TEN.length ? value * POWERS_OF_TEN[-scale] : value * Math.pow(10, -scale);
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Skip over any JSON value, including nested objects and arrays
+     */
+    private void skipValue() throws IOException {
+        int b = nextNonWhitespace();
+        if (b == '"') {
+            peeked = b;
+            skipString();
+        } else if (b == '{' || b == '[') {
+            int depth = 1;
+            while (depth > 0) {
+                b = source.readByte();
+                if (b == '"') {
+                    peeked = b;
+                    skipString();
+                } else if (b == '{' || b == '[') {
+                    depth++;
+                } else if (b == '}' || b == ']') {
+                    depth--;
+                }
+            }
+        } else if (b == '-' || (b >= '0' && b <= '9')) {
+            peeked = b;
+            readNumber();
+        } else if (b == 't' || b == 'f' || b == 'n') {
+            // true, false or null
+            while (b >= 'a' && b <= 'z') {
+                b = readByteOrEnd();
+            }
+            peeked = b;
+        } else {
+            throw new IOException("Malformed Overpass response: unexpected '" + (char) b + "'");
+        }
+    }
+
+    private void skipString() throws IOException {
+        expect('"');
+        while (true) {
+            int b = source.readByte();
+            if (b == '"') {
+                return;
+            } else if (b == '\\') {
+                source.readByte();
+            }
+        }
+    }
+
+    private void expect(char expected) throws IOException {
+        int b = nextNonWhitespace();
+        if (b != expected) {
+            throw new IOException("Malformed Overpass response: expected '" + expected + "' but found '" + (char) b + "'");
+        }
+    }
+
+    private boolean consumeIf(char expected) throws IOException {
+        int b = nextNonWhitespace();
+        if (b == expected) {
+            return true;
+        }
+        peeked = b;
+        return false;
+    }
+
+    private int nextNonWhitespace() throws IOException {
+        int b;
+        if (peeked != -1) {
+            b = peeked;
+            peeked = -1;
+        } else {
+            b = source.readByte();
+        }
+        while (b == ' ' || b == '\n' || b == '\r' || b == '\t') {
+            b = source.readByte();
+        }
+        return b;
+    }
+
+    /**
+     * Read the next byte, or return -1 at the end of the source (a number may end the document)
+     */
+    private int readByteOrEnd() throws IOException {
+        return source.exhausted() ? -1 : source.readByte();
+    }
+
+    private static int hexValue(int b) throws IOException {
+        if (b >= '0' && b <= '9') {
+            return b - '0';
+        } else if (b >= 'a' && b <= 'f') {
+            return b - 'a' + 10;
+        } else if (b >= 'A' && b <= 'F') {
+            return b - 'A' + 10;
+        }
+        throw new IOException("Malformed Overpass response: invalid unicode escape");
+    }
+
+    private static boolean contentEquals(StringBuilder builder, String value) {
+        if (builder.length() != value.length()) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            if (builder.charAt(i) != value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,26 @@
+package com.example.spotnear;
+
+import java.io.IOException;
+
+/**
+ * Thrown when the {@link OverpassGovernor} refuses to send a query
+ */
+public class OverpassThrottledException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final long retryDelayMillis;
+
+    /**
+     * Constructor
+     *
+     * @param retryDelayMillis How long until the governor would allow the query
+     */
+    public OverpassThrottledException(long retryDelayMillis) {
+        super("Overpass query deferred for " + retryDelayMillis + " ms");
+        this.retryDelayMillis = retryDelayMillis;
+    }
+
+    public long getRetryDelayMillis() {
+        return retryDelayMillis;
+    }
+}
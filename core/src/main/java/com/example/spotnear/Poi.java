@@ -0,0 +1,91 @@
+package com.example.spotnear;
+
+/**
+ * A point of interest returned by the Overpass API, reduced to the fields SpotNear uses
+ */
+public final class Poi {
+    private final long id;
+    private final String type;
+    private final double latitude;
+    private final double longitude;
+    private final String name;
+    private final String leisure;
+    private final String amenity;
+    private final String tourism;
+
+    /**
+     * Constructor
+     *
+     * @param id        The OSM id of the element
+     * @param type      The OSM element type ("node" or "way")
+     * @param latitude  The latitude of the node, or of the way's center
+     * @param longitude The longitude of the node, or of the way's center
+     * @param name      The value of the name tag, or null
+     * @param leisure   The value of the leisure tag, or null
+     * @param amenity   The value of the amenity tag, or null
+     * @param tourism   The value of the tourism tag, or null
+     */
+    public Poi(long id, String type, double latitude, double longitude,
+               String name, String leisure, String amenity, String tourism) {
+        this.id = id;
+        this.type = type;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.name = name;
+        this.leisure = leisure;
+        this.amenity = amenity;
+        this.tourism = tourism;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public double getLatitude() {
+        return latitude;
+    }
+
+    public double getLongitude() {
+        return longitude;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getLeisure() {
+        return leisure;
+    }
+
+    public String getAmenity() {
+        return amenity;
+    }
+
+    public String getTourism() {
+        return tourism;
+    }
+
+    /**
+     * Rough estimate of the heap held by this object, used for cache budgeting
+     *
+     * @return Estimated size in bytes
+     */
+    public int estimatedBytes() {
+        // Object header and primitive fields, plus ~40 bytes overhead per non-null string
+        return 56 + stringBytes(type) + stringBytes(name) + stringBytes(leisure)
+                + stringBytes(amenity) + stringBytes(tourism);
+    }
+
+    private static int stringBytes(String value) {
+        return value == null ? 0 : 40 + 2 * value.length();
+    }
+
+    @Override
+    public String toString() {
+        return type + "/" + id + " (" + latitude + ", " + longitude + ") " + name;
+    }
+}
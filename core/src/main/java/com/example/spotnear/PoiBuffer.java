@@ -0,0 +1,275 @@
+package com.example.spotnear;
+
+import java.util.Arrays;
+
+/**
+ * Growable struct-of-arrays store of POIs backed by primitive arrays.
+ * <p>
+ * Each row keeps its id, element type and coordinates in parallel arrays, and its text fields
+ * (name and the leisure/amenity/tourism tags) as slices of one shared char array. Calling
+ * {@link #clear()} keeps the arrays, so a buffer reused across searches stops allocating once
+ * it has grown to the largest response seen.
+ */
+public final class PoiBuffer {
+    public static final byte TYPE_NODE = 0;
+    public static final byte TYPE_WAY = 1;
+    public static final byte TYPE_RELATION = 2;
+
+    public static final int FIELD_NAME = 0;
+    public static final int FIELD_LEISURE = 1;
+    public static final int FIELD_AMENITY = 2;
+    public static final int FIELD_TOURISM = 3;
+    public static final int FIELD_COUNT = 4;
+
+    private static final String[] TYPE_NAMES = {"node", "way", "relation"};
+
+    private long[] ids;
+    private byte[] types;
+    private double[] latitudes;
+    private double[] longitudes;
+    private int[] textStarts;
+    private int[] textLengths;
+    private char[] text;
+    private int size;
+    private int textSize;
+
+    public PoiBuffer() {
+        this(256);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param initialCapacity The number of rows to allocate up front
+     */
+    public PoiBuffer(int initialCapacity) {
+        int capacity = Math.max(1, initialCapacity);
+        ids = new long[capacity];
+        types = new byte[capacity];
+        latitudes = new double[capacity];
+        longitudes = new double[capacity];
+        textStarts = new int[capacity * FIELD_COUNT];
+        textLengths = new int[capacity * FIELD_COUNT];
+        text = new char[capacity * 16];
+    }
+
+    /**
+     * Remove all rows, keeping the allocated arrays
+     */
+    public void clear() {
+        size = 0;
+        textSize = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Start a new row. Text fields are empty until {@link #appendText} is called for them.
+     *
+     * @return The index of the new row
+     */
+    public int addRow(long id, byte type, double latitude, double longitude) {
+        if (size == ids.length) {
+            grow();
+        }
+        int row = size++;
+        ids[row] = id;
+        types[row] = type;
+        latitudes[row] = latitude;
+        longitudes[row] = longitude;
+        int base = row * FIELD_COUNT;
+        for (int field = 0; field < FIELD_COUNT; field++) {
+            textStarts[base + field] = textSize;
+            textLengths[base + field] = 0;
+        }
+        return row;
+    }
+
+    /**
+     * Add a row copied from a POI
+     *
+     * @return The index of the new row
+     */
+    public int add(Poi poi) {
+        int row = addRow(poi.getId(), typeCode(poi.getType()), poi.getLatitude(), poi.getLongitude());
+        setText(row, FIELD_NAME, poi.getName());
+        setText(row, FIELD_LEISURE, poi.getLeisure());
+        setText(row, FIELD_AMENITY, poi.getAmenity());
+        setText(row, FIELD_TOURISM, poi.getTourism());
+        return row;
+    }
+
+    void setType(int row, byte type) {
+        types[row] = type;
+    }
+
+    void setPosition(int row, long id, double latitude, double longitude) {
+        ids[row] = id;
+        latitudes[row] = latitude;
+        longitudes[row] = longitude;
+    }
+
+    /**
+     * Mark the start of a text field of the last row; following {@link #appendText} calls fill it
+     */
+    void beginText(int row, int field) {
+        textStarts[row * FIELD_COUNT + field] = textSize;
+        textLengths[row * FIELD_COUNT + field] = 0;
+    }
+
+    /**
+     * Append one character to a text field of the last row
+     */
+    void appendText(int row, int field, char c) {
+        if (textSize == text.length) {
+            text = Arrays.copyOf(text, text.length * 2);
+        }
+        text[textSize++] = c;
+        textLengths[row * FIELD_COUNT + field]++;
+    }
+
+    /**
+     * Remove the last row, used when a streamed row turns out to be incomplete
+     */
+    void removeLastRow() {
+        if (size > 0) {
+            size--;
+            textSize = textStarts[size * FIELD_COUNT];
+        }
+    }
+
+    /**
+     * Add a row copied from a streamed element
+     *
+     * @return The index of the new row
+     */
+    public int add(OverpassElement element) {
+        int row = addRow(element.getId(), typeCode(element.getType()), element.getLatitude(), element.getLongitude());
+        setText(row, FIELD_NAME, element.getName());
+        setText(row, FIELD_LEISURE, element.getLeisure());
+        setText(row, FIELD_AMENITY, element.getAmenity());
+        setText(row, FIELD_TOURISM, element.getTourism());
+        return row;
+    }
+
+    /**
+     * Add a row copied from another buffer
+     *
+     * @return The index of the new row
+     */
+    public int add(PoiBuffer source, int sourceRow) {
+        int row = addRow(source.ids[sourceRow], source.types[sourceRow],
+                source.latitudes[sourceRow], source.longitudes[sourceRow]);
+        for (int field = 0; field < FIELD_COUNT; field++) {
+            beginText(row, field);
+            int start = source.textStarts[sourceRow * FIELD_COUNT + field];
+            int length = source.textLengths[sourceRow * FIELD_COUNT + field];
+            for (int i = 0; i < length; i++) {
+                appendText(row, field, source.text[start + i]);
+            }
+        }
+        return row;
+    }
+
+    /**
+     * Replace a text field of the last row
+     */
+    void setText(int row, int field, CharSequence value) {
+        beginText(row, field);
+        if (value != null) {
+            for (int i = 0; i < value.length(); i++) {
+                appendText(row, field, value.charAt(i));
+            }
+        }
+    }
+
+    public long getId(int row) {
+        return ids[row];
+    }
+
+    public byte getType(int row) {
+        return types[row];
+    }
+
+    public double getLatitude(int row) {
+        return latitudes[row];
+    }
+
+    public double getLongitude(int row) {
+        return longitudes[row];
+    }
+
+    /**
+     * @return The length of a text field, 0 if the tag is missing
+     */
+    public int getTextLength(int row, int field) {
+        return textLengths[row * FIELD_COUNT + field];
+    }
+
+    /**
+     * Compare a text field with a string without allocating
+     */
+    public boolean textEquals(int row, int field, String value) {
+        int start = textStarts[row * FIELD_COUNT + field];
+        int length = textLengths[row * FIELD_COUNT + field];
+        if (length != value.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (text[start + i] != value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The text field as a new string, or null if the tag is missing
+     */
+    public String getText(int row, int field) {
+        int length = textLengths[row * FIELD_COUNT + field];
+        return length == 0 ? null : new String(text, textStarts[row * FIELD_COUNT + field], length);
+    }
+
+    /**
+     * Copy a row into an immutable POI
+     */
+    public Poi toPoi(int row) {
+        return new Poi(ids[row], TYPE_NAMES[types[row]], latitudes[row], longitudes[row],
+                getText(row, FIELD_NAME), getText(row, FIELD_LEISURE),
+                getText(row, FIELD_AMENITY), getText(row, FIELD_TOURISM));
+    }
+
+    /**
+     * Map an OSM element type name to its code
+     */
+    public static byte typeCode(CharSequence type) {
+        if (type != null && type.length() > 0) {
+            if (type.charAt(0) == 'w') {
+                return TYPE_WAY;
+            } else if (type.charAt(0) == 'r') {
+                return TYPE_RELATION;
+            }
+        }
+        return TYPE_NODE;
+    }
+
+    /**
+     * @return The approximate number of bytes held by the backing arrays
+     */
+    public long capacityBytes() {
+        return ids.length * (8L + 1 + 8 + 8 + FIELD_COUNT * 8L) + text.length * 2L;
+    }
+
+    private void grow() {
+        int capacity = ids.length * 2;
+        ids = Arrays.copyOf(ids, capacity);
+        types = Arrays.copyOf(types, capacity);
+        latitudes = Arrays.copyOf(latitudes, capacity);
+        longitudes = Arrays.copyOf(longitudes, capacity);
+        textStarts = Arrays.copyOf(textStarts, capacity * FIELD_COUNT);
+        textLengths = Arrays.copyOf(textLengths, capacity * FIELD_COUNT);
+    }
+}
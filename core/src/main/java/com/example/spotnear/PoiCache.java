@@ -0,0 +1,271 @@
+package com.example.spotnear;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory cache of Overpass search results keyed by geohash tiles.
+ * <p>
+ * A search is stored under the tile that contains its center, at a precision derived from the
+ * search radius, so any later search starting in the same tile can be answered without a network
+ * round-trip. Every tile carries its own expiry time, and the least recently used tiles are
+ * evicted once the estimated size of the cache exceeds its byte budget.
+ * <p>
+ * A search at another point of the tile only gets the stored POIs that reach it, which may be
+ * a part of its circle; {@link #covers} tells whether the stored circle holds all of it. A search
+ * whose own tile has nothing usable, such as one just across a tile edge, is also answered by
+ * the search stored in a neighbouring tile if that search's circle holds all of its circle.
+ */
+public class PoiCache {
+    public static final long DEFAULT_TTL_MILLIS = 6 * 60 * 60 * 1000L; // 6 hours
+    public static final long DEFAULT_EMPTY_TTL_MILLIS = 15 * 60 * 1000L; // 15 minutes
+    public static final long DEFAULT_MAX_BYTES = 512 * 1024L; // 512 KB
+
+    // Tiles are at most a quarter of the search radius, so a cached result still covers most of the new search circle
+    private static final int TILE_FRACTION_OF_RADIUS = 4;
+    private static final int ENTRY_OVERHEAD_BYTES = 96;
+
+    private final long maxBytes;
+    private final long ttlMillis;
+    private final long emptyTtlMillis;
+    private final LinkedHashMap<String, Entry> tiles = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long sizeBytes;
+    private long hitCount;
+    private long missCount;
+    private long expiredCount;
+    private long evictionCount;
+
+    /**
+     * Create a cache with the default TTLs and byte budget
+     */
+    public PoiCache() {
+        this(DEFAULT_MAX_BYTES, DEFAULT_TTL_MILLIS, DEFAULT_EMPTY_TTL_MILLIS);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param maxBytes       The byte budget of the cache
+     * @param ttlMillis      How long a tile with results stays valid
+     * @param emptyTtlMillis How long a tile without results stays valid
+     */
+    public PoiCache(long maxBytes, long ttlMillis, long emptyTtlMillis) {
+        this.maxBytes = maxBytes;
+        this.ttlMillis = ttlMillis;
+        this.emptyTtlMillis = emptyTtlMillis;
+    }
+
+    /**
+     * Get the geohash precision used for searches with the given radius
+     *
+     * @param radius The search radius in meters
+     * @return The geohash precision
+     */
+    public static int precisionForRadius(int radius) {
+        return Geohash.precisionForTileSize((double) radius / TILE_FRACTION_OF_RADIUS);
+    }
+
+    /**
+     * Look up the POIs around a location
+     *
+     * @param latitude  The search center latitude
+     * @param longitude The search center longitude
+     * @param radius    The search radius in meters
+     * @param nowMillis The current time in milliseconds
+     * @return The cached POIs within the radius, or null if the search has to go to the network
+     */
+    public synchronized List<Poi> get(double latitude, double longitude, int radius, long nowMillis) {
+        String key = Geohash.encode(latitude, longitude, precisionForRadius(radius));
+        Entry entry = tiles.get(key);
+        if (entry != null && nowMillis >= entry.expiresAtMillis) {
+            remove(key);
+            expiredCount++;
+            entry = null;
+        }
+        if (entry == null || entry.radius < radius) {
+            entry = coveringNeighbor(key, latitude, longitude, radius, nowMillis);
+            if (entry == null) {
+                missCount++;
+                return null;
+            }
+        }
+
+        List<Poi> result = new ArrayList<>();
+        for (Poi poi : entry.pois) {
+            if (GeoUtils.distanceMeters(latitude, longitude, poi.getLatitude(), poi.getLongitude()) <= radius) {
+                result.add(poi);
+            }
+        }
+        if (result.isEmpty() && !entry.pois.isEmpty()) {
+            // The tile had results, but none of them reach this search center
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        return result;
+    }
+
+    /**
+     * Whether a stored search circle holds the whole circle of a search, so that the POIs from
+     * {@link #get} are all there are within its radius
+     *
+     * @param latitude  The search center latitude
+     * @param longitude The search center longitude
+     * @param radius    The search radius in meters
+     * @param nowMillis The current time in milliseconds
+     * @return true if the circle of an unexpired tile, its own or a neighbour, contains the search circle
+     */
+    public synchronized boolean covers(double latitude, double longitude, int radius, long nowMillis) {
+        String key = Geohash.encode(latitude, longitude, precisionForRadius(radius));
+        return holds(tiles.get(key), latitude, longitude, radius, nowMillis)
+                || coveringNeighbor(key, latitude, longitude, radius, nowMillis) != null;
+    }
+
+    /**
+     * Store the result of a network search
+     *
+     * @param latitude  The search center latitude
+     * @param longitude The search center longitude
+     * @param radius    The search radius in meters
+     * @param pois      The POIs returned for the search
+     * @param nowMillis The current time in milliseconds
+     */
+    public synchronized void put(double latitude, double longitude, int radius, List<Poi> pois, long nowMillis) {
+        String key = Geohash.encode(latitude, longitude, precisionForRadius(radius));
+        long ttl = pois.isEmpty() ? emptyTtlMillis : ttlMillis;
+        Entry entry = new Entry(latitude, longitude, radius, new ArrayList<>(pois), nowMillis + ttl);
+        remove(key);
+        if (entry.bytes > maxBytes) {
+            return;
+        }
+        removeExpired(nowMillis);
+        tiles.put(key, entry);
+        sizeBytes += entry.bytes;
+
+        Iterator<Map.Entry<String, Entry>> iterator = tiles.entrySet().iterator();
+        while (sizeBytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<String, Entry> eldest = iterator.next();
+            sizeBytes -= eldest.getValue().bytes;
+            iterator.remove();
+            evictionCount++;
+        }
+    }
+
+    /**
+     * Remove all cached tiles
+     */
+    public synchronized void clear() {
+        tiles.clear();
+        sizeBytes = 0;
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    public synchronized long getExpiredCount() {
+        return expiredCount;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public synchronized long getSizeBytes() {
+        return sizeBytes;
+    }
+
+    public synchronized int getTileCount() {
+        return tiles.size();
+    }
+
+    /**
+     * Summary of the cache counters, for logging
+     */
+    public synchronized String describeStats() {
+        long lookups = hitCount + missCount;
+        int hitPercent = lookups == 0 ? 0 : (int) (100 * hitCount / lookups);
+        return "hits=" + hitCount + ", misses=" + missCount + " (" + hitPercent + "% served offline)"
+                + ", expired=" + expiredCount + ", evicted=" + evictionCount
+                + ", tiles=" + tiles.size() + ", bytes=" + sizeBytes + "/" + maxBytes;
+    }
+
+    /**
+     * Find an unexpired entry in one of the eight tiles around a tile whose circle holds a search
+     * circle
+     */
+    private Entry coveringNeighbor(String key, double latitude, double longitude, int radius, long nowMillis) {
+        for (int latitudeSteps = -1; latitudeSteps <= 1; latitudeSteps++) {
+            for (int longitudeSteps = -1; longitudeSteps <= 1; longitudeSteps++) {
+                if (latitudeSteps == 0 && longitudeSteps == 0) {
+                    continue;
+                }
+                String neighbor = Geohash.neighbor(key, latitudeSteps, longitudeSteps);
+                Entry entry = neighbor != null ? tiles.get(neighbor) : null;
+                if (holds(entry, latitude, longitude, radius, nowMillis)) {
+                    return entry;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static boolean holds(Entry entry, double latitude, double longitude, int radius, long nowMillis) {
+        return entry != null && nowMillis < entry.expiresAtMillis
+                && GeoUtils.distanceMeters(entry.latitude, entry.longitude, latitude, longitude) + radius <= entry.radius;
+    }
+
+    private void remove(String key) {
+        Entry removed = tiles.remove(key);
+        if (removed != null) {
+            sizeBytes -= removed.bytes;
+        }
+    }
+
+    private void removeExpired(long nowMillis) {
+        Iterator<Entry> iterator = tiles.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (nowMillis >= entry.expiresAtMillis) {
+                sizeBytes -= entry.bytes;
+                iterator.remove();
+                expiredCount++;
+            }
+        }
+    }
+
+    private static final class Entry {
+        final double latitude;
+        final double longitude;
+        final int radius;
+        final List<Poi> pois;
+        final long expiresAtMillis;
+        final long bytes;
+
+        Entry(double latitude, double longitude, int radius, List<Poi> pois, long expiresAtMillis) {
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.radius = radius;
+            this.pois = Collections.unmodifiableList(pois);
+            this.expiresAtMillis = expiresAtMillis;
+            long total = ENTRY_OVERHEAD_BYTES;
+            for (Poi poi : pois) {
+                total += poi.estimatedBytes();
+            }
+            this.bytes = total;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.spotnear;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An OSM tag filter describing one kind of place SpotNear searches for
+ */
+public final class PoiCategory {
+    public static final PoiCategory PARK = new PoiCategory("leisure", "park");
+    public static final PoiCategory CAFE = new PoiCategory("amenity", "cafe");
+    public static final PoiCategory RESTAURANT = new PoiCategory("amenity", "restaurant");
+    public static final PoiCategory TOURISM = new PoiCategory("tourism", null);
+
+    /**
+     * The categories searched by default
+     */
+    public static final List<PoiCategory> DEFAULTS =
+            Collections.unmodifiableList(Arrays.asList(PARK, CAFE, RESTAURANT, TOURISM));
+
+    private final String key;
+    private final String value;
+
+    /**
+     * Constructor
+     *
+     * @param key   The OSM tag key
+     * @param value The required tag value, or null to match any value of the key
+     */
+    public PoiCategory(String key, String value) {
+        if (key == null || key.isEmpty()) {
+            throw new IllegalArgumentException("Category key must not be empty");
+        }
+        this.key = key;
+        this.value = value;
+    }
+
+    /**
+     * Describe the type of a POI for display: parks first, then amenities, then tourism
+     *
+     * @param poi The POI
+     * @return "Park", the amenity or tourism value, or "Interesting place"
+     */
+    public static String typeLabelOf(Poi poi) {
+        if ("park".equals(poi.getLeisure())) {
+            return "Park";
+        } else if (poi.getAmenity() != null) {
+            return poi.getAmenity();
+        } else if (poi.getTourism() != null) {
+            return poi.getTourism();
+        }
+        return "Interesting place";
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * @return The required tag value, or null if any value matches
+     */
+    public String getValue() {
+        return value;
+    }
+
+    /**
+     * Check a streamed element against this filter. Only the keys decoded into
+     * {@link OverpassElement} (leisure, amenity and tourism) can match.
+     *
+     * @return true if the element has this category's tag
+     */
+    public boolean matches(OverpassElement element) {
+        CharSequence actual;
+        switch (key) {
+            case "leisure":
+                actual = element.getLeisure();
+                break;
+            case "amenity":
+                actual = element.getAmenity();
+                break;
+            case "tourism":
+                actual = element.getTourism();
+                break;
+            default:
+                return false;
+        }
+        return actual.length() > 0 && (value == null || value.contentEquals(actual));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof PoiCategory)) {
+            return false;
+        }
+        PoiCategory other = (PoiCategory) o;
+        return key.equals(other.key) && (value == null ? other.value == null : value.equals(other.value));
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * key.hashCode() + (value == null ? 0 : value.hashCode());
+    }
+
+    @Override
+    public String toString() {
+        return value == null ? key + "=*" : key + "=" + value;
+    }
+}
@@ -0,0 +1,228 @@
+package com.example.spotnear;
+
+/**
+ * Ranks the POIs of a {@link PoiBuffer} by how worthwhile they are to show, keeping the best k.
+ * <p>
+ * The score of a POI adds up:
+ * <ul>
+ * <li>closeness: 1 at the search center, falling linearly to 0 at the radius</li>
+ * <li>the weight of its category, classified like {@link PoiCategory#typeLabelOf}</li>
+ * <li>novelty: a bonus if its category differs from the last POI shown</li>
+ * <li>a bonus if it has a name</li>
+ * </ul>
+ * POIs outside the radius or already in the {@link SeenPoiSet} are left out. The best k rows are
+ * kept in a bounded min-heap of primitive arrays, so ranking reads the buffer's columns directly
+ * and allocates nothing per candidate; one ranker is meant to be reused across searches.
+ */
+public final class PoiRanker {
+    public static final int CATEGORY_PARK = 0;
+    public static final int CATEGORY_CAFE = 1;
+    public static final int CATEGORY_RESTAURANT = 2;
+    public static final int CATEGORY_TOURISM = 3;
+    public static final int CATEGORY_OTHER = 4;
+    public static final int CATEGORY_COUNT = 5;
+
+    public static final float DEFAULT_DISTANCE_WEIGHT = 1f;
+    public static final float DEFAULT_NOVELTY_WEIGHT = 0.5f;
+    public static final float DEFAULT_NAME_WEIGHT = 0.3f;
+
+    private final float[] categoryWeights = {0.8f, 0.6f, 0.5f, 0.7f, 0.2f};
+    private float distanceWeight = DEFAULT_DISTANCE_WEIGHT;
+    private float noveltyWeight = DEFAULT_NOVELTY_WEIGHT;
+    private float nameWeight = DEFAULT_NAME_WEIGHT;
+    private int lastCategory = -1;
+
+    // Min-heap of the best rows so far, the worst of them at index 0
+    private final float[] heapScores;
+    private final int[] heapRows;
+    private int heapSize;
+
+    /**
+     * Constructor
+     *
+     * @param k The number of best rows to keep
+     */
+    public PoiRanker(int k) {
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be positive");
+        }
+        heapScores = new float[k];
+        heapRows = new int[k];
+    }
+
+    /**
+     * Set the weight of a category
+     *
+     * @param category One of the CATEGORY constants
+     * @return This ranker
+     */
+    public PoiRanker setCategoryWeight(int category, float weight) {
+        categoryWeights[category] = weight;
+        return this;
+    }
+
+    /**
+     * Set the weights of closeness, novelty and having a name
+     *
+     * @return This ranker
+     */
+    public PoiRanker setWeights(float distanceWeight, float noveltyWeight, float nameWeight) {
+        this.distanceWeight = distanceWeight;
+        this.noveltyWeight = noveltyWeight;
+        this.nameWeight = nameWeight;
+        return this;
+    }
+
+    /**
+     * Set the category of the last POI shown, whose category earns no novelty bonus
+     *
+     * @param category One of the CATEGORY constants, or -1 if nothing was shown yet
+     * @return This ranker
+     */
+    public PoiRanker setLastCategory(int category) {
+        lastCategory = category;
+        return this;
+    }
+
+    /**
+     * Rank the rows of a buffer
+     *
+     * @param pois         The candidates
+     * @param latitude     The latitude of the current fix
+     * @param longitude    The longitude of the current fix
+     * @param radiusMeters The search radius in meters
+     * @param seen         The POIs to leave out, or null
+     * @param out          Receives the best rows, best first; at most k are written
+     * @return The number of rows written to {@code out}
+     */
+    public int rank(PoiBuffer pois, double latitude, double longitude, double radiusMeters,
+                    SeenPoiSet seen, int[] out) {
+        heapSize = 0;
+        double cosLatitude = Math.cos(Math.toRadians(latitude));
+        double radiusDegrees = radiusMeters / GeoUtils.METERS_PER_DEGREE;
+        double maxSquared = radiusDegrees * radiusDegrees;
+        int size = pois.size();
+        for (int row = 0; row < size; row++) {
+            double dy = pois.getLatitude(row) - latitude;
+            double dx = (pois.getLongitude(row) - longitude) * cosLatitude;
+            double squared = dx * dx + dy * dy;
+            if (squared > maxSquared) {
+                continue;
+            }
+            int category = categoryOf(pois, row);
+            float score = (float) (distanceWeight * (1 - Math.sqrt(squared) / radiusDegrees))
+                    + categoryWeights[category];
+            if (category != lastCategory) {
+                score += noveltyWeight;
+            }
+            if (pois.getTextLength(row, PoiBuffer.FIELD_NAME) > 0) {
+                score += nameWeight;
+            }
+            if (heapSize == heapScores.length && score <= heapScores[0]) {
+                continue;
+            }
+            // The seen check is the most expensive, so it only runs for rows that would enter the heap
+            if (seen != null && seen.contains(pois.getId(row), pois.getType(row))) {
+                continue;
+            }
+            offer(score, row);
+        }
+
+        int count = heapSize;
+        // Pop the worst first, filling the output from the back
+        while (heapSize > 0) {
+            int row = heapRows[0];
+            heapSize--;
+            if (heapSize > 0) {
+                heapScores[0] = heapScores[heapSize];
+                heapRows[0] = heapRows[heapSize];
+                siftDown(0);
+            }
+            if (heapSize < out.length) {
+                out[heapSize] = row;
+            }
+        }
+        return Math.min(count, out.length);
+    }
+
+    /**
+     * Classify a row like {@link PoiCategory#typeLabelOf}: parks first, then amenities, then tourism
+     */
+    public static int categoryOf(PoiBuffer pois, int row) {
+        if (pois.textEquals(row, PoiBuffer.FIELD_LEISURE, "park")) {
+            return CATEGORY_PARK;
+        } else if (pois.getTextLength(row, PoiBuffer.FIELD_AMENITY) > 0) {
+            if (pois.textEquals(row, PoiBuffer.FIELD_AMENITY, "cafe")) {
+                return CATEGORY_CAFE;
+            } else if (pois.textEquals(row, PoiBuffer.FIELD_AMENITY, "restaurant")) {
+                return CATEGORY_RESTAURANT;
+            }
+            return CATEGORY_OTHER;
+        } else if (pois.getTextLength(row, PoiBuffer.FIELD_TOURISM) > 0) {
+            return CATEGORY_TOURISM;
+        }
+        return CATEGORY_OTHER;
+    }
+
+    /**
+     * Classify a POI like {@link PoiCategory#typeLabelOf}
+     */
+    public static int categoryOf(Poi poi) {
+        if ("park".equals(poi.getLeisure())) {
+            return CATEGORY_PARK;
+        } else if (poi.getAmenity() != null) {
+            if ("cafe".equals(poi.getAmenity())) {
+                return CATEGORY_CAFE;
+            } else if ("restaurant".equals(poi.getAmenity())) {
+                return CATEGORY_RESTAURANT;
+            }
+            return CATEGORY_OTHER;
+        } else if (poi.getTourism() != null) {
+            return CATEGORY_TOURISM;
+        }
+        return CATEGORY_OTHER;
+    }
+
+    private void offer(float score, int row) {
+        if (heapSize < heapScores.length) {
+            int i = heapSize++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (heapScores[parent] <= score) {
+                    break;
+                }
+                heapScores[i] = heapScores[parent];
+                heapRows[i] = heapRows[parent];
+                i = parent;
+            }
+            heapScores[i] = score;
+            heapRows[i] = row;
+        } else {
+            heapScores[0] = score;
+            heapRows[0] = row;
+            siftDown(0);
+        }
+    }
+
+    private void siftDown(int i) {
+        float score = heapScores[i];
+        int row = heapRows[i];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= heapSize) {
+                break;
+            }
+            if (child + 1 < heapSize && heapScores[child + 1] < heapScores[child]) {
+                child++;
+            }
+            if (heapScores[child] >= score) {
+                break;
+            }
+            heapScores[i] = heapScores[child];
+            heapRows[i] = heapRows[child];
+            i = child;
+        }
+        heapScores[i] = score;
+        heapRows[i] = row;
+    }
+}
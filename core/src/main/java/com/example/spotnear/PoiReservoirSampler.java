@@ -0,0 +1,69 @@
+package com.example.spotnear;
+
+import java.util.Random;
+
+/**
+ * Picks one element uniformly at random from a stream of Overpass elements in a single pass.
+ * <p>
+ * Uses reservoir sampling with a reservoir of one: the n-th element replaces the current pick
+ * with probability 1/n. Only the current pick is copied out of the parser, so on average just
+ * O(log n) POIs are allocated for a response of n elements. Elements already in the
+ * {@link SeenPoiSet}, if one is given, don't take part.
+ * <p>
+ * The service ranks responses with {@link PoiRanker} instead; this sampler remains as the
+ * cheapest single-pass consumer of the parser, which the format benchmark measures with.
+ */
+public class PoiReservoirSampler implements OverpassStreamParser.ElementHandler {
+    private final Random random;
+    private final SeenPoiSet exclude;
+    private int seen;
+    private Poi sample;
+
+    /**
+     * Constructor
+     *
+     * @param random The random source used to pick the sample
+     */
+    public PoiReservoirSampler(Random random) {
+        this(random, null);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param random  The random source used to pick the sample
+     * @param exclude The POIs the user has already seen, or null to consider every element
+     */
+    public PoiReservoirSampler(Random random, SeenPoiSet exclude) {
+        this.random = random;
+        this.exclude = exclude;
+    }
+
+    @Override
+    public void onElement(OverpassElement element) {
+        if (!element.hasPosition()) {
+            return;
+        }
+        if (exclude != null && exclude.contains(element.getId(), PoiBuffer.typeCode(element.getType()))) {
+            return;
+        }
+        seen++;
+        if (random.nextInt(seen) == 0) {
+            sample = element.toPoi();
+        }
+    }
+
+    /**
+     * @return The sampled POI, or null if no unseen element with a position was received
+     */
+    public Poi getSample() {
+        return sample;
+    }
+
+    /**
+     * @return The number of elements with a position that took part in the sampling
+     */
+    public int getSeenCount() {
+        return seen;
+    }
+}
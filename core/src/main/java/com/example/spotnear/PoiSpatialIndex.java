@@ -0,0 +1,355 @@
+package com.example.spotnear;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * In-memory index of every POI received from Overpass, answering radius queries without the network.
+ * <p>
+ * POIs are stored once in a {@link PoiBuffer}, deduplicated by OSM type and id. The index is a
+ * packed grid: each row is keyed by a cell of {@link #CELL_DEGREES} degrees, and the
+ * {@code (cell, row)} pairs are packed into one sorted {@code long[]}. Cells of one grid row
+ * are numbered consecutively, so a radius query needs one binary search per grid row it
+ * touches and then scans a contiguous slice of the array. New POIs are appended and the array
+ * is re-sorted lazily on the next query.
+ * <p>
+ * The index also remembers which circles have been searched on the network. A query is only
+ * trusted when {@link #covers} says its circle lies inside one of them, otherwise POIs that
+ * were never fetched would look like an empty area. A searched circle expires after the same
+ * time as a {@link PoiCache} tile, so a stale area is searched again.
+ * <p>
+ * Distances use an equirectangular approximation, which is within a fraction of a percent of
+ * the haversine distance for search radii of a few kilometres. Queries do not wrap around the
+ * antimeridian.
+ */
+public final class PoiSpatialIndex implements OverpassStreamParser.ElementHandler {
+    public static final double CELL_DEGREES = 0.01;
+    public static final int MAX_COVERED_AREAS = 256;
+
+    private static final int LAT_CELLS = (int) Math.round(180 / CELL_DEGREES);
+    private static final int LON_CELLS = (int) Math.round(360 / CELL_DEGREES);
+    private static final long ROW_MASK = 0xffffffffL;
+
+    private final PoiBuffer pois = new PoiBuffer(1024);
+
+    // (cell << 32 | row) for the first indexedCount rows, sorted
+    private long[] entries = new long[1024];
+    private int indexedCount;
+
+    // Open-addressing map from (id << 2 | type) to row + 1, 0 meaning empty
+    private long[] keys = new long[2048];
+    private int[] rows = new int[2048];
+
+    // Ring of circles already searched on the network
+    private final double[] coveredLatitudes = new double[MAX_COVERED_AREAS];
+    private final double[] coveredLongitudes = new double[MAX_COVERED_AREAS];
+    private final double[] coveredRadii = new double[MAX_COVERED_AREAS];
+    private final long[] coveredExpiries = new long[MAX_COVERED_AREAS];
+    private final long coverageTtlMillis;
+    private int coveredCount;
+    private int nextCovered;
+
+    private static final int[] EMPTY_ROWS = new int[0];
+    private final int[] sampleRow = new int[1];
+
+    /**
+     * Create an index whose searched circles expire like {@link PoiCache} tiles
+     */
+    public PoiSpatialIndex() {
+        this(PoiCache.DEFAULT_TTL_MILLIS);
+    }
+
+    /**
+     * @param coverageTtlMillis How long a searched circle is trusted
+     */
+    public PoiSpatialIndex(long coverageTtlMillis) {
+        this.coverageTtlMillis = coverageTtlMillis;
+    }
+
+    @Override
+    public synchronized void onElement(OverpassElement element) {
+        if (!element.hasPosition()) {
+            return;
+        }
+        byte type = PoiBuffer.typeCode(element.getType());
+        if (findRow(element.getId(), type) >= 0) {
+            return;
+        }
+        putRow(element.getId(), type, pois.add(element));
+    }
+
+    /**
+     * Add a POI unless it is already indexed
+     *
+     * @return true if the POI was added
+     */
+    public synchronized boolean add(Poi poi) {
+        byte type = PoiBuffer.typeCode(poi.getType());
+        if (findRow(poi.getId(), type) >= 0) {
+            return false;
+        }
+        putRow(poi.getId(), type, pois.add(poi));
+        return true;
+    }
+
+    /**
+     * Add every row of a buffer that is not already indexed
+     *
+     * @return The number of rows added
+     */
+    public synchronized int addAll(PoiBuffer source) {
+        int added = 0;
+        for (int i = 0; i < source.size(); i++) {
+            if (findRow(source.getId(i), source.getType(i)) < 0) {
+                putRow(source.getId(i), source.getType(i), pois.add(source, i));
+                added++;
+            }
+        }
+        return added;
+    }
+
+    /**
+     * Remember that a circle was searched on the network and all its POIs were added
+     *
+     * @param nowMillis When the circle was searched
+     */
+    public synchronized void markCovered(double latitude, double longitude, double radiusMeters, long nowMillis) {
+        coveredLatitudes[nextCovered] = latitude;
+        coveredLongitudes[nextCovered] = longitude;
+        coveredRadii[nextCovered] = radiusMeters;
+        coveredExpiries[nextCovered] = nowMillis + coverageTtlMillis;
+        nextCovered = (nextCovered + 1) % MAX_COVERED_AREAS;
+        coveredCount = Math.min(coveredCount + 1, MAX_COVERED_AREAS);
+    }
+
+    /**
+     * @return true if the circle lies inside a circle that was searched on the network and hasn't expired
+     */
+    public synchronized boolean covers(double latitude, double longitude, double radiusMeters, long nowMillis) {
+        for (int i = 0; i < coveredCount; i++) {
+            if (nowMillis >= coveredExpiries[i]) {
+                continue;
+            }
+            double distance = GeoUtils.distanceMeters(latitude, longitude, coveredLatitudes[i], coveredLongitudes[i]);
+            if (distance + radiusMeters <= coveredRadii[i]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Find the POIs within a radius
+     *
+     * @param latitude     The latitude of the center
+     * @param longitude    The longitude of the center
+     * @param radiusMeters The radius in meters
+     * @param out          Receives the matching row indexes, in no particular order; may be shorter than the result
+     * @return The number of POIs within the radius
+     */
+    public synchronized int query(double latitude, double longitude, double radiusMeters, int[] out) {
+        return scan(latitude, longitude, radiusMeters, out, null, null);
+    }
+
+    /**
+     * Pick one POI within a radius uniformly at random, without allocating
+     *
+     * @return The row index of the POI, or -1 if there is none
+     */
+    public synchronized int sample(double latitude, double longitude, double radiusMeters, Random random) {
+        sampleRow[0] = -1;
+        scan(latitude, longitude, radiusMeters, sampleRow, random, null);
+        return sampleRow[0];
+    }
+
+    /**
+     * Pick one POI within a radius uniformly at random among those not seen yet, without allocating
+     *
+     * @param seen The POIs to leave out
+     * @return The row index of the POI, or -1 if every POI within the radius was seen
+     */
+    public synchronized int sample(double latitude, double longitude, double radiusMeters, Random random, SeenPoiSet seen) {
+        sampleRow[0] = -1;
+        scan(latitude, longitude, radiusMeters, sampleRow, random, seen);
+        return sampleRow[0];
+    }
+
+    /**
+     * Append the POIs within a radius to a buffer
+     *
+     * @param out Receives the POIs
+     * @return The number of POIs appended
+     */
+    public synchronized int copyTo(double latitude, double longitude, double radiusMeters, PoiBuffer out) {
+        int[] found = new int[Math.max(1, scan(latitude, longitude, radiusMeters, EMPTY_ROWS, null, null))];
+        int count = scan(latitude, longitude, radiusMeters, found, null, null);
+        for (int i = 0; i < count; i++) {
+            out.add(pois, found[i]);
+        }
+        return count;
+    }
+
+    /**
+     * Copy an indexed POI
+     *
+     * @param row A row index returned by {@link #query} or {@link #sample}
+     */
+    public synchronized Poi toPoi(int row) {
+        return pois.toPoi(row);
+    }
+
+    public synchronized double getLatitude(int row) {
+        return pois.getLatitude(row);
+    }
+
+    public synchronized double getLongitude(int row) {
+        return pois.getLongitude(row);
+    }
+
+    public synchronized int size() {
+        return pois.size();
+    }
+
+    /**
+     * @return The approximate number of bytes held by the index arrays
+     */
+    public synchronized long capacityBytes() {
+        return pois.capacityBytes() + entries.length * 8L + keys.length * 12L
+                + MAX_COVERED_AREAS * 32L;
+    }
+
+    public synchronized void clear() {
+        pois.clear();
+        indexedCount = 0;
+        Arrays.fill(rows, 0);
+        coveredCount = 0;
+        nextCovered = 0;
+    }
+
+    /**
+     * Visit the rows within a radius. Without a random source the rows are written to
+     * {@code out}; with one, a reservoir sample of one row is kept in {@code out[0]}.
+     * Rows found in {@code seen} are skipped and not counted.
+     */
+    private int scan(double latitude, double longitude, double radiusMeters, int[] out, Random random, SeenPoiSet seen) {
+        ensureIndexed();
+        double cosLatitude = Math.cos(Math.toRadians(latitude));
+        double latitudeDelta = radiusMeters / GeoUtils.METERS_PER_DEGREE;
+        double longitudeDelta = latitudeDelta / Math.max(cosLatitude, 1e-6);
+        int firstLatCell = latCell(latitude - latitudeDelta);
+        int lastLatCell = latCell(latitude + latitudeDelta);
+        int firstLonCell = lonCell(longitude - longitudeDelta);
+        int lastLonCell = lonCell(longitude + longitudeDelta);
+        double maxDegreesSquared = latitudeDelta * latitudeDelta;
+
+        int count = 0;
+        for (int latCell = firstLatCell; latCell <= lastLatCell; latCell++) {
+            long firstCell = (long) latCell * LON_CELLS + firstLonCell;
+            long lastCell = (long) latCell * LON_CELLS + lastLonCell;
+            long end = (lastCell + 1) << 32;
+            for (int i = lowerBound(firstCell << 32); i < indexedCount && entries[i] < end; i++) {
+                int row = (int) (entries[i] & ROW_MASK);
+                double dy = pois.getLatitude(row) - latitude;
+                double dx = (pois.getLongitude(row) - longitude) * cosLatitude;
+                if (dx * dx + dy * dy <= maxDegreesSquared
+                        && (seen == null || !seen.contains(pois.getId(row), pois.getType(row)))) {
+                    if (random == null) {
+                        if (count < out.length) {
+                            out[count] = row;
+                        }
+                    } else if (random.nextInt(count + 1) == 0) {
+                        out[0] = row;
+                    }
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Pack and sort the rows added since the last query
+     */
+    private void ensureIndexed() {
+        int size = pois.size();
+        if (indexedCount == size) {
+            return;
+        }
+        if (entries.length < size) {
+            entries = Arrays.copyOf(entries, Math.max(size, entries.length * 2));
+        }
+        for (int row = indexedCount; row < size; row++) {
+            long cell = (long) latCell(pois.getLatitude(row)) * LON_CELLS + lonCell(pois.getLongitude(row));
+            entries[row] = cell << 32 | row;
+        }
+        Arrays.sort(entries, 0, size);
+        indexedCount = size;
+    }
+
+    private int lowerBound(long key) {
+        int low = 0;
+        int high = indexedCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (entries[mid] < key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static int latCell(double latitude) {
+        return Math.min(LAT_CELLS - 1, Math.max(0, (int) Math.floor((latitude + 90) / CELL_DEGREES)));
+    }
+
+    private static int lonCell(double longitude) {
+        return Math.min(LON_CELLS - 1, Math.max(0, (int) Math.floor((longitude + 180) / CELL_DEGREES)));
+    }
+
+    private int findRow(long id, byte type) {
+        long key = id << 2 | type;
+        int mask = keys.length - 1;
+        for (int slot = hash(key) & mask; rows[slot] != 0; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                return rows[slot] - 1;
+            }
+        }
+        return -1;
+    }
+
+    private void putRow(long id, byte type, int row) {
+        if (pois.size() * 2 > keys.length) {
+            rehash(keys.length * 2);
+        }
+        insert(id << 2 | type, row + 1);
+    }
+
+    private void insert(long key, int value) {
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (rows[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        rows[slot] = value;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldRows = rows;
+        keys = new long[capacity];
+        rows = new int[capacity];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldRows[i] != 0) {
+                insert(oldKeys[i], oldRows[i]);
+            }
+        }
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,280 @@
+package com.example.spotnear;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Read-only offline POI pack written by {@link RegionPackBuilder}, usually memory-mapped.
+ * <p>
+ * Queries read the mapped buffer in place with absolute gets, so a radius query copies
+ * nothing and allocates nothing; only {@link #toPoi} creates objects. The layout is:
+ * <ul>
+ * <li>a 64 byte header: magic, version, POI count, block size, block count, the region bounds
+ * in 1e-7 degrees, and the offsets of the block index and the string table</li>
+ * <li>the block index: per block, its bounding box in 1e-7 degrees and its data offset</li>
+ * <li>the string table: {@code count + 1} start offsets followed by UTF-8 bytes, most
+ * frequent strings first so their indexes take one byte</li>
+ * <li>the blocks: up to {@link RegionPackBuilder#BLOCK_SIZE} POIs in Hilbert curve order,
+ * each written as zigzag varint coordinate deltas, a varint {@code id << 2 | type} and varint
+ * string indexes (plus one, 0 meaning no value) of name, leisure, amenity and tourism</li>
+ * </ul>
+ * A query skips every block whose bounding box misses the search circle's, and the Hilbert
+ * order keeps those boxes small.
+ */
+public final class RegionPack {
+    public static final int MAGIC = 0x534E504B; // "SNPK"
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 64;
+    public static final int BLOCK_INDEX_ENTRY_SIZE = 20;
+
+    private static final double E7 = 1e7;
+    private static final String[] TYPE_NAMES = {"node", "way", "relation"};
+
+    private final ByteBuffer buffer;
+    private final int poiCount;
+    private final int blockSize;
+    private final int blockCount;
+    private final int minLatitudeE7;
+    private final int minLongitudeE7;
+    private final int maxLatitudeE7;
+    private final int maxLongitudeE7;
+    private final int blockIndexOffset;
+    private final int stringTableOffset;
+    private final int stringCount;
+
+    private int cursor;
+    private final int[] sampleRow = new int[1];
+
+    /**
+     * Memory-map a pack file
+     *
+     * @param file The pack
+     * @return The opened pack
+     * @throws IOException If the file can't be read or is not a valid pack
+     */
+    public static RegionPack open(File file) throws IOException {
+        try (RandomAccessFile input = new RandomAccessFile(file, "r")) {
+            FileChannel channel = input.getChannel();
+            // The mapping stays valid after the channel is closed
+            return new RegionPack(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Constructor
+     *
+     * @param buffer The pack contents; read with absolute gets, so its position doesn't matter
+     * @throws IOException If the buffer does not hold a valid pack
+     */
+    public RegionPack(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a SpotNear region pack");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("Unsupported region pack version " + buffer.getInt(4));
+        }
+        poiCount = buffer.getInt(8);
+        blockSize = buffer.getInt(12);
+        blockCount = buffer.getInt(16);
+        minLatitudeE7 = buffer.getInt(20);
+        minLongitudeE7 = buffer.getInt(24);
+        maxLatitudeE7 = buffer.getInt(28);
+        maxLongitudeE7 = buffer.getInt(32);
+        blockIndexOffset = buffer.getInt(36);
+        stringTableOffset = buffer.getInt(40);
+        stringCount = buffer.getInt(44);
+        if (blockSize <= 0 || blockCount != (poiCount + blockSize - 1) / blockSize
+                || blockIndexOffset + (long) blockCount * BLOCK_INDEX_ENTRY_SIZE > buffer.limit()
+                || stringTableOffset + (stringCount + 1L) * 4 > buffer.limit()) {
+            throw new IOException("Corrupt region pack header");
+        }
+    }
+
+    public int size() {
+        return poiCount;
+    }
+
+    public double getMinLatitude() {
+        return minLatitudeE7 / E7;
+    }
+
+    public double getMinLongitude() {
+        return minLongitudeE7 / E7;
+    }
+
+    public double getMaxLatitude() {
+        return maxLatitudeE7 / E7;
+    }
+
+    public double getMaxLongitude() {
+        return maxLongitudeE7 / E7;
+    }
+
+    /**
+     * @return true if the circle lies inside the region of the pack
+     */
+    public boolean covers(double latitude, double longitude, double radiusMeters) {
+        double latitudeDelta = radiusMeters / GeoUtils.METERS_PER_DEGREE;
+        double longitudeDelta = latitudeDelta / Math.max(Math.cos(Math.toRadians(latitude)), 1e-6);
+        return latitude - latitudeDelta >= getMinLatitude() && latitude + latitudeDelta <= getMaxLatitude()
+                && longitude - longitudeDelta >= getMinLongitude() && longitude + longitudeDelta <= getMaxLongitude();
+    }
+
+    /**
+     * Find the POIs within a radius
+     *
+     * @param latitude     The latitude of the center
+     * @param longitude    The longitude of the center
+     * @param radiusMeters The radius in meters
+     * @param out          Receives the matching POI numbers; may be shorter than the result
+     * @return The number of POIs within the radius
+     */
+    public synchronized int query(double latitude, double longitude, double radiusMeters, int[] out) {
+        return scan(latitude, longitude, radiusMeters, out, null, null);
+    }
+
+    /**
+     * Pick one POI within a radius uniformly at random, without allocating
+     *
+     * @return The POI number, or -1 if there is none
+     */
+    public synchronized int sample(double latitude, double longitude, double radiusMeters, Random random) {
+        sampleRow[0] = -1;
+        scan(latitude, longitude, radiusMeters, sampleRow, random, null);
+        return sampleRow[0];
+    }
+
+    /**
+     * Pick one POI within a radius uniformly at random among those not seen yet, without allocating
+     *
+     * @param seen The POIs to leave out
+     * @return The POI number, or -1 if every POI within the radius was seen
+     */
+    public synchronized int sample(double latitude, double longitude, double radiusMeters, Random random, SeenPoiSet seen) {
+        sampleRow[0] = -1;
+        scan(latitude, longitude, radiusMeters, sampleRow, random, seen);
+        return sampleRow[0];
+    }
+
+    /**
+     * Decode a POI
+     *
+     * @param number A POI number returned by {@link #query} or {@link #sample}
+     */
+    public synchronized Poi toPoi(int number) {
+        int block = number / blockSize;
+        int entry = blockIndexOffset + block * BLOCK_INDEX_ENTRY_SIZE;
+        cursor = buffer.getInt(entry + 16);
+        int latitudeE7 = 0;
+        int longitudeE7 = 0;
+        for (int i = block * blockSize; ; i++) {
+            latitudeE7 += zigzagDecode(readVarint());
+            longitudeE7 += zigzagDecode(readVarint());
+            long idAndType = readVarlong();
+            if (i == number) {
+                String name = readString();
+                String leisure = readString();
+                String amenity = readString();
+                String tourism = readString();
+                return new Poi(idAndType >>> 2, TYPE_NAMES[(int) (idAndType & 3)],
+                        latitudeE7 / E7, longitudeE7 / E7, name, leisure, amenity, tourism);
+            }
+            skipVarints(PoiBuffer.FIELD_COUNT);
+        }
+    }
+
+    private int scan(double latitude, double longitude, double radiusMeters, int[] out, Random random, SeenPoiSet seen) {
+        double cosLatitude = Math.cos(Math.toRadians(latitude));
+        double latitudeDelta = radiusMeters / GeoUtils.METERS_PER_DEGREE;
+        double longitudeDelta = latitudeDelta / Math.max(cosLatitude, 1e-6);
+        long south = (long) Math.floor((latitude - latitudeDelta) * E7);
+        long north = (long) Math.ceil((latitude + latitudeDelta) * E7);
+        long west = (long) Math.floor((longitude - longitudeDelta) * E7);
+        long east = (long) Math.ceil((longitude + longitudeDelta) * E7);
+        double maxSquared = latitudeDelta * E7 * latitudeDelta * E7;
+        double centerLatitudeE7 = latitude * E7;
+        double centerLongitudeE7 = longitude * E7;
+
+        int count = 0;
+        for (int block = 0; block < blockCount; block++) {
+            int entry = blockIndexOffset + block * BLOCK_INDEX_ENTRY_SIZE;
+            if (buffer.getInt(entry) > north || buffer.getInt(entry + 8) < south
+                    || buffer.getInt(entry + 4) > east || buffer.getInt(entry + 12) < west) {
+                continue;
+            }
+            cursor = buffer.getInt(entry + 16);
+            int first = block * blockSize;
+            int end = Math.min(poiCount, first + blockSize);
+            int latitudeE7 = 0;
+            int longitudeE7 = 0;
+            for (int number = first; number < end; number++) {
+                latitudeE7 += zigzagDecode(readVarint());
+                longitudeE7 += zigzagDecode(readVarint());
+                long idAndType = seen == null ? 0 : readVarlong();
+                skipVarints(seen == null ? 1 + PoiBuffer.FIELD_COUNT : PoiBuffer.FIELD_COUNT);
+                double dy = latitudeE7 - centerLatitudeE7;
+                double dx = (longitudeE7 - centerLongitudeE7) * cosLatitude;
+                if (dx * dx + dy * dy <= maxSquared
+                        && (seen == null || !seen.contains(idAndType >>> 2, (byte) (idAndType & 3)))) {
+                    if (random == null) {
+                        if (count < out.length) {
+                            out[count] = number;
+                        }
+                    } else if (random.nextInt(count + 1) == 0) {
+                        out[0] = number;
+                    }
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    private String readString() {
+        int index = readVarint() - 1;
+        if (index < 0 || index >= stringCount) {
+            return null;
+        }
+        int start = buffer.getInt(stringTableOffset + index * 4);
+        int end = buffer.getInt(stringTableOffset + index * 4 + 4);
+        byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(start + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private int readVarint() {
+        return (int) readVarlong();
+    }
+
+    private long readVarlong() {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get(cursor++);
+            value |= (long) (b & 0x7f) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    private void skipVarints(int count) {
+        while (count > 0) {
+            if (buffer.get(cursor++) >= 0) {
+                count--;
+            }
+        }
+    }
+
+    private static int zigzagDecode(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
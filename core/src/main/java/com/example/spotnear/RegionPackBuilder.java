@@ -0,0 +1,302 @@
+package com.example.spotnear;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.Okio;
+
+/**
+ * Builds a {@link RegionPack} from POIs, typically those of an OSM extract read with {@link OsmXmlParser}.
+ * <p>
+ * Run {@link #main} on a desktop JVM to convert an extract, then copy the pack into the app's
+ * {@code files/packs} directory, where {@link SpotNearService} picks it up. Only elements
+ * matching the configured categories are kept.
+ */
+public class RegionPackBuilder implements OverpassStreamParser.ElementHandler {
+    public static final int BLOCK_SIZE = 64;
+
+    // Hilbert curve order; 2 * 15 bits keep the index positive when packed above the row
+    private static final int HILBERT_ORDER = 15;
+    private static final int HILBERT_SIDE = 1 << HILBERT_ORDER;
+    private static final double E7 = 1e7;
+
+    private final Collection<PoiCategory> categories;
+    private final PoiBuffer pois = new PoiBuffer();
+    private boolean hasBounds;
+    private double minLatitude;
+    private double minLongitude;
+    private double maxLatitude;
+    private double maxLongitude;
+
+    /**
+     * Constructor
+     *
+     * @param categories The categories of POIs to keep
+     */
+    public RegionPackBuilder(Collection<PoiCategory> categories) {
+        this.categories = categories;
+    }
+
+    /**
+     * Set the region covered by the pack. Without bounds, the bounding box of the POIs is used.
+     *
+     * @return This builder
+     */
+    public RegionPackBuilder setBounds(double minLatitude, double minLongitude, double maxLatitude, double maxLongitude) {
+        this.hasBounds = true;
+        this.minLatitude = minLatitude;
+        this.minLongitude = minLongitude;
+        this.maxLatitude = maxLatitude;
+        this.maxLongitude = maxLongitude;
+        return this;
+    }
+
+    @Override
+    public void onElement(OverpassElement element) {
+        if (!element.hasPosition()) {
+            return;
+        }
+        for (PoiCategory category : categories) {
+            if (category.matches(element)) {
+                pois.add(element);
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return The number of POIs added so far
+     */
+    public int size() {
+        return pois.size();
+    }
+
+    /**
+     * Write the pack
+     *
+     * @param sink Receives the pack bytes
+     * @throws IOException If the sink fails
+     */
+    public void write(BufferedSink sink) throws IOException {
+        int count = pois.size();
+        if (!hasBounds) {
+            computeBounds();
+        }
+        long[] order = hilbertOrder();
+        Map<String, Integer> strings = buildStringTable();
+        List<String> table = new ArrayList<>(Collections.nCopies(strings.size(), (String) null));
+        for (Map.Entry<String, Integer> entry : strings.entrySet()) {
+            table.set(entry.getValue(), entry.getKey());
+        }
+
+        Buffer stringBytes = new Buffer();
+        int[] stringStarts = new int[table.size() + 1];
+        for (int i = 0; i < table.size(); i++) {
+            stringStarts[i] = (int) stringBytes.size();
+            stringBytes.writeUtf8(table.get(i));
+        }
+        stringStarts[table.size()] = (int) stringBytes.size();
+
+        int blockCount = (count + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        int blockIndexOffset = RegionPack.HEADER_SIZE;
+        int stringTableOffset = blockIndexOffset + blockCount * RegionPack.BLOCK_INDEX_ENTRY_SIZE;
+        int stringDataOffset = stringTableOffset + (table.size() + 1) * 4;
+        int blockDataOffset = stringDataOffset + (int) stringBytes.size();
+
+        Buffer blockIndex = new Buffer();
+        Buffer blocks = new Buffer();
+        for (int block = 0; block < blockCount; block++) {
+            int first = block * BLOCK_SIZE;
+            int end = Math.min(count, first + BLOCK_SIZE);
+            int south = Integer.MAX_VALUE;
+            int west = Integer.MAX_VALUE;
+            int north = Integer.MIN_VALUE;
+            int east = Integer.MIN_VALUE;
+            int blockOffset = blockDataOffset + (int) blocks.size();
+            int previousLatitude = 0;
+            int previousLongitude = 0;
+            for (int i = first; i < end; i++) {
+                int row = (int) order[i];
+                int latitude = toE7(pois.getLatitude(row));
+                int longitude = toE7(pois.getLongitude(row));
+                south = Math.min(south, latitude);
+                north = Math.max(north, latitude);
+                west = Math.min(west, longitude);
+                east = Math.max(east, longitude);
+                writeVarlong(blocks, zigzagEncode(latitude - previousLatitude) & 0xffffffffL);
+                writeVarlong(blocks, zigzagEncode(longitude - previousLongitude) & 0xffffffffL);
+                writeVarlong(blocks, pois.getId(row) << 2 | pois.getType(row));
+                for (int field = 0; field < PoiBuffer.FIELD_COUNT; field++) {
+                    String value = pois.getText(row, field);
+                    writeVarlong(blocks, value == null ? 0 : strings.get(value) + 1);
+                }
+                previousLatitude = latitude;
+                previousLongitude = longitude;
+            }
+            blockIndex.writeInt(south).writeInt(west).writeInt(north).writeInt(east).writeInt(blockOffset);
+        }
+
+        sink.writeInt(RegionPack.MAGIC);
+        sink.writeInt(RegionPack.VERSION);
+        sink.writeInt(count);
+        sink.writeInt(BLOCK_SIZE);
+        sink.writeInt(blockCount);
+        sink.writeInt(toE7(minLatitude));
+        sink.writeInt(toE7(minLongitude));
+        sink.writeInt(toE7(maxLatitude));
+        sink.writeInt(toE7(maxLongitude));
+        sink.writeInt(blockIndexOffset);
+        sink.writeInt(stringTableOffset);
+        sink.writeInt(table.size());
+        sink.write(new byte[RegionPack.HEADER_SIZE - 48]);
+        sink.writeAll(blockIndex);
+        for (int start : stringStarts) {
+            sink.writeInt(stringDataOffset + start);
+        }
+        sink.writeAll(stringBytes);
+        sink.writeAll(blocks);
+        sink.flush();
+    }
+
+    /**
+     * Convert an OSM XML extract to a pack of the default categories.
+     * Usage: {@code RegionPackBuilder <extract.osm> <region.pack>}
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: RegionPackBuilder <extract.osm> <region.pack>");
+            System.exit(2);
+        }
+        RegionPackBuilder builder = new RegionPackBuilder(PoiCategory.DEFAULTS);
+        OsmXmlParser parser = new OsmXmlParser();
+        try (BufferedSource source = Okio.buffer(Okio.source(new File(args[0])))) {
+            parser.parse(source, builder);
+        }
+        if (parser.hasBounds()) {
+            builder.setBounds(parser.getMinLatitude(), parser.getMinLongitude(),
+                    parser.getMaxLatitude(), parser.getMaxLongitude());
+        }
+        File output = new File(args[1]);
+        try (BufferedSink sink = Okio.buffer(Okio.sink(output))) {
+            builder.write(sink);
+        }
+        System.out.println("Wrote " + builder.size() + " POIs to " + output + " (" + output.length() + " bytes)");
+    }
+
+    private void computeBounds() {
+        minLatitude = Double.POSITIVE_INFINITY;
+        minLongitude = Double.POSITIVE_INFINITY;
+        maxLatitude = Double.NEGATIVE_INFINITY;
+        maxLongitude = Double.NEGATIVE_INFINITY;
+        for (int row = 0; row < pois.size(); row++) {
+            minLatitude = Math.min(minLatitude, pois.getLatitude(row));
+            minLongitude = Math.min(minLongitude, pois.getLongitude(row));
+            maxLatitude = Math.max(maxLatitude, pois.getLatitude(row));
+            maxLongitude = Math.max(maxLongitude, pois.getLongitude(row));
+        }
+        if (pois.size() == 0) {
+            minLatitude = minLongitude = maxLatitude = maxLongitude = 0;
+        }
+    }
+
+    /**
+     * @return The rows sorted by Hilbert index, in the low 32 bits of each entry
+     */
+    private long[] hilbertOrder() {
+        double latitudeSpan = Math.max(maxLatitude - minLatitude, 1e-9);
+        double longitudeSpan = Math.max(maxLongitude - minLongitude, 1e-9);
+        long[] order = new long[pois.size()];
+        for (int row = 0; row < order.length; row++) {
+            int x = scale((pois.getLongitude(row) - minLongitude) / longitudeSpan);
+            int y = scale((pois.getLatitude(row) - minLatitude) / latitudeSpan);
+            order[row] = hilbertIndex(x, y) << 32 | row;
+        }
+        Arrays.sort(order);
+        for (int i = 0; i < order.length; i++) {
+            order[i] &= 0xffffffffL;
+        }
+        return order;
+    }
+
+    private static int scale(double fraction) {
+        return (int) Math.min(HILBERT_SIDE - 1, Math.max(0, fraction * HILBERT_SIDE));
+    }
+
+    /**
+     * Position of a cell along the Hilbert curve filling a {@link #HILBERT_SIDE} square grid
+     */
+    static long hilbertIndex(int x, int y) {
+        long index = 0;
+        for (int s = HILBERT_SIDE / 2; s > 0; s /= 2) {
+            int rx = (x & s) > 0 ? 1 : 0;
+            int ry = (y & s) > 0 ? 1 : 0;
+            index += (long) s * s * ((3 * rx) ^ ry);
+            if (ry == 0) {
+                if (rx == 1) {
+                    x = HILBERT_SIDE - 1 - x;
+                    y = HILBERT_SIDE - 1 - y;
+                }
+                int t = x;
+                x = y;
+                y = t;
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Index every distinct text value, most frequent first
+     */
+    private Map<String, Integer> buildStringTable() {
+        final Map<String, Integer> counts = new HashMap<>();
+        for (int row = 0; row < pois.size(); row++) {
+            for (int field = 0; field < PoiBuffer.FIELD_COUNT; field++) {
+                String value = pois.getText(row, field);
+                if (value != null) {
+                    Integer count = counts.get(value);
+                    counts.put(value, count == null ? 1 : count + 1);
+                }
+            }
+        }
+        List<String> values = new ArrayList<>(counts.keySet());
+        Collections.sort(values, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                int byCount = counts.get(b).compareTo(counts.get(a));
+                return byCount != 0 ? byCount : a.compareTo(b);
+            }
+        });
+        Map<String, Integer> indexes = new HashMap<>();
+        for (int i = 0; i < values.size(); i++) {
+            indexes.put(values.get(i), i);
+        }
+        return indexes;
+    }
+
+    private static int toE7(double degrees) {
+        return (int) Math.round(degrees * E7);
+    }
+
+    private static int zigzagEncode(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static void writeVarlong(Buffer out, long value) {
+        while ((value & ~0x7fL) != 0) {
+            out.writeByte((int) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+}
@@ -0,0 +1,163 @@
+package com.example.spotnear;
+
+/**
+ * Lets at most one POI search run at a time, whichever path triggered it.
+ * <p>
+ * The automatic search timer, the location alarm, a click on the search notification and a
+ * restart of the service can all fire within moments of each other. Each search is numbered: a
+ * trigger arriving while a search is in flight joins it instead of starting another location
+ * request, wakelock acquisition and Overpass call. A trigger that must start over, such as a
+ * click, supersedes the search in flight, whose network call is cancelled, and callbacks of a
+ * superseded search are recognised by their number and dropped. A search running longer than
+ * the maximum age is assumed lost and superseded by the next trigger.
+ */
+public class SearchCoordinator {
+    public static final long DEFAULT_MAX_AGE_MILLIS = 2 * 60 * 1000L;
+
+    private final long maxAgeMillis;
+    private int generation;
+    private boolean inFlight;
+    private long startedAt;
+    private String trigger;
+    private OverpassClient.Search search;
+
+    private long startedCount;
+    private long joinedCount;
+    private long supersededCount;
+    private long staleCallbackCount;
+
+    public SearchCoordinator() {
+        this(DEFAULT_MAX_AGE_MILLIS);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param maxAgeMillis How long a search may run before the next trigger supersedes it
+     */
+    public SearchCoordinator(long maxAgeMillis) {
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    /**
+     * Start a search, or join the one in flight
+     *
+     * @param trigger   What triggered the search, for logging
+     * @param supersede true to cancel the search in flight and start over
+     * @param nowMillis The current time in milliseconds
+     * @return The number of the new search, or -1 if the trigger joined the search in flight
+     */
+    public synchronized int begin(String trigger, boolean supersede, long nowMillis) {
+        if (inFlight && !supersede && nowMillis - startedAt < maxAgeMillis) {
+            joinedCount++;
+            return -1;
+        }
+        if (inFlight) {
+            supersededCount++;
+            cancelSearch();
+        }
+        generation++;
+        inFlight = true;
+        startedAt = nowMillis;
+        this.trigger = trigger;
+        startedCount++;
+        return generation;
+    }
+
+    /**
+     * Check that a callback belongs to the search in flight, counting it as stale otherwise
+     *
+     * @param generation The number returned by {@link #begin}
+     * @return true if the callback should go on
+     */
+    public synchronized boolean isCurrent(int generation) {
+        if (inFlight && generation == this.generation) {
+            return true;
+        }
+        staleCallbackCount++;
+        return false;
+    }
+
+    /**
+     * Remember the Overpass call of a search so a superseding trigger can cancel it
+     *
+     * @param generation The number returned by {@link #begin}
+     * @param search     The call, or null if none was made
+     */
+    public synchronized void attach(int generation, OverpassClient.Search search) {
+        if (search == null) {
+            return;
+        }
+        if (inFlight && generation == this.generation) {
+            this.search = search;
+        } else {
+            search.cancel();
+        }
+    }
+
+    /**
+     * End a search, unless it was superseded or already ended
+     *
+     * @param generation The number returned by {@link #begin}
+     * @return true if it was the search in flight
+     */
+    public synchronized boolean finish(int generation) {
+        if (!inFlight || generation != this.generation) {
+            return false;
+        }
+        inFlight = false;
+        search = null;
+        return true;
+    }
+
+    /**
+     * Cancel the search in flight, e.g. when the service stops
+     */
+    public synchronized void cancel() {
+        cancelSearch();
+        inFlight = false;
+    }
+
+    public synchronized boolean isInFlight() {
+        return inFlight;
+    }
+
+    public synchronized String getTrigger() {
+        return trigger;
+    }
+
+    public synchronized long getStartedCount() {
+        return startedCount;
+    }
+
+    /**
+     * @return The number of triggers that joined a search in flight, each one a location request,
+     * wakelock acquisition and fetch saved
+     */
+    public synchronized long getJoinedCount() {
+        return joinedCount;
+    }
+
+    public synchronized long getSupersededCount() {
+        return supersededCount;
+    }
+
+    /**
+     * @return The number of callbacks of superseded searches that were dropped
+     */
+    public synchronized long getStaleCallbackCount() {
+        return staleCallbackCount;
+    }
+
+    public synchronized String describeStats() {
+        return startedCount + " searches, " + joinedCount + " duplicate triggers joined, "
+                + supersededCount + " superseded, " + staleCallbackCount + " stale callbacks dropped";
+    }
+
+    private void cancelSearch() {
+        if (search != null) {
+            search.cancel();
+            search = null;
+        }
+    }
+}
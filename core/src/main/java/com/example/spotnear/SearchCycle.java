@@ -0,0 +1,440 @@
+package com.example.spotnear;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The decisions of one search cycle, shared by {@code SpotNearService} and the trace simulator:
+ * where a search starts, which local source answers it, when its ring grows, what it asks the
+ * network for, how a response feeds the caches, which POI is picked and what is prefetched.
+ * <p>
+ * The cycle owns no I/O. The caller takes the fix, sends the query the cycle planned, parses the
+ * response into the {@link PoiSpatialIndex} and hands the element count back; the service does
+ * this through its pipeline and OkHttp, the simulator on a virtual clock against a stub.
+ * <p>
+ * Not thread-safe; the service drives it from its pipeline thread only.
+ */
+public class SearchCycle {
+    // Searches start at the radius expected to hold this many POIs and grow until they do
+    public static final int TARGET_CANDIDATES = 50;
+    public static final int MIN_SEARCH_RADIUS = 250;
+    // Network queries one search may send, its rings growing in between
+    public static final int MAX_NETWORK_ROUNDS = 3;
+    // Number of best-ranked POIs kept per response
+    public static final int TOP_K = 8;
+    // Upper bound on the elements returned per search; ranking doesn't need more
+    public static final int MAX_POI_RESULTS = 4 * TARGET_CANDIDATES;
+    // Bounding boxes per tile query, keeping the query string short enough for a GET
+    public static final int MAX_QUERY_BOXES = 12;
+
+    /**
+     * What {@link #answerLocally} decided
+     */
+    public enum Outcome {
+        // Answered by an offline region pack, the cache or the index
+        REGION_PACK, CACHE, INDEX,
+        // Every known POI up to the largest radius was already shown
+        EXHAUSTED,
+        // The device hasn't moved since the last search, so the network isn't asked
+        STILL,
+        // The circle has to be searched on the network
+        NETWORK
+    }
+
+    /**
+     * The state of one search through the cycle
+     */
+    public static final class State {
+        private final double latitude;
+        private final double longitude;
+        private final boolean moved;
+        private final int startRadius;
+        private final int maxRadius;
+        private final boolean prefetchChecked;
+        private final boolean prefetchHit;
+        private int radius;
+        // The missing tiles requested by the last query, or null if it asked for the whole circle
+        private double[] boxes;
+        // The number of POIs known within the radius after the last response
+        private int count;
+        // Whether the last response hit the element limit
+        private boolean truncated;
+        // Whether the search got a response from the network, so the radio is awake
+        private boolean fetched;
+        // The number of network responses so far
+        private int rounds;
+        private Poi poi;
+
+        State(double latitude, double longitude, boolean moved, int startRadius, int maxRadius,
+              boolean prefetchChecked, boolean prefetchHit) {
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.moved = moved;
+            this.startRadius = startRadius;
+            this.maxRadius = maxRadius;
+            this.prefetchChecked = prefetchChecked;
+            this.prefetchHit = prefetchHit;
+            this.radius = startRadius;
+        }
+
+        public double getLatitude() {
+            return latitude;
+        }
+
+        public double getLongitude() {
+            return longitude;
+        }
+
+        public boolean isMoved() {
+            return moved;
+        }
+
+        public int getStartRadius() {
+            return startRadius;
+        }
+
+        public int getMaxRadius() {
+            return maxRadius;
+        }
+
+        /**
+         * @return true if a prefetch was pending and this search resolved it
+         */
+        public boolean isPrefetchChecked() {
+            return prefetchChecked;
+        }
+
+        public boolean isPrefetchHit() {
+            return prefetchHit;
+        }
+
+        public int getRadius() {
+            return radius;
+        }
+
+        /**
+         * @return The missing tiles requested by the last query, or null if it asked for the whole circle
+         */
+        public double[] getBoxes() {
+            return boxes;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public boolean isTruncated() {
+            return truncated;
+        }
+
+        public boolean isFetched() {
+            return fetched;
+        }
+
+        public int getRounds() {
+            return rounds;
+        }
+
+        /**
+         * @return The POI a local source answered with, or null
+         */
+        public Poi getPoi() {
+            return poi;
+        }
+    }
+
+    private final OverpassQueryBuilder queryBuilder;
+    private final PoiCache poiCache;
+    private final PoiSpatialIndex poiIndex;
+    private final TileCoverage tileCoverage;
+    private final AdaptiveRadiusPlanner radiusPlanner;
+    private final MovementGate movementGate;
+    private final SeenPoiSet seenPois;
+    private final Random random;
+    private final PoiRanker ranker = new PoiRanker(TOP_K);
+    private final int[] rankedRows = new int[TOP_K];
+    private List<RegionPack> regionPacks = Collections.emptyList();
+    private TrajectoryPrefetcher prefetcher;
+    private boolean tileQueries = true;
+    private int maxRadiusFactor = 1;
+
+    /**
+     * Constructor
+     *
+     * @param queryBuilder  Builds the queries, with the element limit of {@link #MAX_POI_RESULTS}
+     * @param poiCache      The POIs of recent searches
+     * @param poiIndex      Every POI received, and the circles searched
+     * @param tileCoverage  The tiles fetched
+     * @param radiusPlanner The densities learned, picking the radius of each ring
+     * @param movementGate  Holds the network back while the device stays in place
+     * @param seenPois      The POIs the user was already notified about
+     * @param random        Picks among the local candidates
+     */
+    public SearchCycle(OverpassQueryBuilder queryBuilder, PoiCache poiCache, PoiSpatialIndex poiIndex,
+                       TileCoverage tileCoverage, AdaptiveRadiusPlanner radiusPlanner, MovementGate movementGate,
+                       SeenPoiSet seenPois, Random random) {
+        this.queryBuilder = queryBuilder;
+        this.poiCache = poiCache;
+        this.poiIndex = poiIndex;
+        this.tileCoverage = tileCoverage;
+        this.radiusPlanner = radiusPlanner;
+        this.movementGate = movementGate;
+        this.seenPois = seenPois;
+        this.random = random;
+    }
+
+    /**
+     * @param regionPacks The offline packs asked first, read as searches run
+     */
+    public SearchCycle setRegionPacks(List<RegionPack> regionPacks) {
+        this.regionPacks = regionPacks;
+        return this;
+    }
+
+    /**
+     * @param prefetcher Told where each search starts, or null to not prefetch
+     */
+    public SearchCycle setPrefetcher(TrajectoryPrefetcher prefetcher) {
+        this.prefetcher = prefetcher;
+        return this;
+    }
+
+    /**
+     * @param tileQueries true to query only the missing tiles, false for the full circle
+     */
+    public SearchCycle setTileQueries(boolean tileQueries) {
+        this.tileQueries = tileQueries;
+        return this;
+    }
+
+    /**
+     * Let searches in sparse areas grow past the configured radius, to find something at the
+     * cost of larger responses; the rings are still bounded by {@link #MAX_NETWORK_ROUNDS}
+     *
+     * @param maxRadiusFactor The largest radius as a multiple of the configured one, 1 by default
+     */
+    public SearchCycle setMaxRadiusFactor(int maxRadiusFactor) {
+        this.maxRadiusFactor = maxRadiusFactor;
+        return this;
+    }
+
+    /**
+     * Start a search at a fix, resolving the pending prefetch if there is one
+     *
+     * @param searchRadius  The configured search radius in meters
+     * @param elapsedMillis The current time on the prefetcher's clock
+     * @return The search, starting at the radius expected to hold the target count
+     */
+    public State begin(double latitude, double longitude, int searchRadius, long elapsedMillis) {
+        boolean moved = movementGate.shouldQuery(latitude, longitude, searchRadius);
+        int maxRadius = searchRadius * maxRadiusFactor;
+        int startRadius = radiusPlanner.initialRadius(latitude, longitude, maxRadius);
+        boolean prefetchChecked = prefetcher != null && prefetcher.isPending();
+        boolean prefetchHit = prefetchChecked && prefetcher.onSearch(latitude, longitude, startRadius, elapsedMillis);
+        return new State(latitude, longitude, moved, startRadius, maxRadius, prefetchChecked, prefetchHit);
+    }
+
+    /**
+     * Ask each local source that covers the circle for a POI the user hasn't seen, widening the
+     * circle while every one was shown
+     *
+     * @param state     The search
+     * @param nowMillis The current time
+     * @return Where the POI came from, or what the search does next
+     */
+    public Outcome answerLocally(State state, long nowMillis) {
+        double latitude = state.latitude;
+        double longitude = state.longitude;
+        while (true) {
+            int radius = state.radius;
+            boolean covered = false;
+            for (RegionPack pack : regionPacks) {
+                if (pack.covers(latitude, longitude, radius)) {
+                    covered = true;
+                    int number = pack.sample(latitude, longitude, radius, random, seenPois);
+                    if (number >= 0) {
+                        state.poi = pack.toPoi(number);
+                        return Outcome.REGION_PACK;
+                    }
+                }
+            }
+            List<Poi> cachedPois = poiCache.get(latitude, longitude, radius, nowMillis);
+            if (cachedPois != null) {
+                // POIs stored for another point of the tile may cover only part of this circle
+                covered = covered || poiCache.covers(latitude, longitude, radius, nowMillis);
+                Poi poi = pickUnseenPoi(cachedPois);
+                if (poi != null) {
+                    state.poi = poi;
+                    return Outcome.CACHE;
+                }
+            }
+            if (poiIndex.covers(latitude, longitude, radius, nowMillis)
+                    || tileQueries && tileCoverage.covers(latitude, longitude, radius, nowMillis)) {
+                covered = true;
+                int row = poiIndex.sample(latitude, longitude, radius, random, seenPois);
+                if (row >= 0) {
+                    state.poi = poiIndex.toPoi(row);
+                    return Outcome.INDEX;
+                }
+            }
+            if (!covered) {
+                break;
+            }
+            if (radius >= state.maxRadius) {
+                return Outcome.EXHAUSTED;
+            }
+            state.radius = Math.min(radius * AdaptiveRadiusPlanner.GROWTH_FACTOR, state.maxRadius);
+        }
+        if (!state.moved && state.radius == state.startRadius) {
+            return Outcome.STILL;
+        }
+        return Outcome.NETWORK;
+    }
+
+    /**
+     * Plan the network query of the circle: only the tiles that aren't held, the index answering
+     * for the rest, unless none is held, the density is unknown or the longer query of their
+     * boxes costs more than it saves
+     *
+     * @param state     The search, after {@link #answerLocally} returned {@link Outcome#NETWORK}
+     * @param nowMillis The current time
+     * @return The query to send
+     */
+    public String planQuery(State state, long nowMillis) {
+        String circleQuery = queryBuilder.build(state.latitude, state.longitude, state.radius);
+        state.boxes = null;
+        if (!tileQueries) {
+            return circleQuery;
+        }
+        double[] boxes = tileCoverage.missingBoxes(state.latitude, state.longitude, state.radius, MAX_QUERY_BOXES, nowMillis);
+        String boxQuery = queryBuilder.buildBoxes(boxes);
+        if (!tileCoverage.isBoxQueryCheaper(boxes, state.latitude, state.longitude, state.radius,
+                radiusPlanner.getDensityPerSquareKm(state.latitude, state.longitude), MAX_POI_RESULTS,
+                OverpassQueryBuilder.JSON_ELEMENT_BYTES,
+                OverpassClient.requestBytes(boxQuery) - OverpassClient.requestBytes(circleQuery), nowMillis)) {
+            return circleQuery;
+        }
+        state.boxes = boxes;
+        return boxQuery;
+    }
+
+    /**
+     * Feed a response, already parsed into the index, to the coverage, the cache and the densities
+     *
+     * @param state        The search
+     * @param elementCount The number of elements the response held
+     * @param responseRows Receives the POIs known within the radius
+     * @param nowMillis    The current time
+     * @return The number of POIs known within the radius
+     */
+    public int onResponse(State state, int elementCount, PoiBuffer responseRows, long nowMillis) {
+        state.fetched = true;
+        state.rounds++;
+        state.truncated = elementCount >= MAX_POI_RESULTS;
+        movementGate.onQuerySucceeded(state.latitude, state.longitude);
+        if (!state.truncated) {
+            // A truncated response doesn't cover its tiles, and a circle only those wholly inside it
+            if (state.boxes != null) {
+                tileCoverage.markHeld(state.boxes, nowMillis);
+            } else {
+                tileCoverage.markCircleHeld(state.latitude, state.longitude, state.radius, nowMillis);
+            }
+            poiIndex.markCovered(state.latitude, state.longitude, state.radius, nowMillis);
+        }
+        // The fetched tiles reach past the circle and the held ones were never fetched again
+        responseRows.clear();
+        state.count = poiIndex.copyTo(state.latitude, state.longitude, state.radius, responseRows);
+        BoundedPoiCollector collector = new BoundedPoiCollector(poiCache.getMaxBytes());
+        collector.addAll(responseRows);
+        if (!collector.isOverflowed()) {
+            poiCache.put(state.latitude, state.longitude, state.radius, collector.getPois(), nowMillis);
+        }
+        radiusPlanner.record(state.latitude, state.longitude, state.radius, state.count, state.truncated);
+        return state.count;
+    }
+
+    /**
+     * Widen the search to the next ring if the response returned too few POIs and the search has
+     * rounds left
+     *
+     * @param state The search, after its response
+     * @return true if the radius grew and the search goes on
+     */
+    public boolean expand(State state) {
+        if (state.rounds >= MAX_NETWORK_ROUNDS) {
+            return false;
+        }
+        int nextRadius = radiusPlanner.nextRadius(state.radius, state.count, state.truncated, state.maxRadius);
+        if (nextRadius < 0) {
+            return false;
+        }
+        state.radius = nextRadius;
+        return true;
+    }
+
+    /**
+     * Pick the best ranked POI of a response the user hasn't been notified about
+     *
+     * @param state        The search
+     * @param responseRows The POIs of the response
+     * @param lastCategory The category of the last POI shown, or -1
+     * @return The POI, or null if every POI was seen
+     */
+    public Poi select(State state, PoiBuffer responseRows, int lastCategory) {
+        ranker.setLastCategory(lastCategory);
+        int ranked = ranker.rank(responseRows, state.latitude, state.longitude, state.radius, seenPois, rankedRows);
+        return ranked > 0 ? responseRows.toPoi(rankedRows[0]) : null;
+    }
+
+    /**
+     * Get the circle to prefetch around a predicted position: the one the search there will
+     * start with, widened by the error of the prediction and by how far off its fix may be
+     *
+     * @param prediction        Latitude, longitude and error in meters, from the prefetcher
+     * @param searchRadius      The configured search radius in meters
+     * @param thresholdFraction The movement threshold as a fraction of the search radius
+     * @return The radius in meters
+     */
+    public double prefetchRadius(double[] prediction, int searchRadius, double thresholdFraction) {
+        return radiusPlanner.initialRadius(prediction[0], prediction[1], searchRadius * maxRadiusFactor)
+                + prediction[2] + thresholdFraction * searchRadius;
+    }
+
+    /**
+     * @return The missing tiles of a circle to prefetch, empty if it is held
+     */
+    public double[] prefetchBoxes(double latitude, double longitude, double radius, long nowMillis) {
+        return tileCoverage.missingBoxes(latitude, longitude, radius, MAX_QUERY_BOXES, nowMillis);
+    }
+
+    /**
+     * Mark the tiles of a prefetch held once its response is parsed into the index
+     *
+     * @param boxes        The missing tiles it was requested for
+     * @param elementCount The number of elements the response held
+     * @param nowMillis    The current time
+     */
+    public void onPrefetchResponse(double[] boxes, int elementCount, long nowMillis) {
+        if (elementCount < MAX_POI_RESULTS) {
+            tileCoverage.markHeld(boxes, nowMillis);
+        }
+    }
+
+    /**
+     * Pick a random POI the user hasn't been notified about
+     *
+     * @param pois The POIs found around the current location
+     * @return The POI, or null if every POI was seen
+     */
+    private Poi pickUnseenPoi(List<Poi> pois) {
+        Poi pick = null;
+        int candidates = 0;
+        for (Poi poi : pois) {
+            if (!seenPois.contains(poi) && random.nextInt(++candidates) == 0) {
+                pick = poi;
+            }
+        }
+        return pick;
+    }
+}
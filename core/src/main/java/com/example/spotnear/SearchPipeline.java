@@ -0,0 +1,377 @@
+package com.example.spotnear;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs POI searches through named stages on one dedicated worker thread.
+ * <p>
+ * A search is a job carrying a context object through the stages locate, query, parse,
+ * select, persist and notify. Each stage runs on the pipeline's executor, whatever thread
+ * completed the previous one, so work arriving on Play Services or OkHttp callback threads is
+ * handed back to the worker. A stage ends by calling one method of its {@link Step}, possibly
+ * later from another thread: continue with the next stage, jump to another one, finish or fail.
+ * A stage without an implementation is skipped.
+ * <p>
+ * At most {@code capacity} jobs run at a time; further submissions are rejected rather than
+ * queued, so a slow stage cannot pile up work behind it. Every stage is timed from its start
+ * until its step is called, which for asynchronous stages includes the wait.
+ *
+ * @param <C> The type of the job context
+ */
+public class SearchPipeline<C> {
+
+    /**
+     * The stages of a search, in order
+     */
+    public enum StageName {
+        LOCATE,
+        QUERY,
+        PARSE,
+        SELECT,
+        PERSIST,
+        NOTIFY
+    }
+
+    /**
+     * One stage of the pipeline
+     */
+    public interface Stage<C> {
+        /**
+         * Run the stage on the pipeline thread. Exactly one method of {@code step} must be called,
+         * now or later from any thread; an exception fails the job.
+         *
+         * @param context The job context
+         * @param step    Continues the job
+         */
+        void run(C context, Step step) throws Exception;
+    }
+
+    /**
+     * Continues a job after a stage. Only the first call counts.
+     */
+    public interface Step {
+        void next();
+
+        void jumpTo(StageName stage);
+
+        void finish();
+
+        void fail(Exception e);
+    }
+
+    /**
+     * Receives the outcome of every job, on the thread that ended it
+     */
+    public interface Listener<C> {
+        void onFinished(C context);
+
+        void onFailed(C context, StageName stage, Exception e);
+
+        void onCancelled(C context);
+    }
+
+    private static final StageName[] STAGES = StageName.values();
+
+    private final ExecutorService executor;
+    private final int capacity;
+    private final Listener<C> listener;
+    private final List<Stage<C>> stages = new ArrayList<>(STAGES.length);
+    private final List<Job> active = new ArrayList<>();
+
+    private final long[] stageCounts = new long[STAGES.length];
+    private final long[] stageNanos = new long[STAGES.length];
+    private final long[] stageMaxNanos = new long[STAGES.length];
+    private long finishedCount;
+    private long failedCount;
+    private long cancelledCount;
+    private long rejectedCount;
+
+    /**
+     * Create the single worker thread of a pipeline. Its queue only ever holds one task per
+     * running job, so it is bounded by the capacity.
+     *
+     * @param name     The name of the thread
+     * @param capacity The capacity of the pipeline
+     */
+    public static ExecutorService newExecutor(final String name, int capacity) {
+        return new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(Math.max(1, capacity)), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Constructor
+     *
+     * @param executor Runs the stages; it should have a single thread
+     * @param capacity The maximum number of jobs running at a time
+     * @param listener Receives the outcome of every job
+     */
+    public SearchPipeline(ExecutorService executor, int capacity, Listener<C> listener) {
+        this.executor = executor;
+        this.capacity = capacity;
+        this.listener = listener;
+        for (int i = 0; i < STAGES.length; i++) {
+            stages.add(null);
+        }
+    }
+
+    /**
+     * Set the implementation of a stage
+     *
+     * @return This pipeline
+     */
+    public SearchPipeline<C> setStage(StageName name, Stage<C> stage) {
+        stages.set(name.ordinal(), stage);
+        return this;
+    }
+
+    /**
+     * Start a job at the first stage
+     *
+     * @param context The job context
+     * @return The job, or null if the pipeline is full or shut down
+     */
+    public Job submit(C context) {
+        Job job = new Job(context);
+        synchronized (this) {
+            if (active.size() >= capacity || executor.isShutdown()) {
+                rejectedCount++;
+                return null;
+            }
+            active.add(job);
+        }
+        schedule(job, 0);
+        return job;
+    }
+
+    /**
+     * Cancel every running job and stop the worker thread
+     */
+    public void shutdown() {
+        List<Job> jobs;
+        synchronized (this) {
+            jobs = new ArrayList<>(active);
+        }
+        for (Job job : jobs) {
+            job.cancel();
+        }
+        executor.shutdownNow();
+    }
+
+    public synchronized int getActiveCount() {
+        return active.size();
+    }
+
+    public synchronized long getStageCount(StageName stage) {
+        return stageCounts[stage.ordinal()];
+    }
+
+    /**
+     * @return The total time spent in a stage in nanoseconds
+     */
+    public synchronized long getStageNanos(StageName stage) {
+        return stageNanos[stage.ordinal()];
+    }
+
+    public synchronized long getFinishedCount() {
+        return finishedCount;
+    }
+
+    public synchronized long getFailedCount() {
+        return failedCount;
+    }
+
+    public synchronized long getCancelledCount() {
+        return cancelledCount;
+    }
+
+    /**
+     * @return The number of jobs rejected because the pipeline was full
+     */
+    public synchronized long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    /**
+     * Describe the average and maximum time of every stage that ran
+     */
+    public synchronized String describeTimings() {
+        StringBuilder description = new StringBuilder();
+        for (StageName stage : STAGES) {
+            int i = stage.ordinal();
+            if (stageCounts[i] == 0) {
+                continue;
+            }
+            if (description.length() > 0) {
+                description.append(", ");
+            }
+            description.append(String.format(Locale.US, "%s %d x %.1f ms (max %.1f ms)",
+                    stage.name().toLowerCase(Locale.US), stageCounts[i],
+                    stageNanos[i] / 1e6 / stageCounts[i], stageMaxNanos[i] / 1e6));
+        }
+        description.append("; ").append(finishedCount).append(" finished, ").append(failedCount)
+                .append(" failed, ").append(cancelledCount).append(" cancelled, ")
+                .append(rejectedCount).append(" rejected");
+        return description.toString();
+    }
+
+    private void schedule(final Job job, final int index) {
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    runStage(job, index);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            job.cancel();
+        }
+    }
+
+    private void runStage(Job job, int index) {
+        while (index < STAGES.length && stages.get(index) == null) {
+            index++;
+        }
+        if (job.isDone()) {
+            return;
+        }
+        if (index == STAGES.length) {
+            if (job.end()) {
+                synchronized (this) {
+                    finishedCount++;
+                }
+                listener.onFinished(job.context);
+            }
+            return;
+        }
+        StageStep step = new StageStep(job, index);
+        try {
+            stages.get(index).run(job.context, step);
+        } catch (Exception e) {
+            step.fail(e);
+        }
+    }
+
+    private synchronized void recordStage(int index, long nanos) {
+        stageCounts[index]++;
+        stageNanos[index] += nanos;
+        stageMaxNanos[index] = Math.max(stageMaxNanos[index], nanos);
+    }
+
+    /**
+     * A job running through the pipeline
+     */
+    public final class Job {
+        private final C context;
+        private boolean done;
+
+        private Job(C context) {
+            this.context = context;
+        }
+
+        public C getContext() {
+            return context;
+        }
+
+        /**
+         * @return true once the job has finished, failed or been cancelled
+         */
+        public synchronized boolean isDone() {
+            return done;
+        }
+
+        /**
+         * Stop the job before its next stage. The listener is told on the calling thread.
+         */
+        public void cancel() {
+            if (end()) {
+                synchronized (SearchPipeline.this) {
+                    cancelledCount++;
+                }
+                listener.onCancelled(context);
+            }
+        }
+
+        /**
+         * @return true if this call ended the job
+         */
+        private boolean end() {
+            synchronized (this) {
+                if (done) {
+                    return false;
+                }
+                done = true;
+            }
+            synchronized (SearchPipeline.this) {
+                active.remove(this);
+            }
+            return true;
+        }
+    }
+
+    private final class StageStep implements Step {
+        private final Job job;
+        private final int index;
+        private final long startNanos = System.nanoTime();
+        private boolean called;
+
+        StageStep(Job job, int index) {
+            this.job = job;
+            this.index = index;
+        }
+
+        private synchronized boolean call() {
+            if (called) {
+                return false;
+            }
+            called = true;
+            recordStage(index, System.nanoTime() - startNanos);
+            return !job.isDone();
+        }
+
+        @Override
+        public void next() {
+            if (call()) {
+                schedule(job, index + 1);
+            }
+        }
+
+        @Override
+        public void jumpTo(StageName stage) {
+            if (call()) {
+                schedule(job, stage.ordinal());
+            }
+        }
+
+        @Override
+        public void finish() {
+            if (call()) {
+                schedule(job, STAGES.length);
+            }
+        }
+
+        @Override
+        public void fail(Exception e) {
+            if (call() && job.end()) {
+                synchronized (SearchPipeline.this) {
+                    failedCount++;
+                }
+                listener.onFailed(job.context, STAGES[index], e);
+            }
+        }
+    }
+}
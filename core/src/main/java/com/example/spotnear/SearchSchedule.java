@@ -0,0 +1,53 @@
+package com.example.spotnear;
+
+/**
+ * When the next automatic search runs, after a search that found a place or one that didn't.
+ * <p>
+ * Intervals are stretched by the {@link MovementGate} while the device stays in place, and a
+ * retry never runs before the Overpass governor allows the next request.
+ */
+public class SearchSchedule {
+    private final long foundIntervalMillis;
+    private final long retryIntervalMillis;
+    private final MovementGate movementGate;
+
+    /**
+     * Constructor
+     *
+     * @param foundIntervalMillis The interval after a place was found
+     * @param retryIntervalMillis The interval after a search found nothing, until a place is found
+     * @param movementGate        Stretches the intervals while the device stays in place
+     */
+    public SearchSchedule(long foundIntervalMillis, long retryIntervalMillis, MovementGate movementGate) {
+        this.foundIntervalMillis = foundIntervalMillis;
+        this.retryIntervalMillis = retryIntervalMillis;
+        this.movementGate = movementGate;
+    }
+
+    /**
+     * @return The delay until the next search, after the user was notified of a place
+     */
+    public long afterPlaceFound() {
+        return movementGate.stretchInterval(foundIntervalMillis);
+    }
+
+    /**
+     * Get the delay until the next search, after a search that found nothing or failed
+     *
+     * @param hasFoundPlace    true if an earlier search found a place
+     * @param retryDelayMillis The time until the governor allows the next request
+     * @return The delay in milliseconds
+     */
+    public long afterNothingFound(boolean hasFoundPlace, long retryDelayMillis) {
+        long interval = hasFoundPlace ? foundIntervalMillis : retryIntervalMillis;
+        return Math.max(movementGate.stretchInterval(interval), retryDelayMillis);
+    }
+
+    public long getFoundIntervalMillis() {
+        return foundIntervalMillis;
+    }
+
+    public long getRetryIntervalMillis() {
+        return retryIntervalMillis;
+    }
+}
@@ -0,0 +1,265 @@
+package com.example.spotnear;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.Okio;
+
+/**
+ * Persistent set of the POIs the user has already been notified about, so they are not picked again.
+ * <p>
+ * POIs are keyed by {@code id << 2 | type}, the same key as {@link PoiSpatialIndex}. Keys are kept
+ * in one sorted {@code long[]}; keys added since the last merge sit in a short unsorted tail that
+ * is merged into the sorted part once it reaches {@link #TAIL_CAPACITY}. A Bloom filter in front
+ * answers most lookups of unseen POIs, which is the common case while sampling, without touching
+ * the array. {@link #contains} never allocates, whatever the size of the history.
+ * <p>
+ * When backed by a file, every added key is appended as 8 bytes, so the file is a log that is
+ * re-read and sorted on open. Years of one notification per hour stay well under a megabyte.
+ */
+public final class SeenPoiSet {
+    public static final int TAIL_CAPACITY = 64;
+
+    // Bloom filter sizing: 16 bits per expected key and 5 probes give about 0.1% false positives
+    private static final int BITS_PER_KEY = 16;
+    private static final int PROBES = 5;
+    private static final int MIN_BLOOM_BITS = 1 << 12;
+
+    private final File file;
+    private long[] sorted = new long[0];
+    private int sortedCount;
+    private final long[] tail = new long[TAIL_CAPACITY];
+    private int tailCount;
+    private long[] bloom = new long[MIN_BLOOM_BITS / 64];
+    private int bloomMask = MIN_BLOOM_BITS - 1;
+
+    private long lookupCount;
+    private long bloomRejectCount;
+
+    /**
+     * Create a set that is only kept in memory
+     */
+    public SeenPoiSet() {
+        this.file = null;
+    }
+
+    private SeenPoiSet(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Open the set stored in a file, creating it on the first {@link #add}
+     *
+     * @param file The file holding the set
+     * @return The set with every key read from the file
+     * @throws IOException If the file exists but cannot be read
+     */
+    public static SeenPoiSet open(File file) throws IOException {
+        SeenPoiSet set = new SeenPoiSet(file);
+        if (file.exists()) {
+            try (BufferedSource source = Okio.buffer(Okio.source(file))) {
+                set.read(source);
+            }
+        }
+        return set;
+    }
+
+    /**
+     * Add every key of a log written by {@link #writeTo}. A truncated last key is ignored.
+     *
+     * @param source The keys as big-endian longs
+     * @throws IOException If the source fails
+     */
+    public synchronized void read(BufferedSource source) throws IOException {
+        long[] keys = new long[Math.max(16, sortedCount)];
+        int count = 0;
+        while (source.request(8)) {
+            if (count == keys.length) {
+                keys = Arrays.copyOf(keys, count * 2);
+            }
+            keys[count++] = source.readLong();
+        }
+        for (int i = 0; i < count; i++) {
+            addKey(keys[i]);
+        }
+    }
+
+    /**
+     * Write every key as a big-endian long, in ascending order
+     *
+     * @param sink Receives the keys
+     * @throws IOException If the sink fails
+     */
+    public synchronized void writeTo(BufferedSink sink) throws IOException {
+        mergeTail();
+        for (int i = 0; i < sortedCount; i++) {
+            sink.writeLong(sorted[i]);
+        }
+        sink.flush();
+    }
+
+    /**
+     * Remember a POI, appending it to the file if the set has one
+     *
+     * @param poi The POI the user was notified about
+     * @return true if the POI was not seen before
+     * @throws IOException If appending to the file fails; the POI is still remembered in memory
+     */
+    public boolean add(Poi poi) throws IOException {
+        return add(poi.getId(), PoiBuffer.typeCode(poi.getType()));
+    }
+
+    /**
+     * Remember a POI, appending it to the file if the set has one
+     *
+     * @param id   The OSM id
+     * @param type The type code, see {@link PoiBuffer#typeCode}
+     * @return true if the POI was not seen before
+     * @throws IOException If appending to the file fails; the POI is still remembered in memory
+     */
+    public synchronized boolean add(long id, byte type) throws IOException {
+        long key = id << 2 | type;
+        if (!addKey(key)) {
+            return false;
+        }
+        if (file != null) {
+            try (BufferedSink sink = Okio.buffer(Okio.appendingSink(file))) {
+                sink.writeLong(key);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Check whether a POI was seen, without allocating
+     */
+    public boolean contains(Poi poi) {
+        return contains(poi.getId(), PoiBuffer.typeCode(poi.getType()));
+    }
+
+    /**
+     * Check whether a POI was seen, without allocating
+     *
+     * @param id   The OSM id
+     * @param type The type code, see {@link PoiBuffer#typeCode}
+     */
+    public synchronized boolean contains(long id, byte type) {
+        long key = id << 2 | type;
+        lookupCount++;
+        if (!mightContain(key)) {
+            bloomRejectCount++;
+            return false;
+        }
+        for (int i = 0; i < tailCount; i++) {
+            if (tail[i] == key) {
+                return true;
+            }
+        }
+        return Arrays.binarySearch(sorted, 0, sortedCount, key) >= 0;
+    }
+
+    public synchronized int size() {
+        return sortedCount + tailCount;
+    }
+
+    /**
+     * @return The number of lookups answered by the Bloom filter alone
+     */
+    public synchronized long getBloomRejectCount() {
+        return bloomRejectCount;
+    }
+
+    public synchronized long getLookupCount() {
+        return lookupCount;
+    }
+
+    /**
+     * @return The approximate number of bytes held in memory
+     */
+    public synchronized long capacityBytes() {
+        return sorted.length * 8L + TAIL_CAPACITY * 8L + bloom.length * 8L;
+    }
+
+    private boolean addKey(long key) {
+        if (contains(key >>> 2, (byte) (key & 3))) {
+            return false;
+        }
+        if (tailCount == TAIL_CAPACITY) {
+            mergeTail();
+        }
+        tail[tailCount++] = key;
+        if ((long) (sortedCount + tailCount) * BITS_PER_KEY > bloom.length * 64L) {
+            resizeBloom();
+        } else {
+            setBloom(key);
+        }
+        return true;
+    }
+
+    private void mergeTail() {
+        if (tailCount == 0) {
+            return;
+        }
+        Arrays.sort(tail, 0, tailCount);
+        long[] merged = sorted.length >= sortedCount + tailCount
+                ? sorted : new long[Math.max(sortedCount + tailCount, sorted.length * 2)];
+        // Merge from the back so the sorted part can be merged in place
+        int i = sortedCount - 1;
+        int j = tailCount - 1;
+        for (int k = sortedCount + tailCount - 1; k >= 0; k--) {
+            if (j < 0 || (i >= 0 && sorted[i] > tail[j])) {
+                merged[k] = sorted[i--];
+            } else {
+                merged[k] = tail[j--];
+            }
+        }
+        sorted = merged;
+        sortedCount += tailCount;
+        tailCount = 0;
+    }
+
+    private void resizeBloom() {
+        int bits = Integer.highestOneBit((sortedCount + tailCount) * BITS_PER_KEY * 2 - 1);
+        bloom = new long[bits / 64];
+        bloomMask = bits - 1;
+        for (int i = 0; i < sortedCount; i++) {
+            setBloom(sorted[i]);
+        }
+        for (int i = 0; i < tailCount; i++) {
+            setBloom(tail[i]);
+        }
+    }
+
+    private void setBloom(long key) {
+        long hash = mix(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        for (int probe = 0; probe < PROBES; probe++) {
+            int bit = (h1 + probe * h2) & bloomMask;
+            bloom[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    private boolean mightContain(long key) {
+        long hash = mix(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        for (int probe = 0; probe < PROBES; probe++) {
+            int bit = (h1 + probe * h2) & bloomMask;
+            if ((bloom[bit >>> 6] & 1L << bit) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 32;
+        h *= 0xD6E8FEB86659FD93L;
+        return h ^ (h >>> 32);
+    }
+}
@@ -0,0 +1,142 @@
+package com.example.spotnear;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Decoded in-memory copy of the app settings with a set of changes waiting to be written.
+ * <p>
+ * Reads are served from memory. Writes update the copy, and values equal to the stored ones
+ * are dropped. Changes made before the next {@link #takeChanges()} are written together, so a
+ * burst of setter calls costs one disk write. Counters in the spirit of StrictMode's disk-write
+ * detection compare setter calls, which used to be one write each, with actual disk writes.
+ */
+public class SettingsSnapshot {
+    private final Map<String, Object> values;
+    private final Map<String, Object> changes = new LinkedHashMap<>();
+
+    private long requestedWrites;
+    private long skippedWrites;
+    private long diskWrites;
+    private long cycleRequestedWrites;
+    private long cycleDiskWrites;
+
+    /**
+     * Constructor
+     *
+     * @param stored The values currently stored, e.g. from SharedPreferences.getAll()
+     */
+    public SettingsSnapshot(Map<String, ?> stored) {
+        values = new HashMap<>(stored);
+    }
+
+    public synchronized boolean getBoolean(String key, boolean defaultValue) {
+        Object value = values.get(key);
+        return value instanceof Boolean ? (Boolean) value : defaultValue;
+    }
+
+    public synchronized int getInt(String key, int defaultValue) {
+        Object value = values.get(key);
+        return value instanceof Integer ? (Integer) value : defaultValue;
+    }
+
+    public synchronized long getLong(String key, long defaultValue) {
+        Object value = values.get(key);
+        return value instanceof Long ? (Long) value : defaultValue;
+    }
+
+    public synchronized float getFloat(String key, float defaultValue) {
+        Object value = values.get(key);
+        return value instanceof Float ? (Float) value : defaultValue;
+    }
+
+    public synchronized String getString(String key, String defaultValue) {
+        Object value = values.get(key);
+        return value instanceof String ? (String) value : defaultValue;
+    }
+
+    /**
+     * Change a value
+     *
+     * @param key   The preference key
+     * @param value A Boolean, Integer, Long, Float or String, or null to remove the key
+     * @return true if the value changed and has to be written
+     */
+    public synchronized boolean put(String key, Object value) {
+        requestedWrites++;
+        cycleRequestedWrites++;
+        Object current = values.get(key);
+        if (value == null ? current == null && !values.containsKey(key) : value.equals(current)) {
+            skippedWrites++;
+            return false;
+        }
+        if (value == null) {
+            values.remove(key);
+        } else {
+            values.put(key, value);
+        }
+        changes.put(key, value);
+        return true;
+    }
+
+    /**
+     * @return true if there are changes waiting to be written
+     */
+    public synchronized boolean hasChanges() {
+        return !changes.isEmpty();
+    }
+
+    /**
+     * Take the changes to write in one transaction. The caller must call
+     * {@link #onChangesWritten()} once they are on disk.
+     *
+     * @return The changed keys and their new values, null meaning removed
+     */
+    public synchronized Map<String, Object> takeChanges() {
+        Map<String, Object> taken = new LinkedHashMap<>(changes);
+        changes.clear();
+        return taken;
+    }
+
+    /**
+     * Count one disk write
+     */
+    public synchronized void onChangesWritten() {
+        diskWrites++;
+        cycleDiskWrites++;
+    }
+
+    /**
+     * @return The number of setter calls, each of which used to be a separate write
+     */
+    public synchronized long getRequestedWrites() {
+        return requestedWrites;
+    }
+
+    /**
+     * @return The number of setter calls that didn't change anything
+     */
+    public synchronized long getSkippedWrites() {
+        return skippedWrites;
+    }
+
+    /**
+     * @return The number of transactions written to disk
+     */
+    public synchronized long getDiskWrites() {
+        return diskWrites;
+    }
+
+    /**
+     * Describe the writes since the previous call, then start a new cycle
+     */
+    public synchronized String endCycle() {
+        String description = cycleRequestedWrites + " setting writes requested, " + cycleDiskWrites
+                + " disk writes (total " + requestedWrites + " requested, " + skippedWrites + " unchanged, "
+                + diskWrites + " written)";
+        cycleRequestedWrites = 0;
+        cycleDiskWrites = 0;
+        return description;
+    }
+}
@@ -0,0 +1,355 @@
+package com.example.spotnear;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers which fixed geo-tiles have been fetched from Overpass, so a search only downloads
+ * the part of its circle that isn't held locally.
+ * <p>
+ * Tiles are {@link #DEFAULT_TILE_DEGREES} squares on a global latitude/longitude grid. A circle
+ * is covered once every tile it touches is held; otherwise the missing tiles of each grid row are
+ * merged into runs, giving the bounding boxes of one batched query; beyond a maximum box count,
+ * the boxes whose union adds the least area are merged, fetching some held tiles again to keep the
+ * query short. The POIs themselves live in
+ * the {@link PoiSpatialIndex}. A tile is held for the same time as a {@link PoiCache} tile, and
+ * the least recently used tiles are forgotten beyond the maximum count, so an area fetched long
+ * ago is fetched again.
+ * <p>
+ * The boxes make a longer query than the circle itself, so where few tiles are held the upload
+ * can outweigh what they save; {@link #isBoxQueryCheaper} tells when to query the circle instead.
+ * Where no tile is held, or the density isn't known yet, the circle is always the cheaper query.
+ */
+public class TileCoverage {
+    // About 110 m of latitude; the tiles around a circle of a few hundred meters fetch little outside it
+    public static final double DEFAULT_TILE_DEGREES = 0.001;
+    public static final int DEFAULT_MAX_TILES = 16384;
+
+    private final double tileDegrees;
+    private final int maxTiles;
+    private final long ttlMillis;
+    // Expiry time of each held tile
+    private final LinkedHashMap<Long, Long> tiles;
+
+    /**
+     * Create a coverage with the default tile size and count
+     */
+    public TileCoverage() {
+        this(DEFAULT_TILE_DEGREES, DEFAULT_MAX_TILES);
+    }
+
+    /**
+     * Create a coverage whose tiles are held as long as {@link PoiCache} tiles
+     *
+     * @param tileDegrees The side of a tile in degrees
+     * @param maxTiles    The number of tiles remembered
+     */
+    public TileCoverage(double tileDegrees, int maxTiles) {
+        this(tileDegrees, maxTiles, PoiCache.DEFAULT_TTL_MILLIS);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param tileDegrees The side of a tile in degrees
+     * @param maxTiles    The number of tiles remembered
+     * @param ttlMillis   How long a fetched tile is held
+     */
+    public TileCoverage(double tileDegrees, final int maxTiles, long ttlMillis) {
+        this.tileDegrees = tileDegrees;
+        this.maxTiles = maxTiles;
+        this.ttlMillis = ttlMillis;
+        this.tiles = new LinkedHashMap<Long, Long>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Long> eldest) {
+                return size() > maxTiles;
+            }
+        };
+    }
+
+    /**
+     * @return true if every tile the circle touches is held and hasn't expired
+     */
+    public synchronized boolean covers(double latitude, double longitude, double radiusMeters, long nowMillis) {
+        return scan(latitude, longitude, radiusMeters, nowMillis, null) == 0;
+    }
+
+    /**
+     * Get the bounding boxes of the tiles a circle touches that aren't held
+     *
+     * @param latitude     The latitude of the center
+     * @param longitude    The longitude of the center
+     * @param radiusMeters The radius in meters
+     * @param nowMillis    The current time, expired tiles count as missing
+     * @return South, west, north and east of each box in turn; empty if the circle is covered
+     */
+    public synchronized double[] missingBoxes(double latitude, double longitude, double radiusMeters, long nowMillis) {
+        double[] boxes = new double[4 * scan(latitude, longitude, radiusMeters, nowMillis, null)];
+        scan(latitude, longitude, radiusMeters, nowMillis, boxes);
+        return boxes;
+    }
+
+    /**
+     * Get at most a number of bounding boxes covering the tiles a circle touches that aren't held
+     *
+     * @param latitude     The latitude of the center
+     * @param longitude    The longitude of the center
+     * @param radiusMeters The radius in meters
+     * @param maxBoxes     The largest number of boxes
+     * @param nowMillis    The current time, expired tiles count as missing
+     * @return South, west, north and east of each box in turn; empty if the circle is covered
+     */
+    public synchronized double[] missingBoxes(double latitude, double longitude, double radiusMeters, int maxBoxes,
+                                              long nowMillis) {
+        double[] boxes = missingBoxes(latitude, longitude, radiusMeters, nowMillis);
+        int count = boxes.length / 4;
+        while (count > maxBoxes) {
+            // Merge the two boxes whose bounding box adds the least area
+            int first = 0;
+            int second = 1;
+            double leastAdded = Double.MAX_VALUE;
+            for (int i = 0; i < count; i++) {
+                for (int j = i + 1; j < count; j++) {
+                    double added = mergedArea(boxes, i, j) - area(boxes, i) - area(boxes, j);
+                    if (added < leastAdded) {
+                        leastAdded = added;
+                        first = i;
+                        second = j;
+                    }
+                }
+            }
+            boxes[4 * first] = Math.min(boxes[4 * first], boxes[4 * second]);
+            boxes[4 * first + 1] = Math.min(boxes[4 * first + 1], boxes[4 * second + 1]);
+            boxes[4 * first + 2] = Math.max(boxes[4 * first + 2], boxes[4 * second + 2]);
+            boxes[4 * first + 3] = Math.max(boxes[4 * first + 3], boxes[4 * second + 3]);
+            count--;
+            System.arraycopy(boxes, 4 * count, boxes, 4 * second, 4);
+        }
+        return count == boxes.length / 4 ? boxes : Arrays.copyOf(boxes, 4 * count);
+    }
+
+    /**
+     * Decide whether the query over the missing boxes of a circle costs fewer bytes than the
+     * query of the whole circle, counting its longer request against the response bytes the held
+     * tiles save. POIs are taken as spread evenly, and both responses as capped at the limit.
+     * With no tile of the circle held the boxes save nothing, and without a density there is
+     * nothing to weigh the request against, so the circle is queried.
+     *
+     * @param boxes              The missing boxes of the circle, from {@link #missingBoxes}
+     * @param latitude           The latitude of the center
+     * @param longitude          The longitude of the center
+     * @param radiusMeters       The radius in meters
+     * @param densityPerSquareKm The POI density around the circle, or NaN if unknown
+     * @param limit              The element limit of both queries, 0 for none
+     * @param elementBytes       The size of one element of a response
+     * @param extraRequestBytes  How many more bytes the box query sends than the circle query
+     * @param nowMillis          The current time, expired tiles count as missing
+     * @return true if part of the circle is held and the box query is cheaper
+     */
+    public synchronized boolean isBoxQueryCheaper(double[] boxes, double latitude, double longitude,
+                                                  double radiusMeters, double densityPerSquareKm, int limit,
+                                                  int elementBytes, long extraRequestBytes, long nowMillis) {
+        if (Double.isNaN(densityPerSquareKm) || missingTileCount(latitude, longitude, radiusMeters, nowMillis)
+                == tileCount(latitude, longitude, radiusMeters)) {
+            return false;
+        }
+        double boxDegrees = 0;
+        for (int box = 0; box < boxes.length / 4; box++) {
+            boxDegrees += area(boxes, box);
+        }
+        double boxSquareMeters = boxDegrees * GeoUtils.METERS_PER_DEGREE * GeoUtils.METERS_PER_DEGREE
+                * Math.cos(Math.toRadians(latitude));
+        double circleElements = densityPerSquareKm * Math.PI * radiusMeters * radiusMeters / 1e6;
+        double boxElements = densityPerSquareKm * boxSquareMeters / 1e6;
+        if (limit > 0) {
+            circleElements = Math.min(circleElements, limit);
+            boxElements = Math.min(boxElements, limit);
+        }
+        return extraRequestBytes <= (circleElements - boxElements) * elementBytes;
+    }
+
+    /**
+     * Remember that every tile inside the boxes was fetched completely
+     *
+     * @param boxes     Boxes returned by {@link #missingBoxes}
+     * @param nowMillis When the boxes were fetched
+     * @return The number of tiles marked
+     */
+    public synchronized int markHeld(double[] boxes, long nowMillis) {
+        int marked = 0;
+        for (int i = 0; i + 3 < boxes.length; i += 4) {
+            // Boxes lie on tile edges, so shrink them slightly to stay inside their tiles
+            int firstRow = tile(boxes[i] + tileDegrees / 2);
+            int lastRow = tile(boxes[i + 2] - tileDegrees / 2);
+            int firstColumn = tile(boxes[i + 1] + tileDegrees / 2);
+            int lastColumn = tile(boxes[i + 3] - tileDegrees / 2);
+            for (int row = firstRow; row <= lastRow; row++) {
+                for (int column = firstColumn; column <= lastColumn; column++) {
+                    tiles.put(key(row, column), nowMillis + ttlMillis);
+                    marked++;
+                }
+            }
+        }
+        return marked;
+    }
+
+    /**
+     * Remember that the tiles lying wholly inside a circle were fetched by a query of the circle;
+     * the tiles across its edge were fetched only in part
+     *
+     * @param latitude     The latitude of the center
+     * @param longitude    The longitude of the center
+     * @param radiusMeters The radius in meters
+     * @param nowMillis    When the circle was fetched
+     * @return The number of tiles marked
+     */
+    public synchronized int markCircleHeld(double latitude, double longitude, double radiusMeters, long nowMillis) {
+        int marked = 0;
+        double[] bounds = bounds(latitude, longitude, radiusMeters);
+        for (int row = tile(bounds[0]); row <= tile(bounds[2]); row++) {
+            for (int column = tile(bounds[1]); column <= tile(bounds[3]); column++) {
+                if (isInside(row, column, latitude, longitude, radiusMeters)) {
+                    tiles.put(key(row, column), nowMillis + ttlMillis);
+                    marked++;
+                }
+            }
+        }
+        return marked;
+    }
+
+    /**
+     * @return The number of tiles a circle touches
+     */
+    public synchronized int tileCount(double latitude, double longitude, double radiusMeters) {
+        return count(latitude, longitude, radiusMeters, false, 0);
+    }
+
+    /**
+     * @return The number of tiles a circle touches that aren't held or have expired
+     */
+    public synchronized int missingTileCount(double latitude, double longitude, double radiusMeters, long nowMillis) {
+        return count(latitude, longitude, radiusMeters, true, nowMillis);
+    }
+
+    public synchronized int size() {
+        return tiles.size();
+    }
+
+    public double getTileDegrees() {
+        return tileDegrees;
+    }
+
+    public synchronized void clear() {
+        tiles.clear();
+    }
+
+    public synchronized String describeStats() {
+        return tiles.size() + "/" + maxTiles + " tiles held";
+    }
+
+    private int count(double latitude, double longitude, double radiusMeters, boolean missingOnly, long nowMillis) {
+        int count = 0;
+        double[] bounds = bounds(latitude, longitude, radiusMeters);
+        for (int row = tile(bounds[0]); row <= tile(bounds[2]); row++) {
+            for (int column = tile(bounds[1]); column <= tile(bounds[3]); column++) {
+                if (touches(row, column, latitude, longitude, radiusMeters)
+                        && !(missingOnly && isHeld(row, column, nowMillis))) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Merge the missing tiles a circle touches into runs along each grid row, writing their
+     * boxes if {@code boxes} is given
+     *
+     * @return The number of boxes
+     */
+    private int scan(double latitude, double longitude, double radiusMeters, long nowMillis, double[] boxes) {
+        double[] bounds = bounds(latitude, longitude, radiusMeters);
+        int count = 0;
+        for (int row = tile(bounds[0]); row <= tile(bounds[2]); row++) {
+            int runStart = Integer.MIN_VALUE;
+            int lastColumn = tile(bounds[3]);
+            for (int column = tile(bounds[1]); column <= lastColumn + 1; column++) {
+                boolean missing = column <= lastColumn
+                        && touches(row, column, latitude, longitude, radiusMeters)
+                        && !isHeld(row, column, nowMillis);
+                if (missing && runStart == Integer.MIN_VALUE) {
+                    runStart = column;
+                } else if (!missing && runStart != Integer.MIN_VALUE) {
+                    if (boxes != null) {
+                        boxes[4 * count] = row * tileDegrees;
+                        boxes[4 * count + 1] = runStart * tileDegrees;
+                        boxes[4 * count + 2] = (row + 1) * tileDegrees;
+                        boxes[4 * count + 3] = column * tileDegrees;
+                    }
+                    count++;
+                    runStart = Integer.MIN_VALUE;
+                }
+            }
+        }
+        return count;
+    }
+
+    private boolean isHeld(int row, int column, long nowMillis) {
+        Long expiresAtMillis = tiles.get(key(row, column));
+        return expiresAtMillis != null && nowMillis < expiresAtMillis;
+    }
+
+    private static double area(double[] boxes, int box) {
+        return (boxes[4 * box + 2] - boxes[4 * box]) * (boxes[4 * box + 3] - boxes[4 * box + 1]);
+    }
+
+    private static double mergedArea(double[] boxes, int first, int second) {
+        double south = Math.min(boxes[4 * first], boxes[4 * second]);
+        double west = Math.min(boxes[4 * first + 1], boxes[4 * second + 1]);
+        double north = Math.max(boxes[4 * first + 2], boxes[4 * second + 2]);
+        double east = Math.max(boxes[4 * first + 3], boxes[4 * second + 3]);
+        return (north - south) * (east - west);
+    }
+
+    /**
+     * @return South, west, north and east of the square around a circle
+     */
+    private static double[] bounds(double latitude, double longitude, double radiusMeters) {
+        double latitudeDelta = radiusMeters / GeoUtils.METERS_PER_DEGREE;
+        double longitudeDelta = latitudeDelta / Math.max(Math.cos(Math.toRadians(latitude)), 1e-6);
+        return new double[]{latitude - latitudeDelta, longitude - longitudeDelta,
+                latitude + latitudeDelta, longitude + longitudeDelta};
+    }
+
+    /**
+     * @return true if the nearest point of the tile lies within the circle
+     */
+    private boolean touches(int row, int column, double latitude, double longitude, double radiusMeters) {
+        double nearestLatitude = Math.max(row * tileDegrees, Math.min(latitude, (row + 1) * tileDegrees));
+        double nearestLongitude = Math.max(column * tileDegrees, Math.min(longitude, (column + 1) * tileDegrees));
+        double dy = nearestLatitude - latitude;
+        double dx = (nearestLongitude - longitude) * Math.cos(Math.toRadians(latitude));
+        double radiusDegrees = radiusMeters / GeoUtils.METERS_PER_DEGREE;
+        return dx * dx + dy * dy <= radiusDegrees * radiusDegrees;
+    }
+
+    /**
+     * @return true if the farthest corner of the tile lies within the circle
+     */
+    private boolean isInside(int row, int column, double latitude, double longitude, double radiusMeters) {
+        double dy = Math.max(Math.abs(row * tileDegrees - latitude), Math.abs((row + 1) * tileDegrees - latitude));
+        double dx = Math.max(Math.abs(column * tileDegrees - longitude), Math.abs((column + 1) * tileDegrees - longitude))
+                * Math.cos(Math.toRadians(latitude));
+        double radiusDegrees = radiusMeters / GeoUtils.METERS_PER_DEGREE;
+        return dx * dx + dy * dy <= radiusDegrees * radiusDegrees;
+    }
+
+    private int tile(double degrees) {
+        return (int) Math.floor(degrees / tileDegrees);
+    }
+
+    private static long key(int row, int column) {
+        return (long) row << 32 | (column & 0xffffffffL);
+    }
+}
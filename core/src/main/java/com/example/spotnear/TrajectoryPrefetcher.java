@@ -0,0 +1,316 @@
+package com.example.spotnear;
+
+import java.util.Locale;
+
+/**
+ * Predicts where a moving device will be at its next search, so the POIs there can be fetched
+ * while the radio is already awake and that search answered locally.
+ * <p>
+ * Speed and bearing come from the displacement between the newest fix and the oldest one within
+ * {@link #TRACK_WINDOW_MILLIS} of it, which smooths out the jitter of single fixes. The target is
+ * the newest fix carried forward along that velocity to the time of the next search, and its
+ * error a fraction of the distance to it, by which the radius to prefetch grows. Searches
+ * further ahead than the horizon are not predicted.
+ * <p>
+ * The first search after a prefetch resolves it: a hit if the search circle lies inside the
+ * target, a miss otherwise. Each consecutive miss doubles how long predictions are withheld, and
+ * a hit ends the backoff. The bytes prefetched count against a daily data budget;
+ * nothing is predicted once it is spent, so it is exceeded by at most one response. Used bytes,
+ * hits and misses are saved to a {@link Store} so they survive process restarts.
+ * <p>
+ * Fixes and predictions use the elapsed realtime clock of the fixes, the budget uses the wall
+ * clock of its days.
+ */
+public class TrajectoryPrefetcher implements LocationAcquirer.TrackListener {
+    /**
+     * Persists the budget and the hit counts between process restarts
+     */
+    public interface Store {
+        /**
+         * @return The saved state, or null if nothing was saved yet
+         */
+        long[] loadPrefetchState();
+
+        /**
+         * Save the state returned by a later {@link #loadPrefetchState()}
+         */
+        void savePrefetchState(long[] state);
+    }
+
+    public static final long DEFAULT_HORIZON_MILLIS = 15 * 60 * 1000L;
+    public static final long DEFAULT_DAILY_BUDGET_BYTES = 512 * 1024;
+    // Fixes older than this before the newest don't count towards the velocity; as long as a
+    // batch of fixes may be held back, so the fix of a search still has one to pair with
+    public static final long TRACK_WINDOW_MILLIS = 15 * 60 * 1000L;
+    // Shortest span of fixes a velocity is estimated from
+    public static final long MIN_TRACK_MILLIS = 30 * 1000L;
+    // Fraction of the predicted distance added to the target radius
+    public static final double PREDICTION_ERROR = 0.25;
+    // Largest factor consecutive misses stretch the backoff by
+    public static final int MAX_BACKOFF_FACTOR = 16;
+
+    private static final int TRACK_SIZE = 32;
+    private static final int STATE_DAY = 0;
+    private static final int STATE_USED_TODAY = 1;
+    private static final int STATE_TOTAL_BYTES = 2;
+    private static final int STATE_HITS = 3;
+    private static final int STATE_MISSES = 4;
+    private static final int STATE_SIZE = 5;
+
+    private final Store store;
+    private final long horizonMillis;
+    private final long dailyBudgetBytes;
+
+    // Ring of the newest fixes in time order
+    private final LocationFix[] track = new LocationFix[TRACK_SIZE];
+    private int trackCount;
+    private int trackEnd;
+
+    // Velocity of the last estimate, meters per second to the north and east
+    private double northSpeed;
+    private double eastSpeed;
+
+    private boolean pending;
+    private double targetLatitude;
+    private double targetLongitude;
+    private double targetRadius;
+    private int consecutiveMisses;
+    private long backoffUntil;
+
+    private long day;
+    private long usedTodayBytes;
+    private long totalBytes;
+    private long hitCount;
+    private long missCount;
+
+    /**
+     * Create a prefetcher with the default horizon and budget
+     */
+    public TrajectoryPrefetcher(Store store) {
+        this(store, DEFAULT_HORIZON_MILLIS, DEFAULT_DAILY_BUDGET_BYTES);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param store            Persists the budget and the hit counts
+     * @param horizonMillis    How far ahead the device may be predicted
+     * @param dailyBudgetBytes The bytes that may be prefetched per day
+     */
+    public TrajectoryPrefetcher(Store store, long horizonMillis, long dailyBudgetBytes) {
+        this.store = store;
+        this.horizonMillis = horizonMillis;
+        this.dailyBudgetBytes = dailyBudgetBytes;
+        long[] state = store.loadPrefetchState();
+        if (state != null && state.length == STATE_SIZE) {
+            day = state[STATE_DAY];
+            usedTodayBytes = state[STATE_USED_TODAY];
+            totalBytes = state[STATE_TOTAL_BYTES];
+            hitCount = state[STATE_HITS];
+            missCount = state[STATE_MISSES];
+        }
+    }
+
+    @Override
+    public synchronized void onFix(LocationFix fix) {
+        if (trackCount > 0 && fix.getElapsedMillis() <= newest().getElapsedMillis()) {
+            return;
+        }
+        track[trackEnd] = fix;
+        trackEnd = (trackEnd + 1) % TRACK_SIZE;
+        trackCount = Math.min(trackCount + 1, TRACK_SIZE);
+    }
+
+    /**
+     * Predict where the next search will be
+     *
+     * @param aheadMillis   The time until the next search
+     * @param elapsedMillis The current time on the elapsed realtime clock
+     * @param nowMillis     The current wall clock time
+     * @return Latitude, longitude and the error of the prediction in meters, to add to the search
+     * radius; null if the next search is beyond the horizon, the device isn't moving steadily,
+     * predictions are backing off or the budget is spent
+     */
+    public synchronized double[] predict(long aheadMillis, long elapsedMillis, long nowMillis) {
+        if (aheadMillis > horizonMillis || elapsedMillis < backoffUntil || getRemainingBytes(nowMillis) <= 0
+                || !estimateVelocity(elapsedMillis)) {
+            return null;
+        }
+        LocationFix newest = newest();
+        double seconds = (elapsedMillis + aheadMillis - newest.getElapsedMillis()) / 1000.0;
+        double north = northSpeed * seconds;
+        double east = eastSpeed * seconds;
+        double latitude = newest.getLatitude() + north / GeoUtils.METERS_PER_DEGREE;
+        double longitude = newest.getLongitude()
+                + east / (GeoUtils.METERS_PER_DEGREE * Math.max(Math.cos(Math.toRadians(newest.getLatitude())), 1e-6));
+        return new double[]{latitude, longitude, PREDICTION_ERROR * Math.hypot(north, east)};
+    }
+
+    /**
+     * Record a prefetch around a prediction, to be resolved by the next search
+     *
+     * @param latitude     The latitude of the prediction
+     * @param longitude    The longitude of the prediction
+     * @param radiusMeters The radius prefetched, the search radius plus the error
+     * @param bytes        The size of the response
+     * @param nowMillis    The current wall clock time
+     */
+    public synchronized void onPrefetched(double latitude, double longitude, double radiusMeters, long bytes,
+                                          long nowMillis) {
+        pending = true;
+        targetLatitude = latitude;
+        targetLongitude = longitude;
+        targetRadius = radiusMeters;
+        rollDay(nowMillis);
+        usedTodayBytes += bytes;
+        totalBytes += bytes;
+        save();
+    }
+
+    /**
+     * Resolve the pending prefetch with a search
+     *
+     * @param latitude      The latitude of the search
+     * @param longitude     The longitude of the search
+     * @param radius        The search radius in meters
+     * @param elapsedMillis The current time on the elapsed realtime clock
+     * @return true if a prefetch was pending and the search lies inside its target
+     */
+    public synchronized boolean onSearch(double latitude, double longitude, int radius, long elapsedMillis) {
+        if (!pending) {
+            return false;
+        }
+        pending = false;
+        double distance = GeoUtils.distanceMeters(targetLatitude, targetLongitude, latitude, longitude);
+        boolean hit = distance + radius <= targetRadius;
+        if (hit) {
+            hitCount++;
+            consecutiveMisses = 0;
+            backoffUntil = 0;
+        } else {
+            missCount++;
+            consecutiveMisses++;
+            int factor = 1 << Math.min(consecutiveMisses - 1, 30);
+            backoffUntil = elapsedMillis + horizonMillis * Math.min(factor, MAX_BACKOFF_FACTOR);
+        }
+        save();
+        return hit;
+    }
+
+    public synchronized boolean isPending() {
+        return pending;
+    }
+
+    /**
+     * @return The bytes that may still be prefetched today
+     */
+    public synchronized long getRemainingBytes(long nowMillis) {
+        rollDay(nowMillis);
+        return dailyBudgetBytes - usedTodayBytes;
+    }
+
+    /**
+     * @return The speed of the last estimate in meters per second
+     */
+    public synchronized double getSpeedMetersPerSecond() {
+        return Math.hypot(northSpeed, eastSpeed);
+    }
+
+    /**
+     * @return The bearing of the last estimate in degrees clockwise from north
+     */
+    public synchronized double getBearingDegrees() {
+        double bearing = Math.toDegrees(Math.atan2(eastSpeed, northSpeed));
+        return bearing < 0 ? bearing + 360 : bearing;
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * @return The fraction of resolved prefetches that were hits, 0 if none was resolved
+     */
+    public synchronized double getHitRatio() {
+        long resolved = hitCount + missCount;
+        return resolved > 0 ? hitCount / (double) resolved : 0;
+    }
+
+    /**
+     * @return The bytes prefetched so far, across restarts
+     */
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public synchronized String describeStats(long nowMillis) {
+        rollDay(nowMillis);
+        return String.format(Locale.US, "%d hits, %d misses (%.0f%% hits), %d of %d bytes today, %d in total",
+                hitCount, missCount, 100 * getHitRatio(), usedTodayBytes, dailyBudgetBytes, totalBytes);
+    }
+
+    /**
+     * Estimate the velocity from the fixes within the track window of the newest
+     *
+     * @return true if the device moves steadily enough to predict
+     */
+    private boolean estimateVelocity(long elapsedMillis) {
+        if (trackCount < 2) {
+            return false;
+        }
+        LocationFix newest = newest();
+        if (elapsedMillis - newest.getElapsedMillis() > TRACK_WINDOW_MILLIS) {
+            return false;
+        }
+        LocationFix oldest = newest;
+        for (int i = 2; i <= trackCount; i++) {
+            LocationFix fix = track[(trackEnd - i + TRACK_SIZE) % TRACK_SIZE];
+            if (newest.getElapsedMillis() - fix.getElapsedMillis() > TRACK_WINDOW_MILLIS) {
+                break;
+            }
+            oldest = fix;
+            if (newest.getElapsedMillis() - fix.getElapsedMillis() >= MIN_TRACK_MILLIS) {
+                break;
+            }
+        }
+        long span = newest.getElapsedMillis() - oldest.getElapsedMillis();
+        if (span < MIN_TRACK_MILLIS) {
+            return false;
+        }
+        double north = (newest.getLatitude() - oldest.getLatitude()) * GeoUtils.METERS_PER_DEGREE;
+        double east = (newest.getLongitude() - oldest.getLongitude()) * GeoUtils.METERS_PER_DEGREE
+                * Math.cos(Math.toRadians(newest.getLatitude()));
+        double distance = Math.hypot(north, east);
+        northSpeed = north * 1000 / span;
+        eastSpeed = east * 1000 / span;
+        // Jitter within the accuracy of the fixes isn't movement
+        return distance > Math.max(oldest.getAccuracyMeters(), newest.getAccuracyMeters())
+                && distance * 1000 / span >= LocationAcquirer.MOVING_SPEED;
+    }
+
+    private LocationFix newest() {
+        return track[(trackEnd - 1 + TRACK_SIZE) % TRACK_SIZE];
+    }
+
+    private void rollDay(long nowMillis) {
+        long today = Math.floorDiv(nowMillis, WakeBudget.DAY_MILLIS);
+        if (today != day) {
+            day = today;
+            usedTodayBytes = 0;
+        }
+    }
+
+    private void save() {
+        long[] state = new long[STATE_SIZE];
+        state[STATE_DAY] = day;
+        state[STATE_USED_TODAY] = usedTodayBytes;
+        state[STATE_TOTAL_BYTES] = totalBytes;
+        state[STATE_HITS] = hitCount;
+        state[STATE_MISSES] = missCount;
+        store.savePrefetchState(state);
+    }
+}
@@ -0,0 +1,274 @@
+package com.example.spotnear;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Accounts for the time the service keeps the device awake, and keeps it within a daily budget.
+ * <p>
+ * Work that needs the CPU opens a {@link Scope} naming its cause and closes it when done. The
+ * lock is acquired when the first scope opens and released when the last one closes; the time in
+ * between is one cycle. Cycle time counts against the budget of the current day, and scopes can
+ * no longer be opened once it is spent. The lock is always acquired with a timeout no longer than
+ * the remaining budget, so a scope that is never closed cannot overrun it. Used and cumulative
+ * wake time are saved to a {@link Store} so they survive process restarts.
+ */
+public class WakeBudget {
+    /**
+     * The wakelock being accounted for
+     */
+    public interface Lock {
+        void acquire(long timeoutMillis);
+
+        void release();
+
+        boolean isHeld();
+    }
+
+    /**
+     * Persists the accounting between process restarts
+     */
+    public interface Store {
+        /**
+         * @return The saved state, or null if nothing was saved yet
+         */
+        long[] loadWakeState();
+
+        /**
+         * Save the state returned by a later {@link #loadWakeState()}
+         */
+        void saveWakeState(long[] state);
+    }
+
+    public static final long DAY_MILLIS = 24 * 60 * 60 * 1000L;
+    // Longest a search may keep the device awake
+    public static final long DEFAULT_MAX_HOLD_MILLIS = 10 * 60 * 1000L;
+
+    private static final int STATE_DAY = 0;
+    private static final int STATE_USED_TODAY = 1;
+    private static final int STATE_TOTAL = 2;
+    private static final int STATE_CYCLES = 3;
+    private static final int STATE_SIZE = 4;
+
+    private final Lock lock;
+    private final Store store;
+    private final long maxHoldMillis;
+    private long dailyBudgetMillis;
+
+    private final List<Scope> open = new ArrayList<>();
+    private long cycleStart;
+    private long cycleTimeout;
+
+    private long day;
+    private long usedTodayMillis;
+    private long totalMillis;
+    private long cycleCount;
+    private long lastCycleMillis;
+    private long maxCycleMillis;
+    private long deniedCount;
+    // Time and scope count per cause, in insertion order for logging
+    private final Map<String, long[]> causes = new LinkedHashMap<>();
+
+    /**
+     * Constructor
+     *
+     * @param lock              The wakelock, acquired and released once per cycle
+     * @param store             Persists the accounting
+     * @param dailyBudgetMillis The wake time allowed per day
+     * @param maxHoldMillis     The longest a single cycle may hold the lock
+     */
+    public WakeBudget(Lock lock, Store store, long dailyBudgetMillis, long maxHoldMillis) {
+        this.lock = lock;
+        this.store = store;
+        this.dailyBudgetMillis = dailyBudgetMillis;
+        this.maxHoldMillis = maxHoldMillis;
+        long[] state = store.loadWakeState();
+        if (state != null && state.length == STATE_SIZE) {
+            day = state[STATE_DAY];
+            usedTodayMillis = state[STATE_USED_TODAY];
+            totalMillis = state[STATE_TOTAL];
+            cycleCount = state[STATE_CYCLES];
+        }
+    }
+
+    /**
+     * Change the wake time allowed per day
+     */
+    public synchronized void setDailyBudgetMillis(long dailyBudgetMillis) {
+        this.dailyBudgetMillis = dailyBudgetMillis;
+    }
+
+    /**
+     * Keep the device awake for some work
+     *
+     * @param cause     What the work is, for accounting
+     * @param nowMillis The current time in milliseconds
+     * @return The scope to close when the work is done, or null if the daily budget is spent
+     */
+    public synchronized Scope open(String cause, long nowMillis) {
+        long remaining = getRemainingMillis(nowMillis);
+        if (remaining <= 0) {
+            deniedCount++;
+            return null;
+        }
+        if (open.isEmpty()) {
+            cycleStart = nowMillis;
+            cycleTimeout = Math.min(maxHoldMillis, remaining);
+            lock.acquire(cycleTimeout);
+        }
+        Scope scope = new Scope(cause, nowMillis);
+        open.add(scope);
+        return scope;
+    }
+
+    /**
+     * Close every open scope and release the lock, e.g. when the service stops
+     *
+     * @param nowMillis The current time in milliseconds
+     * @return The number of scopes that were still open
+     */
+    public int closeAll(long nowMillis) {
+        List<Scope> scopes;
+        synchronized (this) {
+            scopes = new ArrayList<>(open);
+        }
+        for (Scope scope : scopes) {
+            scope.close(nowMillis);
+        }
+        return scopes.size();
+    }
+
+    public synchronized int getOpenCount() {
+        return open.size();
+    }
+
+    /**
+     * @return The wake time left today in milliseconds
+     */
+    public synchronized long getRemainingMillis(long nowMillis) {
+        rollDay(nowMillis);
+        return dailyBudgetMillis - usedTodayMillis;
+    }
+
+    public synchronized long getUsedTodayMillis(long nowMillis) {
+        rollDay(nowMillis);
+        return usedTodayMillis;
+    }
+
+    /**
+     * @return The wake time of every cycle so far, across restarts, in seconds
+     */
+    public synchronized double getTotalWakeSeconds() {
+        return totalMillis / 1000.0;
+    }
+
+    public synchronized long getCycleCount() {
+        return cycleCount;
+    }
+
+    public synchronized long getLastCycleMillis() {
+        return lastCycleMillis;
+    }
+
+    public synchronized long getMaxCycleMillis() {
+        return maxCycleMillis;
+    }
+
+    /**
+     * @return The number of scopes refused because the budget was spent
+     */
+    public synchronized long getDeniedCount() {
+        return deniedCount;
+    }
+
+    /**
+     * @return The time scopes of a cause were open in milliseconds; overlapping scopes each count
+     */
+    public synchronized long getCauseMillis(String cause) {
+        long[] stats = causes.get(cause);
+        return stats == null ? 0 : stats[0];
+    }
+
+    public synchronized String describeStats(long nowMillis) {
+        rollDay(nowMillis);
+        StringBuilder description = new StringBuilder()
+                .append(cycleCount).append(" wake cycles, ").append(totalMillis / 1000).append(" s in total, ")
+                .append(usedTodayMillis / 1000).append(" of ").append(dailyBudgetMillis / 1000).append(" s today, ")
+                .append("last ").append(lastCycleMillis).append(" ms, max ").append(maxCycleMillis).append(" ms, ")
+                .append(deniedCount).append(" denied");
+        for (Map.Entry<String, long[]> cause : causes.entrySet()) {
+            description.append("; ").append(cause.getKey()).append(' ').append(cause.getValue()[1])
+                    .append(" x ").append(cause.getValue()[0]).append(" ms");
+        }
+        return description.toString();
+    }
+
+    private void rollDay(long nowMillis) {
+        long today = Math.floorDiv(nowMillis, DAY_MILLIS);
+        if (today != day) {
+            day = today;
+            usedTodayMillis = 0;
+        }
+    }
+
+    private synchronized void close(Scope scope, long nowMillis) {
+        if (!open.remove(scope)) {
+            return;
+        }
+        long[] stats = causes.get(scope.cause);
+        if (stats == null) {
+            stats = new long[2];
+            causes.put(scope.cause, stats);
+        }
+        stats[0] += Math.max(0, nowMillis - scope.openedAt);
+        stats[1]++;
+        if (!open.isEmpty()) {
+            return;
+        }
+        if (lock.isHeld()) {
+            lock.release();
+        }
+        // The lock timed out by itself if the cycle ran past its timeout
+        long held = Math.min(Math.max(0, nowMillis - cycleStart), cycleTimeout);
+        rollDay(nowMillis);
+        usedTodayMillis += held;
+        totalMillis += held;
+        cycleCount++;
+        lastCycleMillis = held;
+        maxCycleMillis = Math.max(maxCycleMillis, held);
+        long[] state = new long[STATE_SIZE];
+        state[STATE_DAY] = day;
+        state[STATE_USED_TODAY] = usedTodayMillis;
+        state[STATE_TOTAL] = totalMillis;
+        state[STATE_CYCLES] = cycleCount;
+        store.saveWakeState(state);
+    }
+
+    /**
+     * One piece of work keeping the device awake
+     */
+    public final class Scope {
+        private final String cause;
+        private final long openedAt;
+
+        private Scope(String cause, long openedAt) {
+            this.cause = cause;
+            this.openedAt = openedAt;
+        }
+
+        public String getCause() {
+            return cause;
+        }
+
+        /**
+         * End the work, releasing the lock if no other scope is open. Closing twice does nothing.
+         *
+         * @param nowMillis The current time in milliseconds
+         */
+        public void close(long nowMillis) {
+            WakeBudget.this.close(this, nowMillis);
+        }
+    }
+}
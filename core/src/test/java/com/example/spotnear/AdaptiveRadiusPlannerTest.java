@@ -0,0 +1,82 @@
+package com.example.spotnear;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import okio.Buffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the radius choices and density learning of {@link AdaptiveRadiusPlanner}
+ */
+public class AdaptiveRadiusPlannerTest {
+    private static final double CITY_LATITUDE = 32.08;
+    private static final double CITY_LONGITUDE = 34.78;
+    private static final double VILLAGE_LATITUDE = 30.6;
+    private static final double VILLAGE_LONGITUDE = 34.8;
+
+    @Test
+    public void unknownArea_startsSmallAndGrowsGeometrically() {
+        AdaptiveRadiusPlanner planner = new AdaptiveRadiusPlanner(50, 250);
+
+        assertEquals(250, planner.initialRadius(VILLAGE_LATITUDE, VILLAGE_LONGITUDE, 4000));
+        assertEquals(500, planner.nextRadius(250, 0, false, 4000));
+        assertEquals(4000, planner.nextRadius(2500, 10, false, 4000));
+        assertEquals(-1, planner.nextRadius(4000, 10, false, 4000));
+        // Enough POIs, or a truncated response, ends the search
+        assertEquals(-1, planner.nextRadius(500, 50, false, 4000));
+        assertEquals(-1, planner.nextRadius(500, 20, true, 4000));
+    }
+
+    @Test
+    public void learnedDensity_setsTheStartingRadius() {
+        AdaptiveRadiusPlanner planner = new AdaptiveRadiusPlanner(50, 250);
+        // A city centre: 200 POIs within 500 m, cut at the server limit
+        planner.record(CITY_LATITUDE, CITY_LONGITUDE, 500, 200, true);
+        // The countryside: 12 POIs within 4 km
+        planner.record(VILLAGE_LATITUDE, VILLAGE_LONGITUDE, 4000, 12, false);
+
+        assertEquals(255, planner.getDensityPerSquareKm(CITY_LATITUDE, CITY_LONGITUDE), 1);
+        assertEquals(250, planner.initialRadius(CITY_LATITUDE, CITY_LONGITUDE, 4000));
+        assertEquals(4000, planner.initialRadius(VILLAGE_LATITUDE, VILLAGE_LONGITUDE, 4000));
+        assertTrue(Double.isNaN(planner.getDensityPerSquareKm(0, 0)));
+    }
+
+    @Test
+    public void record_averagesCompleteResponsesAndRaisesOnTruncated() {
+        AdaptiveRadiusPlanner planner = new AdaptiveRadiusPlanner(50, 100);
+        double area = Math.PI * 1000 * 1000 / 1e6;
+        planner.record(CITY_LATITUDE, CITY_LONGITUDE, 1000, 100, false);
+        planner.record(CITY_LATITUDE, CITY_LONGITUDE, 1000, 50, false);
+        assertEquals(75 / area, planner.getDensityPerSquareKm(CITY_LATITUDE, CITY_LONGITUDE), 1e-9);
+
+        // A truncated count is a lower bound: it can raise the estimate, never lower it
+        planner.record(CITY_LATITUDE, CITY_LONGITUDE, 1000, 20, true);
+        assertEquals(75 / area, planner.getDensityPerSquareKm(CITY_LATITUDE, CITY_LONGITUDE), 1e-9);
+        planner.record(CITY_LATITUDE, CITY_LONGITUDE, 1000, 200, true);
+        assertEquals(200 / area, planner.getDensityPerSquareKm(CITY_LATITUDE, CITY_LONGITUDE), 1e-9);
+
+        // 50 POIs at about 63.7 per km2 fit in a radius of about 500 m
+        assertEquals(500, planner.initialRadius(CITY_LATITUDE, CITY_LONGITUDE, 4000));
+    }
+
+    @Test
+    public void densities_surviveWriteAndRead() throws IOException {
+        AdaptiveRadiusPlanner planner = new AdaptiveRadiusPlanner(50, 250);
+        planner.record(CITY_LATITUDE, CITY_LONGITUDE, 500, 120, false);
+        planner.record(VILLAGE_LATITUDE, VILLAGE_LONGITUDE, 2000, 3, false);
+        Buffer buffer = new Buffer();
+        planner.writeTo(buffer);
+
+        AdaptiveRadiusPlanner restored = new AdaptiveRadiusPlanner(50, 250);
+        restored.read(buffer);
+
+        assertEquals(2, restored.size());
+        assertEquals(planner.getDensityPerSquareKm(CITY_LATITUDE, CITY_LONGITUDE),
+                restored.getDensityPerSquareKm(CITY_LATITUDE, CITY_LONGITUDE), 0);
+        assertEquals(planner.initialRadius(VILLAGE_LATITUDE, VILLAGE_LONGITUDE, 4000),
+                restored.initialRadius(VILLAGE_LATITUDE, VILLAGE_LONGITUDE, 4000));
+    }
+}
@@ -0,0 +1,60 @@
+package com.example.spotnear;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that {@link BulkPrefetchPlanner} downloads the learned areas only on an unmetered network
+ * while charging, and again only once their packs are old
+ */
+public class BulkPrefetchPlannerTest {
+    private static final long SATURDAY = FrequentAreaLearnerTest.DAY0 + 5 * WakeBudget.DAY_MILLIS;
+
+    @Test
+    public void meteredOrOnBattery_fetchesNothing() {
+        BulkPrefetchPlanner planner = new BulkPrefetchPlanner();
+        List<FrequentAreaLearner.Area> areas = FrequentAreaLearnerTest.workWeek(
+                new FrequentAreaLearnerTest.MemoryStore()).getFrequentAreas(SATURDAY);
+
+        assertTrue(planner.plan(areas, false, true, SATURDAY).isEmpty());
+        assertTrue(planner.plan(areas, true, false, SATURDAY).isEmpty());
+        assertTrue(planner.plan(areas, false, false, SATURDAY).isEmpty());
+        assertFalse(planner.canRun(false, true));
+        assertFalse(planner.canRun(true, false));
+        assertTrue(planner.canRun(true, true));
+    }
+
+    @Test
+    public void newAreas_areDueMostFrequentedFirst() {
+        List<FrequentAreaLearner.Area> areas = FrequentAreaLearnerTest.workWeek(
+                new FrequentAreaLearnerTest.MemoryStore()).getFrequentAreas(SATURDAY);
+
+        List<FrequentAreaLearner.Area> due = new BulkPrefetchPlanner().plan(areas, true, true, SATURDAY);
+        List<FrequentAreaLearner.Area> limited = new BulkPrefetchPlanner(BulkPrefetchPlanner.DEFAULT_REFRESH_MILLIS, 1)
+                .plan(areas, true, true, SATURDAY);
+
+        assertEquals(areas, due);
+        assertEquals(1, limited.size());
+        assertSame(areas.get(0), limited.get(0));
+    }
+
+    @Test
+    public void fetchedAreas_areDueAgainOnceTheirPacksAreOld() {
+        BulkPrefetchPlanner planner = new BulkPrefetchPlanner();
+        FrequentAreaLearner learner = FrequentAreaLearnerTest.workWeek(new FrequentAreaLearnerTest.MemoryStore());
+        List<FrequentAreaLearner.Area> areas = learner.getFrequentAreas(SATURDAY);
+        learner.onFetched(areas.get(0), SATURDAY);
+
+        List<FrequentAreaLearner.Area> due = planner.plan(learner.getFrequentAreas(SATURDAY), true, true, SATURDAY);
+
+        assertEquals(1, due.size());
+        assertEquals(areas.get(1).getName(), due.get(0).getName());
+        long weekLater = SATURDAY + BulkPrefetchPlanner.DEFAULT_REFRESH_MILLIS;
+        // Another weekday keeps the home frequent past its refresh
+        FrequentAreaLearnerTest.weekday(learner, weekLater - WakeBudget.DAY_MILLIS);
+        assertEquals(2, planner.plan(learner.getFrequentAreas(weekLater), true, true, weekLater).size());
+    }
+}
@@ -0,0 +1,141 @@
+package com.example.spotnear;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okio.Buffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that {@link CycleMetrics} keeps accurate percentiles and rows without allocating
+ */
+public class CycleMetricsTest {
+
+    @Test
+    public void histogramPercentiles_stayWithinBucketPrecision() {
+        LogLinearHistogram histogram = new LogLinearHistogram();
+        Random random = new Random(1);
+        long[] values = new long[10000];
+        for (int i = 0; i < values.length; i++) {
+            // Latencies spread over four orders of magnitude
+            values[i] = (long) Math.exp(random.nextDouble() * 12);
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+
+        for (double percentile : new double[]{50, 95, 99}) {
+            long exact = values[(int) Math.ceil(percentile / 100 * values.length) - 1];
+            long estimate = histogram.getValueAtPercentile(percentile);
+            assertTrue(percentile + ": " + estimate + " vs " + exact,
+                    estimate >= exact && estimate <= exact + exact / 16 + 1);
+        }
+        assertEquals(values[values.length - 1], histogram.getValueAtPercentile(100));
+        assertEquals(values[0], histogram.getMin());
+    }
+
+    @Test
+    public void buckets_coverTheRangeOfLong() {
+        long previous = -1;
+        for (long value : new long[]{0, 31, 32, 33, 63, 64, 1000, 1L << 40, Long.MAX_VALUE}) {
+            int bucket = LogLinearHistogram.bucketOf(value);
+            assertTrue(value + " above its bucket", value <= LogLinearHistogram.highestValueOf(bucket));
+            assertTrue(value + " below its bucket", bucket == 0 || value > LogLinearHistogram.highestValueOf(bucket - 1));
+            assertTrue(bucket >= previous);
+            previous = bucket;
+        }
+    }
+
+    @Test
+    public void record_doesNotAllocate() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        CycleMetrics metrics = new CycleMetrics(64);
+        // Warm up so the measurement doesn't count class loading
+        metrics.beginCycle();
+        metrics.recordSince(CycleMetrics.PARSE, System.nanoTime());
+        metrics.endCycle();
+
+        long before = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+        for (int cycle = 0; cycle < 1000; cycle++) {
+            metrics.beginCycle();
+            for (int metric = 0; metric < CycleMetrics.METRIC_COUNT; metric++) {
+                metrics.record(metric, cycle * 37L + metric);
+            }
+            metrics.recordSince(CycleMetrics.END_TO_END, System.nanoTime());
+            metrics.endCycle();
+        }
+        long allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+
+        assertTrue("allocated " + allocated + " bytes", allocated < 1024);
+    }
+
+    @Test
+    public void ring_keepsTheLatestCyclesAndRoundTripsAsCsv() throws IOException {
+        CycleMetrics metrics = new CycleMetrics(4);
+        for (int cycle = 0; cycle < 6; cycle++) {
+            metrics.beginCycle();
+            metrics.record(CycleMetrics.ELEMENTS, cycle);
+            if (cycle % 2 == 0) {
+                metrics.record(CycleMetrics.PARSE, 1000 + cycle);
+            }
+            metrics.endCycle();
+        }
+        // A value recorded outside a cycle only counts in the histogram
+        metrics.record(CycleMetrics.ELEMENTS, 100);
+
+        assertEquals(4, metrics.size());
+        assertEquals(2, metrics.get(0, CycleMetrics.ELEMENTS));
+        assertEquals(5, metrics.get(3, CycleMetrics.ELEMENTS));
+        assertEquals(-1, metrics.get(3, CycleMetrics.PARSE));
+        assertEquals(7, metrics.getCount(CycleMetrics.ELEMENTS));
+
+        Buffer buffer = new Buffer();
+        metrics.writeTo(buffer);
+        CycleMetrics loaded = new CycleMetrics(4);
+        loaded.read(buffer);
+
+        assertEquals(4, loaded.size());
+        for (int cycle = 0; cycle < 4; cycle++) {
+            for (int metric = 0; metric < CycleMetrics.METRIC_COUNT; metric++) {
+                assertEquals(metrics.get(cycle, metric), loaded.get(cycle, metric));
+            }
+        }
+        assertTrue(loaded.describe().contains("elements"));
+    }
+
+    @Test
+    public void httpListener_recordsPhasesOfCompletedCalls() throws IOException {
+        MockWebServer server = new MockWebServer();
+        server.enqueue(new MockResponse().setBody("{\"elements\":[]}").setHeadersDelay(100, TimeUnit.MILLISECONDS));
+        server.start();
+        CycleMetrics metrics = new CycleMetrics();
+        OkHttpClient client = new OkHttpClient.Builder()
+                .eventListenerFactory(HttpMetricsListener.factory(metrics))
+                .build();
+        try {
+            metrics.beginCycle();
+            try (Response response = client.newCall(new Request.Builder().url(server.url("/")).build()).execute()) {
+                response.body().string();
+            }
+            metrics.endCycle();
+
+            assertEquals(15, metrics.get(0, CycleMetrics.RESPONSE_BYTES));
+            assertTrue(metrics.get(0, CycleMetrics.TIME_TO_FIRST_BYTE) >= 100_000);
+            assertTrue(metrics.get(0, CycleMetrics.HTTP_TOTAL) >= metrics.get(0, CycleMetrics.TIME_TO_FIRST_BYTE));
+            assertTrue(metrics.get(0, CycleMetrics.CONNECT) >= 0);
+        } finally {
+            server.shutdown();
+            client.dispatcher().executorService().shutdown();
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package com.example.spotnear;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import okio.Buffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that {@link FrequentAreaLearner} finds the areas of synthetic histories that are stayed
+ * in on several days, and not those passed through or visited once
+ */
+public class FrequentAreaLearnerTest {
+    static final long HOUR = 60 * 60 * 1000L;
+    static final long MINUTE = 60 * 1000L;
+    // Midnight of some day
+    static final long DAY0 = 20_000 * WakeBudget.DAY_MILLIS;
+    static final double HOME_LATITUDE = 32.0855;
+    static final double HOME_LONGITUDE = 34.7855;
+    // About 7.5 km east of home
+    static final double WORK_LATITUDE = 32.0855;
+    static final double WORK_LONGITUDE = 34.8655;
+
+    static class MemoryStore implements FrequentAreaLearner.Store {
+        long[] state;
+
+        @Override
+        public long[] loadAreaState() {
+            return state;
+        }
+
+        @Override
+        public void saveAreaState(long[] state) {
+            this.state = state.clone();
+        }
+    }
+
+    /**
+     * Record a weekday sampled like the service does: hourly at home and at work, every 10
+     * minutes along the commute between them
+     */
+    static void weekday(FrequentAreaLearner learner, long midnight) {
+        for (long hour = 0; hour <= 7; hour++) {
+            learner.record(HOME_LATITUDE, HOME_LONGITUDE, midnight + hour * HOUR);
+        }
+        commute(learner, midnight + 8 * HOUR, HOME_LONGITUDE, WORK_LONGITUDE);
+        for (long hour = 9; hour <= 17; hour++) {
+            learner.record(WORK_LATITUDE, WORK_LONGITUDE, midnight + hour * HOUR);
+        }
+        commute(learner, midnight + 18 * HOUR, WORK_LONGITUDE, HOME_LONGITUDE);
+        for (long hour = 19; hour <= 23; hour++) {
+            learner.record(HOME_LATITUDE, HOME_LONGITUDE, midnight + hour * HOUR);
+        }
+    }
+
+    private static void commute(FrequentAreaLearner learner, long start, double fromLongitude, double toLongitude) {
+        for (int i = 1; i < 6; i++) {
+            learner.record(HOME_LATITUDE, fromLongitude + (toLongitude - fromLongitude) * i / 6, start + i * 10 * MINUTE);
+        }
+    }
+
+    static FrequentAreaLearner workWeek(FrequentAreaLearner.Store store) {
+        FrequentAreaLearner learner = new FrequentAreaLearner(store);
+        for (int day = 0; day < 5; day++) {
+            weekday(learner, DAY0 + day * WakeBudget.DAY_MILLIS);
+        }
+        return learner;
+    }
+
+    private static boolean isIn(FrequentAreaLearner.Area area, double latitude, double longitude) {
+        double[] bounds = area.getBounds(0);
+        return latitude >= bounds[0] && longitude >= bounds[1] && latitude < bounds[2] && longitude < bounds[3];
+    }
+
+    @Test
+    public void workWeek_learnsHomeAndWork() {
+        FrequentAreaLearner learner = workWeek(new MemoryStore());
+
+        List<FrequentAreaLearner.Area> areas = learner.getFrequentAreas(DAY0 + 5 * WakeBudget.DAY_MILLIS);
+
+        assertEquals(learner.describeStats(DAY0), 2, areas.size());
+        // Home has the nights too
+        assertTrue(isIn(areas.get(0), HOME_LATITUDE, HOME_LONGITUDE));
+        assertTrue(isIn(areas.get(1), WORK_LATITUDE, WORK_LONGITUDE));
+        assertTrue(areas.get(0).getDwellMillis() > areas.get(1).getDwellMillis());
+        assertEquals(5, areas.get(1).getDayCount());
+        assertEquals(0, areas.get(0).getFetchedMillis());
+        // The commute passes through cells without staying in any
+        assertEquals(2, learner.size());
+    }
+
+    @Test
+    public void oneNightAway_isNotFrequent() {
+        FrequentAreaLearner learner = workWeek(new MemoryStore());
+        long saturday = DAY0 + 5 * WakeBudget.DAY_MILLIS;
+        for (long hour = 0; hour <= 12; hour++) {
+            learner.record(32.5055, 35.0055, saturday + 20 * HOUR + hour * HOUR);
+        }
+
+        List<FrequentAreaLearner.Area> areas = learner.getFrequentAreas(saturday + 2 * WakeBudget.DAY_MILLIS);
+
+        assertEquals(3, learner.size());
+        assertEquals(2, areas.size());
+        for (FrequentAreaLearner.Area area : areas) {
+            assertFalse(isIn(area, 32.5055, 35.0055));
+        }
+    }
+
+    @Test
+    public void areasNoLongerVisited_fadeAway() {
+        FrequentAreaLearner learner = workWeek(new MemoryStore());
+
+        assertEquals(2, learner.getFrequentAreas(DAY0 + 20 * WakeBudget.DAY_MILLIS).size());
+        // The days stayed in have left the window
+        assertTrue(learner.getFrequentAreas(DAY0 + 40 * WakeBudget.DAY_MILLIS).isEmpty());
+    }
+
+    @Test
+    public void learning_survivesRestarts() {
+        MemoryStore store = new MemoryStore();
+        FrequentAreaLearner learner = workWeek(store);
+        List<FrequentAreaLearner.Area> before = learner.getFrequentAreas(DAY0 + 5 * WakeBudget.DAY_MILLIS);
+        learner.onFetched(before.get(1), DAY0 + 5 * WakeBudget.DAY_MILLIS);
+
+        FrequentAreaLearner restarted = new FrequentAreaLearner(store);
+        // The last sample before the restart pairs with the first after it
+        restarted.record(HOME_LATITUDE, HOME_LONGITUDE, DAY0 + 5 * WakeBudget.DAY_MILLIS);
+        List<FrequentAreaLearner.Area> after = restarted.getFrequentAreas(DAY0 + 5 * WakeBudget.DAY_MILLIS);
+
+        assertEquals(before.get(0).getName(), after.get(0).getName());
+        assertEquals(before.get(0).getDwellMillis() + HOUR, after.get(0).getDwellMillis());
+        assertEquals(DAY0 + 5 * WakeBudget.DAY_MILLIS, after.get(1).getFetchedMillis());
+    }
+
+    @Test
+    public void longGaps_countOnlyUpToTheMaximum() {
+        FrequentAreaLearner learner = new FrequentAreaLearner(new MemoryStore());
+        for (int day = 0; day < FrequentAreaLearner.MIN_DAYS; day++) {
+            long midnight = DAY0 + day * WakeBudget.DAY_MILLIS;
+            learner.record(HOME_LATITUDE, HOME_LONGITUDE, midnight);
+            learner.record(HOME_LATITUDE, HOME_LONGITUDE, midnight + 10 * HOUR);
+        }
+
+        List<FrequentAreaLearner.Area> areas = learner.getFrequentAreas(DAY0 + 2 * WakeBudget.DAY_MILLIS);
+
+        // Each night counts as a few hours, and so does each day in between, decayed a little since
+        assertEquals(1, areas.size());
+        assertTrue(areas.get(0).getDwellMillis() <= 5 * FrequentAreaLearner.MAX_GAP_MILLIS);
+        assertTrue(areas.get(0).getDwellMillis() > 4.5 * FrequentAreaLearner.MAX_GAP_MILLIS);
+    }
+
+    @Test
+    public void trackedCells_areBoundedKeepingTheLongestStays() {
+        FrequentAreaLearner learner = workWeek(new MemoryStore());
+        long time = DAY0 + 5 * WakeBudget.DAY_MILLIS;
+        for (int i = 0; i < 2 * FrequentAreaLearner.MAX_CELLS; i++) {
+            double latitude = 31.0055 + i * FrequentAreaLearner.CELL_DEGREES;
+            learner.record(latitude, 34.0055, time);
+            learner.record(latitude, 34.0055, time + MINUTE);
+            time += HOUR;
+        }
+
+        assertEquals(FrequentAreaLearner.MAX_CELLS, learner.size());
+        assertEquals(2, learner.getFrequentAreas(time).size());
+    }
+
+    @Test
+    public void areaPack_coversSearchesAnywhereInTheArea() throws IOException {
+        FrequentAreaLearner.Area area = workWeek(new MemoryStore()).getFrequentAreas(DAY0).get(0);
+        double[] bounds = area.getBounds(1000);
+        String response = OverpassFixtures.json(2000, 1);
+        RegionPackBuilder builder = new RegionPackBuilder(PoiCategory.DEFAULTS)
+                .setBounds(bounds[0], bounds[1], bounds[2], bounds[3]);
+        new OverpassStreamParser().parse(new Buffer().writeUtf8(response), builder);
+        Buffer packBytes = new Buffer();
+        builder.write(packBytes);
+        long size = packBytes.size();
+
+        RegionPack pack = new RegionPack(ByteBuffer.wrap(packBytes.readByteArray()));
+
+        // Every corner of the cell, with the margin as the radius
+        double[] cell = area.getBounds(0);
+        for (int corner = 0; corner < 4; corner++) {
+            double latitude = corner < 2 ? cell[0] : cell[2];
+            double longitude = corner % 2 == 0 ? cell[1] : cell[3];
+            assertTrue("corner " + corner, pack.covers(latitude, longitude, 999));
+            assertFalse("corner " + corner, pack.covers(latitude, longitude, 1500));
+        }
+        assertTrue(pack.covers(area.getCenterLatitude(), area.getCenterLongitude(), 1400));
+        assertTrue(String.valueOf(builder.size()), builder.size() > 0);
+        assertTrue(size + " of " + response.length(), size * 4 < response.length());
+    }
+}
@@ -0,0 +1,74 @@
+package com.example.spotnear;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks {@link Geohash} against known vectors, and its neighbours across the equator and the
+ * antimeridian
+ */
+public class GeohashTest {
+    @Test
+    public void encode_matchesKnownVectors() {
+        assertEquals("u4pruydqq", Geohash.encode(57.64911, 10.40744, 9));
+        assertEquals("ezs42", Geohash.encode(42.605, -5.603, 5));
+        assertEquals("s0000", Geohash.encode(0.01, 0.01, 5));
+        assertEquals("kpbpb", Geohash.encode(-0.01, 0.01, 5));
+        assertEquals("u", Geohash.encode(57.64911, 10.40744, 1));
+    }
+
+    @Test
+    public void decode_containsTheEncodedPoint() {
+        double[] bounds = Geohash.decodeBounds("ezs42");
+
+        assertEquals(42.583, bounds[0], 1e-3);
+        assertEquals(-5.625, bounds[1], 1e-3);
+        assertEquals(42.627, bounds[2], 1e-3);
+        assertEquals(-5.581, bounds[3], 1e-3);
+        double[] precise = Geohash.decodeBounds("u4pruydqq");
+        assertTrue(precise[0] <= 57.64911 && 57.64911 < precise[2]);
+        assertTrue(precise[1] <= 10.40744 && 10.40744 < precise[3]);
+        assertEquals(Geohash.tileHeightMeters(9), (precise[2] - precise[0]) * GeoUtils.METERS_PER_DEGREE, 1e-6);
+    }
+
+    @Test
+    public void neighbors_crossTheEquator() {
+        assertEquals("kpbpb", Geohash.neighbor("s0000", -1, 0));
+        assertEquals("s0000", Geohash.neighbor("kpbpb", 1, 0));
+        assertEquals("ebpbp", Geohash.neighbor("s0000", 0, -1));
+        assertEquals("s0000", Geohash.neighbor("s0000", 0, 0));
+    }
+
+    @Test
+    public void neighbors_wrapAroundTheAntimeridian() {
+        String east = Geohash.encode(10, 179.99, 5);
+        String west = Geohash.encode(10, -179.99, 5);
+
+        assertEquals("xczbz", east);
+        assertEquals("81b0b", west);
+        assertEquals(west, Geohash.neighbor(east, 0, 1));
+        assertEquals(east, Geohash.neighbor(west, 0, -1));
+    }
+
+    @Test
+    public void neighbors_stopAtThePoles() {
+        assertNull(Geohash.neighbor(Geohash.encode(89.99, 0, 3), 1, 0));
+        assertNull(Geohash.neighbor(Geohash.encode(-89.99, 0, 3), -1, 0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void decode_rejectsInvalidCharacters() {
+        Geohash.decodeBounds("ezs4a");
+    }
+
+    @Test
+    public void tileSizes_shrinkWithPrecision() {
+        assertEquals(7, PoiCache.precisionForRadius(1000));
+        for (int precision = Geohash.MIN_PRECISION; precision < Geohash.MAX_PRECISION; precision++) {
+            assertTrue(Geohash.tileWidthMeters(precision + 1) < Geohash.tileWidthMeters(precision));
+            assertTrue(Geohash.tileHeightMeters(precision + 1) < Geohash.tileHeightMeters(precision));
+        }
+        assertEquals(Geohash.MAX_PRECISION, Geohash.precisionForTileSize(0.1));
+    }
+}
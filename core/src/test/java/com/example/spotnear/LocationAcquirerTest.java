@@ -0,0 +1,190 @@
+package com.example.spotnear;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that {@link LocationAcquirer} takes the cheapest fix fresh enough for the search radius
+ */
+public class LocationAcquirerTest {
+    private static final double LATITUDE = 32.0853;
+    private static final double LONGITUDE = 34.7818;
+    // About 11 meters of latitude
+    private static final double STEP = 0.0001;
+
+    /**
+     * A location source answering from fields and recording what was asked of it
+     */
+    static class FakeSource implements LocationSource {
+        LocationFix lastFix;
+        LocationFix activeFix;
+        int lastFixRequests;
+        int activeFixRequests;
+        final List<String> subscriptions = new ArrayList<>();
+        long maxDelayMillis;
+
+        @Override
+        public void getLastFix(Callback callback) {
+            lastFixRequests++;
+            callback.onFix(lastFix);
+        }
+
+        @Override
+        public void requestActiveFix(Callback callback) {
+            activeFixRequests++;
+            callback.onFix(activeFix);
+        }
+
+        @Override
+        public void requestPassiveUpdates(UpdateListener listener) {
+            subscriptions.add("passive");
+        }
+
+        @Override
+        public void requestBatchedUpdates(long intervalMillis, long maxDelayMillis, UpdateListener listener) {
+            this.maxDelayMillis = maxDelayMillis;
+            subscriptions.add("batched");
+        }
+
+        @Override
+        public void removeUpdates(UpdateListener listener) {
+            subscriptions.add("removed");
+        }
+    }
+
+    /**
+     * Keeps the fix a request was answered with
+     */
+    static class Result implements LocationSource.Callback {
+        LocationFix fix;
+        int calls;
+
+        @Override
+        public void onFix(LocationFix fix) {
+            this.fix = fix;
+            calls++;
+        }
+
+        @Override
+        public void onError(Exception e) {
+            calls++;
+        }
+    }
+
+    private static LocationFix fix(double latitude, float accuracy, float speed, long elapsedMillis) {
+        return new LocationFix(latitude, LONGITUDE, accuracy, speed, elapsedMillis);
+    }
+
+    @Test
+    public void freshUpdate_isReusedWithoutTurningOnSensors() {
+        FakeSource source = new FakeSource();
+        LocationAcquirer acquirer = new LocationAcquirer(source, 0.25, 60_000, 300_000);
+        acquirer.start();
+        acquirer.onFixes(new LocationFix[]{fix(LATITUDE, 20, Float.NaN, 1_000)});
+        Result result = new Result();
+
+        acquirer.acquire(1000, 60_000, result);
+
+        assertNotNull(result.fix);
+        assertEquals(0, source.lastFixRequests);
+        assertEquals(0, source.activeFixRequests);
+        assertEquals(1, acquirer.getReusedCount());
+    }
+
+    @Test
+    public void staleFix_fallsBackToLastKnownThenActive() {
+        FakeSource source = new FakeSource();
+        LocationAcquirer acquirer = new LocationAcquirer(source, 0.25, 60_000, 300_000);
+        source.lastFix = fix(LATITUDE, 30, 0f, 590_000);
+        Result result = new Result();
+
+        acquirer.acquire(1000, 600_000, result);
+
+        assertSame(source.lastFix, result.fix);
+        assertEquals(1, acquirer.getLastKnownCount());
+        assertEquals(0, source.activeFixRequests);
+
+        // An hour later, neither the latest nor the last known fix will do
+        source.activeFix = fix(LATITUDE, 10, Float.NaN, 4_200_000);
+        result = new Result();
+        acquirer.acquire(1000, 4_200_000, result);
+
+        assertSame(source.activeFix, result.fix);
+        assertEquals(1, result.calls);
+        assertEquals(2, source.lastFixRequests);
+        assertEquals(1, source.activeFixRequests);
+        assertEquals(1, acquirer.getActiveFixesPerHour(4_200_000));
+        assertEquals(0, acquirer.getActiveFixesPerHour(4_200_000 + 60 * 60 * 1000L));
+    }
+
+    @Test
+    public void freshness_dependsOnTheSearchRadius() {
+        LocationAcquirer acquirer = new LocationAcquirer(new FakeSource(), 0.25, 60_000, 300_000);
+        // Walking for two minutes from a 20 m fix covers 188 m
+        LocationFix walking = fix(LATITUDE, 20, 1.4f, 0);
+
+        assertTrue(acquirer.isFresh(walking, 2000, 120_000));
+        assertFalse(acquirer.isFresh(walking, 500, 120_000));
+        // A stationary fix stays usable much longer
+        assertTrue(acquirer.isFresh(fix(LATITUDE, 20, 0f, 0), 500, 600_000));
+        assertFalse(acquirer.isFresh(null, 500, 0));
+    }
+
+    @Test
+    public void movement_switchesBetweenPassiveAndBatchedUpdates() {
+        FakeSource source = new FakeSource();
+        LocationAcquirer acquirer = new LocationAcquirer(source, 0.25, 60_000, 300_000);
+        acquirer.start();
+        assertEquals(LocationAcquirer.MODE_PASSIVE, acquirer.getMode());
+
+        // A batch of fixes 11 m apart every 10 seconds, walking pace without a speed
+        acquirer.onFixes(new LocationFix[]{
+                fix(LATITUDE, 5, Float.NaN, 0),
+                fix(LATITUDE + STEP, 5, Float.NaN, 10_000),
+                fix(LATITUDE + 2 * STEP, 5, Float.NaN, 20_000)});
+
+        assertTrue(acquirer.isMoving());
+        assertEquals(LocationAcquirer.MODE_BATCHED, acquirer.getMode());
+        assertEquals(300_000, source.maxDelayMillis);
+
+        // The device stops
+        acquirer.onFixes(new LocationFix[]{fix(LATITUDE + 2 * STEP, 5, 0f, 80_000)});
+
+        assertEquals(LocationAcquirer.MODE_PASSIVE, acquirer.getMode());
+        assertEquals(2, acquirer.getModeSwitchCount());
+        assertEquals(4, acquirer.getUpdateCount());
+
+        acquirer.stop();
+        assertEquals("[passive, removed, batched, removed, passive, removed]", source.subscriptions.toString());
+        // Old fixes delivered late are ignored
+        acquirer.onFixes(new LocationFix[]{fix(LATITUDE, 5, 3f, 30_000)});
+        assertEquals(80_000, acquirer.getLatest().getElapsedMillis());
+        assertEquals(LocationAcquirer.MODE_STOPPED, acquirer.getMode());
+    }
+
+    @Test
+    public void trackListener_receivesTheFixesKeptInTimeOrder() {
+        LocationAcquirer acquirer = new LocationAcquirer(new FakeSource(), 0.25, 60_000, 300_000);
+        final List<Long> times = new ArrayList<>();
+        acquirer.setTrackListener(new LocationAcquirer.TrackListener() {
+            @Override
+            public void onFix(LocationFix fix) {
+                times.add(fix.getElapsedMillis());
+            }
+        });
+
+        acquirer.onFixes(new LocationFix[]{
+                fix(LATITUDE, 5, Float.NaN, 0),
+                fix(LATITUDE + STEP, 5, Float.NaN, 10_000)});
+        // A late fix older than the latest is dropped before the listener sees it
+        acquirer.onFixes(new LocationFix[]{fix(LATITUDE, 5, Float.NaN, 5_000)});
+        acquirer.setTrackListener(null);
+        acquirer.onFixes(new LocationFix[]{fix(LATITUDE + 2 * STEP, 5, Float.NaN, 20_000)});
+
+        assertEquals("[0, 10000]", times.toString());
+    }
+}
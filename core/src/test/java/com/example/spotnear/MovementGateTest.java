@@ -0,0 +1,106 @@
+package com.example.spotnear;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Drives {@link MovementGate} with synthetic location sequences
+ */
+public class MovementGateTest {
+    private static final int RADIUS = 1000;
+    private static final long INTERVAL = 60 * 1000L;
+    private static final double START_LAT = 32.0853;
+    private static final double START_LON = 34.7818;
+
+    /**
+     * Latitude offset for a northward move of the given distance
+     */
+    private static double north(double meters) {
+        return START_LAT + meters / GeoUtils.METERS_PER_DEGREE;
+    }
+
+    @Test
+    public void firstFix_alwaysQueries() {
+        MovementGate gate = new MovementGate(0.25, 8);
+
+        assertTrue(gate.shouldQuery(START_LAT, START_LON, RADIUS));
+    }
+
+    @Test
+    public void jitterAroundLastQuery_skipsNetwork() {
+        MovementGate gate = new MovementGate(0.25, 8);
+        assertTrue(gate.shouldQuery(START_LAT, START_LON, RADIUS));
+        gate.onQuerySucceeded(START_LAT, START_LON);
+
+        double[] jitter = {5, -12, 30, 80, -150, 240};
+        for (double meters : jitter) {
+            assertFalse("Moved " + meters + " m", gate.shouldQuery(north(meters), START_LON, RADIUS));
+        }
+        assertEquals(jitter.length, gate.getSkipCount());
+        assertEquals(1, gate.getQueryCount());
+    }
+
+    @Test
+    public void movingPastThreshold_queriesAndMovesAnchor() {
+        MovementGate gate = new MovementGate(0.25, 8);
+        gate.shouldQuery(START_LAT, START_LON, RADIUS);
+        gate.onQuerySucceeded(START_LAT, START_LON);
+
+        assertTrue(gate.shouldQuery(north(260), START_LON, RADIUS));
+        gate.onQuerySucceeded(north(260), START_LON);
+
+        // 200 m from the new anchor, 460 m from the old one
+        assertFalse(gate.shouldQuery(north(460), START_LON, RADIUS));
+        assertTrue(gate.shouldQuery(north(520), START_LON, RADIUS));
+    }
+
+    @Test
+    public void failedQuery_doesNotMoveAnchor() {
+        MovementGate gate = new MovementGate(0.25, 8);
+        gate.shouldQuery(START_LAT, START_LON, RADIUS);
+
+        // No onQuerySucceeded, so there is nothing to compare against yet
+        assertTrue(gate.shouldQuery(START_LAT, START_LON, RADIUS));
+    }
+
+    @Test
+    public void threshold_scalesWithRadius() {
+        MovementGate gate = new MovementGate(0.25, 8);
+        gate.shouldQuery(START_LAT, START_LON, RADIUS);
+        gate.onQuerySucceeded(START_LAT, START_LON);
+
+        assertTrue(gate.shouldQuery(north(150), START_LON, 500));
+        assertFalse(gate.shouldQuery(north(150), START_LON, 2000));
+    }
+
+    @Test
+    public void stillDevice_stretchesIntervalUpToCap() {
+        MovementGate gate = new MovementGate(0.25, 8);
+        gate.shouldQuery(START_LAT, START_LON, RADIUS);
+        gate.onQuerySucceeded(START_LAT, START_LON);
+        assertEquals(INTERVAL, gate.stretchInterval(INTERVAL));
+
+        long[] expected = {2, 4, 8, 8, 8};
+        for (long factor : expected) {
+            gate.shouldQuery(START_LAT, START_LON, RADIUS);
+            assertEquals(factor * INTERVAL, gate.stretchInterval(INTERVAL));
+        }
+
+        assertTrue(gate.shouldQuery(north(400), START_LON, RADIUS));
+        assertEquals(INTERVAL, gate.stretchInterval(INTERVAL));
+    }
+
+    @Test
+    public void reset_forcesNextQuery() {
+        MovementGate gate = new MovementGate(0.25, 8);
+        gate.shouldQuery(START_LAT, START_LON, RADIUS);
+        gate.onQuerySucceeded(START_LAT, START_LON);
+        assertFalse(gate.shouldQuery(START_LAT, START_LON, RADIUS));
+
+        gate.reset();
+
+        assertTrue(gate.shouldQuery(START_LAT, START_LON, RADIUS));
+        assertEquals(INTERVAL, gate.stretchInterval(INTERVAL));
+    }
+}
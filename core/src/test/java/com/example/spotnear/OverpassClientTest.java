@@ -0,0 +1,239 @@
+package com.example.spotnear;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.BufferedSource;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs {@link OverpassClient} and its governor against a local MockWebServer
+ */
+public class OverpassClientTest {
+    private MockWebServer server;
+    private OkHttpClient httpClient;
+    private OverpassGovernorTest.MemoryQuotaStore store;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+        httpClient = new OkHttpClient();
+        store = new OverpassGovernorTest.MemoryQuotaStore();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+        httpClient.dispatcher().executorService().shutdown();
+    }
+
+    private OverpassClient client(int capacity) {
+        OverpassGovernor governor = new OverpassGovernor(store, new Random(1), capacity, 60_000, 1_000, 600_000);
+        return new OverpassClient(httpClient, server.url("/api/interpreter"), governor);
+    }
+
+    /**
+     * Blocks until the search callback fires
+     */
+    static class Result implements OverpassClient.SearchCallback {
+        final CountDownLatch done = new CountDownLatch(1);
+        String body;
+        IOException error;
+        long retryDelayMillis = -1;
+
+        @Override
+        public void onSuccess(BufferedSource source) {
+            try {
+                body = source.readUtf8();
+            } catch (IOException e) {
+                error = e;
+            }
+            done.countDown();
+        }
+
+        @Override
+        public void onFailure(IOException e, long retryDelayMillis) {
+            error = e;
+            this.retryDelayMillis = retryDelayMillis;
+            done.countDown();
+        }
+
+        Result await() throws InterruptedException {
+            assertTrue("Search did not complete", done.await(10, TimeUnit.SECONDS));
+            return this;
+        }
+    }
+
+    /**
+     * Takes over the body and hands it to the test thread, like the service's parse stage
+     */
+    static class Stream implements OverpassClient.StreamCallback {
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile BufferedSource body;
+
+        @Override
+        public void onSuccess(BufferedSource source) {
+            body = source;
+            done.countDown();
+        }
+
+        @Override
+        public void onFailure(IOException e, long retryDelayMillis) {
+            done.countDown();
+        }
+
+        BufferedSource await() throws InterruptedException {
+            assertTrue("Search did not complete", done.await(10, TimeUnit.SECONDS));
+            assertNotNull("Search failed", body);
+            return body;
+        }
+    }
+
+    private static Result search(OverpassClient client, String query) throws InterruptedException {
+        Result result = new Result();
+        client.search(query, result);
+        return result.await();
+    }
+
+    @Test
+    public void success_sendsQueryAndDeliversBody() throws Exception {
+        server.enqueue(new MockResponse().setBody("{\"elements\":[]}"));
+
+        Result result = search(client(3), "[out:json];node(1);out;");
+
+        assertEquals("{\"elements\":[]}", result.body);
+        RecordedRequest request = server.takeRequest();
+        assertEquals("/api/interpreter", request.getRequestUrl().encodedPath());
+        assertEquals("[out:json];node(1);out;", request.getRequestUrl().queryParameter("data"));
+    }
+
+    @Test
+    public void streamCallback_readsTheBodyAfterReturning() throws Exception {
+        server.enqueue(new MockResponse().setBody("{\"elements\":[]}"));
+        Stream stream = new Stream();
+
+        client(3).search("q", stream);
+
+        try (BufferedSource body = stream.await()) {
+            assertEquals("{\"elements\":[]}", body.readUtf8());
+        }
+    }
+
+    @Test
+    public void cancel_failsTheReadOfAStreamedBody() throws Exception {
+        StringBuilder elements = new StringBuilder();
+        for (int i = 0; i < 4096; i++) {
+            elements.append("{\"type\":\"node\",\"id\":").append(i).append("},");
+        }
+        server.enqueue(new MockResponse().setBody("{\"elements\":[" + elements + "{}]}")
+                .throttleBody(1024, 100, TimeUnit.MILLISECONDS));
+        Stream stream = new Stream();
+        OverpassClient.Search search = client(3).search("q", stream);
+
+        try (BufferedSource body = stream.await()) {
+            search.cancel();
+            body.readUtf8();
+            fail("Read a body whose search was cancelled");
+        } catch (IOException expected) {
+            // The call was cancelled under the read
+        }
+    }
+
+    @Test
+    public void tooManyRequests_blocksUntilRetryAfterWithoutHittingServer() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(429).setHeader("Retry-After", "120"));
+        OverpassClient client = client(3);
+
+        Result limited = search(client, "q");
+        Result deferred = search(client, "q");
+
+        assertTrue(limited.retryDelayMillis >= 119_000);
+        assertTrue(deferred.error instanceof OverpassThrottledException);
+        assertTrue(deferred.retryDelayMillis >= 119_000);
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void gatewayTimeout_backsOff() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(504));
+        OverpassClient client = client(3);
+
+        Result result = search(client, "q");
+
+        assertNotNull(result.error);
+        assertTrue(result.retryDelayMillis >= 500);
+        assertTrue(client.getGovernor().isRateLimited());
+    }
+
+    @Test
+    public void burst_isShedOnceQuotaIsSpent() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            server.enqueue(new MockResponse().setBody("{}"));
+        }
+        OverpassClient client = client(2);
+
+        assertNull(search(client, "q").error);
+        assertNull(search(client, "q").error);
+        Result shed = search(client, "q");
+
+        assertTrue(shed.error instanceof OverpassThrottledException);
+        assertEquals(2, server.getRequestCount());
+    }
+
+    @Test
+    public void quota_survivesRestart() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(429).setHeader("Retry-After", "300"));
+        search(client(3), "q");
+
+        Result afterRestart = search(client(3), "q");
+
+        assertTrue(afterRestart.error instanceof OverpassThrottledException);
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void connectionFailure_backsOff() throws Exception {
+        OverpassClient client = client(3);
+        server.shutdown();
+
+        Result result = search(client, "q");
+
+        assertNotNull(result.error);
+        assertFalse(result.error instanceof OverpassThrottledException);
+        assertEquals(1, client.getGovernor().getConsecutiveFailures());
+        assertTrue(result.retryDelayMillis >= 500);
+    }
+
+    @Test
+    public void statusProbe_shortensBlockToServerSlotTime() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(429).setHeader("Retry-After", "600"));
+        server.enqueue(new MockResponse().setBody("Rate limit: 2\nSlot available after: 2024-08-08T09:00:05Z, in 5 seconds.\n"));
+        OverpassClient client = client(3).setProbeStatus(true);
+
+        search(client, "q");
+        RecordedRequest query = server.takeRequest(5, TimeUnit.SECONDS);
+        RecordedRequest status = server.takeRequest(5, TimeUnit.SECONDS);
+        assertEquals("/api/interpreter", query.getRequestUrl().encodedPath());
+        assertEquals("/api/status", status.getRequestUrl().encodedPath());
+
+        long deadline = System.currentTimeMillis() + 5_000;
+        long delay;
+        do {
+            delay = client.getGovernor().getRetryDelayMillis(System.currentTimeMillis());
+        } while (delay > 60_000 && System.currentTimeMillis() < deadline);
+        // Bounded by the refill of the spent token rather than the 600 s Retry-After
+        assertTrue("Delay " + delay, delay <= 60_000);
+    }
+}
@@ -0,0 +1,129 @@
+package com.example.spotnear;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import okio.Buffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks {@link OverpassCsvParser} on hand-written responses, including quoted fields, empty
+ * columns, header lines and responses cut off mid line
+ */
+public class OverpassCsvParserTest {
+
+    private static PoiBuffer parse(String csv) throws IOException {
+        PoiBuffer rows = new PoiBuffer();
+        int added = new OverpassCsvParser().parse(new Buffer().writeUtf8(csv), rows);
+        assertEquals(rows.size(), added);
+        return rows;
+    }
+
+    @Test
+    public void rows_areReadColumnByColumn() throws IOException {
+        PoiBuffer rows = parse("node\t11\t32.0853000\t34.7818000\tFountain\t\tfountain\t\n"
+                + "way\t22\t-33.8688\t-151.2093\tגן מאיר\tpark\t\t\r\n"
+                + "relation\t33\t1.5\t2\t\t\t\tmuseum\n");
+
+        assertEquals(3, rows.size());
+        Poi node = rows.toPoi(0);
+        assertEquals("node", node.getType());
+        assertEquals(11, node.getId());
+        assertEquals(32.0853, node.getLatitude(), 1e-12);
+        assertEquals(34.7818, node.getLongitude(), 1e-12);
+        assertEquals("Fountain", node.getName());
+        assertEquals("fountain", node.getAmenity());
+        Poi way = rows.toPoi(1);
+        assertEquals("way", way.getType());
+        assertEquals(-33.8688, way.getLatitude(), 1e-12);
+        assertEquals(-151.2093, way.getLongitude(), 1e-12);
+        assertEquals("גן מאיר", way.getName());
+        assertEquals("park", way.getLeisure());
+        assertEquals("relation", rows.toPoi(2).getType());
+        assertEquals("museum", rows.toPoi(2).getTourism());
+    }
+
+    @Test
+    public void emptyColumns_areEmptyText() throws IOException {
+        PoiBuffer rows = parse("node\t1\t32\t34\t\t\t\t\n");
+
+        assertEquals(1, rows.size());
+        for (int field = 0; field < PoiBuffer.FIELD_COUNT; field++) {
+            assertEquals(0, rows.getTextLength(0, field));
+        }
+    }
+
+    @Test
+    public void rowsWithoutIdOrCoordinates_areDropped() throws IOException {
+        PoiBuffer rows = parse("node\t\t32\t34\tNo id\t\t\t\n"
+                + "node\t2\t\t34\tNo latitude\t\t\t\n"
+                + "node\t3\t32\t\tNo longitude\t\t\t\n"
+                + "node\t4\t32\t34\tToo few columns\n"
+                + "node\t5\t32\t34\tKept\t\t\t\n");
+
+        assertEquals(1, rows.size());
+        assertEquals("Kept", rows.getText(0, PoiBuffer.FIELD_NAME));
+    }
+
+    @Test
+    public void headerLine_isDropped() throws IOException {
+        PoiBuffer rows = parse("@type\t@id\t@lat\t@lon\tname\tleisure\tamenity\ttourism\n"
+                + "node\t1\t32\t34\tCafé\t\tcafe\t\n");
+
+        assertEquals(1, rows.size());
+        assertEquals(1, rows.getId(0));
+        assertEquals("Café", rows.getText(0, PoiBuffer.FIELD_NAME));
+    }
+
+    @Test
+    public void quotedFields_mayContainSeparatorsAndQuotes() throws IOException {
+        PoiBuffer rows = parse("node\t1\t32\t34\t\"Tab\there\"\t\t\t\n"
+                + "node\t2\t32\t34\t\"Say \"\"hi\"\"\"\t\t\"\"\t\n"
+                + "node\t3\t32\t34\t\"Two\nlines\"\t\"park\"\t\t\n"
+                + "\"way\"\t\"4\"\t\"32.5\"\t\"34.5\"\tA \"quote\" inside\t\t\t\n");
+
+        assertEquals(4, rows.size());
+        assertEquals("Tab\there", rows.getText(0, PoiBuffer.FIELD_NAME));
+        assertEquals("Say \"hi\"", rows.getText(1, PoiBuffer.FIELD_NAME));
+        assertEquals(0, rows.getTextLength(1, PoiBuffer.FIELD_AMENITY));
+        assertEquals("Two\nlines", rows.getText(2, PoiBuffer.FIELD_NAME));
+        assertEquals("park", rows.getText(2, PoiBuffer.FIELD_LEISURE));
+        assertEquals("way", rows.toPoi(3).getType());
+        assertEquals(4, rows.getId(3));
+        assertEquals(32.5, rows.getLatitude(3), 1e-12);
+        // Quotes not opening a field are kept
+        assertEquals("A \"quote\" inside", rows.getText(3, PoiBuffer.FIELD_NAME));
+    }
+
+    @Test
+    public void truncatedLastLine_isDropped() throws IOException {
+        String complete = "node\t1\t32\t34\tFirst\t\t\t\n";
+        String last = "node\t2\t32.1\t34.1\tגן\t\t\ttourism\n";
+        // Every cut of the last line before its line break, including mid character
+        byte[] bytes = (complete + last).getBytes("UTF-8");
+        for (int length = complete.length(); length < bytes.length; length++) {
+            PoiBuffer rows = new PoiBuffer();
+            int added = new OverpassCsvParser().parse(new Buffer().write(bytes, 0, length), rows);
+
+            assertEquals("cut at " + length, 1, added);
+            assertEquals(1, rows.size());
+            assertEquals("First", rows.getText(0, PoiBuffer.FIELD_NAME));
+        }
+        assertEquals(2, parse(complete + last).size());
+    }
+
+    @Test
+    public void unterminatedQuote_dropsTheLastLine() throws IOException {
+        PoiBuffer rows = parse("node\t1\t32\t34\tFirst\t\t\t\n"
+                + "node\t2\t32\t34\t\"Open\t\t\t\n");
+
+        assertEquals(1, rows.size());
+    }
+
+    @Test
+    public void fixture_parsesEveryRow() throws IOException {
+        assertEquals(200, parse(OverpassFixtures.csv(200, 5)).size());
+    }
+}
@@ -0,0 +1,337 @@
+package com.example.spotnear;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.SocketPolicy;
+import okio.Buffer;
+import okio.BufferedSource;
+
+import static org.junit.Assert.*;
+
+/**
+ * Injects network faults between {@link OverpassClient} and a local server, and checks that every
+ * search ends exactly once within bounded time and memory, releases its connection and its wake
+ * scope, and is rescheduled after the delay the fault calls for
+ */
+public class OverpassFaultInjectionTest {
+    private static final long CALL_TIMEOUT_MILLIS = 1_500;
+    private static final long READ_TIMEOUT_MILLIS = 1_000;
+    // Thread scheduling on a loaded machine
+    private static final long SLACK_MILLIS = 1_500;
+    private static final long MAX_RESPONSE_BYTES = 256 * 1024;
+    // okio reads in segments, so a capped read may overshoot by one
+    private static final long SEGMENT_BYTES = 8192;
+    private static final long MINUTE = 60 * 1000L;
+
+    private MockWebServer server;
+    private OkHttpClient httpClient;
+    private OverpassClient client;
+    private WakeBudgetTest.FakeLock lock;
+    private WakeBudget wakeBudget;
+    private SearchSchedule schedule;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+        // The service's client, with its timeouts scaled down
+        httpClient = new OkHttpClient.Builder()
+                .connectTimeout(READ_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+                .readTimeout(READ_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+                .callTimeout(CALL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+                .build();
+        client = newClient();
+        lock = new WakeBudgetTest.FakeLock();
+        wakeBudget = new WakeBudget(lock, new WakeBudgetTest.MemoryStore(), 30 * MINUTE, 10 * MINUTE);
+        schedule = new SearchSchedule(60 * MINUTE, 5 * MINUTE, new MovementGate());
+    }
+
+    private OverpassClient newClient() {
+        OverpassGovernor governor = new OverpassGovernor(new OverpassGovernorTest.MemoryQuotaStore(),
+                new Random(1), 100, 1_000, 1_000, 600_000);
+        return new OverpassClient(httpClient, server.url("/api/interpreter"), governor)
+                .setMaxResponseBytes(MAX_RESPONSE_BYTES);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        try {
+            assertNoLeaks();
+        } finally {
+            client.shutdown();
+            httpClient.dispatcher().cancelAll();
+            httpClient.dispatcher().executorService().shutdown();
+            server.shutdown();
+        }
+    }
+
+    /**
+     * No wake scope is left open and no connection is held by an unclosed response body
+     */
+    private void assertNoLeaks() throws InterruptedException {
+        assertEquals("Wake scopes still open", 0, wakeBudget.getOpenCount());
+        assertFalse("Wakelock still held", lock.held);
+        // Cancelled calls give their connection back on an OkHttp thread
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        while (httpClient.connectionPool().connectionCount() > httpClient.connectionPool().idleConnectionCount()
+                && System.nanoTime() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals("Connections held by unclosed bodies", httpClient.connectionPool().idleConnectionCount(),
+                httpClient.connectionPool().connectionCount());
+    }
+
+    /**
+     * A search run like the service runs it: in a wake scope that whichever callback ends the
+     * search closes, with the body copied into a buffer and then parsed
+     */
+    private final class Cycle implements OverpassClient.SearchCallback {
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicInteger endings = new AtomicInteger();
+        final Buffer body = new Buffer();
+        final long startNanos = System.nanoTime();
+        final WakeBudget.Scope scope = wakeBudget.open("search", System.currentTimeMillis());
+        int elements = -1;
+        IOException error;
+        long retryDelayMillis = -1;
+        long elapsedMillis;
+
+        @Override
+        public void onSuccess(BufferedSource source) {
+            try {
+                body.writeAll(source);
+                elements = new OverpassStreamParser().parse(body, new OverpassStreamParser.ElementHandler() {
+                    @Override
+                    public void onElement(OverpassElement element) {
+                    }
+                });
+                retryDelayMillis = 0;
+            } catch (IOException e) {
+                error = e;
+                // A body that failed to read or parse is retried on the regular schedule
+                retryDelayMillis = client.getGovernor().getRetryDelayMillis(System.currentTimeMillis());
+            }
+            end();
+        }
+
+        @Override
+        public void onFailure(IOException e, long retryDelayMillis) {
+            error = e;
+            this.retryDelayMillis = retryDelayMillis;
+            end();
+        }
+
+        private void end() {
+            elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+            endings.incrementAndGet();
+            scope.close(System.currentTimeMillis());
+            done.countDown();
+        }
+
+        /**
+         * @return The delay the service would schedule its next search after
+         */
+        long nextSearchDelay() {
+            return elements > 0 ? schedule.afterPlaceFound() : schedule.afterNothingFound(false, retryDelayMillis);
+        }
+    }
+
+    private Cycle search() throws InterruptedException {
+        Cycle cycle = new Cycle();
+        assertNotNull(cycle.scope);
+        client.search(OverpassFixtures.json(1, 1), cycle);
+        assertTrue("Search did not end", cycle.done.await(CALL_TIMEOUT_MILLIS + 5 * SLACK_MILLIS, TimeUnit.MILLISECONDS));
+        // A second ending would close the scope of the next search
+        Thread.sleep(50);
+        assertEquals(1, cycle.endings.get());
+        return cycle;
+    }
+
+    private static void assertBounded(Cycle cycle, long maxMillis) {
+        assertTrue("Took " + cycle.elapsedMillis + " ms", cycle.elapsedMillis <= maxMillis + SLACK_MILLIS);
+    }
+
+    @Test
+    public void baseline_succeedsAndSchedulesTheRegularInterval() throws Exception {
+        server.enqueue(new MockResponse().setBody(OverpassFixtures.json(20, 1)));
+
+        Cycle cycle = search();
+
+        assertNull(cycle.error);
+        assertEquals(20, cycle.elements);
+        assertEquals(60 * MINUTE, cycle.nextSearchDelay());
+    }
+
+    @Test
+    public void latencySpike_underTheTimeoutIsAbsorbed() throws Exception {
+        server.enqueue(new MockResponse().setBody(OverpassFixtures.json(20, 1))
+                .setHeadersDelay(READ_TIMEOUT_MILLIS / 2, TimeUnit.MILLISECONDS));
+
+        Cycle cycle = search();
+
+        assertNull(cycle.error);
+        assertEquals(20, cycle.elements);
+    }
+
+    @Test
+    public void latencySpike_overTheTimeoutFailsAndBacksOff() throws Exception {
+        server.enqueue(new MockResponse().setBody(OverpassFixtures.json(20, 1))
+                .setHeadersDelay(3, TimeUnit.SECONDS));
+
+        Cycle cycle = search();
+
+        assertNotNull(cycle.error);
+        assertBounded(cycle, CALL_TIMEOUT_MILLIS);
+        assertTrue(cycle.retryDelayMillis > 0);
+        assertEquals(1, client.getGovernor().getConsecutiveFailures());
+        assertEquals(5 * MINUTE, cycle.nextSearchDelay());
+    }
+
+    @Test
+    public void slowDripBody_isCutByTheCallTimeout() throws Exception {
+        // 64 KB at 1 KB every 100 ms: no read ever times out, but the body would take 6 s
+        server.enqueue(new MockResponse().setBody(OverpassFixtures.jsonOfSize(64 * 1024, 1))
+                .throttleBody(1024, 100, TimeUnit.MILLISECONDS));
+
+        Cycle cycle = search();
+
+        assertNotNull(cycle.error);
+        assertEquals(-1, cycle.elements);
+        assertBounded(cycle, CALL_TIMEOUT_MILLIS);
+    }
+
+    @Test
+    public void truncatedJson_failsParsingWithAnIOException() throws Exception {
+        String json = OverpassFixtures.json(20, 1);
+        server.enqueue(new MockResponse().setBody(json.substring(0, json.length() / 2)));
+
+        Cycle cycle = search();
+
+        assertNotNull("Truncated JSON was accepted", cycle.error);
+        assertEquals(-1, cycle.elements);
+        assertEquals(5 * MINUTE, cycle.nextSearchDelay());
+    }
+
+    @Test
+    public void disconnectDuringBody_failsTheRead() throws Exception {
+        server.enqueue(new MockResponse().setBody(OverpassFixtures.json(200, 1))
+                .setSocketPolicy(SocketPolicy.DISCONNECT_DURING_RESPONSE_BODY));
+
+        Cycle cycle = search();
+
+        assertNotNull(cycle.error);
+        assertEquals(-1, cycle.elements);
+    }
+
+    @Test
+    public void tooManyRequests_reschedulesAfterRetryAfter() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(429).setHeader("Retry-After", "120"));
+
+        Cycle cycle = search();
+
+        assertNotNull(cycle.error);
+        assertTrue(cycle.retryDelayMillis >= 119_000);
+        assertTrue(cycle.nextSearchDelay() >= 119_000);
+        // The next search is refused without reaching the server
+        Cycle next = search();
+        assertTrue(next.error instanceof OverpassThrottledException);
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void gatewayTimeout_reschedulesAfterRetryAfter() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(504).setHeader("Retry-After", "900"));
+
+        Cycle cycle = search();
+
+        assertNotNull(cycle.error);
+        assertTrue(client.getGovernor().isRateLimited());
+        // Longer than the regular retry interval, so the server's delay wins
+        assertTrue(cycle.nextSearchDelay() >= 899_000);
+    }
+
+    @Test
+    public void connectionReset_backsOff() throws Exception {
+        server.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.DISCONNECT_AFTER_REQUEST));
+
+        Cycle cycle = search();
+
+        assertNotNull(cycle.error);
+        assertBounded(cycle, CALL_TIMEOUT_MILLIS);
+        assertTrue(cycle.retryDelayMillis > 0);
+        assertEquals(1, client.getGovernor().getConsecutiveFailures());
+    }
+
+    @Test
+    public void oversizedPayload_withLengthIsRefusedUnread() throws Exception {
+        server.enqueue(new MockResponse().setBody(OverpassFixtures.jsonOfSize(4 * MAX_RESPONSE_BYTES, 1)));
+
+        Cycle cycle = search();
+
+        assertTrue(String.valueOf(cycle.error), cycle.error instanceof OverpassResponseTooLargeException);
+        assertEquals(0, cycle.body.size());
+        assertTrue(cycle.retryDelayMillis > 0);
+    }
+
+    @Test
+    public void oversizedPayload_chunkedIsCutAtTheCap() throws Exception {
+        server.enqueue(new MockResponse().setChunkedBody(OverpassFixtures.jsonOfSize(4 * MAX_RESPONSE_BYTES, 1), 8192));
+
+        Cycle cycle = search();
+
+        assertTrue(String.valueOf(cycle.error), cycle.error instanceof OverpassResponseTooLargeException);
+        assertEquals(-1, cycle.elements);
+        assertTrue("Buffered " + cycle.body.size() + " bytes", cycle.body.size() <= MAX_RESPONSE_BYTES + SEGMENT_BYTES);
+    }
+
+    @Test
+    public void randomFaults_everySearchEndsOnce() throws Exception {
+        Random random = new Random(42);
+        String json = OverpassFixtures.json(50, 1);
+        for (int i = 0; i < 16; i++) {
+            // A fresh governor per search, so backoff doesn't turn the faults into refusals
+            client.shutdown();
+            client = newClient();
+            MockResponse response = new MockResponse().setBody(json);
+            switch (random.nextInt(6)) {
+                case 0:
+                    response.setHeadersDelay(3, TimeUnit.SECONDS);
+                    break;
+                case 1:
+                    response.throttleBody(512, 100, TimeUnit.MILLISECONDS);
+                    break;
+                case 2:
+                    response.setBody(json.substring(0, random.nextInt(json.length())));
+                    break;
+                case 3:
+                    response.setResponseCode(random.nextBoolean() ? 429 : 504).setHeader("Retry-After", "30");
+                    break;
+                case 4:
+                    response.setSocketPolicy(random.nextBoolean()
+                            ? SocketPolicy.DISCONNECT_AFTER_REQUEST : SocketPolicy.DISCONNECT_DURING_RESPONSE_BODY);
+                    break;
+                default:
+                    break;
+            }
+            server.enqueue(response);
+
+            Cycle cycle = search();
+
+            assertBounded(cycle, CALL_TIMEOUT_MILLIS);
+            assertTrue(cycle.error != null || cycle.elements == 50);
+            assertTrue(cycle.nextSearchDelay() > 0);
+            assertEquals(0, wakeBudget.getOpenCount());
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.example.spotnear;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link OverpassGovernor} with a fake clock
+ */
+public class OverpassGovernorTest {
+
+    static class MemoryQuotaStore implements OverpassGovernor.QuotaStore {
+        long[] state;
+
+        @Override
+        public long[] loadQuotaState() {
+            return state == null ? null : state.clone();
+        }
+
+        @Override
+        public void saveQuotaState(long[] state) {
+            this.state = state.clone();
+        }
+    }
+
+    private static OverpassGovernor governor(MemoryQuotaStore store) {
+        return new OverpassGovernor(store, new Random(1), 3, 10_000, 1_000, 60_000);
+    }
+
+    @Test
+    public void tokenBucket_shedsBurstAndRefills() {
+        OverpassGovernor governor = governor(new MemoryQuotaStore());
+        long now = 1_000_000;
+
+        assertEquals(0, governor.tryAcquire(now));
+        assertEquals(0, governor.tryAcquire(now));
+        assertEquals(0, governor.tryAcquire(now));
+        assertEquals(10_000, governor.tryAcquire(now));
+        assertEquals(1, governor.getShedCount());
+
+        assertEquals(0, governor.tryAcquire(now + 10_000));
+        assertTrue(governor.tryAcquire(now + 10_000) > 0);
+    }
+
+    @Test
+    public void failures_backOffExponentiallyWithJitter() {
+        OverpassGovernor governor = governor(new MemoryQuotaStore());
+        long now = 1_000_000;
+        long previousCeiling = 0;
+        for (int failure = 1; failure <= 6; failure++) {
+            long delay = governor.onFailure(now);
+            long ceiling = Math.min(60_000, 1_000L << (failure - 1));
+            assertTrue("Backoff " + delay + " after failure " + failure, delay >= ceiling / 2 && delay <= ceiling);
+            assertTrue(ceiling >= previousCeiling);
+            previousCeiling = ceiling;
+            now += delay;
+            assertEquals(0, governor.getRetryDelayMillis(now));
+        }
+
+        governor.onSuccess();
+        assertEquals(0, governor.getConsecutiveFailures());
+    }
+
+    @Test
+    public void rateLimit_honoursRetryAfter() {
+        OverpassGovernor governor = governor(new MemoryQuotaStore());
+        long now = 1_000_000;
+
+        long delay = governor.onRateLimited(now, 120_000);
+
+        assertEquals(120_000, delay);
+        assertTrue(governor.isRateLimited());
+        assertEquals(120_000, governor.tryAcquire(now));
+        assertTrue(governor.tryAcquire(now + 119_999) > 0);
+    }
+
+    @Test
+    public void state_survivesRestart() {
+        MemoryQuotaStore store = new MemoryQuotaStore();
+        long now = 1_000_000;
+        OverpassGovernor first = governor(store);
+        first.tryAcquire(now);
+        first.tryAcquire(now);
+        first.onRateLimited(now, 30_000);
+
+        OverpassGovernor restarted = governor(store);
+
+        assertEquals(30_000, restarted.getRetryDelayMillis(now));
+        assertEquals(1, restarted.getConsecutiveFailures());
+    }
+
+    @Test
+    public void status_replacesBlockWithServerSlotTime() {
+        OverpassGovernor governor = governor(new MemoryQuotaStore());
+        long now = 1_000_000;
+        governor.onRateLimited(now, -1);
+
+        governor.onStatus(OverpassStatus.parse("Rate limit: 2\nSlot available after: 2024-08-08T09:00:27Z, in 27 seconds.\n"
+                + "Slot available after: 2024-08-08T09:00:40Z, in 40 seconds.\n"), now);
+
+        assertEquals(27_000, governor.getRetryDelayMillis(now));
+    }
+
+    @Test
+    public void retryAfter_parsesSecondsAndHttpDates() {
+        assertEquals(120_000, OverpassGovernor.parseRetryAfterMillis("120", 0));
+        assertEquals(-1, OverpassGovernor.parseRetryAfterMillis(null, 0));
+        assertEquals(-1, OverpassGovernor.parseRetryAfterMillis("soon", 0));
+        // Thu, 01 Jan 1970 00:01:40 GMT is 100 seconds after the epoch
+        assertEquals(40_000, OverpassGovernor.parseRetryAfterMillis("Thu, 01 Jan 1970 00:01:40 GMT", 60_000));
+    }
+
+    @Test
+    public void status_parsesAvailableSlots() {
+        OverpassStatus status = OverpassStatus.parse("Connected as: 123\nCurrent time: 2024-08-08T09:00:00Z\n"
+                + "Rate limit: 2\n1 slots available now.\nSlot available after: 2024-08-08T09:00:12Z, in 12 seconds.\n"
+                + "Currently running queries (pid, space limit, time limit, start time):\n");
+
+        assertEquals(2, status.getRateLimit());
+        assertEquals(1, status.getAvailableSlots());
+        assertEquals(12, status.getSecondsUntilSlot());
+    }
+}
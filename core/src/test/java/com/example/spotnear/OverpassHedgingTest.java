@@ -0,0 +1,144 @@
+package com.example.spotnear;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs a two-endpoint {@link OverpassClient} against a fast and a slow local stub server
+ */
+public class OverpassHedgingTest {
+    private static final long SLOW_MILLIS = 3_000;
+    private static final long HEDGE_MILLIS = 200;
+
+    private MockWebServer slow;
+    private MockWebServer fast;
+    private OkHttpClient httpClient;
+    private OverpassClient client;
+
+    @Before
+    public void setUp() throws IOException {
+        slow = new MockWebServer();
+        fast = new MockWebServer();
+        slow.start();
+        fast.start();
+        httpClient = new OkHttpClient();
+        OverpassGovernor governor = new OverpassGovernor(new OverpassGovernorTest.MemoryQuotaStore(),
+                new Random(1), 10, 60_000, 1_000, 600_000);
+        // The slow server is listed first so the first search has to hedge to find the fast one
+        client = new OverpassClient(httpClient,
+                Arrays.asList(slow.url("/api/interpreter"), fast.url("/api/interpreter")), governor)
+                .setHedgeDelays(HEDGE_MILLIS, 50);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        client.shutdown();
+        httpClient.dispatcher().cancelAll();
+        httpClient.dispatcher().executorService().shutdown();
+        slow.shutdown();
+        fast.shutdown();
+    }
+
+    private static MockResponse slowResponse(String body) {
+        return new MockResponse().setBody(body).setHeadersDelay(SLOW_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private OverpassClientTest.Result search() throws InterruptedException {
+        OverpassClientTest.Result result = new OverpassClientTest.Result();
+        client.search("q", result);
+        return result.await();
+    }
+
+    @Test
+    public void slowPrimary_isHedgedAndLoserCancelled() throws Exception {
+        slow.enqueue(slowResponse("slow"));
+        fast.enqueue(new MockResponse().setBody("fast"));
+
+        long start = System.nanoTime();
+        OverpassClientTest.Result result = search();
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertEquals("fast", result.body);
+        assertTrue("Took " + elapsedMillis + " ms", elapsedMillis < SLOW_MILLIS);
+        assertEquals(1, client.getHedgeCount());
+        assertEquals(1, client.getHedgeWinCount());
+        assertEquals(1, slow.getRequestCount());
+        assertEquals(1, fast.getRequestCount());
+        // The cancelled call is not an error, but it marks the slow endpoint as slow
+        OverpassEndpoint slowEndpoint = client.getEndpoints().get(0);
+        assertEquals(0, slowEndpoint.getErrorCount());
+        assertTrue(slowEndpoint.getLatencyEwmaMillis() >= HEDGE_MILLIS);
+    }
+
+    @Test
+    public void measuredLatency_routesToFastestEndpoint() throws Exception {
+        slow.enqueue(slowResponse("slow"));
+        for (int i = 0; i < 5; i++) {
+            fast.enqueue(new MockResponse().setBody("fast"));
+        }
+
+        for (int i = 0; i < 5; i++) {
+            assertEquals("fast", search().body);
+        }
+
+        // Only the first search went to the slow server; the rest went straight to the fast one
+        assertEquals(1, slow.getRequestCount());
+        assertEquals(5, fast.getRequestCount());
+        assertEquals(1, client.getHedgeCount());
+        OverpassEndpoint fastEndpoint = client.getEndpoints().get(1);
+        assertEquals(5, fastEndpoint.getSuccessCount());
+        assertTrue(fastEndpoint.getP95LatencyMillis() >= 0);
+    }
+
+    @Test
+    public void failingPrimary_failsOverWithoutBackoff() throws Exception {
+        slow.enqueue(new MockResponse().setResponseCode(500));
+        fast.enqueue(new MockResponse().setBody("fast"));
+
+        OverpassClientTest.Result result = search();
+
+        assertEquals("fast", result.body);
+        assertEquals(0, client.getHedgeCount());
+        assertEquals(1, client.getEndpoints().get(0).getErrorCount());
+        assertEquals(0, client.getGovernor().getConsecutiveFailures());
+    }
+
+    @Test
+    public void allEndpointsRateLimited_blocksGovernor() throws Exception {
+        slow.enqueue(new MockResponse().setResponseCode(429).setHeader("Retry-After", "90"));
+        fast.enqueue(new MockResponse().setResponseCode(504));
+
+        OverpassClientTest.Result result = search();
+
+        assertNotNull(result.error);
+        assertTrue(result.retryDelayMillis >= 89_000);
+        assertTrue(client.getGovernor().isRateLimited());
+        assertEquals(1, slow.getRequestCount());
+        assertEquals(1, fast.getRequestCount());
+    }
+
+    @Test
+    public void unhealthyEndpoint_isTriedLast() throws Exception {
+        OverpassEndpoint slowEndpoint = client.getEndpoints().get(0);
+        for (int i = 0; i < 4; i++) {
+            slowEndpoint.recordError();
+        }
+        assertFalse(slowEndpoint.isHealthy());
+        fast.enqueue(new MockResponse().setBody("fast"));
+
+        assertEquals("fast", search().body);
+        assertEquals(0, slow.getRequestCount());
+    }
+}
@@ -0,0 +1,135 @@
+package com.example.spotnear;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the compact queries select the same elements as the original eight-statement query
+ */
+public class OverpassQueryBuilderTest {
+
+    private static final Pattern STATEMENT = Pattern.compile(
+            "(node|way|nw)\\[\"([^\"]+)\"(?:(=|~)\"((?:[^\"\\\\]|\\\\.)*)\")?]\\(around:([^)]*)\\);");
+
+    /**
+     * The query SpotNearService used to send, one statement per element type and category
+     */
+    private static String legacyQuery(double latitude, double longitude, int radius) {
+        return "[out:json];(" +
+                "node[\"leisure\"=\"park\"](around:" + radius + "," + latitude + "," + longitude + ");" +
+                "node[\"amenity\"=\"cafe\"](around:" + radius + "," + latitude + "," + longitude + ");" +
+                "node[\"amenity\"=\"restaurant\"](around:" + radius + "," + latitude + "," + longitude + ");" +
+                "node[\"tourism\"](around:" + radius + "," + latitude + "," + longitude + ");" +
+                "way[\"leisure\"=\"park\"](around:" + radius + "," + latitude + "," + longitude + ");" +
+                "way[\"amenity\"=\"cafe\"](around:" + radius + "," + latitude + "," + longitude + ");" +
+                "way[\"amenity\"=\"restaurant\"](around:" + radius + "," + latitude + "," + longitude + ");" +
+                "way[\"tourism\"](around:" + radius + "," + latitude + "," + longitude + ");" +
+                ");out center;";
+    }
+
+    /**
+     * Expand a query into "type key=value around" filters, resolving nw unions and value regexes
+     */
+    private static Set<String> filters(String query) {
+        Set<String> filters = new TreeSet<>();
+        Matcher matcher = STATEMENT.matcher(query);
+        while (matcher.find()) {
+            String[] types = "nw".equals(matcher.group(1)) ? new String[]{"node", "way"} : new String[]{matcher.group(1)};
+            String[] values;
+            if (matcher.group(3) == null) {
+                values = new String[]{"*"};
+            } else if ("=".equals(matcher.group(3))) {
+                values = new String[]{matcher.group(4)};
+            } else {
+                String regex = matcher.group(4);
+                assertTrue("Value regex must be anchored: " + regex, regex.startsWith("^(") && regex.endsWith(")$"));
+                values = regex.substring(2, regex.length() - 2).split("\\|");
+            }
+            String[] around = matcher.group(5).split(",");
+            String area = Integer.parseInt(around[0]) + "@"
+                    + String.format(java.util.Locale.US, "%.6f,%.6f", Double.parseDouble(around[1]), Double.parseDouble(around[2]));
+            for (String type : types) {
+                for (String value : values) {
+                    filters.add(type + " " + matcher.group(2) + "=" + value + " " + area);
+                }
+            }
+        }
+        return filters;
+    }
+
+    @Test
+    public void defaultCategories_selectSameElementsAsLegacyQuery() {
+        String query = new OverpassQueryBuilder(PoiCategory.DEFAULTS).build(32.0853, 34.7818, 1000);
+
+        Set<String> expected = filters(legacyQuery(32.0853, 34.7818, 1000));
+        assertEquals(8, expected.size());
+        assertEquals(expected, filters(query));
+    }
+
+    @Test
+    public void defaultCategories_produceShorterQuery() {
+        String query = new OverpassQueryBuilder(PoiCategory.DEFAULTS).setLimit(1000).build(32.0853, 34.7818, 1000);
+
+        assertEquals("[out:json][timeout:25];("
+                + "nw[\"leisure\"=\"park\"](around:1000,32.085300,34.781800);"
+                + "nw[\"amenity\"~\"^(cafe|restaurant)$\"](around:1000,32.085300,34.781800);"
+                + "nw[\"tourism\"](around:1000,32.085300,34.781800);"
+                + ");out tags center qt 1000;", query);
+        assertTrue(query.length() < legacyQuery(32.0853, 34.7818, 1000).length());
+    }
+
+    @Test
+    public void anyValueCategory_absorbsSpecificValuesOfSameKey() {
+        String query = new OverpassQueryBuilder(Arrays.asList(
+                PoiCategory.CAFE, new PoiCategory("amenity", null), PoiCategory.RESTAURANT)).build(0, 0, 500);
+
+        assertEquals("[out:json][timeout:25];nw[\"amenity\"](around:500,0.000000,0.000000);out tags center qt;", query);
+    }
+
+    @Test
+    public void values_areEscapedForRegexAndString() {
+        String query = new OverpassQueryBuilder(Arrays.asList(
+                new PoiCategory("shop", "a.b"), new PoiCategory("shop", "c\"d"))).build(1, 2, 10);
+
+        assertTrue(query, query.contains("nw[\"shop\"~\"^(a\\\\.b|c\\\"d)$\"]"));
+    }
+
+    @Test
+    public void smallCoordinates_areNotPrintedInScientificNotation() {
+        String query = new OverpassQueryBuilder(Collections.singletonList(PoiCategory.PARK)).build(0.00001, -0.00002, 100);
+
+        assertTrue(query, query.contains("(around:100,0.000010,-0.000020)"));
+    }
+
+    @Test
+    public void boxes_areQueriedInOneUnion() {
+        String query = new OverpassQueryBuilder(PoiCategory.DEFAULTS).setLimit(200)
+                .buildBoxes(new double[]{32.0, 34.75, 32.0025, 34.76, 32.0025, 34.7525, 32.005, 34.755});
+
+        // One statement per key and box, inside a single union with a single output
+        assertEquals(6, query.split("nw\\[").length - 1);
+        assertTrue(query, query.contains("(32.000000,34.750000,32.002500,34.760000);"));
+        assertTrue(query, query.contains("(32.002500,34.752500,32.005000,34.755000);"));
+        assertTrue(query, query.endsWith(");out tags center qt 200;"));
+        assertEquals(query.indexOf("out "), query.lastIndexOf("out "));
+        assertFalse(query.contains("around"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void emptyBoxes_areRejected() {
+        new OverpassQueryBuilder(PoiCategory.DEFAULTS).buildBoxes(new double[0]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void emptyCategories_areRejected() {
+        new OverpassQueryBuilder(Collections.<PoiCategory>emptyList());
+    }
+}
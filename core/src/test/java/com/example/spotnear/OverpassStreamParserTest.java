@@ -0,0 +1,196 @@
+package com.example.spotnear;
+
+import org.junit.Test;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.Okio;
+import okio.Source;
+import okio.Timeout;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks {@link OverpassStreamParser} on hand-written responses, including escapes, numbers,
+ * skipped fields and broken input
+ */
+public class OverpassStreamParserTest {
+
+    /**
+     * Copies every element out of the parser
+     */
+    private static class PoiList implements OverpassStreamParser.ElementHandler {
+        final List<Poi> pois = new ArrayList<>();
+        final List<Boolean> positions = new ArrayList<>();
+
+        @Override
+        public void onElement(OverpassElement element) {
+            positions.add(element.hasPosition());
+            pois.add(element.toPoi());
+        }
+    }
+
+    /**
+     * A source handing out one byte per read, so every multi-byte sequence spans reads
+     */
+    private static BufferedSource trickle(String json) {
+        final Buffer data = new Buffer().writeUtf8(json);
+        return Okio.buffer(new Source() {
+            @Override
+            public long read(Buffer sink, long byteCount) throws IOException {
+                return data.exhausted() ? -1 : data.read(sink, 1);
+            }
+
+            @Override
+            public Timeout timeout() {
+                return Timeout.NONE;
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+    }
+
+    private static PoiList parse(String json) throws IOException {
+        PoiList list = new PoiList();
+        int count = new OverpassStreamParser().parse(new Buffer().writeUtf8(json), list);
+        assertEquals(list.pois.size(), count);
+        return list;
+    }
+
+    private static String node(String name) {
+        return "{\"elements\":[{\"type\":\"node\",\"id\":1,\"lat\":32.1,\"lon\":34.8,"
+                + "\"tags\":{\"name\":\"" + name + "\",\"leisure\":\"park\"}}]}";
+    }
+
+    @Test
+    public void nodesAndWays_takeTheirPositionFromLatLonOrCenter() throws IOException {
+        PoiList list = parse("{\"version\":0.6,\"elements\":["
+                + "{\"type\":\"node\",\"id\":11,\"lat\":32.0853,\"lon\":34.7818,\"tags\":{\"name\":\"Fountain\",\"amenity\":\"fountain\"}},"
+                + "{\"type\":\"way\",\"id\":22,\"center\":{\"lat\":32.1,\"lon\":34.9},\"tags\":{\"leisure\":\"park\"}},"
+                + "{\"type\":\"relation\",\"id\":33,\"tags\":{\"tourism\":\"museum\"}}]}");
+
+        assertEquals(3, list.pois.size());
+        Poi node = list.pois.get(0);
+        assertEquals("node", node.getType());
+        assertEquals(11, node.getId());
+        assertEquals(32.0853, node.getLatitude(), 1e-9);
+        assertEquals(34.7818, node.getLongitude(), 1e-9);
+        assertEquals("Fountain", node.getName());
+        assertEquals("fountain", node.getAmenity());
+        Poi way = list.pois.get(1);
+        assertEquals("way", way.getType());
+        assertEquals(32.1, way.getLatitude(), 1e-9);
+        assertEquals(34.9, way.getLongitude(), 1e-9);
+        assertEquals("park", way.getLeisure());
+        assertNull(way.getName());
+        // Without lat/lon or a center the element has no position
+        assertEquals(true, list.positions.get(1));
+        assertEquals(false, list.positions.get(2));
+    }
+
+    @Test
+    public void unknownFields_areSkippedAtAnyDepth() throws IOException {
+        PoiList list = parse("{\"generator\":\"Overpass API\",\"osm3s\":{\"copyright\":\"ODbL {\\\"x\\\"}\",\"n\":[1,[2,{}]]},"
+                + "\"elements\":[{\"type\":\"way\",\"id\":5,\"bounds\":{\"minlat\":1,\"maxlat\":2},"
+                + "\"nodes\":[1,2,3],\"geometry\":[{\"lat\":9,\"lon\":9}],\"visible\":true,\"user\":null,"
+                + "\"center\":{\"lat\":-1.5,\"lon\":2.5,\"extra\":[false]},"
+                + "\"tags\":{\"wheelchair\":\"yes\",\"name\":\"Kept\",\"note\":\"]}\"}}],"
+                + "\"remark\":\"done\"}");
+
+        assertEquals(1, list.pois.size());
+        assertEquals(5, list.pois.get(0).getId());
+        assertEquals(-1.5, list.pois.get(0).getLatitude(), 1e-9);
+        assertEquals(2.5, list.pois.get(0).getLongitude(), 1e-9);
+        assertEquals("Kept", list.pois.get(0).getName());
+    }
+
+    @Test
+    public void numbers_mayBeNegativeOrHaveExponents() throws IOException {
+        PoiList list = parse("{\"elements\":["
+                + "{\"id\":1,\"lat\":-33.8688,\"lon\":-151.2093e0},"
+                + "{\"id\":2,\"lat\":3.25E+1,\"lon\":25e-1},"
+                + "{\"id\":3,\"lat\":-0.5e-2,\"lon\":0},"
+                + "{\"id\":4e3,\"lat\":12345678901234567890e-18,\"lon\":1.5}]}");
+
+        assertEquals(-33.8688, list.pois.get(0).getLatitude(), 1e-12);
+        assertEquals(-151.2093, list.pois.get(0).getLongitude(), 1e-12);
+        assertEquals(32.5, list.pois.get(1).getLatitude(), 1e-12);
+        assertEquals(2.5, list.pois.get(1).getLongitude(), 1e-12);
+        assertEquals(-0.005, list.pois.get(2).getLatitude(), 1e-15);
+        assertEquals(0, list.pois.get(2).getLongitude(), 0);
+        assertEquals(4000, list.pois.get(3).getId());
+        // Digits beyond what a long holds only scale the value
+        assertEquals(12.345678901234567890, list.pois.get(3).getLatitude(), 1e-9);
+    }
+
+    @Test
+    public void escapes_areDecoded() throws IOException {
+        PoiList list = parse(node("Caf\\u00e9 \\\"Tel Aviv\\\" \\\\ \\/ \\b\\f\\n\\r\\t \\uD83C\\uDF33"));
+
+        assertEquals("Café \"Tel Aviv\" \\ / \b\f\n\r\t \uD83C\uDF33", list.pois.get(0).getName());
+    }
+
+    @Test
+    public void multiByteUtf8_isDecodedAcrossReads() throws IOException {
+        String name = "גן מאיר · Café · \uD83C\uDF33";
+        PoiList list = new PoiList();
+
+        new OverpassStreamParser().parse(trickle(node(name)), list);
+
+        assertEquals(name, list.pois.get(0).getName());
+        assertTrue(node(name).getBytes(StandardCharsets.UTF_8).length > node(name).length());
+    }
+
+    @Test
+    public void emptyResponses_parseToNothing() throws IOException {
+        assertEquals(0, parse("{}").pois.size());
+        assertEquals(0, parse(" { \"elements\" : [ ] } ").pois.size());
+    }
+
+    @Test
+    public void truncatedResponses_fail() {
+        String json = node("Park");
+        // Every cut before the final brace, through keys, strings, numbers and nested objects
+        for (int length = 0; length < json.length(); length++) {
+            try {
+                parse(json.substring(0, length));
+                fail("Parsed a response truncated to " + length + " characters");
+            } catch (EOFException expected) {
+                // The source ended mid-document
+            } catch (IOException e) {
+                fail("Expected EOF at " + length + " but got " + e);
+            }
+        }
+    }
+
+    @Test
+    public void malformedResponses_fail() {
+        String[] responses = {
+                "[]",
+                "{\"elements\" [",
+                "{\"elements\":[{\"id\":}]}",
+                "{\"elements\":[{\"id\":1,}]}",
+                "{\"elements\":[{\"id\":1}}",
+                "{\"elements\":[{\"tags\":{\"name\":\"\\x\"}}]}",
+                "{\"elements\":[{\"tags\":{\"name\":\"\\u12G4\"}}]}",
+                "{\"elements\":[{\"lat\":-x}]}",
+                "{\"elements\":[{\"other\":#}]}",
+        };
+        for (String response : responses) {
+            try {
+                parse(response);
+                fail("Parsed " + response);
+            } catch (IOException expected) {
+                // Malformed
+            }
+        }
+    }
+}
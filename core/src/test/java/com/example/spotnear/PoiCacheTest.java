@@ -0,0 +1,162 @@
+package com.example.spotnear;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that {@link PoiCache} answers from unexpired tiles within its byte budget, and only
+ * claims to cover the circles its stored searches held
+ */
+public class PoiCacheTest {
+    private static final long HOUR = 60 * 60 * 1000L;
+    private static final int RADIUS = 1000;
+    private static final double LATITUDE;
+    private static final double LONGITUDE;
+
+    static {
+        // The center of a cache tile, so nearby points share it
+        double[] bounds = Geohash.decodeBounds(Geohash.encode(32.0853, 34.7818, PoiCache.precisionForRadius(RADIUS)));
+        LATITUDE = (bounds[0] + bounds[2]) / 2;
+        LONGITUDE = (bounds[1] + bounds[3]) / 2;
+    }
+
+    private static double east(double meters) {
+        return LONGITUDE + meters / (GeoUtils.METERS_PER_DEGREE * Math.cos(Math.toRadians(LATITUDE)));
+    }
+
+    private static List<Poi> pois(int count, double longitude) {
+        return pois(count, LATITUDE, longitude);
+    }
+
+    private static List<Poi> pois(int count, double latitude, double longitude) {
+        List<Poi> pois = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            pois.add(new Poi(i, "node", latitude, longitude, "Park " + i, "park", null, null));
+        }
+        return pois;
+    }
+
+    @Test
+    public void storedSearch_isAHitUntilItExpires() {
+        PoiCache cache = new PoiCache(PoiCache.DEFAULT_MAX_BYTES, 6 * HOUR, HOUR);
+        cache.put(LATITUDE, LONGITUDE, RADIUS, pois(3, east(100)), 0);
+
+        assertEquals(3, cache.get(LATITUDE, LONGITUDE, RADIUS, 6 * HOUR - 1).size());
+        assertNull(cache.get(LATITUDE, LONGITUDE, RADIUS, 6 * HOUR));
+
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getExpiredCount());
+        assertEquals(0, cache.getTileCount());
+        assertEquals(0, cache.getSizeBytes());
+    }
+
+    @Test
+    public void emptyResults_expireSooner() {
+        PoiCache cache = new PoiCache(PoiCache.DEFAULT_MAX_BYTES, 6 * HOUR, HOUR);
+        cache.put(LATITUDE, LONGITUDE, RADIUS, Collections.<Poi>emptyList(), 0);
+
+        assertTrue(cache.get(LATITUDE, LONGITUDE, RADIUS, HOUR - 1).isEmpty());
+        assertNull(cache.get(LATITUDE, LONGITUDE, RADIUS, HOUR));
+    }
+
+    @Test
+    public void lookups_countHitsAndMisses() {
+        PoiCache cache = new PoiCache();
+        assertNull(cache.get(LATITUDE, LONGITUDE, RADIUS, 0));
+        cache.put(LATITUDE, LONGITUDE, RADIUS, pois(1, east(100)), 0);
+
+        cache.get(LATITUDE, LONGITUDE, RADIUS, 0);
+        cache.get(LATITUDE, LONGITUDE, RADIUS, 0);
+        // A wider search than the stored one has to go to the network
+        assertNull(cache.get(LATITUDE, LONGITUDE, 2 * RADIUS, 0));
+
+        assertEquals(2, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+        assertTrue(cache.describeStats(), cache.describeStats().startsWith("hits=2, misses=2 (50% served offline)"));
+    }
+
+    @Test
+    public void leastRecentlyUsedTiles_areEvictedOverTheBudget() {
+        List<Poi> pois = pois(10, east(100));
+        long entryBytes = 96;
+        for (Poi poi : pois) {
+            entryBytes += poi.estimatedBytes();
+        }
+        PoiCache cache = new PoiCache(2 * entryBytes, 6 * HOUR, HOUR);
+        // Three tiles several kilometers apart, with POIs of the same size
+        cache.put(LATITUDE, LONGITUDE, RADIUS, pois, 0);
+        cache.put(LATITUDE + 0.05, LONGITUDE, RADIUS, pois(10, LATITUDE + 0.05, LONGITUDE), 0);
+        assertNotNull(cache.get(LATITUDE, LONGITUDE, RADIUS, 0));
+        cache.put(LATITUDE + 0.1, LONGITUDE, RADIUS, pois(10, LATITUDE + 0.1, LONGITUDE), 0);
+
+        assertEquals(2, cache.getTileCount());
+        assertEquals(2 * entryBytes, cache.getSizeBytes());
+        assertEquals(1, cache.getEvictionCount());
+        // The tile used last survived, the one put in between didn't
+        assertNotNull(cache.get(LATITUDE, LONGITUDE, RADIUS, 0));
+        assertNull(cache.get(LATITUDE + 0.05, LONGITUDE, RADIUS, 0));
+        assertNotNull(cache.get(LATITUDE + 0.1, LONGITUDE, RADIUS, 0));
+    }
+
+    @Test
+    public void entryLargerThanTheBudget_isNotStored() {
+        PoiCache cache = new PoiCache(100, 6 * HOUR, HOUR);
+
+        cache.put(LATITUDE, LONGITUDE, RADIUS, pois(5, east(100)), 0);
+
+        assertEquals(0, cache.getTileCount());
+        assertNull(cache.get(LATITUDE, LONGITUDE, RADIUS, 0));
+    }
+
+    @Test
+    public void searchElsewhereInTheTile_isOnlyPartlyCovered() {
+        PoiCache cache = new PoiCache();
+        // Stored at A, with a POI near A's western edge and one beyond B's reach to the west
+        List<Poi> pois = new ArrayList<>(pois(1, east(-980)));
+        pois.add(new Poi(100, "node", LATITUDE, east(-50), "Near", "park", null, null));
+        cache.put(LATITUDE, LONGITUDE, RADIUS, pois, 0);
+        double longitudeB = east(50);
+        assertEquals(Geohash.encode(LATITUDE, LONGITUDE, PoiCache.precisionForRadius(RADIUS)),
+                Geohash.encode(LATITUDE, longitudeB, PoiCache.precisionForRadius(RADIUS)));
+
+        List<Poi> atB = cache.get(LATITUDE, longitudeB, RADIUS, 0);
+
+        // B gets the stored POIs within its radius, but part of its circle lies outside A's
+        assertEquals(1, atB.size());
+        assertEquals(100, atB.get(0).getId());
+        assertTrue(cache.covers(LATITUDE, LONGITUDE, RADIUS, 0));
+        assertFalse(cache.covers(LATITUDE, longitudeB, RADIUS, 0));
+        // A smaller circle around B fits inside A's
+        assertTrue(cache.covers(LATITUDE, longitudeB, RADIUS - 100, 0));
+        assertFalse(cache.covers(LATITUDE, LONGITUDE, RADIUS, PoiCache.DEFAULT_TTL_MILLIS));
+    }
+
+    @Test
+    public void searchAcrossATileEdge_isAnsweredByTheNeighbourHoldingIt() {
+        PoiCache cache = new PoiCache();
+        List<Poi> pois = new ArrayList<>(pois(1, east(-600)));
+        pois.add(new Poi(100, "node", LATITUDE, east(900), "East", "park", null, null));
+        cache.put(LATITUDE, LONGITUDE, 1200, pois, 0);
+        // The next tile to the east, at the same precision
+        double longitudeB = east(150);
+        String tileA = Geohash.encode(LATITUDE, LONGITUDE, PoiCache.precisionForRadius(RADIUS));
+        assertEquals(PoiCache.precisionForRadius(1200), PoiCache.precisionForRadius(RADIUS));
+        assertEquals(Geohash.neighbor(tileA, 0, 1), Geohash.encode(LATITUDE, longitudeB, PoiCache.precisionForRadius(RADIUS)));
+
+        List<Poi> atB = cache.get(LATITUDE, longitudeB, RADIUS, 0);
+
+        // 150 m off center, a 1000 m circle lies inside the stored 1200 m one
+        assertEquals(2, atB.size());
+        assertTrue(cache.covers(LATITUDE, longitudeB, RADIUS, 0));
+        // A wider one doesn't, and neither does an expired neighbour
+        assertNull(cache.get(LATITUDE, longitudeB, 1100, 0));
+        assertFalse(cache.covers(LATITUDE, longitudeB, RADIUS, PoiCache.DEFAULT_TTL_MILLIS));
+        assertNull(cache.get(LATITUDE, longitudeB, RADIUS, PoiCache.DEFAULT_TTL_MILLIS));
+    }
+}
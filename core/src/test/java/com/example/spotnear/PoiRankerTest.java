@@ -0,0 +1,97 @@
+package com.example.spotnear;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the scoring and top-k selection of {@link PoiRanker}
+ */
+public class PoiRankerTest {
+    private static final double LATITUDE = 32.08;
+    private static final double LONGITUDE = 34.78;
+
+    private static void add(PoiBuffer pois, long id, double northMeters, String name,
+                            String leisure, String amenity, String tourism) {
+        pois.add(new Poi(id, "node", LATITUDE + northMeters / GeoUtils.METERS_PER_DEGREE, LONGITUDE,
+                name, leisure, amenity, tourism));
+    }
+
+    @Test
+    public void categoryOf_followsPoiTypeOrder() {
+        PoiBuffer pois = new PoiBuffer();
+        add(pois, 1, 0, null, "park", "cafe", null);
+        add(pois, 2, 0, null, null, "cafe", "museum");
+        add(pois, 3, 0, null, null, "restaurant", null);
+        add(pois, 4, 0, null, null, "bench", null);
+        add(pois, 5, 0, null, null, null, "museum");
+        add(pois, 6, 0, null, "playground", null, null);
+
+        int[] expected = {PoiRanker.CATEGORY_PARK, PoiRanker.CATEGORY_CAFE, PoiRanker.CATEGORY_RESTAURANT,
+                PoiRanker.CATEGORY_OTHER, PoiRanker.CATEGORY_TOURISM, PoiRanker.CATEGORY_OTHER};
+        for (int row = 0; row < expected.length; row++) {
+            assertEquals(expected[row], PoiRanker.categoryOf(pois, row));
+            assertEquals(expected[row], PoiRanker.categoryOf(pois.toPoi(row)));
+        }
+    }
+
+    @Test
+    public void rank_prefersCloseNamedAndNovelPois() {
+        PoiBuffer pois = new PoiBuffer();
+        add(pois, 1, 900, "Far park", "park", null, null);
+        add(pois, 2, 100, "Near park", "park", null, null);
+        add(pois, 3, 100, null, "park", null, null);
+        add(pois, 4, 100, "Near cafe", null, "cafe", null);
+        add(pois, 5, 1500, "Outside", "park", null, null);
+        int[] out = new int[10];
+
+        PoiRanker ranker = new PoiRanker(10);
+        int count = ranker.rank(pois, LATITUDE, LONGITUDE, 1000, null, out);
+        assertEquals(4, count);
+        assertArrayEquals(new int[]{1, 3, 2, 0}, Arrays.copyOf(out, count));
+
+        // Right after a cafe, the cafe loses its novelty bonus
+        ranker.setLastCategory(PoiRanker.CATEGORY_CAFE);
+        count = ranker.rank(pois, LATITUDE, LONGITUDE, 1000, null, out);
+        assertArrayEquals(new int[]{1, 2, 3, 0}, Arrays.copyOf(out, count));
+    }
+
+    @Test
+    public void rank_keepsOnlyTheBestKAndSkipsSeen() throws IOException {
+        PoiBuffer pois = new PoiBuffer();
+        for (int i = 0; i < 100; i++) {
+            add(pois, i + 1, i * 10, "Cafe " + i, null, "cafe", null);
+        }
+        SeenPoiSet seen = new SeenPoiSet();
+        seen.add(1, PoiBuffer.TYPE_NODE);
+        seen.add(3, PoiBuffer.TYPE_NODE);
+        int[] out = new int[3];
+
+        int count = new PoiRanker(3).rank(pois, LATITUDE, LONGITUDE, 1000, seen, out);
+
+        assertEquals(3, count);
+        assertArrayEquals(new int[]{1, 3, 4}, out);
+    }
+
+    @Test
+    public void rank_doesNotAllocate() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        PoiBuffer pois = PoiFixtures.build(10000, new Random(1));
+        PoiRanker ranker = new PoiRanker(16);
+        int[] out = new int[16];
+        ranker.rank(pois, PoiFixtures.LATITUDE, PoiFixtures.LONGITUDE, 2000, null, out);
+
+        long before = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+        for (int i = 0; i < 10; i++) {
+            ranker.rank(pois, PoiFixtures.LATITUDE, PoiFixtures.LONGITUDE, 2000, null, out);
+        }
+        long allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+
+        assertTrue("allocated " + allocated + " bytes", allocated < 1024);
+    }
+}
@@ -0,0 +1,133 @@
+package com.example.spotnear;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import okio.Buffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks {@link PoiSpatialIndex} radius queries against a brute-force haversine scan
+ */
+public class PoiSpatialIndexTest {
+
+    private static Poi poi(long id, double latitude, double longitude) {
+        return new Poi(id, "node", latitude, longitude, "Place " + id, "park", null, null);
+    }
+
+    @Test
+    public void query_matchesBruteForce() {
+        Random random = new Random(7);
+        PoiSpatialIndex index = new PoiSpatialIndex();
+        Poi[] pois = new Poi[20_000];
+        for (int i = 0; i < pois.length; i++) {
+            pois[i] = poi(i + 1, 32.0 + random.nextDouble() * 0.5, 34.6 + random.nextDouble() * 0.5);
+            index.add(pois[i]);
+        }
+        int[] rows = new int[pois.length];
+        for (int q = 0; q < 200; q++) {
+            double latitude = 32.0 + random.nextDouble() * 0.5;
+            double longitude = 34.6 + random.nextDouble() * 0.5;
+            double radius = 100 + random.nextDouble() * 3000;
+
+            int count = index.query(latitude, longitude, radius, rows);
+
+            long[] expected = new long[pois.length];
+            int expectedCount = 0;
+            for (Poi poi : pois) {
+                double distance = GeoUtils.distanceMeters(latitude, longitude, poi.getLatitude(), poi.getLongitude());
+                // Points right on the edge may fall either way with the flat-earth distance
+                if (distance <= radius * 0.999) {
+                    expected[expectedCount++] = poi.getId();
+                } else if (distance <= radius * 1.001) {
+                    expectedCount = -1;
+                    break;
+                }
+            }
+            if (expectedCount < 0) {
+                continue;
+            }
+            long[] actual = new long[count];
+            for (int i = 0; i < count; i++) {
+                actual[i] = index.toPoi(rows[i]).getId();
+            }
+            Arrays.sort(actual);
+            assertArrayEquals(Arrays.copyOf(expected, expectedCount), actual);
+        }
+    }
+
+    @Test
+    public void add_ignoresDuplicatesAndKeepsTags() {
+        PoiSpatialIndex index = new PoiSpatialIndex();
+        assertTrue(index.add(new Poi(5, "way", 32.08, 34.78, "Gan Meir", "park", null, null)));
+        assertFalse(index.add(new Poi(5, "way", 32.09, 34.79, "Moved", "park", null, null)));
+        assertTrue(index.add(new Poi(5, "node", 32.08, 34.78, "Kiosk", null, "cafe", null)));
+
+        assertEquals(2, index.size());
+        int[] rows = new int[4];
+        assertEquals(2, index.query(32.08, 34.78, 50, rows));
+        Poi first = index.toPoi(rows[0]).getType().equals("way") ? index.toPoi(rows[0]) : index.toPoi(rows[1]);
+        assertEquals("Gan Meir", first.getName());
+        assertEquals("park", first.getLeisure());
+    }
+
+    @Test
+    public void onElement_indexesStreamedResponse() throws Exception {
+        PoiSpatialIndex index = new PoiSpatialIndex();
+        int parsed = new OverpassStreamParser().parse(new Buffer().writeUtf8(OverpassFixtures.json(500, 3)), index);
+        PoiBuffer rows = new PoiBuffer();
+        new OverpassCsvParser().parse(new Buffer().writeUtf8(OverpassFixtures.csv(500, 3)), rows);
+
+        assertEquals(500, parsed);
+        assertEquals(500, index.size());
+        // The same elements in CSV are all duplicates
+        assertEquals(0, index.addAll(rows));
+    }
+
+    @Test
+    public void sample_picksOnlyPoisInsideRadius() {
+        PoiSpatialIndex index = new PoiSpatialIndex();
+        index.add(poi(1, 32.0800, 34.7800));
+        index.add(poi(2, 32.0810, 34.7800)); // ~111 m north
+        index.add(poi(3, 32.1000, 34.7800)); // ~2.2 km north
+        Random random = new Random(1);
+        boolean[] seen = new boolean[4];
+        for (int i = 0; i < 100; i++) {
+            seen[(int) index.toPoi(index.sample(32.08, 34.78, 500, random)).getId()] = true;
+        }
+
+        assertTrue(seen[1]);
+        assertTrue(seen[2]);
+        assertFalse(seen[3]);
+        assertEquals(-1, index.sample(0, 0, 500, random));
+    }
+
+    @Test
+    public void covers_onlyCirclesInsideSearchedArea() {
+        PoiSpatialIndex index = new PoiSpatialIndex();
+        assertFalse(index.covers(32.08, 34.78, 100, 0));
+
+        index.markCovered(32.08, 34.78, 1000, 0);
+
+        assertTrue(index.covers(32.08, 34.78, 1000, 0));
+        assertTrue(index.covers(32.082, 34.78, 500, 0)); // ~220 m away
+        assertFalse(index.covers(32.085, 34.78, 500, 0)); // ~560 m away, sticks out
+        assertFalse(index.covers(32.08, 34.78, 1500, 0));
+    }
+
+    @Test
+    public void covers_notAfterTheSearchedCircleExpires() {
+        PoiSpatialIndex index = new PoiSpatialIndex();
+        index.markCovered(32.08, 34.78, 1000, 0);
+
+        assertTrue(index.covers(32.08, 34.78, 500, PoiCache.DEFAULT_TTL_MILLIS - 1));
+        assertFalse(index.covers(32.08, 34.78, 500, PoiCache.DEFAULT_TTL_MILLIS));
+
+        // Searched again, the area is trusted again
+        index.markCovered(32.08, 34.78, 1000, PoiCache.DEFAULT_TTL_MILLIS);
+        assertTrue(index.covers(32.08, 34.78, 500, PoiCache.DEFAULT_TTL_MILLIS));
+    }
+}
@@ -0,0 +1,194 @@
+package com.example.spotnear;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.Okio;
+
+import static org.junit.Assert.*;
+
+/**
+ * Builds {@link RegionPack} files from OSM XML extracts and checks them against brute force
+ */
+public class RegionPackTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Collects every element handed out by the parser, optionally only those of some categories
+     */
+    private static class PoiList implements OverpassStreamParser.ElementHandler {
+        final List<Poi> pois = new ArrayList<>();
+        final List<PoiCategory> categories;
+
+        PoiList(List<PoiCategory> categories) {
+            this.categories = categories;
+        }
+
+        @Override
+        public void onElement(OverpassElement element) {
+            boolean matches = categories == null;
+            for (int i = 0; !matches && i < categories.size(); i++) {
+                matches = categories.get(i).matches(element);
+            }
+            if (matches) {
+                pois.add(element.toPoi());
+            }
+        }
+    }
+
+    private static BufferedSource fixture() {
+        InputStream input = RegionPackTest.class.getClassLoader().getResourceAsStream("region-sample.osm");
+        assertNotNull(input);
+        return Okio.buffer(Okio.source(input));
+    }
+
+    private static Buffer writePack(RegionPackBuilder builder) throws IOException {
+        Buffer pack = new Buffer();
+        builder.write(pack);
+        return pack;
+    }
+
+    @Test
+    public void parser_readsTaggedNodesAndWayCenters() throws Exception {
+        PoiList list = new PoiList(null);
+        OsmXmlParser parser = new OsmXmlParser();
+
+        int count = parser.parse(fixture(), list);
+
+        // The bench, the footway and the relation are not POIs
+        assertEquals(5, count);
+        assertTrue(parser.hasBounds());
+        assertEquals(32.07, parser.getMinLatitude(), 1e-9);
+        assertEquals("Café & Books", list.pois.get(0).getName());
+        assertEquals("Hummus \"Abu\" Hasan", list.pois.get(1).getName());
+        assertEquals("מוזיאון", list.pois.get(3).getName());
+        Poi park = list.pois.get(4);
+        assertEquals("way", park.getType());
+        assertEquals(100, park.getId());
+        assertEquals(32.081, park.getLatitude(), 1e-9);
+        assertEquals(34.771, park.getLongitude(), 1e-9);
+        assertEquals("park", park.getLeisure());
+    }
+
+    @Test
+    public void pack_keepsMatchingCategoriesAndRoundTrips() throws Exception {
+        RegionPackBuilder builder = new RegionPackBuilder(PoiCategory.DEFAULTS);
+        OsmXmlParser parser = new OsmXmlParser();
+        parser.parse(fixture(), builder);
+        builder.setBounds(parser.getMinLatitude(), parser.getMinLongitude(), parser.getMaxLatitude(), parser.getMaxLongitude());
+        assertEquals(4, builder.size());
+
+        RegionPack pack = new RegionPack(ByteBuffer.wrap(writePack(builder).readByteArray()));
+
+        int[] numbers = new int[8];
+        int count = pack.query(32.08, 34.775, 2000, numbers);
+        assertEquals(4, count);
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            names.add(pack.toPoi(numbers[i]).getName());
+        }
+        assertTrue(names.containsAll(Arrays.asList("Gan Meir", "Café & Books", "Hummus \"Abu\" Hasan", "מוזיאון")));
+        assertTrue(pack.covers(32.08, 34.775, 500));
+        assertFalse(pack.covers(32.088, 34.775, 500));
+    }
+
+    @Test
+    public void radiusQuery_matchesBruteForceOnMappedFile() throws Exception {
+        Random random = new Random(11);
+        String extract = syntheticExtract(3000, random);
+        PoiList expectedPois = new PoiList(PoiCategory.DEFAULTS);
+        new OsmXmlParser().parse(new Buffer().writeUtf8(extract), expectedPois);
+        RegionPackBuilder builder = new RegionPackBuilder(PoiCategory.DEFAULTS);
+        OsmXmlParser parser = new OsmXmlParser();
+        parser.parse(new Buffer().writeUtf8(extract), builder);
+        builder.setBounds(parser.getMinLatitude(), parser.getMinLongitude(), parser.getMaxLatitude(), parser.getMaxLongitude());
+        File file = folder.newFile("region.pack");
+        try (BufferedSink sink = Okio.buffer(Okio.sink(file))) {
+            builder.write(sink);
+        }
+
+        RegionPack pack = RegionPack.open(file);
+
+        int[] numbers = new int[pack.size()];
+        for (int q = 0; q < 100; q++) {
+            double latitude = 32.0 + random.nextDouble() * 0.1;
+            double longitude = 34.7 + random.nextDouble() * 0.1;
+            double radius = 50 + random.nextDouble() * 1500;
+            List<String> expected = new ArrayList<>();
+            boolean borderline = false;
+            for (Poi poi : expectedPois.pois) {
+                double distance = GeoUtils.distanceMeters(latitude, longitude, poi.getLatitude(), poi.getLongitude());
+                if (distance <= radius * 0.999) {
+                    expected.add(poi.getType() + poi.getId());
+                } else if (distance <= radius * 1.001) {
+                    borderline = true;
+                }
+            }
+            if (borderline) {
+                continue;
+            }
+            int count = pack.query(latitude, longitude, radius, numbers);
+            List<String> actual = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                Poi poi = pack.toPoi(numbers[i]);
+                actual.add(poi.getType() + poi.getId());
+            }
+            expected.sort(null);
+            actual.sort(null);
+            assertEquals(expected, actual);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void open_rejectsOtherFiles() throws Exception {
+        new RegionPack(ByteBuffer.wrap(new byte[RegionPack.HEADER_SIZE]));
+    }
+
+    /**
+     * An extract of POI nodes, untagged nodes and park ways spread over about 10 x 10 km
+     */
+    private static String syntheticExtract(int pois, Random random) {
+        String[][] tags = {
+                {"amenity", "cafe"}, {"amenity", "restaurant"}, {"amenity", "bench"},
+                {"tourism", "viewpoint"}, {"leisure", "park"}, {"leisure", "pitch"}
+        };
+        StringBuilder xml = new StringBuilder("<?xml version=\"1.0\"?>\n<osm version=\"0.6\">\n");
+        xml.append(" <bounds minlat=\"31.99\" minlon=\"34.69\" maxlat=\"32.11\" maxlon=\"34.81\"/>\n");
+        int nodes = pois * 2;
+        for (int id = 1; id <= nodes; id++) {
+            xml.append(String.format(Locale.US, " <node id=\"%d\" lat=\"%.7f\" lon=\"%.7f\"",
+                    id, 32.0 + random.nextDouble() * 0.1, 34.7 + random.nextDouble() * 0.1));
+            if (id % 2 == 0) {
+                String[] tag = tags[random.nextInt(tags.length)];
+                xml.append(">\n  <tag k=\"").append(tag[0]).append("\" v=\"").append(tag[1]).append("\"/>\n")
+                        .append("  <tag k=\"name\" v=\"Place ").append(id).append("\"/>\n </node>\n");
+            } else {
+                xml.append("/>\n");
+            }
+        }
+        for (int id = 1; id <= pois / 10; id++) {
+            xml.append(" <way id=\"").append(id).append("\">\n");
+            int first = 1 + 2 * random.nextInt(nodes / 2 - 3);
+            for (int member = 0; member < 3; member++) {
+                xml.append("  <nd ref=\"").append(first + 2 * member).append("\"/>\n");
+            }
+            xml.append("  <tag k=\"leisure\" v=\"park\"/>\n </way>\n");
+        }
+        return xml.append("</osm>\n").toString();
+    }
+}
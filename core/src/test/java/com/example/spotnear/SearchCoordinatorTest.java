@@ -0,0 +1,98 @@
+package com.example.spotnear;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that {@link SearchCoordinator} lets one search run and drops or cancels the duplicates
+ */
+public class SearchCoordinatorTest {
+
+    @Test
+    public void triggersDuringASearch_joinIt() {
+        SearchCoordinator coordinator = new SearchCoordinator(60_000);
+
+        int generation = coordinator.begin("alarm", false, 0);
+        assertTrue(generation > 0);
+        // The timer, a restart and the alarm again all fire while the first search runs
+        assertEquals(-1, coordinator.begin("timer", false, 100));
+        assertEquals(-1, coordinator.begin("restart", false, 200));
+        assertEquals(-1, coordinator.begin("alarm", false, 300));
+        assertTrue(coordinator.isCurrent(generation));
+        assertTrue(coordinator.finish(generation));
+
+        assertEquals(1, coordinator.getStartedCount());
+        assertEquals(3, coordinator.getJoinedCount());
+        assertFalse(coordinator.finish(generation));
+        // Once finished, the next trigger starts a new search
+        assertTrue(coordinator.begin("timer", false, 400) > generation);
+    }
+
+    @Test
+    public void supersedingTrigger_dropsCallbacksOfTheOldSearch() {
+        SearchCoordinator coordinator = new SearchCoordinator(60_000);
+
+        int first = coordinator.begin("alarm", false, 0);
+        int second = coordinator.begin("notification", true, 100);
+
+        assertNotEquals(first, second);
+        assertFalse(coordinator.isCurrent(first));
+        assertTrue(coordinator.isCurrent(second));
+        assertEquals(1, coordinator.getSupersededCount());
+        assertEquals(1, coordinator.getStaleCallbackCount());
+        assertEquals("notification", coordinator.getTrigger());
+        // The old search ending late must not end the new one
+        assertFalse(coordinator.finish(first));
+        assertTrue(coordinator.isInFlight());
+        assertTrue(coordinator.finish(second));
+    }
+
+    @Test
+    public void lostSearch_isSupersededAfterMaxAge() {
+        SearchCoordinator coordinator = new SearchCoordinator(60_000);
+
+        int first = coordinator.begin("alarm", false, 0);
+        assertEquals(-1, coordinator.begin("timer", false, 59_999));
+        int second = coordinator.begin("timer", false, 60_000);
+
+        assertTrue(second > first);
+        assertEquals(1, coordinator.getSupersededCount());
+    }
+
+    @Test
+    public void superseding_cancelsTheOverpassCall() throws IOException, InterruptedException {
+        MockWebServer server = new MockWebServer();
+        server.enqueue(new MockResponse().setBody("{\"elements\":[]}").setHeadersDelay(2, TimeUnit.SECONDS));
+        server.start();
+        OkHttpClient httpClient = new OkHttpClient();
+        try {
+            OverpassGovernor governor = new OverpassGovernor(new OverpassGovernorTest.MemoryQuotaStore(),
+                    new Random(1), 10, 60_000, 1_000, 600_000);
+            OverpassClient client = new OverpassClient(httpClient, server.url("/api/interpreter"), governor);
+            SearchCoordinator coordinator = new SearchCoordinator(60_000);
+            OverpassClientTest.Result result = new OverpassClientTest.Result();
+
+            int generation = coordinator.begin("alarm", false, 0);
+            coordinator.attach(generation, client.search("[out:json];", result));
+            assertNotNull(server.takeRequest(5, TimeUnit.SECONDS));
+            coordinator.begin("notification", true, 100);
+
+            // The cancelled search never calls back
+            assertFalse(result.done.await(3, TimeUnit.SECONDS));
+            assertEquals(1, server.getRequestCount());
+            client.shutdown();
+        } finally {
+            server.shutdown();
+            httpClient.dispatcher().executorService().shutdown();
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.example.spotnear;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Random;
+
+import okio.Buffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the decisions {@link SearchCycle} makes for the service and the simulator alike
+ */
+public class SearchCycleTest {
+    private static final double LATITUDE = 32.05;
+    private static final double LONGITUDE = 34.75;
+    private static final int SEARCH_RADIUS = 1000;
+    private static final long NOW = 1714557600000L;
+
+    private OverpassQueryBuilder queryBuilder;
+    private PoiSpatialIndex poiIndex;
+    private MovementGate movementGate;
+    private TrajectoryPrefetcher prefetcher;
+    private SearchCycle cycle;
+
+    @Before
+    public void setUp() {
+        queryBuilder = new OverpassQueryBuilder(PoiCategory.DEFAULTS).setLimit(SearchCycle.MAX_POI_RESULTS);
+        poiIndex = new PoiSpatialIndex();
+        movementGate = new MovementGate();
+        prefetcher = new TrajectoryPrefetcher(new TrajectoryPrefetcherTest.MemoryStore());
+        cycle = new SearchCycle(queryBuilder, new PoiCache(), poiIndex, new TileCoverage(),
+                new AdaptiveRadiusPlanner(SearchCycle.TARGET_CANDIDATES, SearchCycle.MIN_SEARCH_RADIUS),
+                movementGate, new SeenPoiSet(), new Random(1))
+                .setPrefetcher(prefetcher);
+    }
+
+    @Test
+    public void begin_resolvesThePrefetchOnlyWhenOneIsPending() {
+        SearchCycle.State first = cycle.begin(LATITUDE, LONGITUDE, SEARCH_RADIUS, 0);
+
+        assertFalse(first.isPrefetchChecked());
+        assertEquals(0, prefetcher.getHitCount() + prefetcher.getMissCount());
+
+        prefetcher.onPrefetched(LATITUDE, LONGITUDE, 2 * SEARCH_RADIUS, 0, NOW);
+        SearchCycle.State second = cycle.begin(LATITUDE, LONGITUDE, SEARCH_RADIUS, 0);
+
+        assertTrue(second.isPrefetchChecked());
+        assertTrue(second.isPrefetchHit());
+        assertEquals(1, prefetcher.getHitCount());
+        assertFalse(prefetcher.isPending());
+    }
+
+    @Test
+    public void unknownArea_isSearchedOnTheNetworkAndTheResponseIsKept() throws IOException {
+        SearchCycle.State state = cycle.begin(LATITUDE, LONGITUDE, SEARCH_RADIUS, 0);
+        assertEquals(SearchCycle.MIN_SEARCH_RADIUS, state.getStartRadius());
+
+        assertEquals(SearchCycle.Outcome.NETWORK, cycle.answerLocally(state, NOW));
+        assertFalse(cycle.planQuery(state, NOW).isEmpty());
+        // A sparse area: few POIs, so the ring grows
+        int elements = new OverpassStreamParser().parse(new Buffer().writeUtf8(OverpassFixtures.json(150, 1)), poiIndex);
+        PoiBuffer rows = new PoiBuffer();
+        int count = cycle.onResponse(state, elements, rows, NOW);
+
+        assertTrue(state.isFetched());
+        assertFalse(state.isTruncated());
+        assertEquals(count, rows.size());
+        assertTrue(poiIndex.covers(LATITUDE, LONGITUDE, state.getRadius(), NOW));
+        assertTrue(cycle.expand(state));
+        assertEquals(2 * state.getStartRadius(), state.getRadius());
+    }
+
+    @Test
+    public void emptyArea_growsNoFurtherThanTheConfiguredRadius() {
+        SearchCycle.State state = cycle.begin(LATITUDE, LONGITUDE, SEARCH_RADIUS, 0);
+        PoiBuffer rows = new PoiBuffer();
+
+        do {
+            assertEquals(SearchCycle.Outcome.NETWORK, cycle.answerLocally(state, NOW));
+            cycle.planQuery(state, NOW);
+            cycle.onResponse(state, 0, rows, NOW);
+        } while (cycle.expand(state));
+
+        assertEquals(SEARCH_RADIUS, state.getRadius());
+        assertTrue(state.getRounds() <= SearchCycle.MAX_NETWORK_ROUNDS);
+    }
+
+    @Test
+    public void widerGrowth_isBoundedByTheNetworkRounds() {
+        cycle.setMaxRadiusFactor(4);
+        SearchCycle.State state = cycle.begin(LATITUDE, LONGITUDE, SEARCH_RADIUS, 0);
+        PoiBuffer rows = new PoiBuffer();
+
+        do {
+            cycle.answerLocally(state, NOW);
+            cycle.planQuery(state, NOW);
+            cycle.onResponse(state, 0, rows, NOW);
+        } while (cycle.expand(state));
+
+        // 250, 500 and 1000 m, short of the 4000 m the factor allows
+        assertEquals(SearchCycle.MAX_NETWORK_ROUNDS, state.getRounds());
+        assertEquals(4 * SearchCycle.MIN_SEARCH_RADIUS, state.getRadius());
+    }
+
+    @Test
+    public void stillDevice_skipsTheNetworkAtTheStartRadius() {
+        movementGate.onQuerySucceeded(LATITUDE, LONGITUDE);
+
+        SearchCycle.State state = cycle.begin(LATITUDE, LONGITUDE, SEARCH_RADIUS, 0);
+
+        assertFalse(state.isMoved());
+        assertEquals(SearchCycle.Outcome.STILL, cycle.answerLocally(state, NOW));
+    }
+
+    @Test
+    public void regionPack_answersBeforeTheNetwork() throws IOException {
+        RegionPackBuilder builder = new RegionPackBuilder(PoiCategory.DEFAULTS).setBounds(32.0, 34.7, 32.1, 34.8);
+        new OverpassStreamParser().parse(new Buffer().writeUtf8(OverpassFixtures.json(2000, 1)), builder);
+        Buffer pack = new Buffer();
+        builder.write(pack);
+        cycle.setRegionPacks(Collections.singletonList(new RegionPack(ByteBuffer.wrap(pack.readByteArray()))));
+
+        SearchCycle.State state = cycle.begin(LATITUDE, LONGITUDE, SEARCH_RADIUS, 0);
+
+        assertEquals(SearchCycle.Outcome.REGION_PACK, cycle.answerLocally(state, NOW));
+        assertNotNull(state.getPoi());
+        assertTrue(GeoUtils.distanceMeters(LATITUDE, LONGITUDE, state.getPoi().getLatitude(),
+                state.getPoi().getLongitude()) <= state.getRadius());
+    }
+
+    @Test
+    public void withoutTileQueries_theWholeCircleIsQueried() {
+        cycle.setTileQueries(false);
+        SearchCycle.State state = cycle.begin(LATITUDE, LONGITUDE, SEARCH_RADIUS, 0);
+        cycle.answerLocally(state, NOW);
+
+        String query = cycle.planQuery(state, NOW);
+
+        assertNull(state.getBoxes());
+        assertEquals(queryBuilder.build(LATITUDE, LONGITUDE, state.getRadius()), query);
+    }
+}
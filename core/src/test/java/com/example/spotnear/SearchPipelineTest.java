@@ -0,0 +1,239 @@
+package com.example.spotnear;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that {@link SearchPipeline} runs stages in order on its worker, and ends every job once
+ */
+public class SearchPipelineTest {
+
+    private final ExecutorService executor = SearchPipeline.newExecutor("SearchPipelineTest", 2);
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * A job context recording the stages it went through
+     */
+    static class Trace {
+        final List<String> stages = Collections.synchronizedList(new ArrayList<String>());
+        final List<String> threads = Collections.synchronizedList(new ArrayList<String>());
+        int loops;
+    }
+
+    /**
+     * Records the outcome of jobs
+     */
+    static class Outcome implements SearchPipeline.Listener<Trace> {
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile String result;
+        volatile SearchPipeline.StageName failedStage;
+        volatile int calls;
+
+        @Override
+        public void onFinished(Trace context) {
+            end("finished");
+        }
+
+        @Override
+        public void onFailed(Trace context, SearchPipeline.StageName stage, Exception e) {
+            failedStage = stage;
+            end("failed: " + e.getMessage());
+        }
+
+        @Override
+        public void onCancelled(Trace context) {
+            end("cancelled");
+        }
+
+        private synchronized void end(String result) {
+            calls++;
+            this.result = result;
+            done.countDown();
+        }
+    }
+
+    private static SearchPipeline.Stage<Trace> recording(final String name) {
+        return new SearchPipeline.Stage<Trace>() {
+            @Override
+            public void run(Trace trace, SearchPipeline.Step step) {
+                trace.stages.add(name);
+                trace.threads.add(Thread.currentThread().getName());
+                step.next();
+            }
+        };
+    }
+
+    @Test
+    public void stages_runInOrderOnTheWorker() throws InterruptedException {
+        Outcome outcome = new Outcome();
+        SearchPipeline<Trace> pipeline = new SearchPipeline<>(executor, 2, outcome)
+                .setStage(SearchPipeline.StageName.LOCATE, recording("locate"))
+                .setStage(SearchPipeline.StageName.QUERY, recording("query"))
+                .setStage(SearchPipeline.StageName.SELECT, recording("select"))
+                .setStage(SearchPipeline.StageName.NOTIFY, recording("notify"));
+        Trace trace = new Trace();
+
+        assertNotNull(pipeline.submit(trace));
+
+        assertTrue(outcome.done.await(5, TimeUnit.SECONDS));
+        assertEquals("finished", outcome.result);
+        // Stages without an implementation are skipped
+        assertEquals(Arrays.asList("locate", "query", "select", "notify"), trace.stages);
+        for (String thread : trace.threads) {
+            assertEquals("SearchPipelineTest", thread);
+        }
+        assertEquals(1, pipeline.getStageCount(SearchPipeline.StageName.QUERY));
+        assertEquals(0, pipeline.getStageCount(SearchPipeline.StageName.PARSE));
+        assertEquals(1, pipeline.getFinishedCount());
+        assertEquals(0, pipeline.getActiveCount());
+    }
+
+    @Test
+    public void asyncStep_isHandedBackToTheWorker() throws InterruptedException {
+        Outcome outcome = new Outcome();
+        SearchPipeline<Trace> pipeline = new SearchPipeline<>(executor, 2, outcome)
+                .setStage(SearchPipeline.StageName.QUERY, new SearchPipeline.Stage<Trace>() {
+                    @Override
+                    public void run(Trace trace, final SearchPipeline.Step step) {
+                        // Like an OkHttp callback, the step is called from another thread
+                        new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                sleep(50);
+                                step.next();
+                                step.next();
+                            }
+                        }, "callback").start();
+                    }
+                })
+                .setStage(SearchPipeline.StageName.PARSE, new SearchPipeline.Stage<Trace>() {
+                    @Override
+                    public void run(Trace trace, SearchPipeline.Step step) {
+                        trace.threads.add(Thread.currentThread().getName());
+                        // Widen the search once, as a short response would
+                        if (trace.loops++ == 0) {
+                            step.jumpTo(SearchPipeline.StageName.QUERY);
+                        } else {
+                            step.finish();
+                        }
+                    }
+                })
+                .setStage(SearchPipeline.StageName.NOTIFY, recording("notify"));
+        Trace trace = new Trace();
+
+        pipeline.submit(trace);
+
+        assertTrue(outcome.done.await(5, TimeUnit.SECONDS));
+        assertEquals("finished", outcome.result);
+        assertEquals(Arrays.asList("SearchPipelineTest", "SearchPipelineTest"), trace.threads);
+        // finish() skipped the notify stage
+        assertTrue(trace.stages.isEmpty());
+        assertEquals(2, pipeline.getStageCount(SearchPipeline.StageName.QUERY));
+        // The asynchronous stage is timed until its step was called
+        assertTrue(pipeline.getStageNanos(SearchPipeline.StageName.QUERY) >= TimeUnit.MILLISECONDS.toNanos(100));
+        sleep(100);
+        assertEquals(1, outcome.calls);
+    }
+
+    @Test
+    public void throwingStage_failsTheJob() throws InterruptedException {
+        Outcome outcome = new Outcome();
+        SearchPipeline<Trace> pipeline = new SearchPipeline<>(executor, 2, outcome)
+                .setStage(SearchPipeline.StageName.PARSE, new SearchPipeline.Stage<Trace>() {
+                    @Override
+                    public void run(Trace trace, SearchPipeline.Step step) throws IOException {
+                        throw new IOException("truncated");
+                    }
+                })
+                .setStage(SearchPipeline.StageName.NOTIFY, recording("notify"));
+        Trace trace = new Trace();
+
+        pipeline.submit(trace);
+
+        assertTrue(outcome.done.await(5, TimeUnit.SECONDS));
+        assertEquals("failed: truncated", outcome.result);
+        assertEquals(SearchPipeline.StageName.PARSE, outcome.failedStage);
+        assertTrue(trace.stages.isEmpty());
+        assertEquals(1, pipeline.getFailedCount());
+    }
+
+    @Test
+    public void cancelledJob_stopsBeforeItsNextStage() throws InterruptedException {
+        Outcome outcome = new Outcome();
+        final SearchPipeline.Step[] pending = new SearchPipeline.Step[1];
+        final CountDownLatch waiting = new CountDownLatch(1);
+        SearchPipeline<Trace> pipeline = new SearchPipeline<>(executor, 2, outcome)
+                .setStage(SearchPipeline.StageName.LOCATE, new SearchPipeline.Stage<Trace>() {
+                    @Override
+                    public void run(Trace trace, SearchPipeline.Step step) {
+                        pending[0] = step;
+                        waiting.countDown();
+                    }
+                })
+                .setStage(SearchPipeline.StageName.QUERY, recording("query"));
+        Trace trace = new Trace();
+
+        SearchPipeline<Trace>.Job job = pipeline.submit(trace);
+        assertTrue(waiting.await(5, TimeUnit.SECONDS));
+        job.cancel();
+        // The location arrives after the job was superseded
+        pending[0].next();
+        sleep(100);
+
+        assertEquals("cancelled", outcome.result);
+        assertEquals(1, outcome.calls);
+        assertTrue(job.isDone());
+        assertTrue(trace.stages.isEmpty());
+        assertEquals(1, pipeline.getCancelledCount());
+    }
+
+    @Test
+    public void fullPipeline_rejectsNewJobs() throws InterruptedException {
+        Outcome outcome = new Outcome();
+        SearchPipeline<Trace> pipeline = new SearchPipeline<>(executor, 2, outcome)
+                .setStage(SearchPipeline.StageName.LOCATE, new SearchPipeline.Stage<Trace>() {
+                    @Override
+                    public void run(Trace trace, SearchPipeline.Step step) {
+                        // Never calls back
+                    }
+                });
+
+        SearchPipeline<Trace>.Job first = pipeline.submit(new Trace());
+        SearchPipeline<Trace>.Job second = pipeline.submit(new Trace());
+        assertNotNull(first);
+        assertNotNull(second);
+        assertNull(pipeline.submit(new Trace()));
+        assertEquals(1, pipeline.getRejectedCount());
+
+        // Ending a job makes room
+        first.cancel();
+        assertNotNull(pipeline.submit(new Trace()));
+
+        pipeline.shutdown();
+        assertEquals(0, pipeline.getActiveCount());
+        assertNull(pipeline.submit(new Trace()));
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
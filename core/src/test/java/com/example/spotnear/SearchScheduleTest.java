@@ -0,0 +1,35 @@
+package com.example.spotnear;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the intervals of {@link SearchSchedule} after found and empty searches
+ */
+public class SearchScheduleTest {
+    private static final long MINUTE = 60 * 1000L;
+
+    @Test
+    public void retriesSoonerUntilAPlaceIsFound() {
+        SearchSchedule schedule = new SearchSchedule(60 * MINUTE, 5 * MINUTE, new MovementGate());
+
+        assertEquals(60 * MINUTE, schedule.afterPlaceFound());
+        assertEquals(5 * MINUTE, schedule.afterNothingFound(false, 0));
+        assertEquals(60 * MINUTE, schedule.afterNothingFound(true, 0));
+        // The governor's backoff wins over a shorter interval
+        assertEquals(20 * MINUTE, schedule.afterNothingFound(false, 20 * MINUTE));
+    }
+
+    @Test
+    public void stretchesWhileStill() {
+        MovementGate gate = new MovementGate(0.25, 8);
+        SearchSchedule schedule = new SearchSchedule(60 * MINUTE, 5 * MINUTE, gate);
+        gate.shouldQuery(32.08, 34.78, 1000);
+        gate.onQuerySucceeded(32.08, 34.78);
+        gate.shouldQuery(32.08, 34.78, 1000);
+
+        assertTrue(schedule.afterPlaceFound() > 60 * MINUTE);
+        assertTrue(schedule.afterNothingFound(false, 0) > 5 * MINUTE);
+    }
+}
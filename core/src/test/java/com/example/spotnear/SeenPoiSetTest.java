@@ -0,0 +1,128 @@
+package com.example.spotnear;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import okio.Buffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks {@link SeenPoiSet} and that sampling leaves seen POIs out
+ */
+public class SeenPoiSetTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static Poi node(long id, double latitude, double longitude) {
+        return new Poi(id, "node", latitude, longitude, "Place " + id, null, "cafe", null);
+    }
+
+    @Test
+    public void contains_distinguishesIdAndType() throws IOException {
+        SeenPoiSet seen = new SeenPoiSet();
+
+        assertTrue(seen.add(42, PoiBuffer.TYPE_NODE));
+        assertFalse(seen.add(42, PoiBuffer.TYPE_NODE));
+
+        assertTrue(seen.contains(42, PoiBuffer.TYPE_NODE));
+        assertFalse(seen.contains(42, PoiBuffer.TYPE_WAY));
+        assertFalse(seen.contains(43, PoiBuffer.TYPE_NODE));
+        assertEquals(1, seen.size());
+    }
+
+    @Test
+    public void manyKeys_areFoundAfterMergesAndBloomResizes() throws IOException {
+        SeenPoiSet seen = new SeenPoiSet();
+        Random random = new Random(1);
+        long[] ids = new long[5000];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = random.nextInt(Integer.MAX_VALUE) * 16L + 1;
+            seen.add(ids[i], PoiBuffer.TYPE_NODE);
+        }
+
+        for (long id : ids) {
+            assertTrue(seen.contains(id, PoiBuffer.TYPE_NODE));
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < 10000; i++) {
+            // Even ids are never added
+            if (seen.contains(random.nextInt(Integer.MAX_VALUE) * 2L, PoiBuffer.TYPE_NODE)) {
+                falsePositives++;
+            }
+        }
+        assertEquals(0, falsePositives);
+        assertTrue(seen.getBloomRejectCount() > 9900);
+    }
+
+    @Test
+    public void file_keepsKeysAcrossOpens() throws IOException {
+        File file = new File(folder.getRoot(), "seen_pois.bin");
+        SeenPoiSet seen = SeenPoiSet.open(file);
+        seen.add(node(7, 32.08, 34.78));
+        seen.add(node(3, 32.08, 34.78));
+        seen.add(node(7, 32.08, 34.78));
+        assertEquals(16, file.length());
+
+        SeenPoiSet reopened = SeenPoiSet.open(file);
+        assertEquals(2, reopened.size());
+        assertTrue(reopened.contains(node(3, 0, 0)));
+        assertTrue(reopened.contains(node(7, 0, 0)));
+
+        Buffer buffer = new Buffer();
+        reopened.writeTo(buffer);
+        assertEquals(3L << 2, buffer.readLong());
+        assertEquals(7L << 2, buffer.readLong());
+    }
+
+    @Test
+    public void contains_doesNotAllocate() throws IOException {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        SeenPoiSet seen = new SeenPoiSet();
+        for (long id = 0; id < 100000; id += 3) {
+            seen.add(id, PoiBuffer.TYPE_NODE);
+        }
+        // Warm up so the measurement doesn't count class loading
+        int found = 0;
+        for (long id = 0; id < 1000; id++) {
+            found += seen.contains(id, PoiBuffer.TYPE_NODE) ? 1 : 0;
+        }
+
+        long before = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+        for (long id = 0; id < 100000; id++) {
+            found += seen.contains(id, PoiBuffer.TYPE_NODE) ? 1 : 0;
+        }
+        long allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+
+        assertEquals(334 + 33334, found);
+        // Only the measurement itself may allocate
+        assertTrue("allocated " + allocated + " bytes", allocated < 1024);
+    }
+
+    @Test
+    public void indexSample_skipsSeenPois() throws IOException {
+        PoiSpatialIndex index = new PoiSpatialIndex();
+        SeenPoiSet seen = new SeenPoiSet();
+        for (long id = 1; id <= 20; id++) {
+            index.add(node(id, 32.08 + id * 1e-4, 34.78));
+            if (id != 13) {
+                seen.add(id, PoiBuffer.TYPE_NODE);
+            }
+        }
+        Random random = new Random(2);
+
+        for (int i = 0; i < 10; i++) {
+            int row = index.sample(32.081, 34.78, 1000, random, seen);
+            assertEquals(13, index.toPoi(row).getId());
+        }
+        seen.add(13, PoiBuffer.TYPE_NODE);
+        assertEquals(-1, index.sample(32.081, 34.78, 1000, random, seen));
+    }
+}
@@ -0,0 +1,92 @@
+package com.example.spotnear;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the batching and counters of {@link SettingsSnapshot}
+ */
+public class SettingsSnapshotTest {
+
+    private static Map<String, Object> stored() {
+        Map<String, Object> stored = new HashMap<>();
+        stored.put("isServiceRunning", true);
+        stored.put("poiSearchRadius", 1500);
+        stored.put("last_location_update_time", 1000L);
+        return stored;
+    }
+
+    @Test
+    public void getters_decodeStoredValuesAndDefaults() {
+        SettingsSnapshot snapshot = new SettingsSnapshot(stored());
+
+        assertTrue(snapshot.getBoolean("isServiceRunning", false));
+        assertEquals(1500, snapshot.getInt("poiSearchRadius", 1000));
+        assertEquals(1000L, snapshot.getLong("last_location_update_time", 0));
+        assertEquals(0.25f, snapshot.getFloat("movementThreshold", 0.25f), 0);
+        assertNull(snapshot.getString("last_known_location", null));
+        // A value of another type falls back to the default like SharedPreferences would fail
+        assertEquals(7, snapshot.getInt("isServiceRunning", 7));
+    }
+
+    @Test
+    public void locationCycle_isOneDiskWriteInsteadOfThree() {
+        SettingsSnapshot snapshot = new SettingsSnapshot(stored());
+
+        // One location callback plus onResume, as in MainActivity
+        snapshot.put("last_known_location", "Lat: 32.08, Lon: 34.78");
+        snapshot.put("last_location_update_time", 2000L);
+        snapshot.put("isServiceRunning", true);
+        Map<String, Object> changes = snapshot.takeChanges();
+        snapshot.onChangesWritten();
+
+        assertEquals(2, changes.size());
+        assertEquals("Lat: 32.08, Lon: 34.78", changes.get("last_known_location"));
+        assertEquals(2000L, changes.get("last_location_update_time"));
+        assertEquals(3, snapshot.getRequestedWrites());
+        assertEquals(1, snapshot.getSkippedWrites());
+        assertEquals(1, snapshot.getDiskWrites());
+        assertFalse(snapshot.hasChanges());
+    }
+
+    @Test
+    public void laterChangesOfTheSameKey_coalesce() {
+        SettingsSnapshot snapshot = new SettingsSnapshot(Collections.<String, Object>emptyMap());
+
+        for (long time = 1; time <= 10; time++) {
+            snapshot.put("last_location_update_time", time);
+        }
+
+        assertEquals(Collections.<String, Object>singletonMap("last_location_update_time", 10L), snapshot.takeChanges());
+        assertEquals(10L, snapshot.getLong("last_location_update_time", 0));
+    }
+
+    @Test
+    public void remove_isWrittenOnlyIfKeyExists() {
+        SettingsSnapshot snapshot = new SettingsSnapshot(stored());
+
+        assertFalse(snapshot.put("placeDetails", null));
+        assertTrue(snapshot.put("poiSearchRadius", null));
+
+        Map<String, Object> changes = snapshot.takeChanges();
+        assertTrue(changes.containsKey("poiSearchRadius"));
+        assertNull(changes.get("poiSearchRadius"));
+        assertEquals(1000, snapshot.getInt("poiSearchRadius", 1000));
+    }
+
+    @Test
+    public void endCycle_resetsCycleCounters() {
+        SettingsSnapshot snapshot = new SettingsSnapshot(stored());
+        snapshot.put("poiSearchRadius", 2000);
+        snapshot.takeChanges();
+        snapshot.onChangesWritten();
+
+        assertTrue(snapshot.endCycle().startsWith("1 setting writes requested, 1 disk writes"));
+        assertTrue(snapshot.endCycle().startsWith("0 setting writes requested, 0 disk writes"));
+    }
+}
@@ -0,0 +1,173 @@
+package com.example.spotnear;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that {@link TileCoverage} asks only for the tiles a circle adds to those already held
+ */
+public class TileCoverageTest {
+    private static final double LATITUDE = 32.0801;
+    private static final double LONGITUDE = 34.7801;
+    private static final int RADIUS = 1000;
+
+    private static double east(double meters) {
+        return LONGITUDE + meters / (GeoUtils.METERS_PER_DEGREE * Math.cos(Math.toRadians(LATITUDE)));
+    }
+
+    @Test
+    public void emptyCoverage_missesEveryTileOfTheCircle() {
+        TileCoverage coverage = new TileCoverage();
+
+        double[] boxes = coverage.missingBoxes(LATITUDE, LONGITUDE, RADIUS, 0);
+
+        assertFalse(coverage.covers(LATITUDE, LONGITUDE, RADIUS, 0));
+        int tiles = coverage.tileCount(LATITUDE, LONGITUDE, RADIUS);
+        assertEquals(tiles, coverage.missingTileCount(LATITUDE, LONGITUDE, RADIUS, 0));
+        // Runs along the rows, far fewer boxes than tiles
+        assertTrue(boxes.length / 4 < tiles / 4);
+        for (int i = 0; i < boxes.length; i += 4) {
+            assertTrue(boxes[i] < boxes[i + 2]);
+            assertTrue(boxes[i + 1] < boxes[i + 3]);
+        }
+        // The tiles hug the circle: less than twice its area
+        double tileSide = TileCoverage.DEFAULT_TILE_DEGREES * GeoUtils.METERS_PER_DEGREE;
+        double tileArea = tileSide * tileSide * Math.cos(Math.toRadians(LATITUDE));
+        assertTrue(tiles * tileArea < 2 * Math.PI * RADIUS * RADIUS);
+    }
+
+    @Test
+    public void heldTiles_coverTheCircle() {
+        TileCoverage coverage = new TileCoverage();
+        double[] boxes = coverage.missingBoxes(LATITUDE, LONGITUDE, RADIUS, 0);
+
+        assertEquals(coverage.tileCount(LATITUDE, LONGITUDE, RADIUS), coverage.markHeld(boxes, 0));
+
+        assertTrue(coverage.covers(LATITUDE, LONGITUDE, RADIUS, 0));
+        assertTrue(coverage.covers(LATITUDE, LONGITUDE, RADIUS / 2, 0));
+        assertEquals(0, coverage.missingBoxes(LATITUDE, LONGITUDE, RADIUS, 0).length);
+    }
+
+    @Test
+    public void walking300m_fetchesOnlyTheNewEdge() {
+        TileCoverage coverage = new TileCoverage();
+        coverage.markHeld(coverage.missingBoxes(LATITUDE, LONGITUDE, RADIUS, 0), 0);
+
+        double longitude = east(300);
+        int missing = coverage.missingTileCount(LATITUDE, longitude, RADIUS, 0);
+        int total = coverage.tileCount(LATITUDE, longitude, RADIUS);
+
+        assertTrue(missing > 0);
+        assertTrue(missing + " of " + total, missing * 3 < total);
+        double[] boxes = coverage.missingBoxes(LATITUDE, longitude, RADIUS, 0);
+        for (int i = 0; i < boxes.length; i += 4) {
+            // Only the eastern edge is new
+            assertTrue(boxes[i + 3] > LONGITUDE);
+        }
+        coverage.markHeld(boxes, 0);
+        assertTrue(coverage.covers(LATITUDE, longitude, RADIUS, 0));
+    }
+
+    @Test
+    public void manyRuns_areMergedIntoFewerBoxes() {
+        TileCoverage coverage = new TileCoverage();
+        int runs = coverage.missingBoxes(LATITUDE, LONGITUDE, RADIUS, 0).length / 4;
+
+        double[] boxes = coverage.missingBoxes(LATITUDE, LONGITUDE, RADIUS, 5, 0);
+
+        assertTrue(runs > 5);
+        assertTrue(boxes.length > 0 && boxes.length / 4 <= 5);
+        assertTrue(coverage.markHeld(boxes, 0) >= coverage.tileCount(LATITUDE, LONGITUDE, RADIUS));
+        assertTrue(coverage.covers(LATITUDE, LONGITUDE, RADIUS, 0));
+    }
+
+    @Test
+    public void circleQuery_holdsOnlyTheTilesWhollyInside() {
+        TileCoverage coverage = new TileCoverage();
+
+        int marked = coverage.markCircleHeld(LATITUDE, LONGITUDE, RADIUS, 0);
+
+        int total = coverage.tileCount(LATITUDE, LONGITUDE, RADIUS);
+        assertTrue(marked > total / 2);
+        assertEquals(total - marked, coverage.missingTileCount(LATITUDE, LONGITUDE, RADIUS, 0));
+        assertFalse(coverage.covers(LATITUDE, LONGITUDE, RADIUS, 0));
+        assertTrue(coverage.covers(LATITUDE, LONGITUDE, RADIUS - 200, 0));
+    }
+
+    @Test
+    public void leastRecentlyUsedTiles_areForgotten() {
+        TileCoverage coverage = new TileCoverage(TileCoverage.DEFAULT_TILE_DEGREES, 10);
+
+        coverage.markHeld(coverage.missingBoxes(LATITUDE, LONGITUDE, RADIUS, 0), 0);
+
+        assertEquals(10, coverage.size());
+        assertFalse(coverage.covers(LATITUDE, LONGITUDE, RADIUS, 0));
+    }
+
+    @Test
+    public void expiredTiles_areFetchedAgain() {
+        TileCoverage coverage = new TileCoverage();
+        coverage.markHeld(coverage.missingBoxes(LATITUDE, LONGITUDE, RADIUS, 0), 0);
+        long expiry = PoiCache.DEFAULT_TTL_MILLIS;
+
+        assertTrue(coverage.covers(LATITUDE, LONGITUDE, RADIUS, expiry - 1));
+        assertFalse(coverage.covers(LATITUDE, LONGITUDE, RADIUS, expiry));
+        assertEquals(coverage.tileCount(LATITUDE, LONGITUDE, RADIUS),
+                coverage.missingTileCount(LATITUDE, LONGITUDE, RADIUS, expiry));
+
+        coverage.markHeld(coverage.missingBoxes(LATITUDE, LONGITUDE, RADIUS, expiry), expiry);
+        assertTrue(coverage.covers(LATITUDE, LONGITUDE, RADIUS, expiry));
+    }
+
+    @Test
+    public void boxQuery_isUsedOnlyWhenItSavesMoreThanItsLongerRequestCosts() {
+        TileCoverage coverage = new TileCoverage();
+        QueryBytes empty = new QueryBytes(coverage, coverage.missingBoxes(LATITUDE, LONGITUDE, RADIUS, 12, 0));
+        // Hold the circle of the previous search 300 m to the west
+        coverage.markHeld(coverage.missingBoxes(LATITUDE, east(-300), RADIUS, 12, 0), 0);
+        QueryBytes moved = new QueryBytes(coverage, coverage.missingBoxes(LATITUDE, LONGITUDE, RADIUS, 12, 0));
+
+        // Nothing held: the boxes reach past the circle and only add to the request
+        assertTrue(empty.extraRequestBytes > 0);
+        assertFalse(empty.isCheaper(20));
+        // Most tiles held: the saving grows with the density, the request doesn't
+        assertFalse(moved.isCheaper(0.5));
+        assertTrue(moved.isCheaper(20));
+        // Nothing to weigh the request against
+        assertFalse(moved.isCheaper(Double.NaN));
+    }
+
+    @Test
+    public void emptyCoverage_queriesTheCircle() {
+        TileCoverage coverage = new TileCoverage();
+        QueryBytes empty = new QueryBytes(coverage, coverage.missingBoxes(LATITUDE, LONGITUDE, RADIUS, 12, 0));
+
+        // However dense the area, or unknown, the boxes of a fresh area only reach past the circle
+        assertFalse(empty.isCheaper(Double.NaN));
+        assertFalse(empty.isCheaper(20));
+        assertFalse(empty.isCheaper(10_000));
+    }
+
+    /**
+     * The request and response bytes of a box query against the query of the whole circle
+     */
+    private static final class QueryBytes {
+        final TileCoverage coverage;
+        final double[] boxes;
+        final long extraRequestBytes;
+
+        QueryBytes(TileCoverage coverage, double[] boxes) {
+            OverpassQueryBuilder builder = new OverpassQueryBuilder(PoiCategory.DEFAULTS).setLimit(200);
+            this.coverage = coverage;
+            this.boxes = boxes;
+            this.extraRequestBytes = OverpassClient.requestBytes(builder.buildBoxes(boxes))
+                    - OverpassClient.requestBytes(builder.build(LATITUDE, LONGITUDE, RADIUS));
+        }
+
+        boolean isCheaper(double densityPerSquareKm) {
+            return coverage.isBoxQueryCheaper(boxes, LATITUDE, LONGITUDE, RADIUS, densityPerSquareKm, 200,
+                    OverpassQueryBuilder.JSON_ELEMENT_BYTES, extraRequestBytes, 0);
+        }
+    }
+}
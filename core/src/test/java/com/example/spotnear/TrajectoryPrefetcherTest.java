@@ -0,0 +1,154 @@
+package com.example.spotnear;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that {@link TrajectoryPrefetcher} predicts steady movement, backs off on misses and keeps
+ * within its data budget
+ */
+public class TrajectoryPrefetcherTest {
+    private static final long MINUTE = 60 * 1000L;
+    private static final long NOON = 20_000 * WakeBudget.DAY_MILLIS + WakeBudget.DAY_MILLIS / 2;
+    private static final double LATITUDE = 32.05;
+    private static final double LONGITUDE = 34.72;
+    private static final int RADIUS = 300;
+
+    static class MemoryStore implements TrajectoryPrefetcher.Store {
+        long[] state;
+
+        @Override
+        public long[] loadPrefetchState() {
+            return state;
+        }
+
+        @Override
+        public void savePrefetchState(long[] state) {
+            this.state = state.clone();
+        }
+    }
+
+    private static double east(double meters) {
+        return LONGITUDE + meters / (GeoUtils.METERS_PER_DEGREE * Math.cos(Math.toRadians(LATITUDE)));
+    }
+
+    /**
+     * Feed a walk heading east at a speed, with a fix every 10 seconds
+     *
+     * @return The time of the last fix
+     */
+    private static long walkEast(TrajectoryPrefetcher prefetcher, double speed, long fromMillis, long durationMillis) {
+        long time = fromMillis;
+        for (; time <= fromMillis + durationMillis; time += 10_000) {
+            prefetcher.onFix(new LocationFix(LATITUDE, east(speed * (time - fromMillis) / 1000.0), 8f, -1f, time));
+        }
+        return time - 10_000;
+    }
+
+    @Test
+    public void steadyWalk_isCarriedForward() {
+        TrajectoryPrefetcher prefetcher = new TrajectoryPrefetcher(new MemoryStore());
+        long last = walkEast(prefetcher, 1.4, 0, 3 * MINUTE);
+
+        double[] prediction = prefetcher.predict(5 * MINUTE, last, NOON);
+
+        assertNotNull(prediction);
+        assertEquals(1.4, prefetcher.getSpeedMetersPerSecond(), 0.05);
+        assertEquals(90, prefetcher.getBearingDegrees(), 1);
+        assertEquals(LATITUDE, prediction[0], 1e-5);
+        double expected = 1.4 * (3 * 60 + 5 * 60);
+        assertEquals(expected, GeoUtils.distanceMeters(LATITUDE, LONGITUDE, prediction[0], prediction[1]), 5);
+        assertEquals(TrajectoryPrefetcher.PREDICTION_ERROR * 1.4 * 300, prediction[2], 5);
+    }
+
+    @Test
+    public void stillOrUnknownDevice_isNotPredicted() {
+        TrajectoryPrefetcher prefetcher = new TrajectoryPrefetcher(new MemoryStore());
+        assertNull(prefetcher.predict(5 * MINUTE, 0, NOON));
+
+        // Jitter within the accuracy of the fixes
+        for (int i = 0; i < 20; i++) {
+            prefetcher.onFix(new LocationFix(LATITUDE, east(i % 2 == 0 ? 0 : 5), 8f, -1f, i * 10_000L));
+        }
+
+        assertNull(prefetcher.predict(5 * MINUTE, 190_000, NOON));
+    }
+
+    @Test
+    public void searchesBeyondTheHorizonOrWithStaleFixes_areNotPredicted() {
+        TrajectoryPrefetcher prefetcher = new TrajectoryPrefetcher(new MemoryStore(), 15 * MINUTE, 1024 * 1024);
+        long last = walkEast(prefetcher, 1.4, 0, 3 * MINUTE);
+
+        assertNull(prefetcher.predict(60 * MINUTE, last, NOON));
+        assertNull(prefetcher.predict(5 * MINUTE, last + TrajectoryPrefetcher.TRACK_WINDOW_MILLIS + 1, NOON));
+        assertNotNull(prefetcher.predict(15 * MINUTE, last, NOON));
+    }
+
+    @Test
+    public void searchInsideTheTarget_isAHit() {
+        TrajectoryPrefetcher prefetcher = new TrajectoryPrefetcher(new MemoryStore());
+        long last = walkEast(prefetcher, 1.4, 0, 3 * MINUTE);
+        double[] prediction = prefetcher.predict(5 * MINUTE, last, NOON);
+        prefetcher.onPrefetched(prediction[0], prediction[1], RADIUS + prediction[2], 4096, NOON);
+        assertTrue(prefetcher.isPending());
+
+        // The walk went on as predicted
+        assertTrue(prefetcher.onSearch(LATITUDE, east(1.4 * (8 * 60)), RADIUS, last + 5 * MINUTE));
+
+        assertFalse(prefetcher.isPending());
+        assertEquals(1, prefetcher.getHitCount());
+        assertEquals(0, prefetcher.getMissCount());
+        assertEquals(1.0, prefetcher.getHitRatio(), 0);
+        // A search without a pending prefetch resolves nothing
+        assertFalse(prefetcher.onSearch(LATITUDE, LONGITUDE, RADIUS, last + 6 * MINUTE));
+        assertEquals(1, prefetcher.getHitCount() + prefetcher.getMissCount());
+    }
+
+    @Test
+    public void misses_backOffLongerEachTime() {
+        long horizon = 15 * MINUTE;
+        TrajectoryPrefetcher prefetcher = new TrajectoryPrefetcher(new MemoryStore(), horizon, 1024 * 1024);
+        long time = walkEast(prefetcher, 1.4, 0, 3 * MINUTE);
+        double[] prediction = prefetcher.predict(5 * MINUTE, time, NOON);
+        prefetcher.onPrefetched(prediction[0], prediction[1], RADIUS + prediction[2], 4096, NOON);
+
+        // The device turned back
+        assertFalse(prefetcher.onSearch(LATITUDE, LONGITUDE, RADIUS, time + 5 * MINUTE));
+        time += 5 * MINUTE;
+        assertEquals(1, prefetcher.getMissCount());
+        long resumed = walkEast(prefetcher, 1.4, time + 10_000, 3 * MINUTE);
+        assertNull(prefetcher.predict(5 * MINUTE, time + horizon - 1, NOON));
+        assertNotNull(prefetcher.predict(5 * MINUTE, Math.max(resumed, time + horizon), NOON));
+
+        // A second miss in a row backs off twice as long
+        prediction = prefetcher.predict(5 * MINUTE, time + horizon, NOON);
+        prefetcher.onPrefetched(prediction[0], prediction[1], RADIUS + prediction[2], 4096, NOON);
+        time += horizon;
+        assertFalse(prefetcher.onSearch(LATITUDE, LONGITUDE, RADIUS, time));
+        walkEast(prefetcher, 1.4, time + 10_000, 3 * MINUTE);
+        assertNull(prefetcher.predict(5 * MINUTE, time + 2 * horizon - 1, NOON));
+        assertEquals(2, prefetcher.getMissCount());
+        assertEquals(0, prefetcher.getHitRatio(), 0);
+    }
+
+    @Test
+    public void spentBudget_stopsPredictionsUntilTheNextDay() {
+        MemoryStore store = new MemoryStore();
+        TrajectoryPrefetcher prefetcher = new TrajectoryPrefetcher(store, 15 * MINUTE, 10_000);
+        long last = walkEast(prefetcher, 1.4, 0, 3 * MINUTE);
+        double[] prediction = prefetcher.predict(5 * MINUTE, last, NOON);
+        prefetcher.onPrefetched(prediction[0], prediction[1], RADIUS + prediction[2], 12_000, NOON);
+        prefetcher.onSearch(prediction[0], prediction[1], RADIUS, last + 5 * MINUTE);
+
+        assertEquals(-2000, prefetcher.getRemainingBytes(NOON));
+        assertNull(prefetcher.predict(5 * MINUTE, last, NOON));
+        assertNotNull(prefetcher.predict(5 * MINUTE, last, NOON + WakeBudget.DAY_MILLIS));
+
+        // The accounting survives a restart
+        TrajectoryPrefetcher restarted = new TrajectoryPrefetcher(store, 15 * MINUTE, 10_000);
+        assertEquals(-2000, restarted.getRemainingBytes(NOON));
+        assertEquals(1, restarted.getHitCount());
+        assertEquals(12_000, restarted.getTotalBytes());
+    }
+}
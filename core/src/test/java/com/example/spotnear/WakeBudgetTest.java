@@ -0,0 +1,129 @@
+package com.example.spotnear;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that {@link WakeBudget} holds the lock exactly while scopes are open and keeps within budget
+ */
+public class WakeBudgetTest {
+    private static final long MINUTE = 60 * 1000L;
+    // Noon on some day, so the tests don't cross midnight by accident
+    private static final long NOON = 20_000 * WakeBudget.DAY_MILLIS + WakeBudget.DAY_MILLIS / 2;
+
+    /**
+     * A lock recording how it was used
+     */
+    static class FakeLock implements WakeBudget.Lock {
+        boolean held;
+        int acquires;
+        long timeoutMillis;
+
+        @Override
+        public void acquire(long timeoutMillis) {
+            held = true;
+            acquires++;
+            this.timeoutMillis = timeoutMillis;
+        }
+
+        @Override
+        public void release() {
+            assertTrue("released while not held", held);
+            held = false;
+        }
+
+        @Override
+        public boolean isHeld() {
+            return held;
+        }
+    }
+
+    static class MemoryStore implements WakeBudget.Store {
+        long[] state;
+
+        @Override
+        public long[] loadWakeState() {
+            return state;
+        }
+
+        @Override
+        public void saveWakeState(long[] state) {
+            this.state = state.clone();
+        }
+    }
+
+    @Test
+    public void overlappingScopes_holdTheLockForOneCycle() {
+        FakeLock lock = new FakeLock();
+        WakeBudget budget = new WakeBudget(lock, new MemoryStore(), 30 * MINUTE, 10 * MINUTE);
+
+        WakeBudget.Scope search = budget.open("search", NOON);
+        WakeBudget.Scope fetch = budget.open("fetch", NOON + 1000);
+        assertTrue(lock.held);
+        assertEquals(1, lock.acquires);
+        assertEquals(10 * MINUTE, lock.timeoutMillis);
+
+        fetch.close(NOON + 4000);
+        assertTrue(lock.held);
+        search.close(NOON + 5000);
+        // Closing again, as a late failure path would, changes nothing
+        search.close(NOON + 9000);
+
+        assertFalse(lock.held);
+        assertEquals(1, budget.getCycleCount());
+        assertEquals(5000, budget.getLastCycleMillis());
+        assertEquals(5000, budget.getCauseMillis("search"));
+        assertEquals(3000, budget.getCauseMillis("fetch"));
+        assertEquals(5.0, budget.getTotalWakeSeconds(), 0);
+    }
+
+    @Test
+    public void spentBudget_refusesScopesUntilTheNextDay() {
+        FakeLock lock = new FakeLock();
+        WakeBudget budget = new WakeBudget(lock, new MemoryStore(), 10 * MINUTE, 10 * MINUTE);
+
+        budget.open("search", NOON).close(NOON + 8 * MINUTE);
+        WakeBudget.Scope scope = budget.open("search", NOON + 9 * MINUTE);
+        // Only the rest of the budget may be held
+        assertEquals(2 * MINUTE, lock.timeoutMillis);
+        // The scope is never closed; the lock times out by itself
+        budget.closeAll(NOON + 30 * MINUTE);
+        assertNotNull(scope);
+
+        assertEquals(10 * MINUTE, budget.getUsedTodayMillis(NOON + 31 * MINUTE));
+        assertNull(budget.open("search", NOON + 31 * MINUTE));
+        assertEquals(1, budget.getDeniedCount());
+        assertFalse(lock.held);
+
+        assertNotNull(budget.open("search", NOON + WakeBudget.DAY_MILLIS));
+        assertEquals(0, budget.getUsedTodayMillis(NOON + WakeBudget.DAY_MILLIS));
+    }
+
+    @Test
+    public void closeAll_releasesTheLock() {
+        FakeLock lock = new FakeLock();
+        WakeBudget budget = new WakeBudget(lock, new MemoryStore(), 30 * MINUTE, 10 * MINUTE);
+        budget.open("search", NOON);
+        budget.open("search", NOON);
+
+        assertEquals(2, budget.closeAll(NOON + 2000));
+
+        assertFalse(lock.held);
+        assertEquals(0, budget.getOpenCount());
+        assertEquals(2000, budget.getLastCycleMillis());
+    }
+
+    @Test
+    public void accounting_survivesRestarts() {
+        MemoryStore store = new MemoryStore();
+        WakeBudget first = new WakeBudget(new FakeLock(), store, 30 * MINUTE, 10 * MINUTE);
+        first.open("search", NOON).close(NOON + 3 * MINUTE);
+
+        WakeBudget second = new WakeBudget(new FakeLock(), store, 30 * MINUTE, 10 * MINUTE);
+
+        assertEquals(180.0, second.getTotalWakeSeconds(), 0);
+        assertEquals(1, second.getCycleCount());
+        assertEquals(27 * MINUTE, second.getRemainingMillis(NOON + 4 * MINUTE));
+    }
+}
@@ -0,0 +1,124 @@
+package com.example.spotnear;
+
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Generates synthetic Overpass responses for tests and benchmarks.
+ * <p>
+ * Elements carry a realistic mix of extra OSM tags (addresses, opening hours, contact details)
+ * that the JSON format transfers and the CSV format leaves out, so size comparisons between the
+ * two formats reflect real responses. The same seed always gives the same response.
+ */
+public final class OverpassFixtures {
+    private static final String[][] CATEGORIES = {
+            {"leisure", "park"}, {"amenity", "cafe"}, {"amenity", "restaurant"},
+            {"tourism", "museum"}, {"tourism", "viewpoint"}, {"tourism", "hotel"}
+    };
+    private static final String[] EXTRA_TAGS = {
+            "addr:city", "addr:housenumber", "addr:postcode", "addr:street", "opening_hours",
+            "phone", "website", "wheelchair", "cuisine", "outdoor_seating", "name:en", "name:he"
+    };
+
+    private OverpassFixtures() {
+    }
+
+    /**
+     * A JSON response with the given number of elements, as returned for "out center"
+     */
+    public static String json(int elements, long seed) {
+        Random random = new Random(seed);
+        StringBuilder json = new StringBuilder(elements * 400);
+        json.append("{\n  \"version\": 0.6,\n  \"generator\": \"Overpass API 0.7.62\",\n")
+                .append("  \"osm3s\": {\n    \"timestamp_osm_base\": \"2024-08-08T09:00:00Z\",\n")
+                .append("    \"copyright\": \"The data included in this document is from www.openstreetmap.org.\"\n  },\n")
+                .append("  \"elements\": [\n");
+        for (int i = 0; i < elements; i++) {
+            boolean way = random.nextInt(3) == 0;
+            String[] category = CATEGORIES[random.nextInt(CATEGORIES.length)];
+            double latitude = 32.0 + random.nextDouble() * 0.1;
+            double longitude = 34.7 + random.nextDouble() * 0.1;
+            if (i > 0) {
+                json.append(",\n");
+            }
+            json.append("{\n  \"type\": \"").append(way ? "way" : "node").append("\",\n")
+                    .append("  \"id\": ").append(100000000L + i).append(",\n");
+            if (way) {
+                json.append("  \"center\": {\n    \"lat\": ").append(format(latitude))
+                        .append(",\n    \"lon\": ").append(format(longitude)).append("\n  },\n")
+                        .append("  \"nodes\": [\n");
+                int nodes = 4 + random.nextInt(12);
+                for (int n = 0; n < nodes; n++) {
+                    json.append(n > 0 ? ",\n    " : "    ").append(200000000L + random.nextInt(100000000));
+                }
+                json.append("\n  ],\n");
+            } else {
+                json.append("  \"lat\": ").append(format(latitude)).append(",\n")
+                        .append("  \"lon\": ").append(format(longitude)).append(",\n");
+            }
+            json.append("  \"tags\": {\n    \"").append(category[0]).append("\": \"").append(category[1]).append('"');
+            if (random.nextInt(4) != 0) {
+                json.append(",\n    \"name\": \"").append(name(random, i)).append('"');
+            }
+            int extras = random.nextInt(EXTRA_TAGS.length);
+            for (int t = 0; t < extras; t++) {
+                json.append(",\n    \"").append(EXTRA_TAGS[t]).append("\": \"value ").append(random.nextInt(1000)).append('"');
+            }
+            json.append("\n  }\n}");
+        }
+        return json.append("\n\n  ]\n}\n").toString();
+    }
+
+    /**
+     * A JSON response of about the given size, like the responses recorded in small towns (10 KB)
+     * up to a dense city centre without a limit (10 MB)
+     *
+     * @param bytes The size to approach
+     * @param seed  The seed of the elements
+     */
+    public static String jsonOfSize(long bytes, long seed) {
+        // Elements average the same size whatever their number
+        double bytesPerElement = json(1000, seed).length() / 1000.0;
+        return json((int) Math.max(1, Math.round(bytes / bytesPerElement)), seed);
+    }
+
+    /**
+     * A CSV response with the same elements as {@link #json(int, long)} for the same seed
+     */
+    public static String csv(int elements, long seed) {
+        Random random = new Random(seed);
+        StringBuilder csv = new StringBuilder(elements * 64);
+        for (int i = 0; i < elements; i++) {
+            boolean way = random.nextInt(3) == 0;
+            String[] category = CATEGORIES[random.nextInt(CATEGORIES.length)];
+            double latitude = 32.0 + random.nextDouble() * 0.1;
+            double longitude = 34.7 + random.nextDouble() * 0.1;
+            if (way) {
+                int nodes = 4 + random.nextInt(12);
+                for (int n = 0; n < nodes; n++) {
+                    random.nextInt(100000000);
+                }
+            }
+            String name = random.nextInt(4) != 0 ? name(random, i) : "";
+            int extras = random.nextInt(EXTRA_TAGS.length);
+            for (int t = 0; t < extras; t++) {
+                random.nextInt(1000);
+            }
+            csv.append(way ? "way" : "node").append('\t').append(100000000L + i).append('\t')
+                    .append(format(latitude)).append('\t').append(format(longitude)).append('\t')
+                    .append(name).append('\t')
+                    .append("leisure".equals(category[0]) ? category[1] : "").append('\t')
+                    .append("amenity".equals(category[0]) ? category[1] : "").append('\t')
+                    .append("tourism".equals(category[0]) ? category[1] : "").append('\n');
+        }
+        return csv.toString();
+    }
+
+    private static String name(Random random, int index) {
+        return "Place " + index + (random.nextBoolean() ? " Café" : " גן");
+    }
+
+    private static String format(double coordinate) {
+        return String.format(Locale.US, "%.7f", coordinate);
+    }
+}
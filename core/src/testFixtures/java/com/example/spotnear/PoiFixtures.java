@@ -0,0 +1,37 @@
+package com.example.spotnear;
+
+import java.util.Random;
+
+/**
+ * Generates candidate POIs around a location for ranking tests and benchmarks
+ */
+public final class PoiFixtures {
+    public static final double LATITUDE = 32.08;
+    public static final double LONGITUDE = 34.78;
+    public static final double RADIUS = 2000;
+    private static final String[][] TAGS = {
+            {"park", null, null}, {null, "cafe", null}, {null, "restaurant", null},
+            {null, null, "museum"}, {null, "bench", null}};
+
+    private PoiFixtures() {
+    }
+
+    /**
+     * Spread candidates over {@link #RADIUS} meters with a mix of categories like an Overpass response
+     *
+     * @param candidates The number of POIs
+     * @param random     The source of positions and tags
+     */
+    public static PoiBuffer build(int candidates, Random random) {
+        PoiBuffer pois = new PoiBuffer(candidates);
+        double radiusDegrees = RADIUS / GeoUtils.METERS_PER_DEGREE;
+        for (int i = 0; i < candidates; i++) {
+            String[] tags = TAGS[random.nextInt(TAGS.length)];
+            pois.add(new Poi(i + 1, "node",
+                    LATITUDE + (random.nextDouble() * 2 - 1) * radiusDegrees,
+                    LONGITUDE + (random.nextDouble() * 2 - 1) * radiusDegrees,
+                    random.nextInt(3) == 0 ? null : "Place " + i, tags[0], tags[1], tags[2]));
+        }
+        return pois;
+    }
+}
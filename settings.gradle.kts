@@ -22,4 +22,7 @@ dependencyResolutionManagement {
 
 rootProject.name = "SpotNear"
 include(":app")
+include(":core")
+include(":benchmark")
+include(":simulator")
  
\ No newline at end of file
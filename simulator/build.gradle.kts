@@ -0,0 +1,20 @@
+plugins {
+    application
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_1_8
+    targetCompatibility = JavaVersion.VERSION_1_8
+}
+
+dependencies {
+    implementation(project(":core"))
+    // The synthetic city used when no POI file is given
+    implementation(testFixtures(project(":core")))
+
+    testImplementation(libs.junit)
+}
+
+application {
+    mainClass.set("com.example.spotnear.TraceSimulator")
+}
@@ -0,0 +1,255 @@
+package com.example.spotnear;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import okio.BufferedSource;
+import okio.Okio;
+
+/**
+ * A recorded GPS trace, read from a GPX track or a CSV file.
+ * <p>
+ * CSV lines hold {@code time,latitude,longitude[,accuracy[,speed]]}, with the time as epoch
+ * milliseconds or an ISO-8601 timestamp; a header line and lines starting with {@code #} are
+ * skipped. GPX track points use their {@code time}, {@code hdop} and {@code speed} elements.
+ * Missing speeds are derived from the previous point, and missing accuracies default to
+ * {@link #DEFAULT_ACCURACY_METERS}. Fix times are epoch milliseconds.
+ */
+public final class GpsTrace {
+    public static final float DEFAULT_ACCURACY_METERS = 10f;
+    // A GPX hdop of 1 is about this many meters
+    private static final float METERS_PER_HDOP = 5f;
+
+    private static final Pattern TRACK_POINT = Pattern.compile("<trkpt\\b([^>]*)>(.*?)</trkpt>", Pattern.DOTALL);
+    private static final Pattern LATITUDE = Pattern.compile("\\blat=\"([^\"]+)\"");
+    private static final Pattern LONGITUDE = Pattern.compile("\\blon=\"([^\"]+)\"");
+    private static final Pattern TIME = Pattern.compile("<time>\\s*([^<]+?)\\s*</time>");
+    private static final Pattern HDOP = Pattern.compile("<hdop>\\s*([^<]+?)\\s*</hdop>");
+    private static final Pattern SPEED = Pattern.compile("<(?:\\w+:)?speed>\\s*([^<]+?)\\s*</(?:\\w+:)?speed>");
+
+    private final String name;
+    private final LocationFix[] fixes;
+
+    /**
+     * Constructor
+     *
+     * @param name  The name of the trace, for reports
+     * @param fixes The fixes in time order
+     */
+    public GpsTrace(String name, LocationFix[] fixes) {
+        if (fixes.length == 0) {
+            throw new IllegalArgumentException("Trace " + name + " has no fixes");
+        }
+        this.name = name;
+        this.fixes = fixes;
+    }
+
+    /**
+     * Read a trace file, as GPX if its name ends with .gpx and as CSV otherwise
+     */
+    public static GpsTrace read(File file) throws IOException {
+        try (BufferedSource source = Okio.buffer(Okio.source(file))) {
+            if (file.getName().toLowerCase().endsWith(".gpx")) {
+                return readGpx(file.getName(), source);
+            }
+            return readCsv(file.getName(), source);
+        }
+    }
+
+    /**
+     * Read the track points of a GPX document
+     *
+     * @param name   The name of the trace
+     * @param source The document
+     * @return The trace
+     * @throws IOException If the document cannot be read or has no timed track points
+     */
+    public static GpsTrace readGpx(String name, BufferedSource source) throws IOException {
+        List<LocationFix> fixes = new ArrayList<>();
+        Matcher point = TRACK_POINT.matcher(source.readUtf8());
+        while (point.find()) {
+            String attributes = point.group(1);
+            String body = point.group(2);
+            String time = find(TIME, body);
+            if (time == null) {
+                throw new IOException("Track point without a time in " + name);
+            }
+            String hdop = find(HDOP, body);
+            String speed = find(SPEED, body);
+            fixes.add(new LocationFix(
+                    parseDouble(find(LATITUDE, attributes), name),
+                    parseDouble(find(LONGITUDE, attributes), name),
+                    hdop != null ? (float) parseDouble(hdop, name) * METERS_PER_HDOP : DEFAULT_ACCURACY_METERS,
+                    speed != null ? (float) parseDouble(speed, name) : Float.NaN,
+                    parseTime(time, name)));
+        }
+        return new GpsTrace(name, withSpeeds(fixes, name));
+    }
+
+    /**
+     * Read the lines of a CSV trace
+     *
+     * @param name   The name of the trace
+     * @param source The lines
+     * @return The trace
+     * @throws IOException If the lines cannot be read or a line is malformed
+     */
+    public static GpsTrace readCsv(String name, BufferedSource source) throws IOException {
+        List<LocationFix> fixes = new ArrayList<>();
+        String line;
+        while ((line = source.readUtf8Line()) != null) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#") || (fixes.isEmpty() && !startsWithDigit(line))) {
+                continue;
+            }
+            String[] cells = line.split("[,;\t]");
+            if (cells.length < 3) {
+                throw new IOException("Expected time,latitude,longitude in " + name + ": " + line);
+            }
+            fixes.add(new LocationFix(
+                    parseDouble(cells[1], name),
+                    parseDouble(cells[2], name),
+                    cells.length > 3 && !cells[3].isEmpty() ? (float) parseDouble(cells[3], name) : DEFAULT_ACCURACY_METERS,
+                    cells.length > 4 && !cells[4].isEmpty() ? (float) parseDouble(cells[4], name) : Float.NaN,
+                    parseTime(cells[0].trim(), name)));
+        }
+        return new GpsTrace(name, withSpeeds(fixes, name));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int size() {
+        return fixes.length;
+    }
+
+    public LocationFix get(int index) {
+        return fixes[index];
+    }
+
+    public long getStartMillis() {
+        return fixes[0].getElapsedMillis();
+    }
+
+    public long getEndMillis() {
+        return fixes[fixes.length - 1].getElapsedMillis();
+    }
+
+    public long getDurationMillis() {
+        return getEndMillis() - getStartMillis();
+    }
+
+    /**
+     * @return The length of the trace in meters
+     */
+    public double getDistanceMeters() {
+        double distance = 0;
+        for (int i = 1; i < fixes.length; i++) {
+            distance += GeoUtils.distanceMeters(fixes[i - 1].getLatitude(), fixes[i - 1].getLongitude(),
+                    fixes[i].getLatitude(), fixes[i].getLongitude());
+        }
+        return distance;
+    }
+
+    /**
+     * Get the position at a time, interpolated between the recorded fixes
+     *
+     * @param timeMillis The time in epoch milliseconds
+     * @return A fix taken at that time, at the first or last fix outside the trace
+     */
+    public LocationFix fixAt(long timeMillis) {
+        int low = 0;
+        int high = fixes.length - 1;
+        if (timeMillis <= fixes[low].getElapsedMillis()) {
+            return stamp(fixes[low], timeMillis);
+        }
+        if (timeMillis >= fixes[high].getElapsedMillis()) {
+            return stamp(fixes[high], timeMillis);
+        }
+        // The last fix at or before the time
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (fixes[middle].getElapsedMillis() <= timeMillis) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        LocationFix from = fixes[low];
+        LocationFix to = fixes[low + 1];
+        double fraction = (double) (timeMillis - from.getElapsedMillis())
+                / Math.max(1, to.getElapsedMillis() - from.getElapsedMillis());
+        return new LocationFix(
+                from.getLatitude() + (to.getLatitude() - from.getLatitude()) * fraction,
+                from.getLongitude() + (to.getLongitude() - from.getLongitude()) * fraction,
+                from.getAccuracyMeters(), to.getSpeedMetersPerSecond(), timeMillis);
+    }
+
+    private static LocationFix stamp(LocationFix fix, long timeMillis) {
+        return new LocationFix(fix.getLatitude(), fix.getLongitude(), fix.getAccuracyMeters(),
+                fix.getSpeedMetersPerSecond(), timeMillis);
+    }
+
+    /**
+     * Fill in missing speeds from the distance to the previous fix, and check the time order
+     */
+    private static LocationFix[] withSpeeds(List<LocationFix> fixes, String name) throws IOException {
+        LocationFix[] result = new LocationFix[fixes.size()];
+        for (int i = 0; i < result.length; i++) {
+            LocationFix fix = fixes.get(i);
+            if (i > 0 && fix.getElapsedMillis() < result[i - 1].getElapsedMillis()) {
+                throw new IOException("Fixes out of time order in " + name + " at " + fix);
+            }
+            if (!fix.hasSpeed()) {
+                float speed = 0f;
+                if (i > 0 && fix.getElapsedMillis() > result[i - 1].getElapsedMillis()) {
+                    LocationFix previous = result[i - 1];
+                    speed = (float) (GeoUtils.distanceMeters(previous.getLatitude(), previous.getLongitude(),
+                            fix.getLatitude(), fix.getLongitude())
+                            * 1000.0 / (fix.getElapsedMillis() - previous.getElapsedMillis()));
+                }
+                fix = new LocationFix(fix.getLatitude(), fix.getLongitude(), fix.getAccuracyMeters(),
+                        speed, fix.getElapsedMillis());
+            }
+            result[i] = fix;
+        }
+        return result;
+    }
+
+    private static String find(Pattern pattern, String text) {
+        Matcher matcher = pattern.matcher(text);
+        return matcher.find() ? matcher.group(1) : null;
+    }
+
+    private static boolean startsWithDigit(String line) {
+        return Character.isDigit(line.charAt(0));
+    }
+
+    private static double parseDouble(String value, String name) throws IOException {
+        if (value == null) {
+            throw new IOException("Missing coordinate in " + name);
+        }
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed number in " + name + ": " + value, e);
+        }
+    }
+
+    private static long parseTime(String value, String name) throws IOException {
+        try {
+            if (value.indexOf('T') < 0) {
+                return Long.parseLong(value);
+            }
+            return OffsetDateTime.parse(value).toInstant().toEpochMilli();
+        } catch (RuntimeException e) {
+            throw new IOException("Malformed time in " + name + ": " + value, e);
+        }
+    }
+}
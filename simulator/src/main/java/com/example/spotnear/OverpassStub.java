@@ -0,0 +1,212 @@
+package com.example.spotnear;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.BufferedSource;
+
+/**
+ * Answers Overpass queries in process from fixture POIs, as an OkHttp interceptor that never
+ * reaches the network.
+ * <p>
+ * Only the area filters and the limit of the queries built by {@link OverpassQueryBuilder} are
+ * honoured: every fixture POI within the circle, or within any of the bounding boxes, is returned
+ * in the JSON format, up to the limit. Counts the calls and the bytes served.
+ */
+public class OverpassStub implements Interceptor {
+    private static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
+    private static final Pattern AROUND = Pattern.compile("\\(around:(\\d+),(-?[\\d.]+),(-?[\\d.]+)\\)");
+    private static final Pattern BOX = Pattern.compile("\\((-?[\\d.]+),(-?[\\d.]+),(-?[\\d.]+),(-?[\\d.]+)\\)");
+    private static final Pattern LIMIT = Pattern.compile("\\bout [^;]*?(\\d+);");
+
+    private final PoiBuffer pois;
+    private long callCount;
+    private long byteCount;
+    private long elementCount;
+
+    /**
+     * Constructor
+     *
+     * @param pois The POIs known to the stub
+     */
+    public OverpassStub(PoiBuffer pois) {
+        this.pois = pois;
+    }
+
+    /**
+     * Load the POIs of an Overpass JSON response
+     *
+     * @param json The response
+     * @return The stub answering from its elements
+     * @throws IOException If the response is malformed
+     */
+    public static OverpassStub load(BufferedSource json) throws IOException {
+        final PoiBuffer pois = new PoiBuffer();
+        new OverpassStreamParser().parse(json, new OverpassStreamParser.ElementHandler() {
+            @Override
+            public void onElement(OverpassElement element) {
+                if (element.hasPosition()) {
+                    pois.add(element);
+                }
+            }
+        });
+        return new OverpassStub(pois);
+    }
+
+    @Override
+    public Response intercept(Chain chain) {
+        Request request = chain.request();
+        String query = request.url().queryParameter("data");
+        String json = query != null ? answer(query, true) : null;
+        if (json == null) {
+            return respond(request, 400, "Bad Request", "Expected an around or bbox filter".getBytes(StandardCharsets.UTF_8));
+        }
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        synchronized (this) {
+            callCount++;
+            byteCount += body.length;
+        }
+        return respond(request, 200, "OK", body);
+    }
+
+    /**
+     * Measure the response to a query without counting it, to compare queries that weren't sent
+     *
+     * @param query The Overpass QL query
+     * @return The size of the response body in bytes, or -1 if the query has no area filter
+     */
+    public long measure(String query) {
+        String json = answer(query, false);
+        return json != null ? json.getBytes(StandardCharsets.UTF_8).length : -1;
+    }
+
+    /**
+     * Write the JSON response for the circle or the boxes of a query
+     *
+     * @param query The Overpass QL query
+     * @param count Whether to count the elements served
+     * @return The response, or null if the query has no area filter
+     */
+    private String answer(String query, boolean count) {
+        Matcher around = AROUND.matcher(query);
+        double[] circle = null;
+        if (around.find()) {
+            circle = new double[]{Double.parseDouble(around.group(2)), Double.parseDouble(around.group(3)),
+                    Integer.parseInt(around.group(1))};
+        }
+        List<double[]> boxes = new ArrayList<>();
+        Matcher box = BOX.matcher(query);
+        while (box.find()) {
+            boxes.add(new double[]{Double.parseDouble(box.group(1)), Double.parseDouble(box.group(2)),
+                    Double.parseDouble(box.group(3)), Double.parseDouble(box.group(4))});
+        }
+        if (circle == null && boxes.isEmpty()) {
+            return null;
+        }
+        Matcher limit = LIMIT.matcher(query);
+        int maxElements = limit.find() ? Integer.parseInt(limit.group(1)) : Integer.MAX_VALUE;
+        StringBuilder json = new StringBuilder(1024)
+                .append("{\"version\":0.6,\"generator\":\"SpotNear Overpass stub\",\"elements\":[");
+        int elements = 0;
+        for (int row = 0; row < pois.size() && elements < maxElements; row++) {
+            if (!contains(circle, boxes, pois.getLatitude(row), pois.getLongitude(row))) {
+                continue;
+            }
+            if (elements++ > 0) {
+                json.append(',');
+            }
+            String position = String.format(Locale.US, "\"lat\":%.7f,\"lon\":%.7f",
+                    pois.getLatitude(row), pois.getLongitude(row));
+            boolean way = pois.getType(row) == PoiBuffer.TYPE_WAY;
+            json.append("{\"type\":\"").append(way ? "way" : "node").append("\",\"id\":").append(pois.getId(row));
+            if (way) {
+                json.append(",\"center\":{").append(position).append('}');
+            } else {
+                json.append(',').append(position);
+            }
+            json.append(",\"tags\":{");
+            appendTag(json, "name", pois.getText(row, PoiBuffer.FIELD_NAME));
+            appendTag(json, "leisure", pois.getText(row, PoiBuffer.FIELD_LEISURE));
+            appendTag(json, "amenity", pois.getText(row, PoiBuffer.FIELD_AMENITY));
+            appendTag(json, "tourism", pois.getText(row, PoiBuffer.FIELD_TOURISM));
+            json.append("}}");
+        }
+        if (count) {
+            synchronized (this) {
+                elementCount += elements;
+            }
+        }
+        return json.append("]}").toString();
+    }
+
+    private static boolean contains(double[] circle, List<double[]> boxes, double latitude, double longitude) {
+        if (circle != null && GeoUtils.distanceMeters(circle[0], circle[1], latitude, longitude) <= circle[2]) {
+            return true;
+        }
+        for (double[] box : boxes) {
+            if (latitude >= box[0] && longitude >= box[1] && latitude <= box[2] && longitude <= box[3]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void appendTag(StringBuilder json, String key, String value) {
+        if (value == null || value.isEmpty()) {
+            return;
+        }
+        if (json.charAt(json.length() - 1) != '{') {
+            json.append(',');
+        }
+        json.append('"').append(key).append("\":\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\');
+            }
+            json.append(c);
+        }
+        json.append('"');
+    }
+
+    private static Response respond(Request request, int code, String message, byte[] body) {
+        return new Response.Builder()
+                .request(request)
+                .protocol(Protocol.HTTP_1_1)
+                .code(code)
+                .message(message)
+                .body(ResponseBody.create(body, JSON))
+                .build();
+    }
+
+    public int size() {
+        return pois.size();
+    }
+
+    PoiBuffer getPois() {
+        return pois;
+    }
+
+    public synchronized long getCallCount() {
+        return callCount;
+    }
+
+    public synchronized long getByteCount() {
+        return byteCount;
+    }
+
+    public synchronized long getElementCount() {
+        return elementCount;
+    }
+}
@@ -0,0 +1,101 @@
+package com.example.spotnear;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link LocationSource} replaying a {@link GpsTrace} on the simulator's virtual clock.
+ * <p>
+ * The last known fix is the last one delivered to the app, active fixes are the trace position
+ * at the current time, and batched updates are sampled at their interval and delivered together
+ * once the maximum delay has passed. No other app shares passive updates, so they deliver
+ * nothing.
+ */
+final class TraceLocationSource implements LocationSource {
+    private final GpsTrace trace;
+    private long nowMillis;
+    private LocationFix lastFix;
+
+    private UpdateListener batchListener;
+    private long batchIntervalMillis;
+    private long maxDelayMillis;
+    private long nextSampleMillis;
+    private long nextDeliveryMillis;
+
+    private int activeFixCount;
+    private int batchCount;
+    private int batchedFixCount;
+
+    TraceLocationSource(GpsTrace trace) {
+        this.trace = trace;
+        this.nowMillis = trace.getStartMillis();
+    }
+
+    /**
+     * Move the clock forward, delivering the batches due by then
+     *
+     * @param nowMillis The new virtual time
+     */
+    void advanceTo(long nowMillis) {
+        while (batchListener != null && nextDeliveryMillis <= nowMillis) {
+            this.nowMillis = nextDeliveryMillis;
+            List<LocationFix> batch = new ArrayList<>();
+            while (nextSampleMillis <= nextDeliveryMillis) {
+                batch.add(trace.fixAt(nextSampleMillis));
+                nextSampleMillis += batchIntervalMillis;
+            }
+            nextDeliveryMillis += maxDelayMillis;
+            if (!batch.isEmpty()) {
+                batchCount++;
+                batchedFixCount += batch.size();
+                lastFix = batch.get(batch.size() - 1);
+                // The listener may switch back to passive updates, ending the loop
+                batchListener.onFixes(batch.toArray(new LocationFix[0]));
+            }
+        }
+        this.nowMillis = Math.max(this.nowMillis, nowMillis);
+    }
+
+    @Override
+    public void getLastFix(Callback callback) {
+        callback.onFix(lastFix);
+    }
+
+    @Override
+    public void requestActiveFix(Callback callback) {
+        activeFixCount++;
+        lastFix = trace.fixAt(nowMillis);
+        callback.onFix(lastFix);
+    }
+
+    @Override
+    public void requestPassiveUpdates(UpdateListener listener) {
+        batchListener = null;
+    }
+
+    @Override
+    public void requestBatchedUpdates(long intervalMillis, long maxDelayMillis, UpdateListener listener) {
+        this.batchListener = listener;
+        this.batchIntervalMillis = Math.max(1, intervalMillis);
+        this.maxDelayMillis = Math.max(this.batchIntervalMillis, maxDelayMillis);
+        this.nextSampleMillis = nowMillis + this.batchIntervalMillis;
+        this.nextDeliveryMillis = nowMillis + this.maxDelayMillis;
+    }
+
+    @Override
+    public void removeUpdates(UpdateListener listener) {
+        batchListener = null;
+    }
+
+    int getActiveFixCount() {
+        return activeFixCount;
+    }
+
+    int getBatchCount() {
+        return batchCount;
+    }
+
+    int getBatchedFixCount() {
+        return batchedFixCount;
+    }
+}
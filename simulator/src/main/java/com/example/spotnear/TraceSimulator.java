@@ -0,0 +1,726 @@
+package com.example.spotnear;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.Okio;
+
+/**
+ * Replays GPS traces through the scheduling, search and selection logic of the service on a
+ * virtual clock, answering Overpass queries from an in-process {@link OverpassStub}.
+ * <p>
+ * A cycle runs like {@code SpotNearService}: the schedule picks when the next search starts, the
+ * {@link LocationAcquirer} reuses or takes a fix, and the {@link SearchCycle} the service uses
+ * decides the rest: local answers from the region packs, the cache and the spatial index come
+ * before the network, responses grow the search ring and feed the caches, and the best ranked
+ * unseen POI is notified. Region packs are only asked when given. The Overpass governor and
+ * the wake budget run on the virtual clock, so the client is called directly rather than through
+ * {@link OverpassClient}, whose hedging uses the wall clock. Time spent awake comes from a
+ * simple latency model of the {@link Policy}.
+ * <p>
+ * Run with {@code ./gradlew :simulator:run --args="[--pois overpass.json] [--pack area.pack]...
+ * [--policy spec]... trace.gpx|trace.csv..."}, where a policy spec is {@code name:key=value,...} with the keys
+ * {@code found} and {@code retry} (minutes), {@code radius} (meters), {@code threshold},
+ * {@code stretch}, {@code budget} (minutes), {@code tiles} (0 to query the full circle),
+ * {@code tile} (meters) and {@code prefetch} (the horizon in minutes, 0 to turn prefetching off).
+ * Without {@code --pois}, a synthetic city of fixture POIs is used.
+ * <p>
+ * Every network call is also measured against the full-radius query of the same cycle, without
+ * sending it, so the report shows the bytes the tile-diff queries saved.
+ */
+public class TraceSimulator {
+    private static final HttpUrl STUB_URL = HttpUrl.get("http://overpass.stub/api/interpreter");
+
+    /**
+     * The knobs of the service being compared, with the values of the service by default
+     */
+    public static final class Policy {
+        private final String name;
+        private long foundIntervalMillis = TimeUnit.HOURS.toMillis(1);
+        private long retryIntervalMillis = TimeUnit.MINUTES.toMillis(5);
+        private int searchRadius = 1000;
+        private double thresholdFraction = MovementGate.DEFAULT_THRESHOLD_FRACTION;
+        private int maxStretch = MovementGate.DEFAULT_MAX_STRETCH;
+        private long wakeBudgetMillis = TimeUnit.MINUTES.toMillis(30);
+        private boolean tileQueries = true;
+        private double tileDegrees = TileCoverage.DEFAULT_TILE_DEGREES;
+        private int maxRadiusFactor = 1;
+        private long prefetchHorizonMillis = TrajectoryPrefetcher.DEFAULT_HORIZON_MILLIS;
+        private long batchIntervalMillis = 60 * 1000L;
+        private long maxUpdateDelayMillis = TimeUnit.MINUTES.toMillis(15);
+        // Latency model
+        private long activeFixMillis = 5000;
+        private long requestMillis = 800;
+        private long bytesPerSecond = 256 * 1024;
+
+        public Policy(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Parse a policy from {@code name:key=value,...}
+         *
+         * @param spec The policy
+         * @return The policy, with the defaults for the keys not given
+         * @throws IllegalArgumentException If a key is unknown or a value malformed
+         */
+        public static Policy parse(String spec) {
+            int colon = spec.indexOf(':');
+            Policy policy = new Policy(colon < 0 ? spec : spec.substring(0, colon));
+            if (colon < 0) {
+                return policy;
+            }
+            for (String setting : spec.substring(colon + 1).split(",")) {
+                String[] keyValue = setting.split("=", 2);
+                if (keyValue.length != 2) {
+                    throw new IllegalArgumentException("Expected key=value: " + setting);
+                }
+                double value = Double.parseDouble(keyValue[1]);
+                switch (keyValue[0]) {
+                    case "found":
+                        policy.setFoundIntervalMillis((long) (value * 60 * 1000));
+                        break;
+                    case "retry":
+                        policy.setRetryIntervalMillis((long) (value * 60 * 1000));
+                        break;
+                    case "radius":
+                        policy.setSearchRadius((int) value);
+                        break;
+                    case "threshold":
+                        policy.setThresholdFraction(value);
+                        break;
+                    case "stretch":
+                        policy.setMaxStretch((int) value);
+                        break;
+                    case "budget":
+                        policy.setWakeBudgetMillis((long) (value * 60 * 1000));
+                        break;
+                    case "tiles":
+                        policy.setTileQueries(value != 0);
+                        break;
+                    case "tile":
+                        policy.setTileDegrees(value / GeoUtils.METERS_PER_DEGREE);
+                        break;
+                    case "prefetch":
+                        policy.setPrefetchHorizonMillis((long) (value * 60 * 1000));
+                        break;
+                    case "growth":
+                        policy.setMaxRadiusFactor((int) value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown policy key: " + keyValue[0]);
+                }
+            }
+            return policy;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Policy setFoundIntervalMillis(long foundIntervalMillis) {
+            this.foundIntervalMillis = foundIntervalMillis;
+            return this;
+        }
+
+        public Policy setRetryIntervalMillis(long retryIntervalMillis) {
+            this.retryIntervalMillis = retryIntervalMillis;
+            return this;
+        }
+
+        public Policy setSearchRadius(int searchRadius) {
+            this.searchRadius = searchRadius;
+            return this;
+        }
+
+        public Policy setThresholdFraction(double thresholdFraction) {
+            this.thresholdFraction = thresholdFraction;
+            return this;
+        }
+
+        public Policy setMaxStretch(int maxStretch) {
+            this.maxStretch = maxStretch;
+            return this;
+        }
+
+        public Policy setWakeBudgetMillis(long wakeBudgetMillis) {
+            this.wakeBudgetMillis = wakeBudgetMillis;
+            return this;
+        }
+
+        /**
+         * @param tileQueries true to query only the missing tiles, false for the full circle
+         */
+        public Policy setTileQueries(boolean tileQueries) {
+            this.tileQueries = tileQueries;
+            return this;
+        }
+
+        public Policy setTileDegrees(double tileDegrees) {
+            this.tileDegrees = tileDegrees;
+            return this;
+        }
+
+        /**
+         * @param maxRadiusFactor The largest search radius as a multiple of the configured one
+         */
+        public Policy setMaxRadiusFactor(int maxRadiusFactor) {
+            this.maxRadiusFactor = maxRadiusFactor;
+            return this;
+        }
+
+        /**
+         * @param prefetchHorizonMillis How far ahead the next search may be predicted, 0 to not prefetch
+         */
+        public Policy setPrefetchHorizonMillis(long prefetchHorizonMillis) {
+            this.prefetchHorizonMillis = prefetchHorizonMillis;
+            return this;
+        }
+
+        public Policy setLocationBatching(long batchIntervalMillis, long maxUpdateDelayMillis) {
+            this.batchIntervalMillis = batchIntervalMillis;
+            this.maxUpdateDelayMillis = maxUpdateDelayMillis;
+            return this;
+        }
+
+        /**
+         * Set the latency model
+         *
+         * @param activeFixMillis Time to take an active fix
+         * @param requestMillis   Time to the first byte of an Overpass response
+         * @param bytesPerSecond  Download rate of the response body
+         */
+        public Policy setLatencies(long activeFixMillis, long requestMillis, long bytesPerSecond) {
+            this.activeFixMillis = activeFixMillis;
+            this.requestMillis = requestMillis;
+            this.bytesPerSecond = bytesPerSecond;
+            return this;
+        }
+    }
+
+    /**
+     * What replaying one trace under one policy cost and delivered
+     */
+    public static final class Report {
+        String trace;
+        String policy;
+        long durationMillis;
+        int searches;
+        int networkCalls;
+        long payloadBytes;
+        // The queries of the searches as sent
+        long requestBytes;
+        // What the full-radius queries of the same cycles would have downloaded and sent
+        long fullRadiusBytes;
+        long fullRadiusRequestBytes;
+        int throttled;
+        int skippedStill;
+        int localAnswers;
+        // The local answers that came from a region pack
+        int packAnswers;
+        int notifications;
+        // -1 until the first notification
+        long firstNotificationMillis = -1;
+        int prefetches;
+        long prefetchBytes;
+        long prefetchHits;
+        long prefetchMisses;
+        long wakeMillis;
+        int wakeDenied;
+        int activeFixes;
+        int locationBatches;
+
+        public int getSearches() {
+            return searches;
+        }
+
+        public int getNetworkCalls() {
+            return networkCalls;
+        }
+
+        public long getPayloadBytes() {
+            return payloadBytes;
+        }
+
+        public long getFullRadiusBytes() {
+            return fullRadiusBytes;
+        }
+
+        public long getRequestBytes() {
+            return requestBytes;
+        }
+
+        public long getFullRadiusRequestBytes() {
+            return fullRadiusRequestBytes;
+        }
+
+        /**
+         * @return The bytes saved per network call against the full-radius query, both sent and
+         * received, leaving out the prefetches, which have no full-radius counterpart
+         */
+        public double getBytesSavedPerCall() {
+            long saved = fullRadiusBytes + fullRadiusRequestBytes - (payloadBytes - prefetchBytes) - requestBytes;
+            return networkCalls > 0 ? saved / (double) networkCalls : 0;
+        }
+
+        public int getThrottled() {
+            return throttled;
+        }
+
+        public int getSkippedStill() {
+            return skippedStill;
+        }
+
+        public int getLocalAnswers() {
+            return localAnswers;
+        }
+
+        public int getPackAnswers() {
+            return packAnswers;
+        }
+
+        public int getNotifications() {
+            return notifications;
+        }
+
+        /**
+         * @return The time from the start of the trace to the first notification, or -1 if none
+         */
+        public long getFirstNotificationMillis() {
+            return firstNotificationMillis;
+        }
+
+        public int getPrefetches() {
+            return prefetches;
+        }
+
+        public long getPrefetchBytes() {
+            return prefetchBytes;
+        }
+
+        public long getPrefetchHits() {
+            return prefetchHits;
+        }
+
+        public long getPrefetchMisses() {
+            return prefetchMisses;
+        }
+
+        /**
+         * @return The fraction of resolved prefetches that were hits, 0 if none was resolved
+         */
+        public double getPrefetchHitRatio() {
+            long resolved = prefetchHits + prefetchMisses;
+            return resolved > 0 ? prefetchHits / (double) resolved : 0;
+        }
+
+        public long getWakeMillis() {
+            return wakeMillis;
+        }
+
+        public int getActiveFixes() {
+            return activeFixes;
+        }
+
+        public double getNetworkCallsPerHour() {
+            return durationMillis > 0 ? networkCalls * 3600000.0 / durationMillis : 0;
+        }
+
+        public static String header() {
+            return "trace,policy,hours,searches,calls,calls_per_hour,bytes,request_bytes,full_radius_bytes,"
+                    + "full_radius_request_bytes,saved_per_call,"
+                    + "throttled,skipped_still,"
+                    + "local,pack_answers,notifications,first_notification_s,prefetches,prefetch_bytes,prefetch_hits,prefetch_misses,"
+                    + "prefetch_hit_ratio,wake_s,wake_denied,active_fixes,location_batches";
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%s,%s,%.2f,%d,%d,%.2f,%d,%d,%d,%d,%.0f,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d,%.2f,%.1f,%d,%d,%d",
+                    trace, policy, durationMillis / 3600000.0, searches, networkCalls, getNetworkCallsPerHour(),
+                    payloadBytes, requestBytes, fullRadiusBytes, fullRadiusRequestBytes, getBytesSavedPerCall(), throttled, skippedStill, localAnswers, packAnswers, notifications,
+                    firstNotificationMillis < 0 ? -1 : firstNotificationMillis / 1000, prefetches, prefetchBytes,
+                    prefetchHits, prefetchMisses, getPrefetchHitRatio(), wakeMillis / 1000.0,
+                    wakeDenied, activeFixes, locationBatches);
+        }
+    }
+
+    private final Policy policy;
+    private final PoiBuffer pois;
+    private final long seed;
+    private List<RegionPack> regionPacks = Collections.emptyList();
+
+    /**
+     * Constructor
+     *
+     * @param policy The policy to replay traces under
+     * @param pois   The POIs the Overpass stub answers from
+     * @param seed   The seed of the random choices, so runs can be repeated
+     */
+    public TraceSimulator(Policy policy, PoiBuffer pois, long seed) {
+        this.policy = policy;
+        this.pois = pois;
+        this.seed = seed;
+    }
+
+    /**
+     * @param regionPacks The offline packs installed, asked before the network like in the service
+     */
+    public TraceSimulator setRegionPacks(List<RegionPack> regionPacks) {
+        this.regionPacks = regionPacks;
+        return this;
+    }
+
+    /**
+     * Replay a trace from a fresh install
+     *
+     * @param trace The trace
+     * @return The report
+     * @throws IOException If a stub response cannot be parsed
+     */
+    public Report run(GpsTrace trace) throws IOException {
+        return new Run(trace).replay();
+    }
+
+    /**
+     * The state of the service during one replay
+     */
+    private final class Run {
+        final GpsTrace trace;
+        final Report report = new Report();
+        final Random random = new Random(seed);
+        final OverpassStub stub = new OverpassStub(pois);
+        final OkHttpClient client = new OkHttpClient.Builder().addInterceptor(stub).build();
+        final OverpassGovernor governor = new OverpassGovernor(new OverpassGovernor.QuotaStore() {
+            private long[] state;
+
+            @Override
+            public long[] loadQuotaState() {
+                return state;
+            }
+
+            @Override
+            public void saveQuotaState(long[] state) {
+                this.state = state;
+            }
+        }, random);
+        final OverpassQueryBuilder queryBuilder = new OverpassQueryBuilder(PoiCategory.DEFAULTS)
+                .setOutputFormat(OverpassQueryBuilder.OutputFormat.JSON)
+                .setLimit(SearchCycle.MAX_POI_RESULTS);
+        final MovementGate movementGate = new MovementGate(policy.thresholdFraction, policy.maxStretch);
+        final SearchSchedule schedule = new SearchSchedule(policy.foundIntervalMillis, policy.retryIntervalMillis, movementGate);
+        final AdaptiveRadiusPlanner radiusPlanner = new AdaptiveRadiusPlanner(SearchCycle.TARGET_CANDIDATES,
+                SearchCycle.MIN_SEARCH_RADIUS);
+        final PoiCache poiCache = new PoiCache();
+        final PoiSpatialIndex poiIndex = new PoiSpatialIndex();
+        final TileCoverage tileCoverage = new TileCoverage(policy.tileDegrees, TileCoverage.DEFAULT_MAX_TILES);
+        final SeenPoiSet seenPois = new SeenPoiSet();
+        final PoiBuffer responseRows = new PoiBuffer();
+        final TraceLocationSource locationSource;
+        final LocationAcquirer locationAcquirer;
+        final WakeBudget wakeBudget;
+        final TrajectoryPrefetcher prefetcher;
+        final SearchCycle cycle;
+        int lastCategory = -1;
+        // Whether the current search got a response from the stub
+        boolean fetched;
+
+        Run(GpsTrace trace) {
+            this.trace = trace;
+            locationSource = new TraceLocationSource(trace);
+            locationAcquirer = new LocationAcquirer(locationSource, policy.thresholdFraction,
+                    policy.batchIntervalMillis, policy.maxUpdateDelayMillis);
+            wakeBudget = new WakeBudget(new WakeBudget.Lock() {
+                private boolean held;
+
+                @Override
+                public void acquire(long timeoutMillis) {
+                    held = true;
+                }
+
+                @Override
+                public void release() {
+                    held = false;
+                }
+
+                @Override
+                public boolean isHeld() {
+                    return held;
+                }
+            }, new WakeBudget.Store() {
+                private long[] state;
+
+                @Override
+                public long[] loadWakeState() {
+                    return state;
+                }
+
+                @Override
+                public void saveWakeState(long[] state) {
+                    this.state = state;
+                }
+            }, policy.wakeBudgetMillis, WakeBudget.DEFAULT_MAX_HOLD_MILLIS);
+            prefetcher = new TrajectoryPrefetcher(new TrajectoryPrefetcher.Store() {
+                private long[] state;
+
+                @Override
+                public long[] loadPrefetchState() {
+                    return state;
+                }
+
+                @Override
+                public void savePrefetchState(long[] state) {
+                    this.state = state;
+                }
+            }, policy.prefetchHorizonMillis, TrajectoryPrefetcher.DEFAULT_DAILY_BUDGET_BYTES);
+            if (policy.prefetchHorizonMillis > 0) {
+                locationAcquirer.setTrackListener(prefetcher);
+            }
+            cycle = new SearchCycle(queryBuilder, poiCache, poiIndex, tileCoverage, radiusPlanner, movementGate,
+                    seenPois, random)
+                    .setRegionPacks(regionPacks)
+                    .setPrefetcher(policy.prefetchHorizonMillis > 0 ? prefetcher : null)
+                    .setTileQueries(policy.tileQueries)
+                    .setMaxRadiusFactor(policy.maxRadiusFactor);
+        }
+
+        Report replay() throws IOException {
+            report.trace = trace.getName();
+            report.policy = policy.name;
+            report.durationMillis = trace.getDurationMillis();
+            long start = trace.getStartMillis();
+            long next = start;
+            boolean hasFoundPlace = false;
+            while (next <= trace.getEndMillis()) {
+                long now = next;
+                locationSource.advanceTo(now);
+                report.searches++;
+                WakeBudget.Scope wake = wakeBudget.open("search", now);
+                if (wake == null) {
+                    report.wakeDenied++;
+                }
+                long[] busy = {0};
+                Poi poi = search(now, busy);
+                now += busy[0];
+                long delay;
+                if (poi != null) {
+                    report.notifications++;
+                    if (report.firstNotificationMillis < 0) {
+                        report.firstNotificationMillis = now - start;
+                    }
+                    hasFoundPlace = true;
+                    delay = schedule.afterPlaceFound();
+                } else {
+                    delay = schedule.afterNothingFound(hasFoundPlace, governor.getRetryDelayMillis(now));
+                }
+                if (fetched) {
+                    // The radio is still awake from the search
+                    busy[0] = 0;
+                    prefetch(delay, now, busy);
+                    now += busy[0];
+                }
+                if (wake != null) {
+                    wake.close(now);
+                }
+                next = now + delay;
+            }
+            report.prefetchHits = prefetcher.getHitCount();
+            report.prefetchMisses = prefetcher.getMissCount();
+            locationAcquirer.stop();
+            report.networkCalls = (int) stub.getCallCount();
+            report.payloadBytes = stub.getByteCount();
+            report.wakeMillis = (long) (wakeBudget.getTotalWakeSeconds() * 1000);
+            report.activeFixes = locationSource.getActiveFixCount();
+            report.locationBatches = locationSource.getBatchCount();
+            return report;
+        }
+
+        /**
+         * One search, like the pipeline of the service from the locate to the select stage
+         *
+         * @param now  The time the search starts
+         * @param busy Accumulates the time spent awake
+         * @return The POI to notify, or null
+         */
+        Poi search(long now, long[] busy) throws IOException {
+            int searchRadius = policy.searchRadius;
+            fetched = false;
+            locationAcquirer.start();
+            final LocationFix[] fixes = new LocationFix[1];
+            int activeBefore = locationSource.getActiveFixCount();
+            locationAcquirer.acquire(searchRadius, now, new LocationSource.Callback() {
+                @Override
+                public void onFix(LocationFix fix) {
+                    fixes[0] = fix;
+                }
+
+                @Override
+                public void onError(Exception e) {
+                    fixes[0] = null;
+                }
+            });
+            if (locationSource.getActiveFixCount() > activeBefore) {
+                busy[0] += policy.activeFixMillis;
+            }
+            if (fixes[0] == null) {
+                return null;
+            }
+            SearchCycle.State state = cycle.begin(fixes[0].getLatitude(), fixes[0].getLongitude(), searchRadius,
+                    now + busy[0]);
+            while (true) {
+                switch (cycle.answerLocally(state, now + busy[0])) {
+                    case REGION_PACK:
+                        report.packAnswers++;
+                        return local(state.getPoi());
+                    case CACHE:
+                    case INDEX:
+                        return local(state.getPoi());
+                    case EXHAUSTED:
+                        return null;
+                    case STILL:
+                        report.skippedStill++;
+                        return null;
+                    default:
+                        break;
+                }
+                if (governor.tryAcquire(now + busy[0]) > 0) {
+                    report.throttled++;
+                    return null;
+                }
+                fetch(state, now, busy);
+                if (!cycle.expand(state)) {
+                    Poi poi = cycle.select(state, responseRows, lastCategory);
+                    return poi != null ? persist(poi) : null;
+                }
+            }
+        }
+
+        /**
+         * Query the stub with the query the cycle plans and feed the response to the cycle, like
+         * {@code parseResponse}
+         */
+        void fetch(SearchCycle.State state, long now, long[] busy) throws IOException {
+            String query = cycle.planQuery(state, now + busy[0]);
+            String fullQuery = queryBuilder.build(state.getLatitude(), state.getLongitude(), state.getRadius());
+            report.fullRadiusBytes += stub.measure(fullQuery);
+            report.fullRadiusRequestBytes += OverpassClient.requestBytes(fullQuery);
+            report.requestBytes += OverpassClient.requestBytes(query);
+            HttpUrl url = STUB_URL.newBuilder().addQueryParameter("data", query).build();
+            Buffer body = new Buffer();
+            try (Response response = client.newCall(new Request.Builder().url(url).build()).execute()) {
+                body.writeAll(response.body().source());
+            }
+            busy[0] += policy.requestMillis + body.size() * 1000 / policy.bytesPerSecond;
+            governor.onSuccess();
+            fetched = true;
+            int elements = new OverpassStreamParser().parse(body, poiIndex);
+            cycle.onResponse(state, elements, responseRows, now + busy[0]);
+        }
+
+        /**
+         * Fetch the tiles around where the device will be at the next search, like {@code prefetch}
+         *
+         * @param aheadMillis The delay until the next search
+         * @param now         The time the search ended
+         * @param busy        Accumulates the time spent awake
+         */
+        void prefetch(long aheadMillis, long now, long[] busy) throws IOException {
+            if (policy.prefetchHorizonMillis <= 0) {
+                return;
+            }
+            double[] prediction = prefetcher.predict(aheadMillis, now, now);
+            if (prediction == null) {
+                return;
+            }
+            report.prefetches++;
+            double latitude = prediction[0];
+            double longitude = prediction[1];
+            double radius = cycle.prefetchRadius(prediction, policy.searchRadius, policy.thresholdFraction);
+            double[] boxes = cycle.prefetchBoxes(latitude, longitude, radius, now);
+            if (boxes.length == 0) {
+                prefetcher.onPrefetched(latitude, longitude, radius, 0, now);
+                return;
+            }
+            if (governor.tryAcquire(now) > 0) {
+                report.throttled++;
+                return;
+            }
+            HttpUrl url = STUB_URL.newBuilder().addQueryParameter("data", queryBuilder.buildBoxes(boxes)).build();
+            Buffer body = new Buffer();
+            try (Response response = client.newCall(new Request.Builder().url(url).build()).execute()) {
+                body.writeAll(response.body().source());
+            }
+            long bytes = body.size();
+            busy[0] += policy.requestMillis + bytes * 1000 / policy.bytesPerSecond;
+            governor.onSuccess();
+            cycle.onPrefetchResponse(boxes, new OverpassStreamParser().parse(body, poiIndex), now + busy[0]);
+            prefetcher.onPrefetched(latitude, longitude, radius, bytes, now + busy[0]);
+            report.prefetchBytes += bytes;
+        }
+
+        Poi local(Poi poi) throws IOException {
+            report.localAnswers++;
+            return persist(poi);
+        }
+
+        Poi persist(Poi poi) throws IOException {
+            seenPois.add(poi);
+            lastCategory = PoiRanker.categoryOf(poi);
+            return poi;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        File poisFile = null;
+        List<RegionPack> packs = new ArrayList<>();
+        List<Policy> policies = new ArrayList<>();
+        List<File> traces = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if ("--pois".equals(args[i]) && i + 1 < args.length) {
+                poisFile = new File(args[++i]);
+            } else if ("--pack".equals(args[i]) && i + 1 < args.length) {
+                packs.add(RegionPack.open(new File(args[++i])));
+            } else if ("--policy".equals(args[i]) && i + 1 < args.length) {
+                policies.add(Policy.parse(args[++i]));
+            } else {
+                traces.add(new File(args[i]));
+            }
+        }
+        if (traces.isEmpty()) {
+            System.err.println("Usage: TraceSimulator [--pois overpass.json] [--pack area.pack]... [--policy name:key=value,...]... "
+                    + "trace.gpx|trace.csv...");
+            System.exit(2);
+        }
+        if (policies.isEmpty()) {
+            policies.add(new Policy("service"));
+        }
+        OverpassStub stub;
+        if (poisFile != null) {
+            try (BufferedSource source = Okio.buffer(Okio.source(poisFile))) {
+                stub = OverpassStub.load(source);
+            }
+        } else {
+            stub = OverpassStub.load(new Buffer().writeUtf8(OverpassFixtures.json(20000, 1)));
+        }
+        System.err.println("Answering from " + stub.size() + " POIs");
+        System.out.println(Report.header());
+        for (File file : traces) {
+            GpsTrace trace = GpsTrace.read(file);
+            for (Policy policy : policies) {
+                System.out.println(new TraceSimulator(policy, stub.getPois(), 1).setRegionPacks(packs).run(trace));
+            }
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.spotnear;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import okio.Buffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that {@link GpsTrace} reads GPX and CSV traces and interpolates between their fixes
+ */
+public class GpsTraceTest {
+
+    @Test
+    public void readsGpxTrackPoints() throws IOException {
+        String gpx = "<?xml version=\"1.0\"?>\n<gpx version=\"1.1\"><trk><trkseg>\n"
+                + "<trkpt lat=\"32.0800000\" lon=\"34.7800000\"><ele>20</ele><time>2024-05-01T10:00:00Z</time>"
+                + "<hdop>2</hdop></trkpt>\n"
+                + "<trkpt lon=\"34.7810000\" lat=\"32.0800000\"><time>2024-05-01T12:01:00+02:00</time></trkpt>\n"
+                + "</trkseg></trk></gpx>";
+
+        GpsTrace trace = GpsTrace.readGpx("walk.gpx", new Buffer().writeUtf8(gpx));
+
+        assertEquals(2, trace.size());
+        assertEquals(34.781, trace.get(1).getLongitude(), 1e-9);
+        assertEquals(60_000, trace.getDurationMillis());
+        assertEquals(10f, trace.get(0).getAccuracyMeters(), 0.01f);
+        assertEquals(GpsTrace.DEFAULT_ACCURACY_METERS, trace.get(1).getAccuracyMeters(), 0.01f);
+        // About 94 m in a minute
+        assertEquals(1.57f, trace.get(1).getSpeedMetersPerSecond(), 0.02f);
+    }
+
+    @Test
+    public void readsCsvWithHeaderAndEpochTimes() throws IOException {
+        String csv = "time,latitude,longitude,accuracy\n"
+                + "# recorded on a bike\n"
+                + "1714557600000,32.08,34.78,5\n"
+                + "1714557610000,32.081,34.78,\n";
+
+        GpsTrace trace = GpsTrace.readCsv("ride.csv", new Buffer().writeUtf8(csv));
+
+        assertEquals(2, trace.size());
+        assertEquals(1714557600000L, trace.getStartMillis());
+        assertEquals(5f, trace.get(0).getAccuracyMeters(), 0.01f);
+        assertEquals(111.2, trace.getDistanceMeters(), 0.5);
+        assertEquals(11.1f, trace.get(1).getSpeedMetersPerSecond(), 0.1f);
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsFixesOutOfOrder() throws IOException {
+        GpsTrace.readCsv("bad.csv", new Buffer().writeUtf8("2000,32.08,34.78\n1000,32.08,34.78\n"));
+    }
+
+    @Test
+    public void interpolatesBetweenFixes() throws IOException {
+        GpsTrace trace = GpsTrace.readCsv("line.csv", new Buffer().writeUtf8("0,32.0,34.0\n1000,32.0,34.002\n"));
+
+        LocationFix middle = trace.fixAt(250);
+        assertEquals(34.0005, middle.getLongitude(), 1e-9);
+        assertEquals(250, middle.getElapsedMillis());
+        // Outside the trace, the nearest end
+        assertEquals(34.002, trace.fixAt(5000).getLongitude(), 1e-9);
+        assertEquals(34.0, trace.fixAt(-5000).getLongitude(), 1e-9);
+    }
+}
@@ -0,0 +1,158 @@
+package com.example.spotnear;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+
+import okio.Buffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Replays synthetic traces through {@link TraceSimulator} and checks that the reports reflect
+ * how the device moved and the policy it ran under
+ */
+public class TraceSimulatorTest {
+    private static final long HOUR = 60 * 60 * 1000L;
+    private static final long START = 1714557600000L;
+
+    private static PoiBuffer pois;
+
+    @BeforeClass
+    public static void loadPois() throws IOException {
+        pois = OverpassStub.load(new Buffer().writeUtf8(OverpassFixtures.json(20000, 1))).getPois();
+    }
+
+    /**
+     * A trace heading east from the fixture city center, with a fix every 10 seconds
+     */
+    private static GpsTrace trace(String name, double speedMetersPerSecond, long durationMillis) {
+        LocationFix[] fixes = new LocationFix[(int) (durationMillis / 10_000) + 1];
+        for (int i = 0; i < fixes.length; i++) {
+            double meters = speedMetersPerSecond * i * 10;
+            fixes[i] = new LocationFix(32.05, 34.72 + meters / (GeoUtils.METERS_PER_DEGREE * Math.cos(Math.toRadians(32.05))),
+                    8f, (float) speedMetersPerSecond, START + i * 10_000L);
+        }
+        return new GpsTrace(name, fixes);
+    }
+
+    @Test
+    public void stillDeviceStopsQueryingTheNetwork() throws IOException {
+        TraceSimulator simulator = new TraceSimulator(new TraceSimulator.Policy("service"), pois, 1);
+
+        TraceSimulator.Report still = simulator.run(trace("still", 0, 12 * HOUR));
+        TraceSimulator.Report walk = simulator.run(trace("walk", 1.4, 12 * HOUR));
+
+        assertTrue(still.toString(), still.getNetworkCalls() >= 1);
+        assertTrue(still.toString() + "\n" + walk, walk.getNetworkCalls() > still.getNetworkCalls());
+        assertTrue(walk.getPayloadBytes() > still.getPayloadBytes());
+        // Every POI near a still device is eventually shown from the local caches
+        assertTrue(still.toString(), still.getLocalAnswers() > 0);
+        assertTrue(walk.getNotifications() > 0);
+        assertTrue(walk.getFirstNotificationMillis() >= 0);
+        assertTrue(walk.getFirstNotificationMillis() < HOUR);
+    }
+
+    @Test
+    public void longerIntervalsCostLess() throws IOException {
+        GpsTrace walk = trace("walk", 1.4, 12 * HOUR);
+
+        TraceSimulator.Report hourly = new TraceSimulator(new TraceSimulator.Policy("hourly"), pois, 1).run(walk);
+        TraceSimulator.Report relaxed = new TraceSimulator(
+                TraceSimulator.Policy.parse("relaxed:found=180,retry=30"), pois, 1).run(walk);
+
+        assertTrue(hourly + "\n" + relaxed, relaxed.getSearches() < hourly.getSearches());
+        assertTrue(hourly + "\n" + relaxed, relaxed.getWakeMillis() < hourly.getWakeMillis());
+        assertTrue(relaxed.getNetworkCalls() <= hourly.getNetworkCalls());
+    }
+
+    @Test
+    public void wakeTimeFollowsTheLatencyModel() throws IOException {
+        GpsTrace walk = trace("walk", 1.4, 2 * HOUR);
+
+        TraceSimulator.Report fast = new TraceSimulator(new TraceSimulator.Policy("fast")
+                .setLatencies(1000, 100, 1024 * 1024), pois, 1).run(walk);
+        TraceSimulator.Report slow = new TraceSimulator(new TraceSimulator.Policy("slow")
+                .setLatencies(20_000, 3000, 16 * 1024), pois, 1).run(walk);
+
+        assertEquals(fast.getNetworkCalls(), slow.getNetworkCalls());
+        assertTrue(fast + "\n" + slow, slow.getWakeMillis() > fast.getWakeMillis());
+        assertTrue(slow.getActiveFixes() > 0);
+    }
+
+    @Test
+    public void tileQueriesDownloadLessThanTheFullRadius() throws IOException {
+        // Searches every 2 minutes overlap the circles before them while crossing the city
+        GpsTrace walk = trace("walk", 1.4, 90 * 60 * 1000L);
+
+        TraceSimulator.Report tiles = new TraceSimulator(
+                TraceSimulator.Policy.parse("tiles:found=2,retry=2,prefetch=0"), pois, 1).run(walk);
+        TraceSimulator.Report full = new TraceSimulator(
+                TraceSimulator.Policy.parse("full:found=2,retry=2,tiles=0,prefetch=0"), pois, 1).run(walk);
+
+        assertTrue(tiles + "\n" + full, tiles.getNetworkCalls() > 10);
+        assertTrue(tiles + "\n" + full, tiles.getPayloadBytes() < full.getPayloadBytes());
+        assertTrue(tiles.toString(), tiles.getFullRadiusBytes() > tiles.getPayloadBytes());
+        assertTrue(tiles.toString(), tiles.getBytesSavedPerCall() > 0);
+        // Without tiles every call is the full-radius query
+        assertEquals(full.getPayloadBytes(), full.getFullRadiusBytes());
+        assertEquals(full.getRequestBytes(), full.getFullRadiusRequestBytes());
+        assertEquals(0, full.getBytesSavedPerCall(), 0);
+    }
+
+    @Test
+    public void steadyWalk_isPrefetchedAlongItsTrajectory() throws IOException {
+        GpsTrace walk = trace("walk", 1.4, 90 * 60 * 1000L);
+
+        TraceSimulator.Report prefetch = new TraceSimulator(
+                TraceSimulator.Policy.parse("prefetch:found=2,retry=2"), pois, 1).run(walk);
+        TraceSimulator.Report none = new TraceSimulator(
+                TraceSimulator.Policy.parse("none:found=2,retry=2,prefetch=0"), pois, 1).run(walk);
+
+        assertTrue(prefetch.toString(), prefetch.getPrefetchHits() > 0);
+        assertTrue(prefetch.toString(), prefetch.getPrefetchHitRatio() > 0.5);
+        assertTrue(prefetch + "\n" + none, prefetch.getLocalAnswers() > none.getLocalAnswers());
+        // Prefetches are part of the payload, not on top of it
+        assertTrue(prefetch.toString(), prefetch.getPrefetchBytes() > 0);
+        assertTrue(prefetch.toString(), prefetch.getPrefetchBytes() < prefetch.getPayloadBytes());
+        assertEquals(0, none.getPrefetches());
+        assertEquals(0, none.getPrefetchBytes());
+    }
+
+    @Test
+    public void regionPack_answersBeforeTheNetwork() throws IOException {
+        // An hour's walk stays inside the fixture city the pack holds
+        GpsTrace walk = trace("walk", 1.4, HOUR);
+        RegionPackBuilder builder = new RegionPackBuilder(PoiCategory.DEFAULTS).setBounds(32.0, 34.7, 32.1, 34.8);
+        new OverpassStreamParser().parse(new Buffer().writeUtf8(OverpassFixtures.json(20000, 1)), builder);
+        Buffer pack = new Buffer();
+        builder.write(pack);
+
+        TraceSimulator.Report packed = new TraceSimulator(TraceSimulator.Policy.parse("packed:found=2,retry=2"), pois, 1)
+                .setRegionPacks(Collections.singletonList(new RegionPack(ByteBuffer.wrap(pack.readByteArray()))))
+                .run(walk);
+        TraceSimulator.Report online = new TraceSimulator(TraceSimulator.Policy.parse("online:found=2,retry=2"), pois, 1)
+                .run(walk);
+
+        assertTrue(packed.toString(), packed.getPackAnswers() > 0);
+        assertEquals(packed.getLocalAnswers(), packed.getPackAnswers());
+        assertTrue(packed + "\n" + online, packed.getNetworkCalls() < online.getNetworkCalls());
+        assertEquals(0, online.getPackAnswers());
+    }
+
+    @Test
+    public void runsAreRepeatable() throws IOException {
+        GpsTrace walk = trace("walk", 1.4, 6 * HOUR);
+        TraceSimulator simulator = new TraceSimulator(new TraceSimulator.Policy("service"), pois, 7);
+
+        assertEquals(simulator.run(walk).toString(), simulator.run(walk).toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownPolicyKeys() {
+        TraceSimulator.Policy.parse("bad:speed=3");
+    }
+}